@@ -0,0 +1,171 @@
+package com.teambronto.svc;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The status of a long-running admin operation, such as creating or deleting a table, that runs in the background
+ * (see AdminJobs). An operation runs as a series of phases; each phase's timing is kept here and reported as a span.
+ * Serialized as the body of /htrace-svc/jobs/{id}.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class AdminJob {
+    public enum State { PENDING, RUNNING, SUCCEEDED, FAILED }
+
+    private final String id;
+    private final String kind;
+    private final String target;
+    private final long submittedAt = System.currentTimeMillis();
+    private final List<Phase> phases = new ArrayList<>();
+    private State state = State.PENDING;
+    private String message;
+    private Long finishedAt;
+
+    AdminJob(String id, String kind, String target) {
+        this.id = id;
+        this.kind = kind;
+        this.target = target;
+    }
+
+    @JsonProperty
+    public String getId() {
+        return id;
+    }
+
+    @JsonProperty
+    public String getKind() {
+        return kind;
+    }
+
+    @JsonProperty
+    public String getTarget() {
+        return target;
+    }
+
+    @JsonProperty
+    public long getSubmittedAt() {
+        return submittedAt;
+    }
+
+    @JsonProperty
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return What the operation did, or why it failed; null while it is running
+     */
+    @JsonProperty
+    public synchronized String getMessage() {
+        return message;
+    }
+
+    @JsonProperty
+    public synchronized Long getFinishedAt() {
+        return finishedAt;
+    }
+
+    @JsonProperty
+    public synchronized List<Phase> getPhases() {
+        List<Phase> copy = new ArrayList<>(phases.size());
+        for (Phase phase : phases) {
+            copy.add(phase.copy());
+        }
+        return copy;
+    }
+
+    public synchronized boolean isDone() {
+        return state == State.SUCCEEDED || state == State.FAILED;
+    }
+
+    synchronized void started() {
+        state = State.RUNNING;
+    }
+
+    synchronized void finished(State state, String message) {
+        this.state = state;
+        this.message = message;
+        this.finishedAt = System.currentTimeMillis();
+    }
+
+    synchronized Phase startPhase(String name) {
+        Phase phase = new Phase(name);
+        phases.add(phase);
+        return phase;
+    }
+
+    /**
+     * One step of an admin operation.
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class Phase {
+        private final String name;
+        private final long startedAt;
+        private State state = State.RUNNING;
+        private Long durationMs;
+        private double progress;
+
+        Phase(String name) {
+            this(name, System.currentTimeMillis());
+        }
+
+        private Phase(String name, long startedAt) {
+            this.name = name;
+            this.startedAt = startedAt;
+        }
+
+        @JsonProperty
+        public String getName() {
+            return name;
+        }
+
+        @JsonProperty
+        public long getStartedAt() {
+            return startedAt;
+        }
+
+        @JsonProperty
+        public synchronized State getState() {
+            return state;
+        }
+
+        /**
+         * @return How long the phase took, or null while it is running
+         */
+        @JsonProperty
+        public synchronized Long getDurationMs() {
+            return durationMs;
+        }
+
+        /**
+         * @return How far along the phase is, from 0 to 1
+         */
+        @JsonProperty
+        public synchronized double getProgress() {
+            return progress;
+        }
+
+        public synchronized void setProgress(double progress) {
+            this.progress = Math.max(0, Math.min(1, progress));
+        }
+
+        synchronized void finished(boolean succeeded) {
+            state = succeeded ? State.SUCCEEDED : State.FAILED;
+            durationMs = System.currentTimeMillis() - startedAt;
+            if (succeeded) {
+                progress = 1;
+            }
+        }
+
+        private synchronized Phase copy() {
+            Phase copy = new Phase(name, startedAt);
+            copy.state = state;
+            copy.durationMs = durationMs;
+            copy.progress = progress;
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.teambronto.svc;
+
+import com.github.kristofa.brave.Brave;
+import com.github.kristofa.brave.ServerSpan;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * AdminJobs runs long admin operations, such as creating or deleting a table, on a small background executor so the
+ * request that starts one returns a job ID straight away instead of holding a thread in every service of the chain
+ * for the whole operation. Each phase of a job is reported as a span of the trace of the request that started it.
+ * Finished jobs are forgotten after retentionMs.
+ */
+public class AdminJobs {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AdminJobs.class);
+
+    /** The work of a job */
+    public interface Operation {
+        /**
+         * @param job Runs the operation's phases
+         * @return What the operation did, reported as the job's message
+         * @throws Exception If the operation failed
+         */
+        String run(Runner job) throws Exception;
+    }
+
+    /** The work of one phase */
+    public interface PhaseOperation {
+        void run(AdminJob.Phase phase) throws Exception;
+    }
+
+    /** A condition a phase waits for, such as a table becoming available */
+    public interface Condition {
+        boolean isMet() throws IOException;
+    }
+
+    private final Brave brave;
+    private final ExecutorService executor;
+    private final long pollIntervalMs;
+    private final long phaseTimeoutMs;
+    private final long retentionMs;
+    private final Map<String, AdminJob> jobs = new ConcurrentHashMap<>();
+
+    /**
+     * @param brave Traces each phase
+     * @param executor Runs the jobs
+     * @param pollIntervalMs How often a phase checks whether HBase has finished
+     * @param phaseTimeoutMs How long a phase waits for HBase to finish
+     * @param retentionMs How long a finished job can still be looked up
+     */
+    public AdminJobs(Brave brave, ExecutorService executor, long pollIntervalMs, long phaseTimeoutMs,
+                     long retentionMs) {
+        this.brave = brave;
+        this.executor = executor;
+        this.pollIntervalMs = pollIntervalMs;
+        this.phaseTimeoutMs = phaseTimeoutMs;
+        this.retentionMs = retentionMs;
+    }
+
+    /**
+     * @param id The job's ID
+     * @return The job, or null if there is no such job or it finished too long ago
+     */
+    public AdminJob get(String id) {
+        return jobs.get(id);
+    }
+
+    /**
+     * Starts an operation in the background.
+     * @param kind What the operation is, e.g. create-table
+     * @param target What the operation works on, e.g. the table's name
+     * @param operation The operation
+     * @return The job, which is PENDING or already RUNNING
+     */
+    public AdminJob submit(String kind, String target, Operation operation) {
+        expire();
+        AdminJob job = new AdminJob(UUID.randomUUID().toString(), kind, target);
+        jobs.put(job.getId(), job);
+        // Carry the request's trace over, so the phases show up under the request that started the job.
+        ServerSpan parent = brave.serverSpanThreadBinder().getCurrentServerSpan();
+        try {
+            executor.execute(() -> run(job, operation, parent));
+        } catch (RejectedExecutionException e) {
+            job.finished(AdminJob.State.FAILED, "the service is shutting down");
+        }
+        return job;
+    }
+
+    private void run(AdminJob job, Operation operation, ServerSpan parent) {
+        brave.serverSpanThreadBinder().setCurrentSpan(parent);
+        job.started();
+        try {
+            job.finished(AdminJob.State.SUCCEEDED, operation.run(new Runner(job)));
+        } catch (Exception e) {
+            LOGGER.warn("Admin job {} ({} {}) failed", job.getId(), job.getKind(), job.getTarget(), e);
+            job.finished(AdminJob.State.FAILED, e.toString());
+        } finally {
+            brave.serverSpanThreadBinder().setCurrentSpan(null);
+        }
+    }
+
+    private void expire() {
+        long cutoff = System.currentTimeMillis() - retentionMs;
+        jobs.values().removeIf(job -> {
+            Long finishedAt = job.getFinishedAt();
+            return finishedAt != null && finishedAt < cutoff;
+        });
+    }
+
+    /**
+     * Runs the phases of one job.
+     */
+    public class Runner {
+        private final AdminJob job;
+
+        private Runner(AdminJob job) {
+            this.job = job;
+        }
+
+        /**
+         * Runs one phase of the job, timing and tracing it.
+         * @param name The phase's name, e.g. disable-table
+         * @param operation The phase's work
+         * @throws Exception If the phase failed, which fails the job
+         */
+        public void phase(String name, PhaseOperation operation) throws Exception {
+            AdminJob.Phase phase = job.startPhase(name);
+            brave.localTracer().startNewSpan("admin-job", name);
+            brave.localTracer().submitBinaryAnnotation("admin.job.id", job.getId());
+            boolean succeeded = false;
+            try {
+                operation.run(phase);
+                succeeded = true;
+            } finally {
+                phase.finished(succeeded);
+                brave.localTracer().finishSpan();
+            }
+        }
+
+        /**
+         * Waits for HBase to finish something a phase started, such as an asynchronous table creation.
+         * @param phase The phase that is waiting
+         * @param condition Whether HBase has finished
+         * @throws TimeoutException If HBase hasn't finished within the phase timeout
+         * @throws InterruptedException If the service is shutting down
+         * @throws IOException If HBase can't be reached
+         */
+        public void await(AdminJob.Phase phase, Condition condition)
+                throws TimeoutException, InterruptedException, IOException {
+            long start = System.currentTimeMillis();
+            while (!condition.isMet()) {
+                long waited = System.currentTimeMillis() - start;
+                if (waited > phaseTimeoutMs) {
+                    throw new TimeoutException(phase.getName() + " didn't finish within " + phaseTimeoutMs + " ms");
+                }
+                // HBase doesn't report how far along it is, so show the time used out of the timeout.
+                phase.setProgress(Math.min(0.99, (double) waited / phaseTimeoutMs));
+                TimeUnit.MILLISECONDS.sleep(pollIntervalMs);
+            }
+        }
+    }
+}
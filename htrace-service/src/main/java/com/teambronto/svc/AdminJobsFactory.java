@@ -0,0 +1,50 @@
+package com.teambronto.svc;
+
+import com.github.kristofa.brave.Brave;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.setup.Environment;
+
+import javax.validation.constraints.Min;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The adminJobs block of htrace-service.yml. Table creation and deletion run as background jobs on a few threads of
+ * their own.
+ */
+public class AdminJobsFactory {
+    /** Number of admin jobs run at once; the rest wait their turn */
+    @Min(1)
+    @JsonProperty
+    private int threads = 2;
+
+    /** How often a job checks whether HBase has finished a phase */
+    @Min(1)
+    @JsonProperty
+    private long pollIntervalMs = 500;
+
+    /** How long a job waits for HBase to finish a phase */
+    @Min(1)
+    @JsonProperty
+    private long phaseTimeoutMs = 600000;
+
+    /** How long a finished job can still be looked up */
+    @Min(1)
+    @JsonProperty
+    private long retentionMinutes = 60;
+
+    /**
+     * Builds the job runner on an executor managed by the environment.
+     * @param brave Traces each phase
+     * @param environment The environment the executor is managed by
+     * @return The job runner
+     */
+    public AdminJobs build(Brave brave, Environment environment) {
+        ExecutorService executor = environment.lifecycle().executorService("htrace-admin-job-%d")
+                .minThreads(threads)
+                .maxThreads(threads)
+                .build();
+        return new AdminJobs(brave, executor, pollIntervalMs, phaseTimeoutMs,
+                TimeUnit.MINUTES.toMillis(retentionMinutes));
+    }
+}
@@ -0,0 +1,88 @@
+package com.teambronto.svc;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Min;
+
+/**
+ * The admissionControl block of htrace-service.yml. Sets the adaptive limit on concurrent requests to HBase.
+ */
+public class AdmissionControlFactory {
+    @JsonProperty
+    private boolean enabled = true;
+
+    @Min(1)
+    @JsonProperty
+    private int initialLimit = 20;
+
+    @Min(1)
+    @JsonProperty
+    private int minLimit = 4;
+
+    @Min(1)
+    @JsonProperty
+    private int maxLimit = 500;
+
+    /** How much of each window's new limit is applied */
+    @DecimalMin("0.01")
+    @DecimalMax("1.0")
+    @JsonProperty
+    private double smoothing = 0.2;
+
+    /** How much slower than usual HBase calls may get before the limit shrinks */
+    @DecimalMin("1.0")
+    @JsonProperty
+    private double tolerance = 1.5;
+
+    /** HBase calls per limit update */
+    @Min(1)
+    @JsonProperty
+    private int windowSize = 100;
+
+    /** Windows the long-term HBase latency is averaged over */
+    @Min(1)
+    @JsonProperty
+    private int longWindows = 20;
+
+    /** Longest a request waits for a permit before it is rejected */
+    @Min(0)
+    @JsonProperty
+    private long maxQueueMs = 50;
+
+    @Min(1)
+    @JsonProperty
+    private long retryAfterSeconds = 1;
+
+    /**
+     * Builds the limiter and registers its metrics, or returns null if admission control is disabled.
+     * @param metrics The registry the limit, in-flight count and latency baseline are added to
+     * @return The limiter, or null
+     */
+    public GradientLimiter buildLimiter(MetricRegistry metrics) {
+        if (!enabled) {
+            return null;
+        }
+        GradientLimiter limiter = new GradientLimiter(initialLimit, minLimit, maxLimit, smoothing, tolerance,
+                windowSize, longWindows);
+        metrics.register(MetricRegistry.name(GradientLimiter.class, "limit"), (Gauge<Integer>) limiter::getLimit);
+        metrics.register(MetricRegistry.name(GradientLimiter.class, "inflight"),
+                (Gauge<Integer>) limiter::getInflight);
+        metrics.register(MetricRegistry.name(GradientLimiter.class, "long-rtt-ms"),
+                (Gauge<Double>) limiter::getLongRttMs);
+        return limiter;
+    }
+
+    /**
+     * Builds the filter that takes permits from the limiter.
+     * @param limiter The limiter
+     * @param metrics The registry the queue time and rejections are added to
+     * @return The filter
+     */
+    public AdmissionControlFilter buildFilter(GradientLimiter limiter, MetricRegistry metrics) {
+        return new AdmissionControlFilter(limiter, maxQueueMs, retryAfterSeconds, metrics);
+    }
+}
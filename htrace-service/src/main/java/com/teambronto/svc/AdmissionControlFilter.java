@@ -0,0 +1,80 @@
+package com.teambronto.svc;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import javax.annotation.Priority;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lets a request through to HBase only while the GradientLimiter has a permit for it. A request that finds the
+ * limit reached waits up to maxQueueMs and is then rejected with a 503 and Retry-After, so overload shows up as fast
+ * rejections instead of ever slower responses.
+ */
+@AdmissionControlled
+@Priority(Priorities.USER)
+public class AdmissionControlFilter implements ContainerRequestFilter, ContainerResponseFilter {
+    private static final String PERMIT = AdmissionControlFilter.class.getName() + ".permit";
+
+    private final GradientLimiter limiter;
+    private final long maxQueueMs;
+    private final long retryAfterSeconds;
+    private final Timer queued;
+    private final Meter rejected;
+
+    /**
+     * @param limiter The limiter permits are taken from
+     * @param maxQueueMs The longest a request waits for a permit
+     * @param retryAfterSeconds The Retry-After sent with rejections
+     * @param metrics The registry the queue time and rejections are added to
+     */
+    public AdmissionControlFilter(GradientLimiter limiter, long maxQueueMs, long retryAfterSeconds,
+                                  MetricRegistry metrics) {
+        this.limiter = limiter;
+        this.maxQueueMs = maxQueueMs;
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.queued = metrics.timer(MetricRegistry.name(AdmissionControlFilter.class, "queued"));
+        this.rejected = metrics.meter(MetricRegistry.name(AdmissionControlFilter.class, "rejected"));
+    }
+
+    @Override
+    public void filter(ContainerRequestContext request) throws IOException {
+        long start = System.nanoTime();
+        boolean admitted;
+        try {
+            admitted = limiter.tryAcquire(maxQueueMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            admitted = false;
+        }
+        queued.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        if (!admitted) {
+            rejected.mark();
+            request.abortWith(Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, retryAfterSeconds)
+                    .type(MediaType.APPLICATION_JSON)
+                    .entity(String.format("{\"error\":\"overloaded\",\"limit\":%d}", limiter.getLimit()))
+                    .build());
+            return;
+        }
+        request.setProperty(PERMIT, Boolean.TRUE);
+    }
+
+    @Override
+    public void filter(ContainerRequestContext request, ContainerResponseContext response) throws IOException {
+        if (request.getProperty(PERMIT) != null) {
+            request.removeProperty(PERMIT);
+            limiter.release();
+        }
+    }
+}
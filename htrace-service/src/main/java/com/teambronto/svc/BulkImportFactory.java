@@ -0,0 +1,40 @@
+package com.teambronto.svc;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.github.kristofa.brave.Brave;
+import org.apache.hadoop.hbase.client.Connection;
+
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+
+/**
+ * The bulkImport block of htrace-service.yml: how much of an import is held in memory at a time.
+ */
+public class BulkImportFactory {
+    /** Size of each table's write buffer; a full buffer is sent to HBase on its own */
+    @Min(1)
+    @Max(1024)
+    @JsonProperty
+    private int writeBufferMb = 8;
+
+    /** Employees written between flushes. Rows are announced on the change feed after each flush. */
+    @Min(1)
+    @JsonProperty
+    private int batchRows = 1000;
+
+    /** Longest line kept; longer ones are skipped */
+    @Min(64)
+    @JsonProperty
+    private int maxLineBytes = 65536;
+
+    /**
+     * @param conn The connection the imports write through
+     * @param brave The Brave instance the flushes are traced with
+     * @param metrics The registry the importer's metrics are added to
+     * @return The importer
+     */
+    public BulkImporter build(Connection conn, Brave brave, MetricRegistry metrics) {
+        return new BulkImporter(conn, brave, metrics, writeBufferMb * 1024L * 1024L, batchRows, maxLineBytes);
+    }
+}
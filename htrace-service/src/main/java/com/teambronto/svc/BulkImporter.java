@@ -0,0 +1,369 @@
+package com.teambronto.svc;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.github.kristofa.brave.Brave;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.BufferedMutator;
+import org.apache.hadoop.hbase.client.BufferedMutatorParams;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.RetriesExhaustedWithDetailsException;
+import org.apache.hadoop.hbase.client.Row;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * BulkImporter writes a stream of employees to HBase as it arrives. The stream is NDJSON, one employee object per
+ * line:
+ *
+ *   {"row":"42","first":"Ada","last":"Lovelace","email":"ada@example.com"}
+ *
+ * Lines are parsed one at a time into a reused buffer, and the writes go out through BufferedMutators in batches of
+ * batchRows, so an import holds at most one line and one batch in memory however large the stream is. The next line
+ * isn't read until HBase has taken the previous batch: when HBase is slow the request body stops being read, and TCP
+ * slows the client down in turn.
+ *
+ * A line that isn't a complete employee is skipped and counted; it doesn't stop the import. Rows written before the
+ * stream fails stay written.
+ */
+public class BulkImporter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(BulkImporter.class);
+    private static final JsonFactory JSON = new JsonFactory();
+
+    /** One employee of an import */
+    public static final class Employee {
+        private String row;
+        private String first;
+        private String last;
+        private String email;
+
+        public String getRow() {
+            return row;
+        }
+
+        public String getFirst() {
+            return first;
+        }
+
+        public String getLast() {
+            return last;
+        }
+
+        public String getEmail() {
+            return email;
+        }
+    }
+
+    private final Connection conn;
+    private final Brave brave;
+    private final long writeBufferBytes;
+    private final int batchRows;
+    private final int maxLineBytes;
+    private final Meter rows;
+    private final Meter rejected;
+    private final Meter failed;
+    private final Timer flushTimer;
+
+    BulkImporter(Connection conn, Brave brave, MetricRegistry metrics, long writeBufferBytes, int batchRows,
+                 int maxLineBytes) {
+        this.conn = conn;
+        this.brave = brave;
+        this.writeBufferBytes = writeBufferBytes;
+        this.batchRows = batchRows;
+        this.maxLineBytes = maxLineBytes;
+        this.rows = metrics.meter(MetricRegistry.name(BulkImporter.class, "rows"));
+        this.rejected = metrics.meter(MetricRegistry.name(BulkImporter.class, "rejected"));
+        this.failed = metrics.meter(MetricRegistry.name(BulkImporter.class, "failed"));
+        this.flushTimer = metrics.timer(MetricRegistry.name(BulkImporter.class, "flush"));
+    }
+
+    /**
+     * Imports every employee in a stream.
+     * @param in The NDJSON stream; it is read to the end but not closed
+     * @param writes Turns an employee into the writes that store it, in the order they must reach HBase
+     * @param written Told the ID of each employee once its writes have been flushed
+     * @return What was imported
+     * @throws IOException If the stream couldn't be read or HBase couldn't be reached
+     */
+    public ImportSummary importFrom(InputStream in, Function<Employee, WriteBehindBuffer.PendingWrite> writes,
+                                    Consumer<String> written) throws IOException {
+        ImportSummary summary = new ImportSummary();
+        Map<TableName, BufferedMutator> mutators = new LinkedHashMap<>();
+        Batch batch = new Batch(batchRows);
+        LineReader lines = new LineReader(in, maxLineBytes);
+        try {
+            long line = 0;
+            while (lines.next()) {
+                line++;
+                if (lines.isBlank()) {
+                    continue;
+                }
+                Employee employee;
+                try {
+                    employee = lines.isTooLong() ? null : parse(lines.buffer(), lines.length());
+                } catch (JsonProcessingException e) {
+                    summary.rejected(line, e.getOriginalMessage());
+                    rejected.mark();
+                    continue;
+                } catch (IOException e) {
+                    summary.rejected(line, e.getMessage());
+                    rejected.mark();
+                    continue;
+                }
+                if (employee == null) {
+                    summary.rejected(line, lines.isTooLong() ? "longer than " + maxLineBytes + " bytes"
+                            : "row, first, last and email are all required");
+                    rejected.mark();
+                    continue;
+                }
+
+                // Each table's mutator sends its writes on when its buffer fills, and blocks while HBase is behind.
+                List<IOException> failure = new ArrayList<>(1);
+                writes.apply(employee).forEach((table, mutation) -> {
+                    batch.rowOf.put(mutation, employee.getRow());
+                    try {
+                        mutator(table, mutators, summary, batch).mutate(mutation);
+                    } catch (IOException e) {
+                        failure.add(e);
+                    }
+                });
+                if (!failure.isEmpty()) {
+                    throw failure.get(0);
+                }
+                batch.rows.add(employee.getRow());
+                if (batch.rows.size() >= batchRows) {
+                    flush(batch, mutators, summary, written);
+                }
+            }
+            flush(batch, mutators, summary, written);
+        } finally {
+            for (BufferedMutator mutator : mutators.values()) {
+                try {
+                    mutator.close();
+                } catch (IOException e) {
+                    LOGGER.error("Failed to close BufferedMutator for " + mutator.getName(), e);
+                }
+            }
+            summary.finished();
+        }
+        return summary;
+    }
+
+    private BufferedMutator mutator(TableName table, Map<TableName, BufferedMutator> mutators,
+                                    ImportSummary summary, Batch batch) throws IOException {
+        BufferedMutator mutator = mutators.get(table);
+        if (mutator == null) {
+            // Writes HBase gave up on are counted rather than ending the import, and so are their employees.
+            mutator = conn.getBufferedMutator(new BufferedMutatorParams(table)
+                    .writeBufferSize(writeBufferBytes)
+                    .listener((RetriesExhaustedWithDetailsException e, BufferedMutator m) -> {
+                        summary.failed(e.getNumExceptions(), table + ": " + e.getMessage());
+                        failed.mark(e.getNumExceptions());
+                        for (int i = 0; i < e.getNumExceptions(); i++) {
+                            String row = batch.rowOf.get(e.getRow(i));
+                            if (row != null) {
+                                batch.failed.add(row);
+                            }
+                        }
+                    }));
+            mutators.put(table, mutator);
+        }
+        return mutator;
+    }
+
+    /**
+     * Flushes a batch, then announces its rows. Tables are flushed in the order they were first written to; a
+     * table whose buffer filled earlier has already sent part of the batch, so the order only holds per flush.
+     * Employees with a refused write are announced too, since their other writes may have gone through.
+     */
+    private void flush(Batch batch, Map<TableName, BufferedMutator> mutators, ImportSummary summary,
+                       Consumer<String> written) throws IOException {
+        if (batch.rows.isEmpty()) {
+            return;
+        }
+        brave.localTracer().startNewSpan("import", "flush");
+        brave.localTracer().submitBinaryAnnotation("import.rows", Integer.toString(batch.rows.size()));
+        try (Timer.Context ignored = flushTimer.time()) {
+            for (BufferedMutator mutator : mutators.values()) {
+                mutator.flush();
+            }
+        } finally {
+            brave.localTracer().finishSpan();
+        }
+        int refused = batch.failed.size();
+        summary.written(batch.rows.size(), refused);
+        rows.mark(batch.rows.size() - refused);
+        batch.rows.forEach(written);
+        batch.clear();
+    }
+
+    /**
+     * Reads one employee object.
+     * @return The employee, or null if any of its fields is missing
+     * @throws IOException If the line isn't a JSON object
+     */
+    private static Employee parse(byte[] line, int length) throws IOException {
+        Employee employee = new Employee();
+        try (JsonParser parser = JSON.createParser(line, 0, length)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("not a JSON object");
+            }
+            JsonToken token;
+            while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (!value.isScalarValue()) {
+                    // Unknown nested values are skipped without being read into memory.
+                    parser.skipChildren();
+                    continue;
+                }
+                switch (field) {
+                    case "row":
+                        employee.row = parser.getText();
+                        break;
+                    case "first":
+                        employee.first = parser.getText();
+                        break;
+                    case "last":
+                        employee.last = parser.getText();
+                        break;
+                    case "email":
+                        employee.email = parser.getText();
+                        break;
+                    default:
+                        break;
+                }
+            }
+            if (token != JsonToken.END_OBJECT || parser.nextToken() != null) {
+                throw new IOException("not a single JSON object");
+            }
+        }
+        if (employee.row == null || employee.first == null || employee.last == null || employee.email == null) {
+            return null;
+        }
+        return employee;
+    }
+
+    /**
+     * The employees written since the last flush, and those HBase refused a write of. A failed write is traced
+     * back to its employee through the mutation object the listener is handed back.
+     */
+    private static final class Batch {
+        private final List<String> rows;
+        private final Map<Row, String> rowOf = new IdentityHashMap<>();
+        private final Set<String> failed = new HashSet<>();
+
+        Batch(int batchRows) {
+            this.rows = new ArrayList<>(batchRows);
+        }
+
+        void clear() {
+            rows.clear();
+            rowOf.clear();
+            failed.clear();
+        }
+    }
+
+    /**
+     * Splits a stream into lines through two fixed buffers, one for reading and one for the current line. A line
+     * longer than the line buffer is read to its end but not kept.
+     */
+    private static final class LineReader {
+        private final InputStream in;
+        private final byte[] chunk = new byte[8192];
+        private final byte[] line;
+        private int position;
+        private int limit;
+        private int length;
+        private boolean tooLong;
+
+        LineReader(InputStream in, int maxLineBytes) {
+            this.in = in;
+            this.line = new byte[maxLineBytes];
+        }
+
+        /**
+         * Reads the next line.
+         * @return false at the end of the stream
+         */
+        boolean next() throws IOException {
+            length = 0;
+            tooLong = false;
+            boolean read = false;
+            while (true) {
+                if (position == limit) {
+                    int n = in.read(chunk);
+                    if (n < 0) {
+                        return read;
+                    }
+                    position = 0;
+                    limit = n;
+                    continue;
+                }
+                read = true;
+                int start = position;
+                while (position < limit && chunk[position] != '\n') {
+                    position++;
+                }
+                append(start, position - start);
+                if (position < limit) {
+                    position++;
+                    if (length > 0 && line[length - 1] == '\r') {
+                        length--;
+                    }
+                    return true;
+                }
+            }
+        }
+
+        private void append(int start, int count) {
+            if (tooLong || length + count > line.length) {
+                tooLong = true;
+                return;
+            }
+            System.arraycopy(chunk, start, line, length, count);
+            length += count;
+        }
+
+        boolean isTooLong() {
+            return tooLong;
+        }
+
+        boolean isBlank() {
+            if (tooLong) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (!Character.isWhitespace(line[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        byte[] buffer() {
+            return line;
+        }
+
+        int length() {
+            return length;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.teambronto.svc;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * ChangeFeed is the list of employee rows written through this instance, numbered in the order they were written.
+ * Other instances and the relays poll it (see ChangeFeedSubscriber) to drop exactly the rows that changed from their
+ * caches.
+ *
+ * Only the last `capacity` changes are kept. A subscriber that falls further behind than that, or that sees a new
+ * epoch because this instance restarted, is told to reset and must drop everything.
+ */
+public class ChangeFeed {
+    private final String epoch = UUID.randomUUID().toString();
+    private final String[] rows;
+    private final List<Runnable> waiters = new ArrayList<>();
+    /** The sequence number of the newest change; 0 before the first one */
+    private long latest;
+
+    /**
+     * @param capacity The number of changes kept
+     * @param metrics The registry the feed's position is added to
+     */
+    public ChangeFeed(int capacity, MetricRegistry metrics) {
+        this.rows = new String[capacity];
+        metrics.register(MetricRegistry.name(ChangeFeed.class, "latest"), (Gauge<Long>) this::getLatest);
+    }
+
+    public synchronized long getLatest() {
+        return latest;
+    }
+
+    /**
+     * Records that a row was written.
+     * @param rowId The employee ID of the row
+     */
+    public void publish(String rowId) {
+        List<Runnable> woken;
+        synchronized (this) {
+            latest++;
+            rows[(int) (latest % rows.length)] = rowId;
+            woken = new ArrayList<>(waiters);
+            waiters.clear();
+        }
+        woken.forEach(Runnable::run);
+    }
+
+    /**
+     * Records that every row may have changed, for example because the table was dropped.
+     */
+    public void publishAll() {
+        publish(null);
+    }
+
+    /**
+     * Runs a callback once there are changes after a sequence number: straight away if there already are, otherwise
+     * on the next publish.
+     * @param since The last sequence number the caller has seen
+     * @param onChange The callback
+     */
+    public void await(long since, Runnable onChange) {
+        synchronized (this) {
+            if (latest <= since) {
+                waiters.add(onChange);
+                return;
+            }
+        }
+        onChange.run();
+    }
+
+    /**
+     * Reads the changes after a sequence number as JSON:
+     * {"epoch":..,"latest":..,"reset":..,"changes":[{"seq":..,"row":..}]}. A null row means every row changed.
+     * @param since The last sequence number the caller has seen, or a negative number to only learn the latest one
+     * @param limit The most changes returned
+     * @return The changes
+     */
+    public String read(long since, int limit) {
+        StringBuilder json = new StringBuilder(64);
+        synchronized (this) {
+            long oldest = Math.max(1, latest - rows.length + 1);
+            boolean reset = since >= 0 && (since + 1 < oldest || since > latest);
+            long from = since < 0 ? latest + 1 : reset ? oldest : since + 1;
+            long to = Math.min(latest, from + limit - 1);
+            json.append(String.format("{\"epoch\":\"%s\",\"latest\":%d,\"reset\":%b,\"changes\":[",
+                    epoch, since < 0 ? latest : Math.max(to, from - 1), reset));
+            for (long seq = from; seq <= to; seq++) {
+                if (seq > from) {
+                    json.append(',');
+                }
+                String row = rows[(int) (seq % rows.length)];
+                json.append("{\"seq\":").append(seq).append(",\"row\":");
+                if (row == null) {
+                    json.append("null");
+                } else {
+                    json.append('"').append(JsonStringEncoder.getInstance().quoteAsString(row)).append('"');
+                }
+                json.append('}');
+            }
+        }
+        return json.append("]}").toString();
+    }
+}
@@ -0,0 +1,57 @@
+package com.teambronto.svc;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The changeFeed block of htrace-service.yml. Sets how many changes this instance keeps for its subscribers and which
+ * other htrace-service instances it follows to keep its own row cache coherent.
+ */
+public class ChangeFeedFactory {
+    /** Changes kept for subscribers that fall behind */
+    @Min(1)
+    @JsonProperty
+    private int capacity = 100000;
+
+    /** Base URLs of the other htrace-service instances, whose writes are dropped from our row cache */
+    @NotNull
+    @JsonProperty
+    private List<String> peers = new ArrayList<>();
+
+    /** How long each poll of a peer's feed waits for a change */
+    @Min(1)
+    @JsonProperty
+    private long pollTimeoutMs = 30000;
+
+    /** The most changes read per poll */
+    @Min(1)
+    @JsonProperty
+    private int batchSize = 1000;
+
+    boolean hasPeers() {
+        return !peers.isEmpty();
+    }
+
+    public ChangeFeed buildFeed(MetricRegistry metrics) {
+        return new ChangeFeed(capacity, metrics);
+    }
+
+    /**
+     * Builds the subscriber that follows the peers' feeds, or returns null if there are no peers or nothing to
+     * invalidate.
+     * @param rowCache The cache to drop peers' writes from, or null
+     * @param metrics The registry the subscriber's metrics are added to
+     * @return The subscriber, which still has to be started, or null
+     */
+    public ChangeFeedSubscriber buildSubscriber(RowCache rowCache, MetricRegistry metrics) {
+        if (peers.isEmpty() || rowCache == null) {
+            return null;
+        }
+        return new ChangeFeedSubscriber(() -> peers, rowCache, pollTimeoutMs, batchSize, metrics, "peers");
+    }
+}
@@ -0,0 +1,221 @@
+package com.teambronto.svc;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.github.kristofa.brave.Brave;
+import com.github.kristofa.brave.ServerSpan;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ClusterRouter decides which HBase cluster each call goes to. Writes, and anything else that isn't a plain read, go
+ * to the primary. Reads go to the cluster with the lowest expected cost (see HBaseCluster), and with hedgeAfterMs set
+ * a read that hasn't answered in that time is also sent to the next best cluster; the first answer wins. A read that
+ * fails before its hedge is sent is retried on the next best cluster straight away.
+ *
+ * The clusters are plain Connections, so the router works the same over real clusters, mini-clusters or in-memory
+ * stand-ins.
+ */
+public class ClusterRouter {
+    /**
+     * Set this attribute on a Get or Scan to send it to the primary. Used when a read decides what to write, since
+     * the other clusters are replicated asynchronously and may be behind.
+     */
+    public static final String PRIMARY_ONLY = "htrace.primary-only";
+
+    /** A call made to one cluster */
+    public interface ClusterCall<T> {
+        T call(HBaseCluster cluster) throws IOException;
+    }
+
+    private final Brave brave;
+    private final HBaseCluster primary;
+    private final List<HBaseCluster> clusters;
+    private final boolean routeReads;
+    private final double errorPenalty;
+    private final long hedgeAfterMs;
+    private final ExecutorService hedgeExecutor;
+    private final Meter hedgesSent;
+    private final Meter hedgesWon;
+
+    /**
+     * @param brave The Brave instance the chosen cluster is annotated with
+     * @param primary The cluster writes go to
+     * @param others The other clusters reads may go to
+     * @param routeReads False to send reads to the primary too
+     * @param errorPenalty How much a cluster that always fails costs, as a multiple of one that never does
+     * @param hedgeAfterMs How long a read waits before it is also sent to another cluster, or 0 to never hedge
+     * @param hedgeExecutor Runs hedged reads; unused if hedgeAfterMs is 0
+     * @param metrics The registry the router's metrics are added to
+     */
+    public ClusterRouter(Brave brave, HBaseCluster primary, List<HBaseCluster> others, boolean routeReads,
+                         double errorPenalty, long hedgeAfterMs, ExecutorService hedgeExecutor,
+                         MetricRegistry metrics) {
+        this.brave = brave;
+        this.primary = primary;
+        List<HBaseCluster> all = new ArrayList<>(others.size() + 1);
+        all.add(primary);
+        all.addAll(others);
+        this.clusters = Collections.unmodifiableList(all);
+        this.routeReads = routeReads;
+        this.errorPenalty = errorPenalty;
+        this.hedgeAfterMs = hedgeAfterMs;
+        this.hedgeExecutor = hedgeExecutor;
+        this.hedgesSent = metrics.meter(MetricRegistry.name(ClusterRouter.class, "hedges-sent"));
+        this.hedgesWon = metrics.meter(MetricRegistry.name(ClusterRouter.class, "hedges-won"));
+    }
+
+    public HBaseCluster getPrimary() {
+        return primary;
+    }
+
+    /**
+     * @return Every cluster, the primary first
+     */
+    public List<HBaseCluster> getClusters() {
+        return clusters;
+    }
+
+    /**
+     * Picks the cluster for the next read, avoiding one cluster if there is any other.
+     * @param exclude The cluster to avoid, or null
+     * @return The cluster
+     */
+    public HBaseCluster choose(HBaseCluster exclude) {
+        if (!routeReads) {
+            return primary;
+        }
+        HBaseCluster best = null;
+        double bestCost = Double.MAX_VALUE;
+        for (HBaseCluster cluster : clusters) {
+            if (cluster == exclude) {
+                continue;
+            }
+            double cost = cluster.cost(errorPenalty);
+            if (cost < bestCost) {
+                best = cluster;
+                bestCost = cost;
+            }
+        }
+        return best != null ? best : exclude;
+    }
+
+    /**
+     * Makes a call on the primary and records how it went.
+     * @param call The call
+     * @return What the call returned
+     * @throws IOException If the call failed
+     */
+    public <T> T write(ClusterCall<T> call) throws IOException {
+        return call(primary, call);
+    }
+
+    /**
+     * Makes a read on the best cluster, hedging it if that is enabled.
+     * @param hedge False for reads that can't be repeated or abandoned, such as opening a scanner
+     * @param call The read
+     * @return What the read returned
+     * @throws IOException If the read failed on every cluster it was sent to
+     */
+    public <T> T read(boolean hedge, ClusterCall<T> call) throws IOException {
+        HBaseCluster first = choose(null);
+        if (!hedge || hedgeAfterMs <= 0 || !routeReads || clusters.size() < 2) {
+            T result = call(first, call);
+            annotate(first);
+            return result;
+        }
+
+        ServerSpan parent = brave.serverSpanThreadBinder().getCurrentServerSpan();
+        ExecutorCompletionService<T> racing = new ExecutorCompletionService<>(hedgeExecutor);
+        List<Future<T>> sent = new ArrayList<>(2);
+        List<HBaseCluster> targets = new ArrayList<>(2);
+        sent.add(racing.submit(() -> callWithParent(first, call, parent)));
+        targets.add(first);
+        Throwable failure = null;
+        try {
+            int outstanding = 1;
+            while (outstanding > 0) {
+                Future<T> done = sent.size() > 1 ? racing.take() : racing.poll(hedgeAfterMs, TimeUnit.MILLISECONDS);
+                if (done != null) {
+                    outstanding--;
+                    try {
+                        T result = done.get();
+                        HBaseCluster winner = targets.get(sent.indexOf(done));
+                        if (winner != first) {
+                            hedgesWon.mark();
+                        }
+                        annotate(winner);
+                        return result;
+                    } catch (ExecutionException e) {
+                        failure = e.getCause();
+                    }
+                }
+                if (sent.size() == 1) {
+                    // Too slow or failed: try the next best cluster.
+                    HBaseCluster second = choose(first);
+                    sent.add(racing.submit(() -> callWithParent(second, call, parent)));
+                    targets.add(second);
+                    outstanding++;
+                    hedgesSent.mark();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a hedged read");
+        } finally {
+            sent.forEach(future -> future.cancel(true));
+        }
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        throw new IOException("Hedged read failed", failure);
+    }
+
+    private void annotate(HBaseCluster cluster) {
+        brave.serverTracer().submitBinaryAnnotation("hbase.cluster", cluster.getName());
+    }
+
+    /**
+     * Makes a call on another thread as part of the request's trace.
+     */
+    private <T> T callWithParent(HBaseCluster cluster, ClusterCall<T> call, ServerSpan parent) throws IOException {
+        brave.serverSpanThreadBinder().setCurrentSpan(parent);
+        try {
+            return call(cluster, call);
+        } finally {
+            brave.serverSpanThreadBinder().setCurrentSpan(null);
+        }
+    }
+
+    private static <T> T call(HBaseCluster cluster, ClusterCall<T> call) throws IOException {
+        long started = cluster.begin();
+        Throwable error = null;
+        try {
+            return call.call(cluster);
+        } catch (Throwable e) { // Errors too, so the cluster's outstanding count always comes back down.
+            error = e;
+            throw e;
+        } finally {
+            if (error == null) {
+                cluster.succeeded(started);
+            } else if (Thread.currentThread().isInterrupted() || error instanceof InterruptedIOException) {
+                // Lost a hedge race.
+                cluster.cancelled();
+            } else {
+                cluster.failed();
+            }
+        }
+    }
+}
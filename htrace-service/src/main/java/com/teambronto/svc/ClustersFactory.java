@@ -0,0 +1,94 @@
+package com.teambronto.svc;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.github.kristofa.brave.Brave;
+import io.dropwizard.setup.Environment;
+import org.apache.hadoop.hbase.client.Connection;
+
+import javax.validation.Valid;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * The clusters block of htrace-service.yml: the HBase clusters other than the primary (hbaseClient) that employee
+ * reads may be sent to, and how reads pick between them. With no replicas, htrace-service only talks to the primary.
+ */
+public class ClustersFactory {
+    /** The primary's name in metrics and traces */
+    @NotNull
+    @JsonProperty
+    private String primaryName = "primary";
+
+    /** The replicated clusters, by name */
+    @Valid
+    @NotNull
+    @JsonProperty
+    private Map<String, HBaseClientFactory> replicas = new LinkedHashMap<>();
+
+    /** False to keep sending reads to the primary, e.g. while a replica catches up */
+    @JsonProperty
+    private boolean routeReads = true;
+
+    /** How quickly old latencies and errors stop counting */
+    @Min(1)
+    @JsonProperty
+    private long decayMs = 10000;
+
+    /** How much a cluster that always fails costs, as a multiple of one that never does */
+    @Min(0)
+    @JsonProperty
+    private double errorPenalty = 10;
+
+    /** How long a Get waits before it is also sent to the next best cluster, or 0 to never hedge */
+    @Min(0)
+    @JsonProperty
+    private long hedgeAfterMs = 0;
+
+    /** Threads that run hedged Gets */
+    @Min(1)
+    @JsonProperty
+    private int hedgeThreads = 16;
+
+    String getPrimaryName() {
+        return primaryName;
+    }
+
+    public Map<String, HBaseClientFactory> getReplicas() {
+        return replicas;
+    }
+
+    /**
+     * Builds the connection the service uses: the primary itself if there are no replicas, otherwise a
+     * RoutedConnection over all of them.
+     * @param brave The Brave instance the chosen cluster is annotated with
+     * @param primary The connection to the primary
+     * @param others The connections to the replicas, by name
+     * @param environment The environment the router's metrics and hedge executor are registered with
+     * @return The connection
+     */
+    public Connection build(Brave brave, Connection primary, Map<String, Connection> others,
+                            Environment environment) {
+        if (others.isEmpty()) {
+            return primary;
+        }
+        List<HBaseCluster> clusters = new ArrayList<>(others.size());
+        others.forEach((name, connection) ->
+                clusters.add(new HBaseCluster(name, connection, decayMs, environment.metrics())));
+        ExecutorService hedgeExecutor = null;
+        if (hedgeAfterMs > 0) {
+            hedgeExecutor = environment.lifecycle().executorService("hbase-hedge-%d")
+                    .minThreads(hedgeThreads)
+                    .maxThreads(hedgeThreads)
+                    .build();
+        }
+        ClusterRouter router = new ClusterRouter(brave,
+                new HBaseCluster(primaryName, primary, decayMs, environment.metrics()), clusters, routeReads,
+                errorPenalty, hedgeAfterMs, hedgeExecutor, environment.metrics());
+        return new RoutedConnection(router);
+    }
+}
@@ -0,0 +1,181 @@
+package com.teambronto.svc;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.health.HealthCheck;
+import io.dropwizard.lifecycle.Managed;
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.TableNotFoundException;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.RegionLocator;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ConnectionWarmup gets the HBase connections ready before the service takes traffic, so the first requests after a
+ * restart aren't the ones paying for the ZooKeeper sessions and the hbase:meta lookups. On every cluster, and for each
+ * configured table, it fetches every region location, which that cluster's connection caches, and optionally reads a
+ * sample of rows so the region servers' block caches hold them.
+ *
+ * Dropwizard starts managed objects before Jetty's connectors, so start() holds back traffic for up to
+ * maxWaitMs. If warm-up takes longer it carries on in the background, and the health check stays unhealthy until
+ * it finishes. A failed warm-up is retried every retryIntervalMs, skipping the clusters already warmed up, and
+ * the health check reports the failure until a retry succeeds.
+ */
+public class ConnectionWarmup extends HealthCheck implements Managed {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConnectionWarmup.class);
+
+    private final Map<String, Connection> clusters;
+    private final List<TableName> tables;
+    private final int sampleRows;
+    private final long maxWaitMs;
+    private final long retryIntervalMs;
+    private final TableMetadataCache metadata;
+    /** Counted down when warm-up has succeeded */
+    private final CountDownLatch done = new CountDownLatch(1);
+    /** Counted down when the first attempt has succeeded or failed, which is all start() waits for */
+    private final CountDownLatch attempted = new CountDownLatch(1);
+    /** How long warm-up took, or -1 until it is done */
+    private volatile long durationMs = -1;
+    /** Why the last attempt failed, or null if it hasn't */
+    private volatile String failure;
+    private volatile boolean stopped;
+    private Thread thread;
+
+    /**
+     * @param clusters The connection to each cluster, by name, the primary first
+     * @param tables The tables whose region locations are fetched
+     * @param sampleRows The number of rows read from each table, or 0 to read none
+     * @param maxWaitMs How long startup waits for warm-up
+     * @param retryIntervalMs How long to wait before retrying a failed warm-up
+     * @param metadata The table list, which is loaded as part of warm-up
+     * @param metrics The registry the warm-up duration is added to
+     */
+    public ConnectionWarmup(Map<String, Connection> clusters, List<TableName> tables, int sampleRows,
+                            long maxWaitMs, long retryIntervalMs, TableMetadataCache metadata,
+                            MetricRegistry metrics) {
+        this.clusters = clusters;
+        this.tables = tables;
+        this.sampleRows = sampleRows;
+        this.maxWaitMs = maxWaitMs;
+        this.retryIntervalMs = retryIntervalMs;
+        this.metadata = metadata;
+        metrics.register(MetricRegistry.name(ConnectionWarmup.class, "duration-ms"), (Gauge<Long>) () -> durationMs);
+    }
+
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    @Override
+    public void start() throws InterruptedException {
+        thread = new Thread(this::warmUp, "hbase-warmup");
+        thread.setDaemon(true);
+        thread.start();
+        if (!attempted.await(maxWaitMs, TimeUnit.MILLISECONDS)) {
+            LOGGER.warn("HBase warm-up is taking longer than {} ms; taking traffic while it finishes", maxWaitMs);
+        } else if (!isDone()) {
+            LOGGER.warn("HBase warm-up failed; taking traffic while it is retried");
+        }
+    }
+
+    @Override
+    public void stop() {
+        stopped = true;
+        thread.interrupt();
+    }
+
+    @Override
+    protected Result check() {
+        if (isDone()) {
+            return Result.healthy("warmed up in %d ms", durationMs);
+        }
+        String failed = failure;
+        return failed != null ? Result.unhealthy("warm-up failed, retrying: %s", failed)
+                : Result.unhealthy("warming up");
+    }
+
+    /**
+     * Warms up every cluster, retrying until it succeeds or the service stops.
+     */
+    private void warmUp() {
+        long start = System.nanoTime();
+        Set<String> warmed = new HashSet<>();
+        while (!stopped) {
+            try {
+                // Listing the tables opens the primary's ZooKeeper session and finds the master.
+                metadata.refresh();
+                for (Map.Entry<String, Connection> cluster : clusters.entrySet()) {
+                    if (warmed.contains(cluster.getKey())) {
+                        continue;
+                    }
+                    for (TableName table : tables) {
+                        if (!metadata.exists(table)) {
+                            LOGGER.info("Not warming up {}, it doesn't exist", table);
+                            continue;
+                        }
+                        warmUp(cluster.getKey(), cluster.getValue(), table);
+                    }
+                    warmed.add(cluster.getKey());
+                }
+                durationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                failure = null;
+                done.countDown();
+                attempted.countDown();
+                LOGGER.info("HBase warm-up took {} ms", durationMs);
+                return;
+            } catch (IOException | RuntimeException e) {
+                // The client throws unchecked exceptions too; they mustn't end the retries or leave start() waiting.
+                if (stopped) {
+                    return;
+                }
+                failure = e.toString();
+                attempted.countDown();
+                LOGGER.warn("HBase warm-up failed; retrying in {} ms", retryIntervalMs, e);
+            }
+            try {
+                Thread.sleep(retryIntervalMs);
+            } catch (InterruptedException e) {
+                // Stopped before warm-up succeeded.
+                return;
+            }
+        }
+    }
+
+    private void warmUp(String cluster, Connection conn, TableName name) throws IOException {
+        try (RegionLocator locator = conn.getRegionLocator(name)) {
+            // The connection keeps the locations, so requests don't look them up in hbase:meta.
+            List<HRegionLocation> locations = locator.getAllRegionLocations();
+            LOGGER.info("Fetched the locations of {} regions of {} on {}", locations.size(), name, cluster);
+        } catch (TableNotFoundException e) {
+            // Not replicated to this cluster, so reads of it never go there.
+            LOGGER.info("Not warming up {} on {}, it doesn't exist there", name, cluster);
+            return;
+        }
+        if (sampleRows <= 0) {
+            return;
+        }
+        Scan scan = new Scan();
+        scan.setCaching(Math.min(sampleRows, 1000));
+        scan.setCacheBlocks(true);
+        int read = 0;
+        try (Table table = conn.getTable(name); ResultScanner scanner = table.getScanner(scan)) {
+            while (read < sampleRows && scanner.next() != null) {
+                read++;
+            }
+        }
+        LOGGER.info("Read {} rows of {} on {}", read, name, cluster);
+    }
+}
@@ -0,0 +1,135 @@
+package com.teambronto.svc;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.coprocessor.ColumnInterpreter;
+import org.apache.hadoop.hbase.protobuf.generated.HBaseProtos.EmptyMsg;
+import org.apache.hadoop.hbase.protobuf.generated.HBaseProtos.NameInt64Pair;
+import org.apache.hadoop.hbase.protobuf.generated.MapReduceProtos.ScanMetrics;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * EmailDomainInterpreter lets HBase's AggregateImplementation count email domains: a "sum" over the email column is
+ * the number of employees at each domain. Each region sends back one entry per domain it holds, so the response is
+ * tiny next to the rows themselves.
+ *
+ * It runs inside the region servers, which load it by name, so it only uses HBase classes. The counts travel as a
+ * ScanMetrics message, which is already a list of name and number pairs.
+ */
+public class EmailDomainInterpreter
+        extends ColumnInterpreter<String, Map<String, Long>, EmptyMsg, NameInt64Pair, ScanMetrics> {
+
+    /**
+     * @return The domain of the email in a cell, lower-cased, or null if the cell isn't an email
+     */
+    @Override
+    public String getValue(byte[] colFamily, byte[] colQualifier, Cell cell) {
+        if (colQualifier != null && !CellUtil.matchingQualifier(cell, colQualifier)) {
+            return null;
+        }
+        String email = Bytes.toString(CellUtil.cloneValue(cell));
+        int at = email.lastIndexOf('@');
+        if (at < 0 || at == email.length() - 1) {
+            return null;
+        }
+        return email.substring(at + 1).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Merges two sets of counts. The first one is changed and returned when it can be, since it is the running total.
+     */
+    @Override
+    public Map<String, Long> add(Map<String, Long> counts, Map<String, Long> more) {
+        if (counts == null) {
+            return more;
+        }
+        if (more != null) {
+            more.forEach((domain, count) -> counts.merge(domain, count, Long::sum));
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<String, Long> castToReturnType(String domain) {
+        Map<String, Long> counts = new TreeMap<>();
+        counts.put(domain, 1L);
+        return counts;
+    }
+
+    @Override
+    public ScanMetrics getProtoForPromotedType(Map<String, Long> counts) {
+        ScanMetrics.Builder proto = ScanMetrics.newBuilder();
+        counts.forEach((domain, count) ->
+                proto.addMetrics(NameInt64Pair.newBuilder().setName(domain).setValue(count)));
+        return proto.build();
+    }
+
+    @Override
+    public Map<String, Long> getPromotedValueFromProto(ScanMetrics proto) {
+        Map<String, Long> counts = new TreeMap<>();
+        for (NameInt64Pair pair : proto.getMetricsList()) {
+            counts.merge(pair.getName(), pair.getValue(), Long::sum);
+        }
+        return counts;
+    }
+
+    @Override
+    public NameInt64Pair getProtoForCellType(String domain) {
+        return NameInt64Pair.newBuilder().setName(domain).setValue(1).build();
+    }
+
+    @Override
+    public String getCellValueFromProto(NameInt64Pair proto) {
+        return proto.getName();
+    }
+
+    @Override
+    public EmptyMsg getRequestData() {
+        return EmptyMsg.getDefaultInstance();
+    }
+
+    @Override
+    public void initialize(EmptyMsg msg) {
+    }
+
+    // Domains are only summed; the other aggregates have no meaning for them.
+
+    @Override
+    public int compare(String a, String b) {
+        return a == null ? (b == null ? 0 : -1) : b == null ? 1 : a.compareTo(b);
+    }
+
+    @Override
+    public String getMaxValue() {
+        throw new UnsupportedOperationException("email domains can only be counted");
+    }
+
+    @Override
+    public String getMinValue() {
+        throw new UnsupportedOperationException("email domains can only be counted");
+    }
+
+    @Override
+    public Map<String, Long> multiply(Map<String, Long> a, Map<String, Long> b) {
+        throw new UnsupportedOperationException("email domains can only be counted");
+    }
+
+    @Override
+    public Map<String, Long> increment(Map<String, Long> counts) {
+        throw new UnsupportedOperationException("email domains can only be counted");
+    }
+
+    @Override
+    public double divideForAvg(Map<String, Long> counts, Long rows) {
+        throw new UnsupportedOperationException("email domains can only be counted");
+    }
+
+    @Override
+    public String castToCellType(Map<String, Long> counts) {
+        throw new UnsupportedOperationException("email domains can only be counted");
+    }
+}
@@ -0,0 +1,173 @@
+package com.teambronto.svc;
+
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.*;
+import org.apache.hadoop.hbase.filter.CompareFilter;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Pair;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * EmailIndex maintains the employees_by_email table, a secondary index that maps an email address to the ID of the
+ * employee that has it. HBase can't update two tables atomically, so the index is written before the employee row
+ * and lookups always check the employee's email again. At worst the index points at a row that no longer has that
+ * email, which a lookup treats as a miss.
+ */
+public class EmailIndex {
+    public static final TableName INDEX_TABLENAME = TableName.valueOf("employees_by_email");
+    private static final byte[] INDEX_COL_FAMILY = Bytes.toBytes("index");
+    private static final byte[] ROW_COL = Bytes.toBytes("row");
+    /** Number of index Puts sent to HBase at once by the rebuild job */
+    private static final int REBUILD_BATCH_SIZE = 1000;
+
+    private final byte[] dataFamily;
+    private final byte[] emailColumn;
+
+    /**
+     * @param dataFamily The column family of the employees table that holds the email column
+     * @param emailColumn The email column of the employees table
+     */
+    public EmailIndex(byte[] dataFamily, byte[] emailColumn) {
+        this.dataFamily = dataFamily;
+        this.emailColumn = emailColumn;
+    }
+
+    /**
+     * Returns the descriptor used to create the index table.
+     */
+    public HTableDescriptor tableDescriptor() {
+        HTableDescriptor descriptor = new HTableDescriptor(INDEX_TABLENAME);
+        descriptor.addFamily(new HColumnDescriptor(INDEX_COL_FAMILY));
+        return descriptor;
+    }
+
+    /**
+     * Emails are case insensitive, so they are lower-cased before being used as index keys. Surrounding whitespace
+     * is dropped too; two emails with the same key share one index entry.
+     * @param email The email
+     * @return The email's row key in the index table
+     */
+    public static byte[] indexKey(String email) {
+        return Bytes.toBytes(email.trim().toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Builds the index entry for an employee.
+     * @param email The employee's email
+     * @param rowId The employee's ID
+     * @return A Put for the index table
+     */
+    public Put indexPut(String email, String rowId) {
+        Put put = new Put(indexKey(email));
+        put.addColumn(INDEX_COL_FAMILY, ROW_COL, Bytes.toBytes(rowId));
+        return put;
+    }
+
+    /**
+     * Removes an index entry, but only if it still points at the given employee.
+     */
+    public void removeIfOwned(Table indexTable, String rowId, String email) throws IOException {
+        byte[] key = indexKey(email);
+        indexTable.checkAndDelete(key, INDEX_COL_FAMILY, ROW_COL, CompareFilter.CompareOp.EQUAL,
+                Bytes.toBytes(rowId), new Delete(key));
+    }
+
+    /**
+     * Resolves an email to an employee ID with a single Get on the index.
+     * @param indexTable The index table
+     * @param email The email to look up
+     * @return The employee's ID, or null if the email is not indexed
+     * @throws IOException If HBase cannot be reached
+     */
+    public String lookup(Table indexTable, String email) throws IOException {
+        Get get = new Get(indexKey(email));
+        get.addColumn(INDEX_COL_FAMILY, ROW_COL);
+        return Bytes.toString(indexTable.get(get).getValue(INDEX_COL_FAMILY, ROW_COL));
+    }
+
+    /**
+     * Checks that an employee row read through the index really has the email that was looked up.
+     */
+    public boolean matches(Result employee, String email) {
+        byte[] stored = employee.getValue(dataFamily, emailColumn);
+        return stored != null && Bytes.equals(indexKey(Bytes.toString(stored)), indexKey(email));
+    }
+
+    /**
+     * Rebuilds the index from the employees table. The employees table is scanned one region at a time, with all
+     * of the regions scanned in parallel.
+     * @param conn The connection to HBase
+     * @param dataTable The employees table
+     * @param codec The codec used to decode employee row keys
+     * @param executor The executor the region scans are run on
+     * @return The number of employees indexed
+     * @throws IOException If HBase cannot be reached or a region scan failed
+     */
+    public long rebuild(Connection conn, TableName dataTable, RowKeyCodec codec, ExecutorService executor)
+            throws IOException {
+        Pair<byte[][], byte[][]> regions;
+        try (RegionLocator locator = conn.getRegionLocator(dataTable)) {
+            regions = locator.getStartEndKeys();
+        }
+
+        List<Future<Long>> futures = new ArrayList<>();
+        for (int i = 0; i < regions.getFirst().length; i++) {
+            Scan scan = new Scan(regions.getFirst()[i], regions.getSecond()[i]);
+            scan.addColumn(dataFamily, emailColumn);
+            scan.setCaching(REBUILD_BATCH_SIZE);
+            // The index is written from what this reads, so it must not come from a cluster that is behind.
+            scan.setAttribute(ClusterRouter.PRIMARY_ONLY, Bytes.toBytes(true));
+            futures.add(executor.submit(() -> rebuildRegion(conn, dataTable, codec, scan)));
+        }
+
+        long indexed = 0;
+        try {
+            for (Future<Long> future : futures) {
+                indexed += future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while rebuilding " + INDEX_TABLENAME, e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to rebuild " + INDEX_TABLENAME, e.getCause());
+        } finally {
+            futures.forEach(future -> future.cancel(true));
+        }
+        return indexed;
+    }
+
+    private long rebuildRegion(Connection conn, TableName dataTable, RowKeyCodec codec, Scan scan) throws IOException {
+        long indexed = 0;
+        List<Put> batch = new ArrayList<>(REBUILD_BATCH_SIZE);
+        try (Table table = conn.getTable(dataTable);
+             Table indexTable = conn.getTable(INDEX_TABLENAME);
+             ResultScanner scanner = table.getScanner(scan)) {
+            for (Result result : scanner) {
+                byte[] email = result.getValue(dataFamily, emailColumn);
+                if (email == null) {
+                    continue;
+                }
+                batch.add(indexPut(Bytes.toString(email), codec.decode(result.getRow())));
+                if (batch.size() >= REBUILD_BATCH_SIZE) {
+                    indexTable.put(batch);
+                    indexed += batch.size();
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                indexTable.put(batch);
+                indexed += batch.size();
+            }
+        }
+        return indexed;
+    }
+}
@@ -0,0 +1,173 @@
+package com.teambronto.svc;
+
+import com.github.kristofa.brave.Brave;
+import com.github.kristofa.brave.ServerSpan;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.ServiceException;
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.RegionLocator;
+import org.apache.hadoop.hbase.client.RegionReplicaUtil;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.client.coprocessor.LongColumnInterpreter;
+import org.apache.hadoop.hbase.filter.FirstKeyOnlyFilter;
+import org.apache.hadoop.hbase.protobuf.ProtobufUtil;
+import org.apache.hadoop.hbase.protobuf.generated.AggregateProtos.AggregateRequest;
+import org.apache.hadoop.hbase.protobuf.generated.AggregateProtos.AggregateResponse;
+import org.apache.hadoop.hbase.protobuf.generated.AggregateProtos.AggregateService;
+import org.apache.hadoop.hbase.protobuf.generated.MapReduceProtos.ScanMetrics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * EmployeeAggregates counts employees and their email domains inside the region servers, through HBase's
+ * AggregateImplementation coprocessor endpoint, instead of pulling every row to the client. Every region is asked
+ * at the same time and answers with a single number, or a single small map of domains.
+ *
+ * The employees table is created with the endpoint loaded (see ENDPOINT). Counting domains also needs
+ * EmailDomainInterpreter on the region servers' classpath, since they load it by name.
+ */
+public class EmployeeAggregates {
+    /** The coprocessor that answers the aggregate calls; it ships with HBase */
+    public static final String ENDPOINT = "org.apache.hadoop.hbase.coprocessor.AggregateImplementation";
+
+    /** One aggregate call to one region */
+    private interface RegionCall<R> {
+        R call(AggregateService.BlockingInterface region) throws ServiceException;
+    }
+
+    private final Brave brave;
+    private final byte[] dataFamily;
+    private final byte[] emailColumn;
+
+    /**
+     * @param brave The Brave instance the region calls are traced with
+     * @param dataFamily The column family of the employee rows
+     * @param emailColumn The column holding each employee's email
+     */
+    public EmployeeAggregates(Brave brave, byte[] dataFamily, byte[] emailColumn) {
+        this.brave = brave;
+        this.dataFamily = dataFamily;
+        this.emailColumn = emailColumn;
+    }
+
+    /**
+     * Counts the rows of a table. Each region only reads the first cell of each row.
+     * @param conn The connection to HBase
+     * @param tableName The table
+     * @param executor The executor the region calls are run on
+     * @return The number of rows
+     * @throws IOException If HBase cannot be reached or a region call failed
+     */
+    public long count(Connection conn, TableName tableName, ExecutorService executor) throws IOException {
+        Scan scan = new Scan();
+        scan.addFamily(dataFamily);
+        scan.setFilter(new FirstKeyOnlyFilter());
+        AggregateRequest request = request(scan, LongColumnInterpreter.class.getName());
+
+        long rows = 0;
+        for (AggregateResponse response : perRegion(conn, tableName, executor,
+                region -> region.getRowNum(null, request))) {
+            if (response.getFirstPartCount() > 0) {
+                rows += ByteBuffer.wrap(response.getFirstPart(0).toByteArray()).getLong();
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Counts the employees at each email domain.
+     * @param conn The connection to HBase
+     * @param tableName The employees table
+     * @param executor The executor the region calls are run on
+     * @return The number of employees at each domain, by domain
+     * @throws IOException If HBase cannot be reached or a region call failed
+     */
+    public Map<String, Long> emailDomains(Connection conn, TableName tableName, ExecutorService executor)
+            throws IOException {
+        Scan scan = new Scan();
+        scan.addColumn(dataFamily, emailColumn);
+        AggregateRequest request = request(scan, EmailDomainInterpreter.class.getName());
+
+        EmailDomainInterpreter interpreter = new EmailDomainInterpreter();
+        Map<String, Long> domains = new TreeMap<>();
+        for (AggregateResponse response : perRegion(conn, tableName, executor,
+                region -> region.getSum(null, request))) {
+            if (response.getFirstPartCount() > 0) {
+                try {
+                    interpreter.add(domains,
+                            interpreter.getPromotedValueFromProto(ScanMetrics.parseFrom(response.getFirstPart(0))));
+                } catch (InvalidProtocolBufferException e) {
+                    throw new IOException("Unreadable email domains from " + tableName, e);
+                }
+            }
+        }
+        return domains;
+    }
+
+    private static AggregateRequest request(Scan scan, String interpreter) throws IOException {
+        return AggregateRequest.newBuilder()
+                .setInterpreterClassName(interpreter)
+                .setScan(ProtobufUtil.toScan(scan))
+                .setInterpreterSpecificBytes(ByteString.EMPTY)
+                .build();
+    }
+
+    /**
+     * Makes a call on every region of a table at the same time. Each call goes through the table's coprocessor
+     * channel to the region, so it is traced as its own span of the current request.
+     */
+    private <R> List<R> perRegion(Connection conn, TableName tableName, ExecutorService executor,
+                                  RegionCall<R> call) throws IOException {
+        List<HRegionLocation> regions;
+        try (RegionLocator locator = conn.getRegionLocator(tableName)) {
+            regions = locator.getAllRegionLocations();
+        }
+
+        ServerSpan parent = brave.serverSpanThreadBinder().getCurrentServerSpan();
+        List<Future<R>> futures = new ArrayList<>();
+        for (HRegionLocation region : regions) {
+            if (!RegionReplicaUtil.isDefaultReplica(region.getRegionInfo())) {
+                // Asking a replica too would count its rows twice.
+                continue;
+            }
+            byte[] startKey = region.getRegionInfo().getStartKey();
+            futures.add(executor.submit(() -> {
+                brave.serverSpanThreadBinder().setCurrentSpan(parent);
+                try (Table table = conn.getTable(tableName)) {
+                    return call.call(AggregateService.newBlockingStub(table.coprocessorService(startKey)));
+                } catch (ServiceException e) {
+                    throw ProtobufUtil.getRemoteException(e);
+                } finally {
+                    brave.serverSpanThreadBinder().setCurrentSpan(null);
+                }
+            }));
+        }
+
+        List<R> results = new ArrayList<>(futures.size());
+        try {
+            for (Future<R> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while aggregating " + tableName, e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to aggregate " + tableName, e.getCause());
+        } finally {
+            futures.forEach(future -> future.cancel(true));
+        }
+        return results;
+    }
+}
@@ -0,0 +1,122 @@
+package com.teambronto.svc;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GradientLimiter caps how many requests may use HBase at once, and moves the cap with HBase's latency. The latency
+ * of every window of calls is compared with the long-term latency: while they match the limit grows by about
+ * sqrt(limit) per window, and when calls slow down (requests are queueing inside HBase) the limit shrinks in
+ * proportion, down to half per window. Windows in which fewer than half the permits were used don't grow the limit,
+ * since they say nothing about how much more HBase could take, and neither do windows in which a call failed: a
+ * timeout or a rejection is HBase saying it has enough.
+ */
+public class GradientLimiter implements RpcLatencyListener {
+    private final int minLimit;
+    private final int maxLimit;
+    private final double smoothing;
+    private final double tolerance;
+    private final int windowSize;
+    private final double longRttWeight;
+    private double limit;
+    private int inflight;
+    private double longRttNanos;
+    private long windowSumNanos;
+    private int windowCount;
+    private int windowMaxInflight;
+    private boolean windowFailed;
+
+    /**
+     * @param initialLimit The limit to start from
+     * @param minLimit The lowest the limit goes
+     * @param maxLimit The highest the limit goes
+     * @param smoothing How much of each window's new limit is applied, between 0 and 1
+     * @param tolerance How much slower than the long-term latency calls may get before the limit shrinks
+     * @param windowSize The number of calls per window
+     * @param longWindows The number of windows the long-term latency is averaged over
+     */
+    public GradientLimiter(int initialLimit, int minLimit, int maxLimit, double smoothing, double tolerance,
+                           int windowSize, int longWindows) {
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.smoothing = smoothing;
+        this.tolerance = tolerance;
+        this.windowSize = windowSize;
+        this.longRttWeight = 2.0 / (longWindows + 1);
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInflight() {
+        return inflight;
+    }
+
+    /**
+     * @return The long-term average latency of an HBase call, in milliseconds
+     */
+    public synchronized double getLongRttMs() {
+        return longRttNanos / 1e6;
+    }
+
+    /**
+     * Takes a permit, waiting up to maxWaitMs for one to free up.
+     * @param maxWaitMs The longest to wait
+     * @return true if a permit was taken; it must be given back with release
+     * @throws InterruptedException If the thread is interrupted while waiting
+     */
+    public synchronized boolean tryAcquire(long maxWaitMs) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+        while (inflight >= (int) limit) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        inflight++;
+        return true;
+    }
+
+    public synchronized void release() {
+        inflight--;
+        notify();
+    }
+
+    @Override
+    public synchronized void onRpc(long nanos, boolean failed) {
+        windowSumNanos += nanos;
+        windowCount++;
+        windowFailed |= failed;
+        windowMaxInflight = Math.max(windowMaxInflight, inflight);
+        if (windowCount < windowSize) {
+            return;
+        }
+
+        double shortRtt = (double) windowSumNanos / windowCount;
+        if (longRttNanos == 0) {
+            longRttNanos = shortRtt;
+        } else {
+            longRttNanos += (shortRtt - longRttNanos) * longRttWeight;
+        }
+        // After a long slow period, let the baseline come back down faster than the average alone would.
+        if (longRttNanos > 2 * shortRtt) {
+            longRttNanos *= 0.95;
+        }
+
+        double gradient = Math.max(0.5, Math.min(1.0, tolerance * longRttNanos / shortRtt));
+        boolean appLimited = windowMaxInflight < limit / 2;
+        double target = limit * gradient + (appLimited || windowFailed ? 0 : Math.sqrt(limit));
+        double updated = Math.max(minLimit, Math.min(maxLimit, limit * (1 - smoothing) + target * smoothing));
+        if ((int) updated > (int) limit) {
+            notifyAll();
+        }
+        limit = updated;
+
+        windowSumNanos = 0;
+        windowCount = 0;
+        windowMaxInflight = inflight;
+        windowFailed = false;
+    }
+}
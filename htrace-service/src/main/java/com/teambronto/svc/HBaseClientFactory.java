@@ -0,0 +1,143 @@
+package com.teambronto.svc;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.lifecycle.ExecutorServiceManager;
+import io.dropwizard.setup.Environment;
+import io.dropwizard.util.Duration;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HConstants;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Pattern;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The hbaseClient block of htrace-service.yml: where the cluster is and how the HBase client talks to it, plus the
+ * executor the client's tables run their calls on. The defaults are HBase 1.3's own.
+ */
+public class HBaseClientFactory {
+    /** Comma-separated ZooKeeper hosts */
+    @NotNull
+    @JsonProperty
+    private String quorum = "localhost";
+
+    @Min(1)
+    @JsonProperty
+    private int clientPort = 2181;
+
+    @NotNull
+    @JsonProperty
+    private String znodeParent = "/hbase";
+
+    /** Longest a single RPC may take */
+    @Min(1)
+    @JsonProperty
+    private int rpcTimeoutMs = HConstants.DEFAULT_HBASE_RPC_TIMEOUT;
+
+    /** Longest a whole operation may take, retries included */
+    @Min(1)
+    @JsonProperty
+    private int operationTimeoutMs = HConstants.DEFAULT_HBASE_CLIENT_OPERATION_TIMEOUT;
+
+    /** Longest between two calls of a scanner before the region server drops it */
+    @Min(1)
+    @JsonProperty
+    private int scannerTimeoutMs = HConstants.DEFAULT_HBASE_CLIENT_SCANNER_TIMEOUT_PERIOD;
+
+    @Min(0)
+    @JsonProperty
+    private int retries = HConstants.DEFAULT_HBASE_CLIENT_RETRIES_NUMBER;
+
+    /** Base of the backoff between retries */
+    @Min(1)
+    @JsonProperty
+    private long pauseMs = HConstants.DEFAULT_HBASE_CLIENT_PAUSE;
+
+    /** How connections to a region server are shared between threads: RoundRobin, ThreadLocal or Reusable */
+    @NotNull
+    @Pattern(regexp = "RoundRobin|ThreadLocal|Reusable")
+    @JsonProperty
+    private String ipcPoolType = "RoundRobin";
+
+    /** Connections per region server */
+    @Min(1)
+    @JsonProperty
+    private int ipcPoolSize = 1;
+
+    /** Rows fetched per scanner call */
+    @Min(1)
+    @JsonProperty
+    private int scannerCaching = HConstants.DEFAULT_HBASE_CLIENT_SCANNER_CACHING;
+
+    /** Bytes fetched per scanner call */
+    @Min(1)
+    @JsonProperty
+    private long scannerMaxResultSize = HConstants.DEFAULT_HBASE_CLIENT_SCANNER_MAX_RESULT_SIZE;
+
+    /** Rows fetched per call when region locations are looked up in hbase:meta */
+    @Min(1)
+    @JsonProperty
+    private int metaScannerCaching = HConstants.DEFAULT_HBASE_META_SCANNER_CACHING;
+
+    /** Longest a region location lookup may take */
+    @Min(1)
+    @JsonProperty
+    private int metaOperationTimeoutMs = HConstants.DEFAULT_HBASE_CLIENT_OPERATION_TIMEOUT;
+
+    /** Whether region locations may be read from replicas of hbase:meta */
+    @JsonProperty
+    private boolean useMetaReplicas = HConstants.DEFAULT_USE_META_REPLICAS;
+
+    /** Threads the tables run their calls on */
+    @Min(1)
+    @JsonProperty
+    private int executorThreads = 16;
+
+    /** Calls that may wait for a thread before new ones are run on the caller's thread */
+    @Min(1)
+    @JsonProperty
+    private int executorQueueSize = 1000;
+
+    /** Any other client settings, by their HBase name */
+    @NotNull
+    @JsonProperty
+    private Map<String, String> properties = new HashMap<>();
+
+    /**
+     * @return The HBase client configuration
+     */
+    public Configuration build() {
+        Configuration config = HBaseConfiguration.create();
+        config.set(HConstants.ZOOKEEPER_QUORUM, quorum);
+        config.setInt(HConstants.ZOOKEEPER_CLIENT_PORT, clientPort);
+        config.set(HConstants.ZOOKEEPER_ZNODE_PARENT, znodeParent);
+        config.setInt(HConstants.HBASE_RPC_TIMEOUT_KEY, rpcTimeoutMs);
+        config.setInt(HConstants.HBASE_CLIENT_OPERATION_TIMEOUT, operationTimeoutMs);
+        config.setInt(HConstants.HBASE_CLIENT_SCANNER_TIMEOUT_PERIOD, scannerTimeoutMs);
+        config.setInt(HConstants.HBASE_CLIENT_RETRIES_NUMBER, retries);
+        config.setLong(HConstants.HBASE_CLIENT_PAUSE, pauseMs);
+        config.set(HConstants.HBASE_CLIENT_IPC_POOL_TYPE, ipcPoolType);
+        config.setInt(HConstants.HBASE_CLIENT_IPC_POOL_SIZE, ipcPoolSize);
+        config.setInt(HConstants.HBASE_CLIENT_SCANNER_CACHING, scannerCaching);
+        config.setLong(HConstants.HBASE_CLIENT_SCANNER_MAX_RESULT_SIZE_KEY, scannerMaxResultSize);
+        config.setInt(HConstants.HBASE_META_SCANNER_CACHING, metaScannerCaching);
+        config.setInt(HConstants.HBASE_CLIENT_META_OPERATION_TIMEOUT, metaOperationTimeoutMs);
+        config.setBoolean(HConstants.USE_META_REPLICAS, useMetaReplicas);
+        properties.forEach(config::set);
+        return config;
+    }
+
+    /**
+     * Builds the executor the tables run their calls on, managed by the environment.
+     * @param environment The environment the executor and its metrics are registered with
+     * @return The executor
+     */
+    public HBaseRpcExecutor buildExecutor(Environment environment) {
+        HBaseRpcExecutor executor = new HBaseRpcExecutor(executorThreads, executorQueueSize, environment.metrics());
+        environment.lifecycle().manage(new ExecutorServiceManager(executor, Duration.seconds(5), "hbase-rpc"));
+        return executor;
+    }
+}
@@ -0,0 +1,126 @@
+package com.teambronto.svc;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.apache.hadoop.hbase.client.Connection;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One of the HBase clusters htrace-service is connected to, and what the ClusterRouter knows about it: the calls
+ * currently outstanding, and exponentially weighted moving averages of its latency and of its error rate.
+ */
+public class HBaseCluster {
+    private final String name;
+    private final Connection connection;
+    private final long decayMs;
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final Timer latency;
+    private final Meter errors;
+    private double latencyEwmaMs;
+    private double errorEwma;
+    private long lastSampleAt;
+
+    /**
+     * @param name The cluster's name, used in metric names and traces
+     * @param connection The connection to the cluster
+     * @param decayMs The time after which an old sample has decayed to 1/e of its weight
+     * @param metrics The registry the cluster's metrics are added to
+     */
+    public HBaseCluster(String name, Connection connection, long decayMs, MetricRegistry metrics) {
+        this.name = name;
+        this.connection = connection;
+        this.decayMs = decayMs;
+        this.latency = metrics.timer(MetricRegistry.name(HBaseCluster.class, name, "latency"));
+        this.errors = metrics.meter(MetricRegistry.name(HBaseCluster.class, name, "errors"));
+        metrics.register(MetricRegistry.name(HBaseCluster.class, name, "outstanding"),
+                (Gauge<Integer>) outstanding::get);
+        metrics.register(MetricRegistry.name(HBaseCluster.class, name, "latency-ewma-ms"),
+                (Gauge<Double>) this::getLatencyEwmaMs);
+        metrics.register(MetricRegistry.name(HBaseCluster.class, name, "error-rate"),
+                (Gauge<Double>) this::getErrorRate);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Connection getConnection() {
+        return connection;
+    }
+
+    public synchronized double getLatencyEwmaMs() {
+        return latencyEwmaMs;
+    }
+
+    /**
+     * @return The recent share of calls that failed, between 0 and 1
+     */
+    public synchronized double getErrorRate() {
+        return errorEwma;
+    }
+
+    /**
+     * The cluster's expected cost of one more call; lower is better. Outstanding calls are weighted by latency, and
+     * the whole is scaled up by the recent error rate so a cluster that fails fast doesn't attract more reads.
+     * @param errorPenalty How much a cluster that always fails costs, as a multiple of one that never does
+     */
+    double cost(double errorPenalty) {
+        synchronized (this) {
+            return (outstanding.get() + 1) * (latencyEwmaMs + 1) * (1 + errorPenalty * errorEwma);
+        }
+    }
+
+    /**
+     * Marks the start of a call to the cluster. Must be followed by succeeded, failed or cancelled.
+     * @return The call's start time, to pass to succeeded
+     */
+    long begin() {
+        outstanding.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    /**
+     * Records a call that lost a hedge race; it says nothing about the cluster.
+     */
+    void cancelled() {
+        outstanding.decrementAndGet();
+    }
+
+    /**
+     * @param started What begin returned
+     */
+    void succeeded(long started) {
+        long nanos = System.nanoTime() - started;
+        latency.update(nanos, TimeUnit.NANOSECONDS);
+        sample(nanos / 1e6, 0);
+    }
+
+    void failed() {
+        errors.mark();
+        sample(-1, 1);
+    }
+
+    /**
+     * Folds a call into the averages. The older the last sample, the less it counts. Failures don't update the
+     * latency average.
+     */
+    private synchronized void sample(double latencyMs, double error) {
+        outstanding.decrementAndGet();
+        long now = System.currentTimeMillis();
+        if (lastSampleAt == 0) {
+            latencyEwmaMs = Math.max(0, latencyMs);
+            errorEwma = error;
+        } else {
+            double weight = Math.exp(-(double) Math.max(0, now - lastSampleAt) / decayMs);
+            if (latencyMs >= 0) {
+                latencyEwmaMs = latencyEwmaMs * weight + latencyMs * (1 - weight);
+            }
+            errorEwma = errorEwma * weight + error * (1 - weight);
+        }
+        lastSampleAt = now;
+    }
+}
@@ -0,0 +1,84 @@
+package com.teambronto.svc;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The executor the service's tables run their calls on (the pool of Connection.getTable(name, pool)). Reports how
+ * many calls are waiting for a thread, how long they wait, and how long they run. When the queue is full, a call runs
+ * on the thread that made it rather than being rejected; after shutdown, calls are rejected.
+ */
+public class HBaseRpcExecutor extends ThreadPoolExecutor {
+    private final Timer queueWait;
+    private final Timer duration;
+    private final Meter callerRuns;
+
+    /**
+     * @param threads The number of threads
+     * @param queueSize The most calls waiting for a thread
+     * @param metrics The registry the executor's metrics are added to
+     */
+    public HBaseRpcExecutor(int threads, int queueSize, MetricRegistry metrics) {
+        super(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueSize), threadFactory());
+        this.queueWait = metrics.timer(MetricRegistry.name(HBaseRpcExecutor.class, "queue-wait"));
+        this.duration = metrics.timer(MetricRegistry.name(HBaseRpcExecutor.class, "duration"));
+        this.callerRuns = metrics.meter(MetricRegistry.name(HBaseRpcExecutor.class, "caller-runs"));
+        metrics.register(MetricRegistry.name(HBaseRpcExecutor.class, "queue-depth"),
+                (Gauge<Integer>) () -> getQueue().size());
+        metrics.register(MetricRegistry.name(HBaseRpcExecutor.class, "active"), (Gauge<Integer>) this::getActiveCount);
+        setRejectedExecutionHandler((task, executor) -> {
+            // Once shut down there is nobody left to run the call, so its caller has to hear about it.
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("HBase RPC executor has been shut down");
+            }
+            callerRuns.mark();
+            task.run();
+        });
+    }
+
+    private static ThreadFactory threadFactory() {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "hbase-rpc-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        super.execute(new TimedTask(command));
+    }
+
+    /**
+     * A call that knows when it was queued and times itself.
+     */
+    private class TimedTask implements Runnable {
+        private final Runnable task;
+        private final long queuedAt = System.nanoTime();
+
+        TimedTask(Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            queueWait.update(start - queuedAt, TimeUnit.NANOSECONDS);
+            try {
+                task.run();
+            } finally {
+                duration.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+}
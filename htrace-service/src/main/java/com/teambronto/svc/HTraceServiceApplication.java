@@ -11,7 +11,10 @@ import com.teambronto.svc.resources.HTraceServiceResource;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.client.*;
 import zipkin.reporter.Reporter;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
 
 import javax.validation.constraints.NotNull;
 
@@ -38,12 +41,82 @@ public class HTraceServiceApplication extends TracedApplication<HTraceServiceCon
         // Create a traced connection to the HBase database.
         final Configuration hbaseConfig = serviceConfig.getHBaseConfig();
 
+        // The admission limit follows the latency of the HBase calls made through the connection.
+        final GradientLimiter limiter = serviceConfig.getAdmissionControl().buildLimiter(environment.metrics());
+
         // Get a traced instance of the Connection and Admin classes to use in the HTraceServiceResource class.
-        final Connection tracedConn = new TracedConnection(ConnectionFactory.createConnection(hbaseConfig), brave);
-        Admin admin = tracedConn.getAdmin();
+        // Closed tables are reused, and tables that are never closed are reported.
+        final TableHandlePool tableHandles = serviceConfig.getTableHandles().build(environment.metrics());
+        if (tableHandles != null) {
+            environment.lifecycle().manage(tableHandles);
+        }
+        // Tables run their calls on an executor of ours, so its queue and latency show up in the metrics.
+        final HBaseRpcExecutor rpcExecutor = serviceConfig.getHBaseClient().buildExecutor(environment);
+        final RpcLatencyListener latencyListener = limiter != null ? limiter : RpcLatencyListener.NONE;
+        final Connection primaryConn = new TracedConnection(ConnectionFactory.createConnection(hbaseConfig), brave,
+                latencyListener, tableHandles, rpcExecutor);
+        // Reads may also go to the replicated clusters, whichever is answering fastest; writes stay on the primary.
+        final Map<String, Connection> replicaConns = new LinkedHashMap<>();
+        for (Map.Entry<String, HBaseClientFactory> replica : serviceConfig.getClusters().getReplicas().entrySet()) {
+            replicaConns.put(replica.getKey(), new TracedConnection(
+                    ConnectionFactory.createConnection(serviceConfig.getHBaseConfig(replica.getValue())), brave,
+                    latencyListener, null, rpcExecutor));
+        }
+        final Connection tracedConn = serviceConfig.getClusters().build(brave, primaryConn, replicaConns,
+                environment);
+        // The service's one Admin, and the tables it has seen, shared by every request.
+        final TableMetadataCache tables = serviceConfig.getTableMetadata().build(tracedConn, environment.metrics());
+        environment.lifecycle().manage(tables);
+
+        // Fetch region locations and warm the caches of every cluster before Jetty takes traffic; unhealthy until done.
+        final Map<String, Connection> clusterConns = new LinkedHashMap<>();
+        clusterConns.put(serviceConfig.getClusters().getPrimaryName(), primaryConn);
+        clusterConns.putAll(replicaConns);
+        final ConnectionWarmup warmup = serviceConfig.getWarmup().build(clusterConns, tables, environment);
+        if (warmup != null) {
+            environment.lifecycle().manage(warmup);
+        }
+
+        // Range reads scan every row key bucket at the same time.
+        final ExecutorService scanExecutor = environment.lifecycle().executorService("htrace-scan-%d")
+                .minThreads(serviceConfig.getScanThreads())
+                .maxThreads(serviceConfig.getScanThreads())
+                .build();
 
-        environment.jersey().register(new HTraceServiceResource(brave, tracedConn));
+        // Optional write-behind buffer for updateValue. It is drained when the service shuts down.
+        final WriteBehindBuffer writeBehind = serviceConfig.getWriteBehind().build(tracedConn, environment.metrics());
+        if (writeBehind != null) {
+            environment.lifecycle().manage(writeBehind);
+        }
+
+        // Writes through this instance are published on its change feed; writes through the peers are followed on
+        // theirs, so the row cache only holds rows nobody has changed.
+        final RowCache rowCache = serviceConfig.getRowCache().build(environment);
+        final ChangeFeed changeFeed = serviceConfig.getChangeFeed().buildFeed(environment.metrics());
+        final ChangeFeedSubscriber peers = serviceConfig.getChangeFeed().buildSubscriber(rowCache,
+                environment.metrics());
+        if (peers != null) {
+            environment.lifecycle().manage(peers);
+        }
+
+        environment.jersey().register(new HTraceServiceResource(brave, tracedConn,
+                serviceConfig.getRowKey().build(), scanExecutor, writeBehind, serviceConfig.getDurability(),
+                rowCache, changeFeed, serviceConfig.getAdminJobs().build(brave, environment), tables,
+                serviceConfig.getTimelineReads().build(environment.metrics()),
+                serviceConfig.getTimelineReads().getRegionReplication(),
+                serviceConfig.getBulkImport().build(tracedConn, brave, environment.metrics())));
         environment.jersey().register(BraveTracingFeature.create(brave));
+        // Admin requests are shed first under pressure, then writes, then reads.
+        final LoadSheddingFilter loadShedding = serviceConfig.getLoadShedding().build(environment.metrics());
+        if (loadShedding != null) {
+            environment.jersey().register(loadShedding);
+        }
+        if (limiter != null) {
+            environment.jersey().register(serviceConfig.getAdmissionControl().buildFilter(limiter,
+                    environment.metrics()));
+        }
+        // Requests carry their deadline from the relay services; it becomes the HBase timeouts of each call.
+        environment.jersey().register(new DeadlineFilter(null));
     }
 
     @Override
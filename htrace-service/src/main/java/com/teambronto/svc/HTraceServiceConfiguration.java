@@ -1,12 +1,18 @@
 package com.teambronto.svc;
 
+import javax.validation.Valid;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
+import java.util.HashMap;
+import java.util.Map;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import com.google.common.net.InetAddresses;
 import io.dropwizard.Configuration;
-import org.apache.hadoop.hbase.HBaseConfiguration;
+import io.dropwizard.validation.ValidationMethod;
+import org.apache.hadoop.hbase.client.Durability;
 import zipkin.Span;
 import zipkin.reporter.AsyncReporter;
 import zipkin.reporter.Reporter;
@@ -25,22 +31,197 @@ public class HTraceServiceConfiguration extends Configuration {
     @JsonProperty
     private int zipkinPort;
 
+    @Valid
+    @NotNull
+    @JsonProperty
+    private RowKeyCodecFactory rowKey = new RowKeyCodecFactory();
+
+    /** Number of threads used to run the per-bucket scans of range reads */
+    @Min(1)
+    @JsonProperty
+    private int scanThreads = 16;
+
+    @Valid
+    @NotNull
+    @JsonProperty
+    private WriteBehindFactory writeBehind = new WriteBehindFactory();
+
+    @Valid
+    @NotNull
+    @JsonProperty
+    private RowCacheFactory rowCache = new RowCacheFactory();
+
+    @Valid
+    @NotNull
+    @JsonProperty
+    private ChangeFeedFactory changeFeed = new ChangeFeedFactory();
+
+    @Valid
+    @NotNull
+    @JsonProperty
+    private AdmissionControlFactory admissionControl = new AdmissionControlFactory();
+
+    /** Where the HBase cluster is and how the client talks to it */
+    @Valid
+    @NotNull
+    @JsonProperty
+    private HBaseClientFactory hbaseClient = new HBaseClientFactory();
+
+    /** Replicated clusters that reads may be sent to; writes always go to hbaseClient */
+    @Valid
+    @NotNull
+    @JsonProperty
+    private ClustersFactory clusters = new ClustersFactory();
+
+    /** Region replicas, and employee lookups that may be answered by them */
+    @Valid
+    @NotNull
+    @JsonProperty
+    private TimelineReadsFactory timelineReads = new TimelineReadsFactory();
+
+    /** Table creation and deletion, which run in the background */
+    @Valid
+    @NotNull
+    @JsonProperty
+    private AdminJobsFactory adminJobs = new AdminJobsFactory();
+
+    /** How often the cached list of tables is refreshed */
+    @Valid
+    @NotNull
+    @JsonProperty
+    private TableMetadataFactory tableMetadata = new TableMetadataFactory();
+
+    /** Reuse of closed tables, and detection of tables that are never closed */
+    @Valid
+    @NotNull
+    @JsonProperty
+    private TableHandlesFactory tableHandles = new TableHandlesFactory();
+
+    /** The tables warmed up before the service takes traffic */
+    @Valid
+    @NotNull
+    @JsonProperty
+    private WarmupFactory warmup = new WarmupFactory();
+
+    /** Per-class limits that keep admin requests from taking the threads reads need */
+    @Valid
+    @NotNull
+    @JsonProperty
+    private LoadSheddingFactory loadShedding = new LoadSheddingFactory();
+
+    @Valid
+    @NotNull
+    @JsonProperty
+    private BulkImportFactory bulkImport = new BulkImportFactory();
+
+    /** WAL durability of the writes made by each endpoint, keyed by the endpoint's path (e.g. update-value) */
+    @NotNull
+    @JsonProperty
+    private Map<String, Durability> durability = new HashMap<>();
+
 	String getZipkinReportingAddress() {
 		return zipkinReportingAddress;
 	}
 
+    /**
+     * Returns how employee IDs are laid out as HBase row keys.
+     * @return The row key configuration
+     */
+    RowKeyCodecFactory getRowKey() {
+        return rowKey;
+    }
+
+    int getScanThreads() {
+        return scanThreads;
+    }
+
+    WriteBehindFactory getWriteBehind() {
+        return writeBehind;
+    }
+
+    RowCacheFactory getRowCache() {
+        return rowCache;
+    }
+
+    ChangeFeedFactory getChangeFeed() {
+        return changeFeed;
+    }
+
+    AdmissionControlFactory getAdmissionControl() {
+        return admissionControl;
+    }
+
+    TimelineReadsFactory getTimelineReads() {
+        return timelineReads;
+    }
+
+    AdminJobsFactory getAdminJobs() {
+        return adminJobs;
+    }
+
+    TableMetadataFactory getTableMetadata() {
+        return tableMetadata;
+    }
+
+    TableHandlesFactory getTableHandles() {
+        return tableHandles;
+    }
+
+    WarmupFactory getWarmup() {
+        return warmup;
+    }
+
+    LoadSheddingFactory getLoadShedding() {
+        return loadShedding;
+    }
+
+    BulkImportFactory getBulkImport() {
+        return bulkImport;
+    }
+
+    Map<String, Durability> getDurability() {
+        return durability;
+    }
+
+    /**
+     * Rows kept off the heap outlive the in-memory copies, restarts included. Without peers to follow, a row written
+     * through another instance would be served stale until the longer TTL ran out.
+     * @return false if the off-heap cache keeps rows longer than the in-memory cache without any peers
+     */
+    @JsonIgnore
+    @ValidationMethod(message = "rowCache.offHeap.expireAfterWriteMs may only exceed rowCache.expireAfterWriteMs "
+            + "when changeFeed.peers lists the other instances")
+    public boolean isOffHeapExpiryCovered() {
+        return !rowCache.keepsRowsOffHeapLonger() || changeFeed.hasPeers();
+    }
+
 	/**
 	 * Returns the HBase configuration to connect to the HBase server.
 	 * @return The HBase configuration
 	 */
 	org.apache.hadoop.conf.Configuration getHBaseConfig() {
-        org.apache.hadoop.conf.Configuration hbaseConfig = HBaseConfiguration.create();
-        // There is the potential here to put these config variables into the htrace-service.yml config file.
-        hbaseConfig.set("hbase.zookeeper.property.clientPort", "2181");
-        hbaseConfig.set("hbase.zookeeper.quorum", "localhost");
+        return getHBaseConfig(hbaseClient);
+    }
+
+    /**
+     * Returns the HBase configuration to connect to one of the clusters.
+     * @param client The cluster's client settings
+     * @return The HBase configuration
+     */
+    org.apache.hadoop.conf.Configuration getHBaseConfig(HBaseClientFactory client) {
+        org.apache.hadoop.conf.Configuration hbaseConfig = client.build();
+        timelineReads.applyTo(hbaseConfig);
         return hbaseConfig;
     }
 
+    HBaseClientFactory getHBaseClient() {
+        return hbaseClient;
+    }
+
+    ClustersFactory getClusters() {
+        return clusters;
+    }
+
     OkHttpSender getOkHttpSender() {
         return OkHttpSender.create(getZipkinReportingAddress());
     }
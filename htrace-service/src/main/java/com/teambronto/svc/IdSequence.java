@@ -0,0 +1,52 @@
+package com.teambronto.svc;
+
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.io.IOException;
+
+/**
+ * IdSequence hands out blocks of employee IDs from a counter row in the sequences table. A block is leased with a
+ * single atomic increment, so callers can hand out the IDs inside it from memory without talking to HBase again.
+ */
+public class IdSequence {
+    public static final TableName SEQUENCES_TABLENAME = TableName.valueOf("sequences");
+    private static final byte[] COUNTER_COL_FAMILY = Bytes.toBytes("counter");
+    private static final byte[] NEXT_COL = Bytes.toBytes("next");
+
+    private final byte[] counterRow;
+
+    /**
+     * @param name The name of the sequence, which is also its row key in the sequences table
+     */
+    public IdSequence(String name) {
+        this.counterRow = Bytes.toBytes(name);
+    }
+
+    /**
+     * Returns the descriptor used to create the sequences table.
+     */
+    public static HTableDescriptor tableDescriptor() {
+        HTableDescriptor descriptor = new HTableDescriptor(SEQUENCES_TABLENAME);
+        descriptor.addFamily(new HColumnDescriptor(COUNTER_COL_FAMILY));
+        return descriptor;
+    }
+
+    /**
+     * Leases the next block of IDs. IDs start at 1, and every block is above all of the blocks leased before it.
+     * @param sequencesTable The sequences table
+     * @param size The number of IDs in the block
+     * @return The first ID of the block. The block ends at (exclusive) the returned value plus size.
+     * @throws IOException If HBase cannot be reached
+     */
+    public long lease(Table sequencesTable, long size) throws IOException {
+        if (size < 1) {
+            throw new IllegalArgumentException("size must be positive: " + size);
+        }
+        long end = sequencesTable.incrementColumnValue(counterRow, COUNTER_COL_FAMILY, NEXT_COL, size);
+        return end - size + 1;
+    }
+}
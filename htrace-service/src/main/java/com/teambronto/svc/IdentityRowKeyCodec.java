@@ -0,0 +1,32 @@
+package com.teambronto.svc;
+
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Stores employee IDs as-is. This is how the service has always stored rows.
+ */
+public class IdentityRowKeyCodec implements RowKeyCodec {
+    @Override
+    public byte[] encode(String rowId) {
+        return Bytes.toBytes(rowId);
+    }
+
+    @Override
+    public String decode(byte[] rowKey) {
+        return Bytes.toString(rowKey);
+    }
+
+    @Override
+    public List<Scan> rangeScans(String startRow, String stopRow) {
+        return Collections.singletonList(new Scan(Bytes.toBytes(startRow), Bytes.toBytes(stopRow)));
+    }
+
+    @Override
+    public byte[][] splitKeys() {
+        return new byte[0][];
+    }
+}
@@ -0,0 +1,101 @@
+package com.teambronto.svc;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * What a bulk import did (see BulkImporter). Serialized as the body of /htrace-svc/import.
+ */
+public class ImportSummary {
+    /** Most errors described in a summary; the rest are only counted */
+    static final int MAX_ERRORS = 10;
+
+    private final long startNanos = System.nanoTime();
+    private final List<String> errors = new ArrayList<>();
+    private long rows;
+    private long rejected;
+    private long failed;
+    private long failedRows;
+    private long elapsedNanos;
+
+    /**
+     * @param rows The employees flushed
+     * @param failedRows How many of them had a write HBase refused
+     */
+    void written(int rows, int failedRows) {
+        this.rows += rows - failedRows;
+        this.failedRows += failedRows;
+    }
+
+    void rejected(long line, String why) {
+        rejected++;
+        error("line " + line + ": " + why);
+    }
+
+    void failed(int mutations, String why) {
+        failed += mutations;
+        error(why);
+    }
+
+    private void error(String description) {
+        if (errors.size() < MAX_ERRORS) {
+            errors.add(description);
+        }
+    }
+
+    void finished() {
+        elapsedNanos = System.nanoTime() - startNanos;
+    }
+
+    /**
+     * @return The employees whose writes all reached HBase
+     */
+    @JsonProperty
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * @return The lines that weren't imported because they weren't a complete employee
+     */
+    @JsonProperty
+    public long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * @return The mutations HBase still refused after its retries
+     */
+    @JsonProperty
+    public long getFailed() {
+        return failed;
+    }
+
+    /**
+     * @return The employees with at least one write HBase refused; they aren't counted in rows
+     */
+    @JsonProperty
+    public long getFailedRows() {
+        return failedRows;
+    }
+
+    @JsonProperty
+    public double getSeconds() {
+        return elapsedNanos / 1e9;
+    }
+
+    @JsonProperty
+    public double getRowsPerSecond() {
+        return elapsedNanos == 0 ? 0 : rows * 1e9 / elapsedNanos;
+    }
+
+    /**
+     * @return The first few rejected lines and failed writes, and why
+     */
+    @JsonProperty
+    public List<String> getErrors() {
+        return errors;
+    }
+}
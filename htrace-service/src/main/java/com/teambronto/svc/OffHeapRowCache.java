@@ -0,0 +1,584 @@
+package com.teambronto.svc;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import io.dropwizard.jackson.Jackson;
+import io.dropwizard.lifecycle.Managed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * OffHeapRowCache is a second-level cache of employee rows behind RowCache. It is kept in memory-mapped slab files
+ * outside the Java heap, so it can hold every employee without lengthening GC pauses. The files outlive the process:
+ * on start the index is rebuilt from the entries already in them, so a restarted instance serves warm rows straight
+ * away while the change feeds (see ChangeFeedSubscriber) catch it up from the positions saved with the cache.
+ *
+ * The slabs are cut into fixed-size slots holding one row each; rows that don't fit a slot aren't cached here. A
+ * compact open-addressing index maps the hash of each employee ID to its slot, and slots are reused in CLOCK order,
+ * where a slot that was read since the hand last passed gets a second chance. Every entry carries a CRC32 and the
+ * generation of the cache it was written in, so torn writes and entries from before an invalidateAll are ignored.
+ */
+public class OffHeapRowCache implements Managed {
+    private static final Logger LOGGER = LoggerFactory.getLogger(OffHeapRowCache.class);
+    private static final ObjectMapper MAPPER = Jackson.newObjectMapper();
+    private static final HashFunction HASH = Hashing.murmur3_128();
+    private static final String META_FILE = "cache.meta";
+    /** Marks a slot holding a complete entry; 0 marks a free slot */
+    private static final int MAGIC = 0x52574331;
+    /** magic, generation, cachedAt, row timestamp, ID length, JSON length */
+    private static final int HEADER = 4 + 4 + 8 + 8 + 2 + 4;
+    private static final int CHECKSUM = 4;
+
+    private final Path directory;
+    private final int slabs;
+    private final int slotsPerSlab;
+    private final int slotSize;
+    private final int slots;
+    private final long expireAfterWriteMs;
+    private final long checkpointIntervalMs;
+    private final MappedByteBuffer[] slabBuffers;
+    /** The index: the hash of the employee ID in each bucket (0 if the bucket is empty) and the slot holding it */
+    private final long[] bucketHashes;
+    private final int[] bucketSlots;
+    /** The hash of the row in each slot, 0 if the slot is free */
+    private final long[] slotHashes;
+    /** Bumped whenever a slot is written or cleared, so a read made outside the lock can tell it raced a change */
+    private final int[] slotVersions;
+    /** CLOCK reference bits, one per slot */
+    private final BitSet referenced;
+    /** The change feed positions applied to the cache, saved at each checkpoint */
+    private final Map<String, ChangeFeedSubscriber.Position> positions = new ConcurrentHashMap<>();
+    private Map<String, ChangeFeedSubscriber.Position> savedPositions = new HashMap<>();
+    private final Meter hits;
+    private final Meter misses;
+    private final Meter evictions;
+    private final Meter corrupt;
+    private final Meter tooLarge;
+    private int hand;
+    private int size;
+    private int generation;
+    /** The distinct rows indexed from the files at start */
+    private int restored;
+    private volatile boolean open;
+    private ScheduledExecutorService checkpointer;
+
+    /**
+     * @param directory Where the slab files are kept
+     * @param slabs The number of slab files
+     * @param slabSizeBytes The size of each slab file
+     * @param slotSize The size of each slot, which bounds the size of a cached row
+     * @param expireAfterWriteMs How long a row is served after it was read from HBase
+     * @param checkpointIntervalMs How often the slabs are flushed to disk and the feed positions saved
+     * @param metrics The registry the cache's metrics are added to
+     */
+    public OffHeapRowCache(Path directory, int slabs, int slabSizeBytes, int slotSize, long expireAfterWriteMs,
+                           long checkpointIntervalMs, MetricRegistry metrics) {
+        this.directory = directory;
+        this.slabs = slabs;
+        this.slotsPerSlab = slabSizeBytes / slotSize;
+        this.slotSize = slotSize;
+        this.slots = slabs * slotsPerSlab;
+        this.expireAfterWriteMs = expireAfterWriteMs;
+        this.checkpointIntervalMs = checkpointIntervalMs;
+        this.slabBuffers = new MappedByteBuffer[slabs];
+        // Keep the index at most half full so probes stay short.
+        int buckets = Integer.highestOneBit(Math.max(2, slots) * 2 - 1) << 1;
+        this.bucketHashes = new long[buckets];
+        this.bucketSlots = new int[buckets];
+        this.slotHashes = new long[slots];
+        this.slotVersions = new int[slots];
+        this.referenced = new BitSet(slots);
+
+        this.hits = metrics.meter(MetricRegistry.name(OffHeapRowCache.class, "hits"));
+        this.misses = metrics.meter(MetricRegistry.name(OffHeapRowCache.class, "misses"));
+        this.evictions = metrics.meter(MetricRegistry.name(OffHeapRowCache.class, "evictions"));
+        this.corrupt = metrics.meter(MetricRegistry.name(OffHeapRowCache.class, "corrupt"));
+        this.tooLarge = metrics.meter(MetricRegistry.name(OffHeapRowCache.class, "too-large"));
+        metrics.register(MetricRegistry.name(OffHeapRowCache.class, "size"), (Gauge<Integer>) this::size);
+        metrics.register(MetricRegistry.name(OffHeapRowCache.class, "restored"), (Gauge<Integer>) () -> restored);
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Maps the slab files and indexes the rows already in them. Files written with a different slot layout are
+     * started over.
+     */
+    @Override
+    public void start() throws IOException {
+        Files.createDirectories(directory);
+        Meta meta = readMeta();
+        boolean warm = meta != null && meta.slabs == slabs && meta.slotsPerSlab == slotsPerSlab
+                && meta.slotSize == slotSize;
+        if (!warm) {
+            for (int i = 0; i < slabs; i++) {
+                Files.deleteIfExists(slabFile(i));
+            }
+        }
+        for (int i = 0; i < slabs; i++) {
+            try (FileChannel channel = FileChannel.open(slabFile(i), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                // The mapping stays valid after the channel is closed.
+                slabBuffers[i] = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) slotsPerSlab * slotSize);
+            }
+        }
+
+        synchronized (this) {
+            if (warm) {
+                generation = meta.generation;
+                savedPositions = new HashMap<>(meta.feeds);
+                positions.putAll(meta.feeds);
+                restore();
+            }
+            writeMeta(savedPositions);
+            open = true;
+        }
+        LOGGER.info("Restored {} rows from the off-heap row cache in {}", restored, directory);
+
+        checkpointer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "off-heap-row-cache");
+            thread.setDaemon(true);
+            return thread;
+        });
+        checkpointer.scheduleWithFixedDelay(this::checkpoint, checkpointIntervalMs, checkpointIntervalMs,
+                TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void stop() {
+        checkpointer.shutdownNow();
+        checkpoint();
+        open = false;
+    }
+
+    /**
+     * Looks a row up. Only the index lookup and the final check hold the lock; the slot is checksummed and copied
+     * without it, and the copy is thrown away if the slot was rewritten in the meantime.
+     * @param rowId The employee's ID
+     * @return The employee, or null if it isn't cached
+     */
+    public RowCache.Row get(String rowId) {
+        long hash = hash(rowId);
+        int slot;
+        int version;
+        int readGeneration;
+        synchronized (this) {
+            if (!open) {
+                return null;
+            }
+            int bucket = find(hash);
+            if (bucket < 0) {
+                misses.mark();
+                return null;
+            }
+            slot = bucketSlots[bucket];
+            version = slotVersions[slot];
+            readGeneration = generation;
+        }
+
+        Entry entry = read(slot, readGeneration);
+
+        synchronized (this) {
+            if (!open || slotVersions[slot] != version || generation != readGeneration) {
+                // Rewritten, evicted or invalidated while it was being read; the copy may be torn.
+                misses.mark();
+                return null;
+            }
+            if (entry == null || entry == CORRUPT || isExpired(entry, System.currentTimeMillis())) {
+                if (entry == CORRUPT) {
+                    corrupt.mark();
+                }
+                int bucket = find(hash);
+                if (bucket >= 0 && bucketSlots[bucket] == slot) {
+                    drop(bucket, slot);
+                }
+                misses.mark();
+                return null;
+            }
+            if (!entry.rowId.equals(rowId)) {
+                // Another ID with the same hash.
+                misses.mark();
+                return null;
+            }
+            referenced.set(slot);
+            hits.mark();
+            return entry.row;
+        }
+    }
+
+    /**
+     * Caches a row, replacing any older copy. A row too large for a slot only drops the older copy.
+     * @param rowId The employee's ID
+     * @param row The employee
+     */
+    public void put(String rowId, RowCache.Row row) {
+        byte[] key = rowId.getBytes(StandardCharsets.UTF_8);
+        byte[] json = row.getJson().getBytes(StandardCharsets.UTF_8);
+        if (key.length > Short.MAX_VALUE || HEADER + key.length + json.length + CHECKSUM > slotSize) {
+            tooLarge.mark();
+            invalidate(rowId);
+            return;
+        }
+        long hash = hash(rowId);
+        synchronized (this) {
+            if (!open) {
+                return;
+            }
+            int bucket = find(hash);
+            int slot = bucket >= 0 ? bucketSlots[bucket] : claim();
+            write(slot, key, json, System.currentTimeMillis(), row.getTimestamp());
+            slotHashes[slot] = hash;
+            index(hash, slot);
+        }
+    }
+
+    public synchronized void invalidate(String rowId) {
+        if (!open) {
+            return;
+        }
+        int bucket = find(hash(rowId));
+        if (bucket >= 0) {
+            drop(bucket, bucketSlots[bucket]);
+        }
+    }
+
+    /**
+     * Drops every row by moving to a new generation, which is saved straight away so the old entries stay dropped
+     * after a restart.
+     */
+    public synchronized void invalidateAll() {
+        generation++;
+        Arrays.fill(bucketHashes, 0);
+        Arrays.fill(slotHashes, 0);
+        referenced.clear();
+        size = 0;
+        if (open) {
+            writeMeta(savedPositions);
+        }
+    }
+
+    /**
+     * @param source The base URL of a change feed
+     * @return The last position of the feed applied to the cache, or null if there is none
+     */
+    public ChangeFeedSubscriber.Position resumeFrom(String source) {
+        return positions.get(source);
+    }
+
+    /**
+     * Records that a feed's changes up to a position have been applied to the cache.
+     * @param source The base URL of the feed
+     * @param position The position
+     */
+    public void applied(String source, ChangeFeedSubscriber.Position position) {
+        positions.put(source, position);
+    }
+
+    /**
+     * Flushes the slabs to disk, then saves the feed positions taken before the flush, so the saved positions never
+     * claim more than the files hold.
+     */
+    private void checkpoint() {
+        if (!open) {
+            return;
+        }
+        Map<String, ChangeFeedSubscriber.Position> flushed = new HashMap<>(positions);
+        for (MappedByteBuffer slab : slabBuffers) {
+            slab.force();
+        }
+        synchronized (this) {
+            savedPositions = flushed;
+            writeMeta(flushed);
+        }
+    }
+
+    /**
+     * Indexes every valid entry in the slabs. If an ID turns up twice, the copy cached last wins.
+     */
+    private void restore() {
+        long now = System.currentTimeMillis();
+        for (int slot = 0; slot < slots; slot++) {
+            Entry entry = read(slot, generation);
+            if (entry == CORRUPT) {
+                corrupt.mark();
+                continue;
+            }
+            if (entry == null || isExpired(entry, now)) {
+                continue;
+            }
+            long hash = hash(entry.rowId);
+            int bucket = find(hash);
+            if (bucket >= 0) {
+                // Already restored from another slot; only the rows are counted, not their copies.
+                Entry other = read(bucketSlots[bucket], generation);
+                if (other != null && other != CORRUPT && other.cachedAt >= entry.cachedAt) {
+                    clear(slot);
+                    continue;
+                }
+                clear(bucketSlots[bucket]);
+                slotHashes[bucketSlots[bucket]] = 0;
+            } else {
+                restored++;
+            }
+            slotHashes[slot] = hash;
+            index(hash, slot);
+        }
+    }
+
+    private boolean isExpired(Entry entry, long now) {
+        return now - entry.cachedAt > expireAfterWriteMs;
+    }
+
+    /**
+     * Picks the slot for a new row: the first free slot under the CLOCK hand, or the first one not read since the
+     * hand last passed it, whose row is evicted.
+     */
+    private int claim() {
+        // After one sweep every reference bit is clear, so the second sweep always finds a slot.
+        for (int i = 0; ; i++) {
+            int slot = hand;
+            hand = (hand + 1) % slots;
+            if (slotHashes[slot] == 0) {
+                return slot;
+            }
+            if (referenced.get(slot) && i < slots) {
+                referenced.clear(slot);
+                continue;
+            }
+            int bucket = find(slotHashes[slot]);
+            if (bucket >= 0 && bucketSlots[bucket] == slot) {
+                unindex(bucket);
+            }
+            slotHashes[slot] = 0;
+            referenced.clear(slot);
+            evictions.mark();
+            return slot;
+        }
+    }
+
+    private void drop(int bucket, int slot) {
+        unindex(bucket);
+        slotHashes[slot] = 0;
+        referenced.clear(slot);
+        clear(slot);
+    }
+
+    private static long hash(String rowId) {
+        long hash = HASH.hashString(rowId, StandardCharsets.UTF_8).asLong();
+        return hash != 0 ? hash : 1;
+    }
+
+    private int bucketOf(long hash) {
+        return (int) hash & (bucketHashes.length - 1);
+    }
+
+    private int find(long hash) {
+        int mask = bucketHashes.length - 1;
+        for (int bucket = bucketOf(hash); bucketHashes[bucket] != 0; bucket = (bucket + 1) & mask) {
+            if (bucketHashes[bucket] == hash) {
+                return bucket;
+            }
+        }
+        return -1;
+    }
+
+    private void index(long hash, int slot) {
+        int mask = bucketHashes.length - 1;
+        int bucket = bucketOf(hash);
+        while (bucketHashes[bucket] != 0 && bucketHashes[bucket] != hash) {
+            bucket = (bucket + 1) & mask;
+        }
+        if (bucketHashes[bucket] == 0) {
+            size++;
+        }
+        bucketHashes[bucket] = hash;
+        bucketSlots[bucket] = slot;
+    }
+
+    /**
+     * Removes a bucket from the index, shifting back the entries after it that probed past it so that no lookup
+     * stops early at the gap.
+     */
+    private void unindex(int bucket) {
+        int mask = bucketHashes.length - 1;
+        int hole = bucket;
+        for (int next = (hole + 1) & mask; bucketHashes[next] != 0; next = (next + 1) & mask) {
+            int home = bucketOf(bucketHashes[next]);
+            boolean stays = hole < next ? home > hole && home <= next : home > hole || home <= next;
+            if (!stays) {
+                bucketHashes[hole] = bucketHashes[next];
+                bucketSlots[hole] = bucketSlots[next];
+                hole = next;
+            }
+        }
+        bucketHashes[hole] = 0;
+        size--;
+    }
+
+    private ByteBuffer slot(int slot) {
+        ByteBuffer buffer = ((ByteBuffer) slabBuffers[slot / slotsPerSlab]).duplicate();
+        int offset = (slot % slotsPerSlab) * slotSize;
+        buffer.limit(offset + slotSize);
+        buffer.position(offset);
+        return buffer.slice();
+    }
+
+    private void clear(int slot) {
+        slotVersions[slot]++;
+        slot(slot).putInt(0, 0);
+    }
+
+    /**
+     * Writes an entry. The magic number goes in last, so an entry cut short by a crash is never taken as complete.
+     */
+    private void write(int slot, byte[] key, byte[] json, long cachedAt, long timestamp) {
+        slotVersions[slot]++;
+        ByteBuffer buffer = slot(slot);
+        buffer.putInt(0, 0);
+        buffer.putInt(4, generation);
+        buffer.putLong(8, cachedAt);
+        buffer.putLong(16, timestamp);
+        buffer.putShort(24, (short) key.length);
+        buffer.putInt(26, json.length);
+        buffer.position(HEADER);
+        buffer.put(key);
+        buffer.put(json);
+        int end = HEADER + key.length + json.length;
+        buffer.putInt(end, checksum(buffer, end));
+        buffer.putInt(0, MAGIC);
+    }
+
+    /**
+     * Reads the entry in a slot. It may run without the lock, in which case a slot rewritten during the read gives a
+     * torn copy that the caller must discard.
+     * @return The entry, null if the slot is free or from another generation, or CORRUPT if its checksum is wrong
+     */
+    private Entry read(int slot, int generation) {
+        ByteBuffer buffer = slot(slot);
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != generation) {
+            return null;
+        }
+        long cachedAt = buffer.getLong(8);
+        long timestamp = buffer.getLong(16);
+        int keyLength = buffer.getShort(24);
+        int jsonLength = buffer.getInt(26);
+        int end = HEADER + keyLength + jsonLength;
+        if (keyLength < 0 || jsonLength < 0 || jsonLength > slotSize || end + CHECKSUM > slotSize
+                || buffer.getInt(end) != checksum(buffer, end)) {
+            return CORRUPT;
+        }
+        byte[] key = new byte[keyLength];
+        byte[] json = new byte[jsonLength];
+        buffer.position(HEADER);
+        buffer.get(key);
+        buffer.get(json);
+        return new Entry(new String(key, StandardCharsets.UTF_8), cachedAt,
+                new RowCache.Row(new String(json, StandardCharsets.UTF_8), timestamp));
+    }
+
+    /**
+     * @return The CRC32 of everything in an entry after the magic number, up to end
+     */
+    private static int checksum(ByteBuffer slot, int end) {
+        ByteBuffer covered = slot.duplicate();
+        covered.limit(end);
+        covered.position(4);
+        CRC32 crc = new CRC32();
+        crc.update(covered);
+        return (int) crc.getValue();
+    }
+
+    private Path slabFile(int slab) {
+        return directory.resolve("slab-" + slab);
+    }
+
+    private Meta readMeta() {
+        Path file = directory.resolve(META_FILE);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try {
+            return MAPPER.readValue(file.toFile(), Meta.class);
+        } catch (IOException e) {
+            LOGGER.warn("Couldn't read {}, starting the off-heap row cache cold", file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Saves the slot layout, generation and feed positions, replacing the old file in one step.
+     */
+    private void writeMeta(Map<String, ChangeFeedSubscriber.Position> feeds) {
+        Meta meta = new Meta();
+        meta.slabs = slabs;
+        meta.slotsPerSlab = slotsPerSlab;
+        meta.slotSize = slotSize;
+        meta.generation = generation;
+        meta.feeds = feeds;
+        Path file = directory.resolve(META_FILE);
+        Path temp = directory.resolve(META_FILE + ".tmp");
+        try {
+            MAPPER.writeValue(temp.toFile(), meta);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.warn("Couldn't save {}", file, e);
+        }
+    }
+
+    /** What read returns for a slot whose checksum doesn't match */
+    private static final Entry CORRUPT = new Entry(null, 0, null);
+
+    private static class Entry {
+        private final String rowId;
+        private final long cachedAt;
+        private final RowCache.Row row;
+
+        Entry(String rowId, long cachedAt, RowCache.Row row) {
+            this.rowId = rowId;
+            this.cachedAt = cachedAt;
+            this.row = row;
+        }
+    }
+
+    /**
+     * What is saved next to the slabs: their layout, the current generation and the feed positions applied.
+     */
+    static class Meta {
+        @JsonProperty
+        int slabs;
+        @JsonProperty
+        int slotsPerSlab;
+        @JsonProperty
+        int slotSize;
+        @JsonProperty
+        int generation;
+        @JsonProperty
+        Map<String, ChangeFeedSubscriber.Position> feeds = new HashMap<>();
+    }
+}
@@ -0,0 +1,38 @@
+package com.teambronto.svc;
+
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Stores employee IDs with their characters reversed, so the fastest changing digit of a sequential ID comes first.
+ * Ordering is lost, so a range read has to scan the whole table.
+ */
+public class ReversedRowKeyCodec implements RowKeyCodec {
+    @Override
+    public byte[] encode(String rowId) {
+        return Bytes.toBytes(new StringBuilder(rowId).reverse().toString());
+    }
+
+    @Override
+    public String decode(byte[] rowKey) {
+        return new StringBuilder(Bytes.toString(rowKey)).reverse().toString();
+    }
+
+    @Override
+    public List<Scan> rangeScans(String startRow, String stopRow) {
+        return Collections.singletonList(new Scan());
+    }
+
+    @Override
+    public boolean preservesOrder() {
+        return false;
+    }
+
+    @Override
+    public byte[][] splitKeys() {
+        return new byte[0][];
+    }
+}
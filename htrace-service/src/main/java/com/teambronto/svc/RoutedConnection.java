@@ -0,0 +1,96 @@
+package com.teambronto.svc;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.*;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * RoutedConnection is a Connection to every cluster of a ClusterRouter. Its tables are RoutedTables, so reads go to
+ * the best cluster and writes to the primary; admin calls, buffered mutators and region locations are always the
+ * primary's.
+ */
+public class RoutedConnection implements Connection {
+    private final ClusterRouter router;
+
+    public RoutedConnection(ClusterRouter router) {
+        this.router = router;
+    }
+
+    private Connection primary() {
+        return router.getPrimary().getConnection();
+    }
+
+    @Override
+    public Configuration getConfiguration() {
+        return primary().getConfiguration();
+    }
+
+    @Override
+    public Table getTable(TableName tableName) throws IOException {
+        return new RoutedTable(tableName, router);
+    }
+
+    /**
+     * Each cluster's connection runs its calls on its own executor, so the given one isn't used.
+     */
+    @Override
+    public Table getTable(TableName tableName, ExecutorService executorService) throws IOException {
+        return getTable(tableName);
+    }
+
+    @Override
+    public BufferedMutator getBufferedMutator(TableName tableName) throws IOException {
+        return primary().getBufferedMutator(tableName);
+    }
+
+    @Override
+    public BufferedMutator getBufferedMutator(BufferedMutatorParams params) throws IOException {
+        return primary().getBufferedMutator(params);
+    }
+
+    @Override
+    public RegionLocator getRegionLocator(TableName tableName) throws IOException {
+        return primary().getRegionLocator(tableName);
+    }
+
+    @Override
+    public Admin getAdmin() throws IOException {
+        return primary().getAdmin();
+    }
+
+    /**
+     * Closes the connection to every cluster.
+     */
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (HBaseCluster cluster : router.getClusters()) {
+            try {
+                cluster.getConnection().close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public boolean isClosed() {
+        return primary().isClosed();
+    }
+
+    @Override
+    public void abort(String why, Throwable e) {
+        router.getClusters().forEach(cluster -> cluster.getConnection().abort(why, e));
+    }
+
+    @Override
+    public boolean isAborted() {
+        return primary().isAborted();
+    }
+}
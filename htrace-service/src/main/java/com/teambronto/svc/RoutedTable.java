@@ -0,0 +1,407 @@
+package com.teambronto.svc;
+
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.Message;
+import com.google.protobuf.Service;
+import com.google.protobuf.ServiceException;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.*;
+import org.apache.hadoop.hbase.client.coprocessor.Batch;
+import org.apache.hadoop.hbase.filter.CompareFilter;
+import org.apache.hadoop.hbase.ipc.CoprocessorRpcChannel;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * RoutedTable is one table on every cluster of a ClusterRouter. Gets, exists and scans go where the router sends
+ * reads; everything else goes to the primary. The table is opened on a cluster the first time a call goes there.
+ *
+ * The other clusters are replicated asynchronously, so a Result read from one of them is marked stale, just like a
+ * Result from a region replica.
+ */
+public class RoutedTable implements Table {
+    private final TableName name;
+    private final ClusterRouter router;
+    private final Map<HBaseCluster, Table> open = new ConcurrentHashMap<>();
+    private volatile int operationTimeout;
+    private volatile int rpcTimeout;
+
+    public RoutedTable(TableName name, ClusterRouter router) throws IOException {
+        this.name = name;
+        this.router = router;
+        Table primary = router.getPrimary().getConnection().getTable(name);
+        open.put(router.getPrimary(), primary);
+        this.operationTimeout = primary.getOperationTimeout();
+        this.rpcTimeout = primary.getRpcTimeout();
+    }
+
+    /**
+     * Returns the table on a cluster, opening it with this table's timeouts if this is its first call there.
+     */
+    private Table on(HBaseCluster cluster) throws IOException {
+        Table table = open.get(cluster);
+        if (table == null) {
+            table = cluster.getConnection().getTable(name);
+            table.setOperationTimeout(operationTimeout);
+            table.setRpcTimeout(rpcTimeout);
+            Table raced = open.putIfAbsent(cluster, table);
+            if (raced != null) {
+                table.close();
+                table = raced;
+            }
+        }
+        return table;
+    }
+
+    private Table primary() throws IOException {
+        return on(router.getPrimary());
+    }
+
+    private Result marked(HBaseCluster cluster, Result result) {
+        if (cluster == router.getPrimary() || result == null || result.isStale()) {
+            return result;
+        }
+        return Result.create(result.rawCells(), result.getExists(), true);
+    }
+
+    private ResultScanner marked(HBaseCluster cluster, ResultScanner scanner) {
+        return cluster == router.getPrimary() ? scanner : new StaleScanner(cluster, scanner);
+    }
+
+    private static boolean primaryOnly(OperationWithAttributes operation) {
+        return operation.getAttribute(ClusterRouter.PRIMARY_ONLY) != null;
+    }
+
+    @Override
+    public TableName getName() {
+        return name;
+    }
+
+    @Override
+    public Configuration getConfiguration() {
+        return router.getPrimary().getConnection().getConfiguration();
+    }
+
+    @Override
+    public HTableDescriptor getTableDescriptor() throws IOException {
+        return primary().getTableDescriptor();
+    }
+
+    @Override
+    public boolean exists(Get get) throws IOException {
+        if (primaryOnly(get)) {
+            return router.write(cluster -> on(cluster).exists(get));
+        }
+        return router.read(true, cluster -> on(cluster).exists(get));
+    }
+
+    @Override
+    public boolean[] existsAll(List<Get> gets) throws IOException {
+        return router.read(true, cluster -> on(cluster).existsAll(gets));
+    }
+
+    @Override
+    public Result get(Get get) throws IOException {
+        if (primaryOnly(get)) {
+            return router.write(cluster -> on(cluster).get(get));
+        }
+        return router.read(true, cluster -> marked(cluster, on(cluster).get(get)));
+    }
+
+    @Override
+    public Result[] get(List<Get> gets) throws IOException {
+        return router.read(true, cluster -> {
+            Result[] results = on(cluster).get(gets);
+            for (int i = 0; i < results.length; i++) {
+                results[i] = marked(cluster, results[i]);
+            }
+            return results;
+        });
+    }
+
+    @Override
+    public ResultScanner getScanner(Scan scan) throws IOException {
+        if (primaryOnly(scan)) {
+            return router.write(cluster -> on(cluster).getScanner(scan));
+        }
+        // A scanner holds state on the cluster that opened it, so it can't be hedged.
+        return router.read(false, cluster -> marked(cluster, on(cluster).getScanner(scan)));
+    }
+
+    @Override
+    public ResultScanner getScanner(byte[] family) throws IOException {
+        return router.read(false, cluster -> marked(cluster, on(cluster).getScanner(family)));
+    }
+
+    @Override
+    public ResultScanner getScanner(byte[] family, byte[] qualifier) throws IOException {
+        return router.read(false, cluster -> marked(cluster, on(cluster).getScanner(family, qualifier)));
+    }
+
+    @Override
+    public void batch(List<? extends Row> actions, Object[] results) throws IOException, InterruptedException {
+        primary().batch(actions, results);
+    }
+
+    @Override
+    public Object[] batch(List<? extends Row> actions) throws IOException, InterruptedException {
+        return primary().batch(actions);
+    }
+
+    @Override
+    public <R> void batchCallback(List<? extends Row> actions, Object[] results, Batch.Callback<R> callback)
+            throws IOException, InterruptedException {
+        primary().batchCallback(actions, results, callback);
+    }
+
+    @Override
+    public <R> Object[] batchCallback(List<? extends Row> actions, Batch.Callback<R> callback)
+            throws IOException, InterruptedException {
+        return primary().batchCallback(actions, callback);
+    }
+
+    @Override
+    public void put(Put put) throws IOException {
+        router.write(cluster -> {
+            on(cluster).put(put);
+            return null;
+        });
+    }
+
+    @Override
+    public void put(List<Put> puts) throws IOException {
+        router.write(cluster -> {
+            on(cluster).put(puts);
+            return null;
+        });
+    }
+
+    @Override
+    public boolean checkAndPut(byte[] row, byte[] family, byte[] qualifier, byte[] value, Put put)
+            throws IOException {
+        return router.write(cluster -> on(cluster).checkAndPut(row, family, qualifier, value, put));
+    }
+
+    @Override
+    public boolean checkAndPut(byte[] row, byte[] family, byte[] qualifier, CompareFilter.CompareOp compareOp,
+                               byte[] value, Put put) throws IOException {
+        return router.write(cluster -> on(cluster).checkAndPut(row, family, qualifier, compareOp, value, put));
+    }
+
+    @Override
+    public void delete(Delete delete) throws IOException {
+        router.write(cluster -> {
+            on(cluster).delete(delete);
+            return null;
+        });
+    }
+
+    @Override
+    public void delete(List<Delete> deletes) throws IOException {
+        router.write(cluster -> {
+            on(cluster).delete(deletes);
+            return null;
+        });
+    }
+
+    @Override
+    public boolean checkAndDelete(byte[] row, byte[] family, byte[] qualifier, byte[] value, Delete delete)
+            throws IOException {
+        return router.write(cluster -> on(cluster).checkAndDelete(row, family, qualifier, value, delete));
+    }
+
+    @Override
+    public boolean checkAndDelete(byte[] row, byte[] family, byte[] qualifier, CompareFilter.CompareOp compareOp,
+                                  byte[] value, Delete delete) throws IOException {
+        return router.write(cluster -> on(cluster).checkAndDelete(row, family, qualifier, compareOp, value,
+                delete));
+    }
+
+    @Override
+    public void mutateRow(RowMutations rm) throws IOException {
+        router.write(cluster -> {
+            on(cluster).mutateRow(rm);
+            return null;
+        });
+    }
+
+    @Override
+    public Result append(Append append) throws IOException {
+        return router.write(cluster -> on(cluster).append(append));
+    }
+
+    @Override
+    public Result increment(Increment increment) throws IOException {
+        return router.write(cluster -> on(cluster).increment(increment));
+    }
+
+    @Override
+    public long incrementColumnValue(byte[] row, byte[] family, byte[] qualifier, long amount) throws IOException {
+        return router.write(cluster -> on(cluster).incrementColumnValue(row, family, qualifier, amount));
+    }
+
+    @Override
+    public long incrementColumnValue(byte[] row, byte[] family, byte[] qualifier, long amount,
+                                     Durability durability) throws IOException {
+        return router.write(cluster -> on(cluster).incrementColumnValue(row, family, qualifier, amount,
+                durability));
+    }
+
+    @Override
+    public boolean checkAndMutate(byte[] row, byte[] family, byte[] qualifier, CompareFilter.CompareOp compareOp,
+                                  byte[] value, RowMutations mutation) throws IOException {
+        return router.write(cluster -> on(cluster).checkAndMutate(row, family, qualifier, compareOp, value,
+                mutation));
+    }
+
+    /**
+     * Closes the table on every cluster it was opened on.
+     */
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (Table table : open.values()) {
+            try {
+                table.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        open.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public CoprocessorRpcChannel coprocessorService(byte[] row) {
+        try {
+            return primary().coprocessorService(row);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public <T extends Service, R> Map<byte[], R> coprocessorService(Class<T> service, byte[] startKey,
+                                                                    byte[] endKey, Batch.Call<T, R> callable)
+            throws ServiceException, Throwable {
+        return primary().coprocessorService(service, startKey, endKey, callable);
+    }
+
+    @Override
+    public <T extends Service, R> void coprocessorService(Class<T> service, byte[] startKey, byte[] endKey,
+                                                          Batch.Call<T, R> callable, Batch.Callback<R> callback)
+            throws ServiceException, Throwable {
+        primary().coprocessorService(service, startKey, endKey, callable, callback);
+    }
+
+    @Override
+    public <R extends Message> Map<byte[], R> batchCoprocessorService(Descriptors.MethodDescriptor methodDescriptor,
+                                                                      Message request, byte[] startKey, byte[] endKey,
+                                                                      R responsePrototype) throws Throwable {
+        return primary().batchCoprocessorService(methodDescriptor, request, startKey, endKey, responsePrototype);
+    }
+
+    @Override
+    public <R extends Message> void batchCoprocessorService(Descriptors.MethodDescriptor methodDescriptor,
+                                                            Message request, byte[] startKey, byte[] endKey,
+                                                            R responsePrototype, Batch.Callback<R> callback)
+            throws Throwable {
+        primary().batchCoprocessorService(methodDescriptor, request, startKey, endKey, responsePrototype, callback);
+    }
+
+    @Override
+    public long getWriteBufferSize() {
+        try {
+            return primary().getWriteBufferSize();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void setWriteBufferSize(long writeBufferSize) throws IOException {
+        primary().setWriteBufferSize(writeBufferSize);
+    }
+
+    /**
+     * Sets the operation timeout on every cluster the table is open on, and on those it is opened on later.
+     */
+    @Override
+    public void setOperationTimeout(int operationTimeout) {
+        this.operationTimeout = operationTimeout;
+        open.values().forEach(table -> table.setOperationTimeout(operationTimeout));
+    }
+
+    @Override
+    public int getOperationTimeout() {
+        return operationTimeout;
+    }
+
+    @Override
+    public void setRpcTimeout(int rpcTimeout) {
+        this.rpcTimeout = rpcTimeout;
+        open.values().forEach(table -> table.setRpcTimeout(rpcTimeout));
+    }
+
+    @Override
+    public int getRpcTimeout() {
+        return rpcTimeout;
+    }
+
+    /**
+     * A scanner opened on another cluster, which marks each Result it returns stale.
+     */
+    private class StaleScanner implements ResultScanner {
+        private final HBaseCluster cluster;
+        private final ResultScanner scanner;
+
+        StaleScanner(HBaseCluster cluster, ResultScanner scanner) {
+            this.cluster = cluster;
+            this.scanner = scanner;
+        }
+
+        @Override
+        public Result next() throws IOException {
+            return marked(cluster, scanner.next());
+        }
+
+        @Override
+        public Result[] next(int nbRows) throws IOException {
+            Result[] results = scanner.next(nbRows);
+            for (int i = 0; i < results.length; i++) {
+                results[i] = marked(cluster, results[i]);
+            }
+            return results;
+        }
+
+        @Override
+        public Iterator<Result> iterator() {
+            Iterator<Result> results = scanner.iterator();
+            return new Iterator<Result>() {
+                @Override
+                public boolean hasNext() {
+                    return results.hasNext();
+                }
+
+                @Override
+                public Result next() {
+                    return marked(cluster, results.next());
+                }
+            };
+        }
+
+        @Override
+        public void close() {
+            scanner.close();
+        }
+    }
+}
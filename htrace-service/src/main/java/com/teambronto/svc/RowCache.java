@@ -0,0 +1,151 @@
+package com.teambronto.svc;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An on-heap cache of employee rows as JSON, keyed by employee ID. Writes made through this instance invalidate the
+ * row straight away. Writes made through another instance are seen when its change feed is followed (see
+ * ChangeFeedSubscriber), and otherwise once the entry expires, which is why the relays send every request for a
+ * row to the same instance.
+ *
+ * Rows can also be kept off the heap in an OffHeapRowCache behind this one, which holds many more of them and keeps
+ * them across restarts. Rows found there are copied back into memory.
+ */
+public class RowCache implements ChangeFeedSubscriber.Listener {
+    private final Cache<String, Row> rows;
+    /** The second-level cache, or null if there is none */
+    private final OffHeapRowCache offHeap;
+    /** Counts invalidations, so a read that raced with a write doesn't cache what it read */
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * @param metrics The registry the cache's hit and miss metrics are added to
+     * @param maximumSize The most rows kept
+     * @param expireAfterWriteMs How long a row is kept after it was read from HBase
+     */
+    public RowCache(MetricRegistry metrics, long maximumSize, long expireAfterWriteMs) {
+        this(metrics, maximumSize, expireAfterWriteMs, null);
+    }
+
+    /**
+     * @param metrics The registry the cache's hit and miss metrics are added to
+     * @param maximumSize The most rows kept on the heap
+     * @param expireAfterWriteMs How long a row is kept on the heap after it was read from HBase
+     * @param offHeap The second-level cache, or null
+     */
+    public RowCache(MetricRegistry metrics, long maximumSize, long expireAfterWriteMs, OffHeapRowCache offHeap) {
+        this.offHeap = offHeap;
+        this.rows = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfterWriteMs, TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+        metrics.register(MetricRegistry.name(RowCache.class, "hits"), (Gauge<Long>) () -> rows.stats().hitCount());
+        metrics.register(MetricRegistry.name(RowCache.class, "misses"), (Gauge<Long>) () -> rows.stats().missCount());
+        metrics.register(MetricRegistry.name(RowCache.class, "hit-rate"), (Gauge<Double>) () -> rows.stats().hitRate());
+        metrics.register(MetricRegistry.name(RowCache.class, "size"), (Gauge<Long>) rows::size);
+    }
+
+    /**
+     * @param rowId The employee's ID
+     * @return The employee, or null if it isn't cached
+     */
+    public Row get(String rowId) {
+        Row row = rows.getIfPresent(rowId);
+        if (row == null && offHeap != null) {
+            long stamp = stamp();
+            row = offHeap.get(rowId);
+            if (row != null) {
+                rows.put(rowId, row);
+                if (invalidations.get() != stamp) {
+                    rows.invalidate(rowId);
+                }
+            }
+        }
+        return row;
+    }
+
+    /**
+     * @return A stamp to take before reading a row from HBase and pass to put
+     */
+    public long stamp() {
+        return invalidations.get();
+    }
+
+    /**
+     * Caches a row read from HBase, unless something was invalidated since the read started, in which case the row
+     * may already be out of date.
+     * @param rowId The employee's ID
+     * @param row The employee
+     * @param stamp What stamp returned before the read
+     */
+    public void put(String rowId, Row row, long stamp) {
+        rows.put(rowId, row);
+        if (offHeap != null) {
+            offHeap.put(rowId, row);
+        }
+        if (invalidations.get() != stamp) {
+            rows.invalidate(rowId);
+            if (offHeap != null) {
+                offHeap.invalidate(rowId);
+            }
+        }
+    }
+
+    @Override
+    public void invalidate(String rowId) {
+        invalidations.incrementAndGet();
+        rows.invalidate(rowId);
+        if (offHeap != null) {
+            offHeap.invalidate(rowId);
+        }
+    }
+
+    @Override
+    public void invalidateAll() {
+        invalidations.incrementAndGet();
+        rows.invalidateAll();
+        if (offHeap != null) {
+            offHeap.invalidateAll();
+        }
+    }
+
+    @Override
+    public ChangeFeedSubscriber.Position resumeFrom(String source) {
+        return offHeap != null ? offHeap.resumeFrom(source) : null;
+    }
+
+    @Override
+    public void applied(String source, ChangeFeedSubscriber.Position position) {
+        if (offHeap != null) {
+            offHeap.applied(source, position);
+        }
+    }
+
+    /**
+     * A cached employee: its JSON and the timestamp of its newest cell, which is what its ETag is made from.
+     */
+    public static class Row {
+        private final String json;
+        private final long timestamp;
+
+        public Row(String json, long timestamp) {
+            this.json = json;
+            this.timestamp = timestamp;
+        }
+
+        public String getJson() {
+            return json;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+    }
+}
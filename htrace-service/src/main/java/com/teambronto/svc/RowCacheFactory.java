@@ -0,0 +1,108 @@
+package com.teambronto.svc;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.setup.Environment;
+
+import javax.validation.Valid;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.nio.file.Paths;
+
+/**
+ * The rowCache block of htrace-service.yml. Employee reads are served from memory when the row is cached, and from
+ * the off-heap slab files behind it when those are enabled.
+ */
+public class RowCacheFactory {
+    @JsonProperty
+    private boolean enabled = true;
+
+    /** The most employee rows kept in memory */
+    @Min(1)
+    @JsonProperty
+    private long maximumSize = 100000;
+
+    /** How long a cached row is served before it is read from HBase again */
+    @Min(1)
+    @JsonProperty
+    private long expireAfterWriteMs = 30000;
+
+    /** The second-level cache in memory-mapped files */
+    @Valid
+    @NotNull
+    @JsonProperty
+    private OffHeapFactory offHeap = new OffHeapFactory();
+
+    /**
+     * Builds the row cache, or returns null if caching is disabled. The off-heap cache is managed by the
+     * environment, so it must be built before anything that follows the change feeds.
+     * @param environment The environment the caches' metrics and lifecycle are registered with
+     * @return The cache, or null
+     */
+    public RowCache build(Environment environment) {
+        if (!enabled) {
+            return null;
+        }
+        OffHeapRowCache offHeapCache = offHeap.build(environment.metrics());
+        if (offHeapCache != null) {
+            environment.lifecycle().manage(offHeapCache);
+        }
+        return new RowCache(environment.metrics(), maximumSize, expireAfterWriteMs, offHeapCache);
+    }
+
+    /**
+     * @return Whether rows are served from the off-heap files for longer than from memory
+     */
+    boolean keepsRowsOffHeapLonger() {
+        return enabled && offHeap.enabled && offHeap.expireAfterWriteMs > expireAfterWriteMs;
+    }
+
+    /**
+     * The rowCache.offHeap block.
+     */
+    public static class OffHeapFactory {
+        @JsonProperty
+        private boolean enabled = false;
+
+        /** Where the slab files and the saved feed positions are kept */
+        @NotNull
+        @JsonProperty
+        private String directory = "/var/cache/htrace-service/rows";
+
+        @Min(1)
+        @JsonProperty
+        private int slabs = 4;
+
+        @Min(1)
+        @Max(1024)
+        @JsonProperty
+        private int slabSizeMb = 256;
+
+        /** Bytes per row; larger rows are only cached on the heap */
+        @Min(64)
+        @JsonProperty
+        private int slotSize = 1024;
+
+        /**
+         * How long a row is served from the files after it was read from HBase, restarts included. Longer than the
+         * in-memory TTL only when changeFeed.peers lists the other instances, whose writes would otherwise go unseen.
+         */
+        @Min(1)
+        @JsonProperty
+        private long expireAfterWriteMs = 30000;
+
+        /** How often the files are flushed to disk and the feed positions saved */
+        @Min(1)
+        @JsonProperty
+        private long checkpointIntervalMs = 10000;
+
+        OffHeapRowCache build(MetricRegistry metrics) {
+            if (!enabled) {
+                return null;
+            }
+            return new OffHeapRowCache(Paths.get(directory), slabs, slabSizeMb * 1024 * 1024, slotSize,
+                    expireAfterWriteMs, checkpointIntervalMs, metrics);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.teambronto.svc;
+
+import org.apache.hadoop.hbase.client.Scan;
+
+import java.util.List;
+
+/**
+ * RowKeyCodec translates the employee IDs used by our REST API into the row keys that are actually stored in
+ * HBase. Employee IDs like row1, row2, ... are monotonically increasing, so storing them as-is sends every write
+ * to the last region of the table. A codec lets us spread those keys across the table while keeping Gets, Puts and
+ * range reads consistent with each other.
+ */
+public interface RowKeyCodec {
+    /**
+     * Converts an employee ID into the row key stored in HBase.
+     * @param rowId The employee's ID
+     * @return The physical row key
+     */
+    byte[] encode(String rowId);
+
+    /**
+     * Converts a physical row key back into the employee ID.
+     * @param rowKey The row key read from HBase
+     * @return The employee's ID
+     */
+    String decode(byte[] rowKey);
+
+    /**
+     * Builds the scans that together cover every employee ID in [startRow, stopRow). The scans are independent of
+     * each other so they can be run in parallel. Codecs that do not preserve ordering may return scans that also
+     * cover rows outside of the range, so callers must still check the decoded IDs.
+     * @param startRow The first employee ID (inclusive), or an empty string for the start of the table
+     * @param stopRow The last employee ID (exclusive), or an empty string for the end of the table
+     * @return One or more scans covering the range
+     */
+    List<Scan> rangeScans(String startRow, String stopRow);
+
+    /**
+     * Returns whether each of the range scans reads employee IDs in order, so the first rows it returns are the
+     * lowest IDs of its part of the range.
+     * @return false if a scan may return any ID first
+     */
+    default boolean preservesOrder() {
+        return true;
+    }
+
+    /**
+     * Returns the split keys a table should be pre-split on so that every bucket starts in its own region.
+     * @return The split keys, or an empty array if the codec does not need pre-splitting
+     */
+    byte[][] splitKeys();
+}
@@ -0,0 +1,50 @@
+package com.teambronto.svc;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+/**
+ * The rowKey block of htrace-service.yml. Selects how employee IDs are turned into HBase row keys.
+ */
+public class RowKeyCodecFactory {
+    /** The available row key layouts */
+    public enum Mode {
+        IDENTITY, SALTED, REVERSED
+    }
+
+    @NotNull
+    @JsonProperty
+    private Mode mode = Mode.IDENTITY;
+
+    /** Number of salt buckets, only used in SALTED mode. Should roughly match the number of region servers. */
+    @Min(1)
+    @Max(256)
+    @JsonProperty
+    private int buckets = 16;
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public int getBuckets() {
+        return buckets;
+    }
+
+    /**
+     * Builds the codec described by this configuration.
+     * @return The row key codec
+     */
+    public RowKeyCodec build() {
+        switch (mode) {
+            case SALTED:
+                return new SaltedRowKeyCodec(buckets);
+            case REVERSED:
+                return new ReversedRowKeyCodec();
+            default:
+                return new IdentityRowKeyCodec();
+        }
+    }
+}
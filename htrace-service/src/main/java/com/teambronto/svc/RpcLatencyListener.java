@@ -0,0 +1,15 @@
+package com.teambronto.svc;
+
+/**
+ * Told the latency and outcome of every data call (get, put, delete, ...) a TracedTable makes to HBase.
+ */
+public interface RpcLatencyListener {
+    /** A listener that ignores every call */
+    RpcLatencyListener NONE = (nanos, failed) -> { };
+
+    /**
+     * @param nanos How long the call took, until it returned or threw
+     * @param failed Whether the call threw
+     */
+    void onRpc(long nanos, boolean failed);
+}
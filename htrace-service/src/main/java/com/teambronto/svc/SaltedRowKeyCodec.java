@@ -0,0 +1,71 @@
+package com.teambronto.svc;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Prefixes every employee ID with a one byte salt derived from a hash of the ID. Sequential IDs end up in different
+ * buckets, and with the table pre-split on the bucket boundaries, writes are spread over one region per bucket.
+ * A range read turns into one scan per bucket.
+ */
+public class SaltedRowKeyCodec implements RowKeyCodec {
+    private static final HashFunction HASH = Hashing.murmur3_32();
+
+    private final int buckets;
+
+    public SaltedRowKeyCodec(int buckets) {
+        if (buckets < 1 || buckets > 256) {
+            throw new IllegalArgumentException("buckets must be between 1 and 256: " + buckets);
+        }
+        this.buckets = buckets;
+    }
+
+    /**
+     * Returns the bucket the employee ID is stored in.
+     * @param rowId The employee's ID
+     * @return The bucket number
+     */
+    int bucket(String rowId) {
+        return (HASH.hashString(rowId, StandardCharsets.UTF_8).asInt() & Integer.MAX_VALUE) % buckets;
+    }
+
+    @Override
+    public byte[] encode(String rowId) {
+        return Bytes.add(new byte[]{(byte) bucket(rowId)}, Bytes.toBytes(rowId));
+    }
+
+    @Override
+    public String decode(byte[] rowKey) {
+        return Bytes.toString(rowKey, 1, rowKey.length - 1);
+    }
+
+    @Override
+    public List<Scan> rangeScans(String startRow, String stopRow) {
+        List<Scan> scans = new ArrayList<>(buckets);
+        for (int i = 0; i < buckets; i++) {
+            byte[] salt = new byte[]{(byte) i};
+            byte[] start = Bytes.add(salt, Bytes.toBytes(startRow));
+            // An empty stop row means "until the end of this bucket", which is the start of the next bucket.
+            byte[] stop = stopRow.isEmpty()
+                    ? (i + 1 < buckets ? new byte[]{(byte) (i + 1)} : new byte[0])
+                    : Bytes.add(salt, Bytes.toBytes(stopRow));
+            scans.add(new Scan(start, stop));
+        }
+        return scans;
+    }
+
+    @Override
+    public byte[][] splitKeys() {
+        byte[][] splits = new byte[buckets - 1][];
+        for (int i = 1; i < buckets; i++) {
+            splits[i - 1] = new byte[]{(byte) i};
+        }
+        return splits;
+    }
+}
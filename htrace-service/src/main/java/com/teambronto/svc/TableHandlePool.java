@@ -0,0 +1,187 @@
+package com.teambronto.svc;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import io.dropwizard.lifecycle.Managed;
+import org.apache.hadoop.hbase.TableName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * TableHandlePool keeps closed TracedTables for reuse, per table, so getTable is cheap and every request can close
+ * its tables. Closing a pooled table gives it back; a table given back has its timeouts reset, since requests cap
+ * them at their deadline.
+ *
+ * A table that is borrowed for longer than leakThresholdMs is reported as leaked, with the stack it was borrowed
+ * from if recordStacks is on.
+ */
+public class TableHandlePool implements Managed {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TableHandlePool.class);
+
+    /** Opens a new table */
+    public interface Opener {
+        TracedTable open(TableName name) throws IOException;
+    }
+
+    private final int maxIdlePerTable;
+    private final long leakThresholdMs;
+    private final boolean recordStacks;
+    private final Map<TableName, Deque<Idle>> idle = new ConcurrentHashMap<>();
+    private final Map<TracedTable, Lease> live = new ConcurrentHashMap<>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+    private final Meter opened;
+    private final Meter reused;
+    private final Meter leaks;
+    private ScheduledExecutorService leakDetector;
+
+    /**
+     * @param maxIdlePerTable The most closed tables kept per table name
+     * @param leakThresholdMs How long a table may be borrowed before it is reported as leaked
+     * @param recordStacks Whether to record where each table was borrowed, for the leak report
+     * @param metrics The registry the pool's metrics are added to
+     */
+    public TableHandlePool(int maxIdlePerTable, long leakThresholdMs, boolean recordStacks, MetricRegistry metrics) {
+        this.maxIdlePerTable = maxIdlePerTable;
+        this.leakThresholdMs = leakThresholdMs;
+        this.recordStacks = recordStacks;
+        this.opened = metrics.meter(MetricRegistry.name(TableHandlePool.class, "opened"));
+        this.reused = metrics.meter(MetricRegistry.name(TableHandlePool.class, "reused"));
+        this.leaks = metrics.meter(MetricRegistry.name(TableHandlePool.class, "leaks"));
+        metrics.register(MetricRegistry.name(TableHandlePool.class, "live"), (Gauge<Integer>) live::size);
+        metrics.register(MetricRegistry.name(TableHandlePool.class, "idle"), (Gauge<Integer>) idleCount::get);
+    }
+
+    /**
+     * Hands out a table, reusing a closed one if there is one.
+     * @param name The table's name
+     * @param opener Opens a new table if there is no closed one
+     * @return The table, which must be closed to give it back
+     * @throws IOException If a new table can't be opened
+     */
+    public TracedTable borrow(TableName name, Opener opener) throws IOException {
+        Idle reusable = idle.computeIfAbsent(name, key -> new ConcurrentLinkedDeque<>()).pollFirst();
+        TracedTable table;
+        if (reusable != null) {
+            idleCount.decrementAndGet();
+            reused.mark();
+            table = reusable.table;
+            table.setOperationTimeout(reusable.operationTimeout);
+            table.setRpcTimeout(reusable.rpcTimeout);
+        } else {
+            opened.mark();
+            table = opener.open(name);
+            table.setOnClose(this::giveBack);
+        }
+        live.put(table, new Lease(name, table.getOperationTimeout(), table.getRpcTimeout(),
+                recordStacks ? new Throwable("borrowed here") : null));
+        return table;
+    }
+
+    private void giveBack(TracedTable table) {
+        Lease lease = live.remove(table);
+        if (lease == null) {
+            // Closed twice; the first close already gave it back.
+            return;
+        }
+        Deque<Idle> tables = idle.computeIfAbsent(lease.name, key -> new ConcurrentLinkedDeque<>());
+        if (tables.size() < maxIdlePerTable) {
+            tables.offerFirst(new Idle(table, lease.operationTimeout, lease.rpcTimeout));
+            idleCount.incrementAndGet();
+            return;
+        }
+        closeQuietly(table);
+    }
+
+    @Override
+    public void start() {
+        leakDetector = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "table-leak-detector");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = Math.max(1, leakThresholdMs / 2);
+        leakDetector.scheduleWithFixedDelay(this::detectLeaks, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void stop() {
+        leakDetector.shutdownNow();
+        for (Deque<Idle> tables : idle.values()) {
+            Idle entry;
+            while ((entry = tables.pollFirst()) != null) {
+                idleCount.decrementAndGet();
+                closeQuietly(entry.table);
+            }
+        }
+    }
+
+    private void detectLeaks() {
+        long now = System.currentTimeMillis();
+        for (Lease lease : live.values()) {
+            if (!lease.reported && now - lease.borrowedAt > leakThresholdMs) {
+                lease.reported = true;
+                leaks.mark();
+                if (lease.stack != null) {
+                    LOGGER.warn("A {} table has been borrowed for {} ms without being closed", lease.name,
+                            now - lease.borrowedAt, lease.stack);
+                } else {
+                    LOGGER.warn("A {} table has been borrowed for {} ms without being closed; turn on recordStacks "
+                            + "to see where", lease.name, now - lease.borrowedAt);
+                }
+            }
+        }
+    }
+
+    private static void closeQuietly(TracedTable table) {
+        try {
+            table.closeDelegate();
+        } catch (IOException e) {
+            LOGGER.warn("Couldn't close a pooled table", e);
+        }
+    }
+
+    /**
+     * A closed table and the timeouts it had when it was opened.
+     */
+    private static class Idle {
+        private final TracedTable table;
+        private final int operationTimeout;
+        private final int rpcTimeout;
+
+        Idle(TracedTable table, int operationTimeout, int rpcTimeout) {
+            this.table = table;
+            this.operationTimeout = operationTimeout;
+            this.rpcTimeout = rpcTimeout;
+        }
+    }
+
+    /**
+     * A borrowed table.
+     */
+    private static class Lease {
+        private final TableName name;
+        private final int operationTimeout;
+        private final int rpcTimeout;
+        private final Throwable stack;
+        private final long borrowedAt = System.currentTimeMillis();
+        private volatile boolean reported;
+
+        Lease(TableName name, int operationTimeout, int rpcTimeout, Throwable stack) {
+            this.name = name;
+            this.operationTimeout = operationTimeout;
+            this.rpcTimeout = rpcTimeout;
+            this.stack = stack;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.teambronto.svc;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.constraints.Min;
+
+/**
+ * The tableHandles block of htrace-service.yml. Closed tables are kept for reuse.
+ */
+public class TableHandlesFactory {
+    @JsonProperty
+    private boolean enabled = true;
+
+    /** The most closed tables kept per table name */
+    @Min(1)
+    @JsonProperty
+    private int maxIdlePerTable = 32;
+
+    /** How long a table may be borrowed before it is reported as leaked */
+    @Min(1)
+    @JsonProperty
+    private long leakThresholdMs = 60000;
+
+    /** Whether to record where each table is borrowed, for the leak report. Costs a stack trace per getTable. */
+    @JsonProperty
+    private boolean recordStacks = false;
+
+    /**
+     * Builds the pool, or returns null if pooling is disabled.
+     * @param metrics The registry the pool's metrics are added to
+     * @return The pool, which still has to be started, or null
+     */
+    public TableHandlePool build(MetricRegistry metrics) {
+        if (!enabled) {
+            return null;
+        }
+        return new TableHandlePool(maxIdlePerTable, leakThresholdMs, recordStacks, metrics);
+    }
+}
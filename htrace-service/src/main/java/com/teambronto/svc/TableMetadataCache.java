@@ -0,0 +1,139 @@
+package com.teambronto.svc;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import io.dropwizard.lifecycle.Managed;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Admin;
+import org.apache.hadoop.hbase.client.Connection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TableMetadataCache owns the service's one Admin and keeps the descriptors of the cluster's tables, so checking
+ * whether a table exists doesn't cost a master RPC every time. Every table is listed in a single call, which is
+ * repeated every refreshIntervalMs in the background; the service's own DDL calls drop the list as soon as they
+ * have changed a table, so the next lookup sees the change.
+ */
+public class TableMetadataCache implements Managed {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TableMetadataCache.class);
+
+    private final Admin admin;
+    private final long refreshIntervalMs;
+    private final Meter hits;
+    private final Meter misses;
+    private final Timer refreshes;
+    /** The tables as of the last refresh, or null if they have never been listed or were invalidated */
+    private volatile Map<TableName, HTableDescriptor> tables;
+    private ScheduledExecutorService refresher;
+
+    /**
+     * @param conn The connection the Admin is opened on
+     * @param refreshIntervalMs How often the tables are listed again
+     * @param metrics The registry the cache's metrics are added to
+     * @throws IOException If the Admin can't be opened
+     */
+    public TableMetadataCache(Connection conn, long refreshIntervalMs, MetricRegistry metrics) throws IOException {
+        this.admin = conn.getAdmin();
+        this.refreshIntervalMs = refreshIntervalMs;
+        this.hits = metrics.meter(MetricRegistry.name(TableMetadataCache.class, "hits"));
+        this.misses = metrics.meter(MetricRegistry.name(TableMetadataCache.class, "misses"));
+        this.refreshes = metrics.timer(MetricRegistry.name(TableMetadataCache.class, "refreshes"));
+        metrics.register(MetricRegistry.name(TableMetadataCache.class, "tables"), (Gauge<Integer>) () -> {
+            Map<TableName, HTableDescriptor> current = tables;
+            return current == null ? 0 : current.size();
+        });
+    }
+
+    /**
+     * @return The service's Admin, for DDL. It is closed when the service stops; callers must not close it.
+     */
+    public Admin getAdmin() {
+        return admin;
+    }
+
+    @Override
+    public void start() {
+        refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "table-metadata-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        refresher.scheduleWithFixedDelay(() -> {
+            try {
+                refresh();
+            } catch (IOException e) {
+                LOGGER.warn("Couldn't list the tables; keeping the last list", e);
+            }
+        }, 0, refreshIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void stop() throws Exception {
+        refresher.shutdownNow();
+        admin.close();
+    }
+
+    /**
+     * @param name The table's name
+     * @return true if the table existed when the tables were last listed
+     * @throws IOException If the tables have to be listed and HBase can't be reached
+     */
+    public boolean exists(TableName name) throws IOException {
+        return current().containsKey(name);
+    }
+
+    /**
+     * @param name The table's name
+     * @return The table's descriptor as of the last listing, or null if the table doesn't exist
+     * @throws IOException If the tables have to be listed and HBase can't be reached
+     */
+    public HTableDescriptor descriptor(TableName name) throws IOException {
+        return current().get(name);
+    }
+
+    /**
+     * Lists the tables again. Called in the background, and when a table has to be confirmed with HBase.
+     * @return The tables
+     * @throws IOException If HBase can't be reached
+     */
+    public Map<TableName, HTableDescriptor> refresh() throws IOException {
+        try (Timer.Context ignored = refreshes.time()) {
+            Map<TableName, HTableDescriptor> listed = new HashMap<>();
+            for (HTableDescriptor descriptor : admin.listTables()) {
+                listed.put(descriptor.getTableName(), descriptor);
+            }
+            Map<TableName, HTableDescriptor> snapshot = Collections.unmodifiableMap(listed);
+            tables = snapshot;
+            return snapshot;
+        }
+    }
+
+    /**
+     * Forgets the tables, so the next lookup lists them again. Called after the service changes a table.
+     */
+    public void invalidate() {
+        tables = null;
+    }
+
+    private Map<TableName, HTableDescriptor> current() throws IOException {
+        Map<TableName, HTableDescriptor> current = tables;
+        if (current != null) {
+            hits.mark();
+            return current;
+        }
+        misses.mark();
+        return refresh();
+    }
+}
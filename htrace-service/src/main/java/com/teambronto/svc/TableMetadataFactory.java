@@ -0,0 +1,29 @@
+package com.teambronto.svc;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.apache.hadoop.hbase.client.Connection;
+
+import javax.validation.constraints.Min;
+import java.io.IOException;
+
+/**
+ * The tableMetadata block of htrace-service.yml. Sets how often the cached list of tables is refreshed.
+ */
+public class TableMetadataFactory {
+    /** How often the tables are listed again, on top of the refreshes after our own DDL */
+    @Min(1)
+    @JsonProperty
+    private long refreshIntervalMs = 30000;
+
+    /**
+     * Builds the metadata cache and opens the service's Admin.
+     * @param conn The connection the Admin is opened on
+     * @param metrics The registry the cache's metrics are added to
+     * @return The cache, which still has to be started
+     * @throws IOException If the Admin can't be opened
+     */
+    public TableMetadataCache build(Connection conn, MetricRegistry metrics) throws IOException {
+        return new TableMetadataCache(conn, refreshIntervalMs, metrics);
+    }
+}
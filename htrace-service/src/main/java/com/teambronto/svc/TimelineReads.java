@@ -0,0 +1,56 @@
+package com.teambronto.svc;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import org.apache.hadoop.hbase.client.Consistency;
+import org.apache.hadoop.hbase.client.Result;
+
+/**
+ * Decides which employee lookups may be answered by a region replica, and counts how often one is. A TIMELINE Get
+ * goes to the primary region first; if the primary hasn't answered within the primary call timeout, the replicas are
+ * asked too and the first answer wins. An answer from a replica may be slightly behind the primary, and is marked
+ * stale.
+ */
+public class TimelineReads {
+    /** Response header saying whether the employee came from a replica that may be behind */
+    public static final String STALE_HEADER = "X-Stale-Read";
+    /** Value of the consistency query parameter that asks for a timeline read */
+    public static final String TIMELINE = "timeline";
+
+    private final boolean byDefault;
+    private final Meter reads;
+    private final Meter staleReads;
+
+    /**
+     * @param byDefault Whether lookups that don't ask for a consistency get timeline reads
+     * @param metrics The registry the read counts are added to
+     */
+    public TimelineReads(boolean byDefault, MetricRegistry metrics) {
+        this.byDefault = byDefault;
+        this.reads = metrics.meter(MetricRegistry.name(TimelineReads.class, "reads"));
+        this.staleReads = metrics.meter(MetricRegistry.name(TimelineReads.class, "stale"));
+    }
+
+    /**
+     * @param requested The consistency query parameter of the lookup: timeline, strong, or null for the default
+     * @return The consistency to read with
+     */
+    public Consistency consistencyFor(String requested) {
+        boolean timeline = requested == null ? byDefault : TIMELINE.equalsIgnoreCase(requested);
+        return timeline ? Consistency.TIMELINE : Consistency.STRONG;
+    }
+
+    /**
+     * Counts a timeline read.
+     * @param result What the read returned
+     * @return true if the result came from a replica
+     */
+    public boolean record(Result result) {
+        reads.mark();
+        if (result.isStale()) {
+            staleReads.mark();
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,63 @@
+package com.teambronto.svc;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.apache.hadoop.conf.Configuration;
+
+import javax.validation.constraints.Min;
+
+/**
+ * The timelineReads block of htrace-service.yml. When enabled, the employees table is created with region replicas,
+ * and employee lookups that ask for it (or all of them, with byDefault) may be answered by a replica.
+ */
+public class TimelineReadsFactory {
+    @JsonProperty
+    private boolean enabled = false;
+
+    /** Whether lookups without a consistency parameter are timeline reads */
+    @JsonProperty
+    private boolean byDefault = false;
+
+    /** Copies of each region of the employees table, the primary included */
+    @Min(1)
+    @JsonProperty
+    private int regionReplication = 2;
+
+    /** How long a timeline Get waits for the primary before asking the replicas too */
+    @Min(0)
+    @JsonProperty
+    private long primaryCallTimeoutMs = 10;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return The region replication the employees table is created with
+     */
+    public int getRegionReplication() {
+        return enabled ? regionReplication : 1;
+    }
+
+    /**
+     * Sets the primary call timeout on the HBase client configuration.
+     * @param config The configuration
+     */
+    public void applyTo(Configuration config) {
+        if (enabled) {
+            config.setLong("hbase.client.primaryCallTimeout.get", primaryCallTimeoutMs * 1000);
+        }
+    }
+
+    /**
+     * Builds the read policy, or returns null if timeline reads are disabled.
+     * @param metrics The registry the read counts are added to
+     * @return The policy, or null
+     */
+    public TimelineReads build(MetricRegistry metrics) {
+        if (!enabled) {
+            return null;
+        }
+        return new TimelineReads(byDefault, metrics);
+    }
+}
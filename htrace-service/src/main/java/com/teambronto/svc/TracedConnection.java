@@ -22,10 +22,30 @@ public class TracedConnection implements Connection {
     private Connection delegate;
     /** An instance of Brave to use for tracing */
     private Brave brave;
+    /** Told how long every data call made through this connection's tables took */
+    private RpcLatencyListener latencyListener;
+    /** Reuses closed tables, or null to open a new one for every getTable */
+    private TableHandlePool handles;
+    /** The executor tables run their calls on, or null for the connection's own */
+    private ExecutorService rpcExecutor;
 
     public TracedConnection(@NonNull Connection delegate, @NonNull Brave brave) {
+        this(delegate, brave, RpcLatencyListener.NONE);
+    }
+
+    public TracedConnection(@NonNull Connection delegate, @NonNull Brave brave,
+                            @NonNull RpcLatencyListener latencyListener) {
         this.delegate = delegate;
         this.brave = brave;
+        this.latencyListener = latencyListener;
+    }
+
+    public TracedConnection(@NonNull Connection delegate, @NonNull Brave brave,
+                            @NonNull RpcLatencyListener latencyListener, TableHandlePool handles,
+                            ExecutorService rpcExecutor) {
+        this(delegate, brave, latencyListener);
+        this.handles = handles;
+        this.rpcExecutor = rpcExecutor;
     }
 
     @Override
@@ -35,12 +55,20 @@ public class TracedConnection implements Connection {
 
     @Override
     public Table getTable(TableName tableName) throws IOException {
-        return new TracedTable(delegate.getTable(tableName), brave);
+        if (handles != null) {
+            return handles.borrow(tableName, this::openTable);
+        }
+        return openTable(tableName);
+    }
+
+    private TracedTable openTable(TableName tableName) throws IOException {
+        Table table = rpcExecutor != null ? delegate.getTable(tableName, rpcExecutor) : delegate.getTable(tableName);
+        return new TracedTable(table, brave, latencyListener);
     }
 
     @Override
     public Table getTable(TableName tableName, ExecutorService executorService) throws IOException {
-        return new TracedTable(delegate.getTable(tableName, executorService), brave);
+        return new TracedTable(delegate.getTable(tableName, executorService), brave, latencyListener);
     }
 
     @Override
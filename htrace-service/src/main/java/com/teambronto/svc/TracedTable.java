@@ -2,8 +2,11 @@ package com.teambronto.svc;
 
 import com.github.kristofa.brave.Brave;
 import com.github.kristofa.brave.LocalTracer;
+import com.github.kristofa.brave.ServerSpan;
 import com.google.protobuf.Descriptors;
 import com.google.protobuf.Message;
+import com.google.protobuf.RpcCallback;
+import com.google.protobuf.RpcController;
 import com.google.protobuf.Service;
 import com.google.protobuf.ServiceException;
 import edu.umd.cs.findbugs.annotations.NonNull;
@@ -16,6 +19,8 @@ import org.apache.hadoop.hbase.client.coprocessor.Batch;
 import org.apache.hadoop.hbase.filter.CompareFilter;
 import org.apache.hadoop.hbase.ipc.CoprocessorRpcChannel;
 import org.apache.hadoop.hbase.ipc.RpcControllerFactory;
+import org.apache.hadoop.hbase.protobuf.ProtobufUtil;
+import org.apache.hadoop.hbase.util.Bytes;
 //import org.apache.htrace.core.SpanId;
 //import org.apache.htrace.core.TraceScope;
 //import org.apache.htrace.core.Tracer;
@@ -24,6 +29,7 @@ import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
+import java.util.function.Consumer;
 
 
 /**
@@ -36,10 +42,44 @@ public class TracedTable implements Table {
      * Brave
      */
     private Brave brave;
+    /** Told how long every data call to HBase took */
+    private RpcLatencyListener latencyListener;
+    /** Takes the table back instead of closing it when it came from a TableHandlePool, null otherwise */
+    private Consumer<TracedTable> onClose;
 
     public TracedTable(@NonNull Table delegate, @NonNull Brave brave) {
+        this(delegate, brave, RpcLatencyListener.NONE);
+    }
+
+    public TracedTable(@NonNull Table delegate, @NonNull Brave brave, @NonNull RpcLatencyListener latencyListener) {
         this.delegate = delegate;
         this.brave = brave;
+        this.latencyListener = latencyListener;
+    }
+
+    void setOnClose(Consumer<TracedTable> onClose) {
+        this.onClose = onClose;
+    }
+
+    /**
+     * Closes the underlying table, even if this one belongs to a pool.
+     */
+    void closeDelegate() throws IOException {
+        delegate.close();
+    }
+
+    /**
+     * Finishes the span of a data call to HBase and reports how long it took and whether it failed. Called from a
+     * finally block, so a call that throws still closes its span and still counts towards the latency.
+     * @param started When the call started, from System.nanoTime()
+     * @param failed Whether the call threw
+     */
+    private void finishRpcSpan(long started, boolean failed) {
+        if (failed) {
+            brave.localTracer().submitBinaryAnnotation("error", "true");
+        }
+        brave.localTracer().finishSpan();
+        latencyListener.onRpc(System.nanoTime() - started, failed);
     }
     
     /**
@@ -93,9 +133,15 @@ public class TracedTable implements Table {
     @Override
     public Result get(Get get) throws IOException {
         brave.localTracer().startNewSpan("HBase Client", getMethodName());
-        Result res = delegate.get(get);
-        brave.localTracer().finishSpan();
-        return res;
+        long started = System.nanoTime();
+        boolean failed = true;
+        try {
+            Result res = delegate.get(get);
+            failed = false;
+            return res;
+        } finally {
+            finishRpcSpan(started, failed);
+        }
     }
 
     @Override
@@ -126,134 +172,230 @@ public class TracedTable implements Table {
     @Override
     public void delete(Delete delete) throws IOException {
         brave.localTracer().startNewSpan(getName().getNameAsString(), getMethodName());
-        delegate.delete(delete);
-        brave.localTracer().finishSpan();
+        long started = System.nanoTime();
+        boolean failed = true;
+        try {
+            delegate.delete(delete);
+            failed = false;
+        } finally {
+            finishRpcSpan(started, failed);
+        }
     }
 
     @Override
     public void delete(List<Delete> deletes) throws IOException {
         brave.localTracer().startNewSpan(getName().getNameAsString(), getMethodName());
-        delegate.delete(deletes);
-        brave.localTracer().finishSpan();
-
+        long started = System.nanoTime();
+        boolean failed = true;
+        try {
+            delegate.delete(deletes);
+            failed = false;
+        } finally {
+            finishRpcSpan(started, failed);
+        }
     }
 
     @Override
     public void put(Put put) throws IOException {
         brave.localTracer().startNewSpan(getName().getNameAsString(), getMethodName());
-        delegate.put(put);
-        brave.localTracer().finishSpan();
+        long started = System.nanoTime();
+        boolean failed = true;
+        try {
+            delegate.put(put);
+            failed = false;
+        } finally {
+            finishRpcSpan(started, failed);
+        }
     }
 
     @Override
     public void put(List<Put> puts) throws IOException {
         brave.localTracer().startNewSpan(getName().getNameAsString(), getMethodName());
-        delegate.put(puts);
-        brave.localTracer().finishSpan();
+        long started = System.nanoTime();
+        boolean failed = true;
+        try {
+            delegate.put(puts);
+            failed = false;
+        } finally {
+            finishRpcSpan(started, failed);
+        }
     }
 
     @Override
     public void mutateRow(RowMutations rm) throws IOException {
         brave.localTracer().startNewSpan(getName().getNameAsString(), getMethodName());
-        delegate.mutateRow(rm);
-        brave.localTracer().finishSpan();
-
+        long started = System.nanoTime();
+        boolean failed = true;
+        try {
+            delegate.mutateRow(rm);
+            failed = false;
+        } finally {
+            finishRpcSpan(started, failed);
+        }
     }
 
     @Override
     public Result append(Append append) throws IOException {
-        Result res = new Result();
         brave.localTracer().startNewSpan(getName().getNameAsString(), getMethodName());
-        res = delegate.append(append);
-        brave.localTracer().finishSpan();
-        return res;
+        long started = System.nanoTime();
+        boolean failed = true;
+        try {
+            Result res = delegate.append(append);
+            failed = false;
+            return res;
+        } finally {
+            finishRpcSpan(started, failed);
+        }
     }
 
     @Override
     public Result increment(Increment increment) throws IOException {
-        Result res = new Result();
         brave.localTracer().startNewSpan(getName().getNameAsString(), getMethodName());
-        res = delegate.increment(increment);
-        brave.localTracer().finishSpan();
-        return res;
+        long started = System.nanoTime();
+        boolean failed = true;
+        try {
+            Result res = delegate.increment(increment);
+            failed = false;
+            return res;
+        } finally {
+            finishRpcSpan(started, failed);
+        }
     }
 
     @Override
     public long incrementColumnValue(byte[] row, byte[] family, byte[] qualifier, long amount) throws IOException {
         brave.localTracer().startNewSpan(getName().getNameAsString(), getMethodName());
-        Long res = delegate.incrementColumnValue(row, family, qualifier, amount);
-        brave.localTracer().finishSpan();
-        return res;
+        long started = System.nanoTime();
+        boolean failed = true;
+        try {
+            long res = delegate.incrementColumnValue(row, family, qualifier, amount);
+            failed = false;
+            return res;
+        } finally {
+            finishRpcSpan(started, failed);
+        }
     }
 
     @Override
     public long incrementColumnValue(byte[] row, byte[] family, byte[] qualifier, long amount, Durability durability) throws IOException {
         brave.localTracer().startNewSpan(getName().getNameAsString(), getMethodName());
-        Long res = delegate.incrementColumnValue(row, family, qualifier, amount, durability);
-        brave.localTracer().finishSpan();
-        return res;
+        long started = System.nanoTime();
+        boolean failed = true;
+        try {
+            long res = delegate.incrementColumnValue(row, family, qualifier, amount, durability);
+            failed = false;
+            return res;
+        } finally {
+            finishRpcSpan(started, failed);
+        }
     }
 
     @Override
     public boolean checkAndPut(byte[] row, byte[] family, byte[] qualifier, byte[] value, Put put) throws IOException {
         brave.localTracer().startNewSpan(getName().getNameAsString(), getMethodName());
-        boolean res = delegate.checkAndPut(row, family, qualifier, value, put);
-        brave.localTracer().finishSpan();
-        return res;
+        long started = System.nanoTime();
+        boolean failed = true;
+        try {
+            boolean res = delegate.checkAndPut(row, family, qualifier, value, put);
+            failed = false;
+            return res;
+        } finally {
+            finishRpcSpan(started, failed);
+        }
     }
 
     @Override
     public boolean checkAndPut(byte[] row, byte[] family, byte[] qualifier, CompareFilter.CompareOp compareOp, byte[] value, Put put) throws IOException {
         brave.localTracer().startNewSpan(getName().getNameAsString(), getMethodName());
-        boolean res = delegate.checkAndPut(row, family, qualifier, compareOp, value, put);
-        brave.localTracer().finishSpan();
-        return res;
+        long started = System.nanoTime();
+        boolean failed = true;
+        try {
+            boolean res = delegate.checkAndPut(row, family, qualifier, compareOp, value, put);
+            failed = false;
+            return res;
+        } finally {
+            finishRpcSpan(started, failed);
+        }
     }
 
     @Override
     public boolean checkAndDelete(byte[] row, byte[] family, byte[] qualifier, byte[] value, Delete delete) throws IOException {
         brave.localTracer().startNewSpan(getName().getNameAsString(), getMethodName());
-        boolean res = delegate.checkAndDelete(row, family, qualifier, value, delete);
-        brave.localTracer().finishSpan();
-        return res;
+        long started = System.nanoTime();
+        boolean failed = true;
+        try {
+            boolean res = delegate.checkAndDelete(row, family, qualifier, value, delete);
+            failed = false;
+            return res;
+        } finally {
+            finishRpcSpan(started, failed);
+        }
     }
 
     @Override
     public boolean checkAndDelete(byte[] row, byte[] family, byte[] qualifier, CompareFilter.CompareOp compareOp, byte[] value, Delete delete) throws IOException {
         brave.localTracer().startNewSpan(getName().getNameAsString(), getMethodName());
-        boolean res = delegate.checkAndDelete(row, family, qualifier, compareOp, value, delete);
-        brave.localTracer().finishSpan();
-        return res;
+        long started = System.nanoTime();
+        boolean failed = true;
+        try {
+            boolean res = delegate.checkAndDelete(row, family, qualifier, compareOp, value, delete);
+            failed = false;
+            return res;
+        } finally {
+            finishRpcSpan(started, failed);
+        }
     }
 
     @Override
     public boolean checkAndMutate(byte[] row, byte[] family, byte[] qualifier, CompareFilter.CompareOp compareOp, byte[] value, RowMutations rm) throws IOException {
         brave.localTracer().startNewSpan(getName().getNameAsString(), getMethodName());
-        boolean res = delegate.checkAndMutate(row, family, qualifier, compareOp, value, rm);
-        brave.localTracer().finishSpan();
-        return res;
+        long started = System.nanoTime();
+        boolean failed = true;
+        try {
+            boolean res = delegate.checkAndMutate(row, family, qualifier, compareOp, value, rm);
+            failed = false;
+            return res;
+        } finally {
+            finishRpcSpan(started, failed);
+        }
     }
 
     @Override
     public boolean exists(Get get) throws IOException {
         brave.localTracer().startNewSpan(getName().getNameAsString(), getMethodName());
-        boolean res = delegate.exists(get);
-        brave.localTracer().finishSpan();
-        return res;
+        long started = System.nanoTime();
+        boolean failed = true;
+        try {
+            boolean res = delegate.exists(get);
+            failed = false;
+            return res;
+        } finally {
+            finishRpcSpan(started, failed);
+        }
     }
 
     @Override
     public boolean[] existsAll(List<Get> gets) throws IOException {
         brave.localTracer().startNewSpan(getName().getNameAsString(), getMethodName());
-        boolean[] res = delegate.existsAll(gets);
-        brave.localTracer().finishSpan();
-        return res;
+        long started = System.nanoTime();
+        boolean failed = true;
+        try {
+            boolean[] res = delegate.existsAll(gets);
+            failed = false;
+            return res;
+        } finally {
+            finishRpcSpan(started, failed);
+        }
     }
 
     @Override
     public void close() throws IOException {
         brave.localTracer().startNewSpan(getName().getNameAsString(), getMethodName());
-        delegate.close();
+        if (onClose != null) {
+            onClose.accept(this);
+        } else {
+            delegate.close();
+        }
         brave.localTracer().finishSpan();
     }
 
@@ -272,22 +414,42 @@ public class TracedTable implements Table {
         brave.localTracer().finishSpan();
     }
 
+    /**
+     * Returns a channel to the region holding a row whose calls are each traced as a span.
+     */
     @Override
     public CoprocessorRpcChannel coprocessorService(byte[] row) {
-        brave.localTracer().startNewSpan(getName().getNameAsString(), getMethodName());
-        brave.localTracer().submitAnnotation("this span was not traced");
-        brave.localTracer().finishSpan();
-        return delegate.coprocessorService(row);
+        return new TracedRpcChannel(delegate.coprocessorService(row), row);
     }
 
     @Override
     public <T extends Service, R> Map<byte[], R> coprocessorService(Class<T> service, byte[] startKey, byte[] endKey, Batch.Call<T, R> callable) throws Throwable, ServiceException {
-        return delegate.coprocessorService(service, startKey, endKey, callable);
+        return delegate.coprocessorService(service, startKey, endKey, traced(service, callable));
     }
 
     @Override
     public <T extends Service, R> void coprocessorService(Class<T> service, byte[] startKey, byte[] endKey, Batch.Call<T, R> callable, Batch.Callback<R> callback) throws Throwable, ServiceException {
-        delegate.coprocessorService(service, startKey, endKey, callable, callback);
+        delegate.coprocessorService(service, startKey, endKey, traced(service, callable), callback);
+    }
+
+    /**
+     * Wraps a call made once per region so that each one is a span of the current request, even though HBase runs
+     * them on the table's pool.
+     */
+    private <T extends Service, R> Batch.Call<T, R> traced(Class<T> service, Batch.Call<T, R> callable) {
+        ServerSpan parent = brave.serverSpanThreadBinder().getCurrentServerSpan();
+        return instance -> {
+            // The pool may run the call on the caller's thread, so put back whatever span it had.
+            ServerSpan previous = brave.serverSpanThreadBinder().getCurrentServerSpan();
+            brave.serverSpanThreadBinder().setCurrentSpan(parent);
+            brave.localTracer().startNewSpan("HBase Coprocessor", service.getSimpleName());
+            try {
+                return callable.call(instance);
+            } finally {
+                brave.localTracer().finishSpan();
+                brave.serverSpanThreadBinder().setCurrentSpan(previous);
+            }
+        };
     }
 
     @Override
@@ -314,13 +476,75 @@ public class TracedTable implements Table {
     public <R extends Message> Map<byte[], R> batchCoprocessorService(Descriptors.MethodDescriptor methodDescriptor,
                                                                       Message request, byte[] startKey, byte[] endKey,
                                                                       R responsePrototype) throws Throwable {
-        return delegate.batchCoprocessorService(methodDescriptor, request, startKey, endKey, responsePrototype);
+        brave.localTracer().startNewSpan("HBase Coprocessor", methodDescriptor.getFullName());
+        try {
+            return delegate.batchCoprocessorService(methodDescriptor, request, startKey, endKey, responsePrototype);
+        } finally {
+            brave.localTracer().finishSpan();
+        }
     }
 
     @Override
     public <R extends Message> void batchCoprocessorService(Descriptors.MethodDescriptor methodDescriptor,
                                                             Message request, byte[] startKey, byte[] endKey,
                                                             R responsePrototype, Batch.Callback<R> callback) throws Throwable {
-        delegate.batchCoprocessorService(methodDescriptor, request, startKey, endKey, responsePrototype, callback);
+        brave.localTracer().startNewSpan("HBase Coprocessor", methodDescriptor.getFullName());
+        try {
+            delegate.batchCoprocessorService(methodDescriptor, request, startKey, endKey, responsePrototype, callback);
+        } finally {
+            brave.localTracer().finishSpan();
+        }
+    }
+
+    /**
+     * A coprocessor channel to one region that traces every call made through it. Coprocessor calls can take much
+     * longer than a get or put, so they aren't reported to the latency listener.
+     */
+    private class TracedRpcChannel extends CoprocessorRpcChannel {
+        private final CoprocessorRpcChannel channel;
+        private final byte[] row;
+
+        TracedRpcChannel(CoprocessorRpcChannel channel, byte[] row) {
+            this.channel = channel;
+            this.row = row;
+        }
+
+        private void startSpan(Descriptors.MethodDescriptor method) {
+            brave.localTracer().startNewSpan("HBase Coprocessor", method.getFullName());
+            brave.localTracer().submitBinaryAnnotation("hbase.table", getName().getNameAsString());
+            brave.localTracer().submitBinaryAnnotation("hbase.row", Bytes.toStringBinary(row));
+        }
+
+        @Override
+        public void callMethod(Descriptors.MethodDescriptor method, RpcController controller, Message request,
+                               Message responsePrototype, RpcCallback<Message> callback) {
+            startSpan(method);
+            try {
+                channel.callMethod(method, controller, request, responsePrototype, callback);
+            } finally {
+                brave.localTracer().finishSpan();
+            }
+        }
+
+        @Override
+        public Message callBlockingMethod(Descriptors.MethodDescriptor method, RpcController controller,
+                                          Message request, Message responsePrototype) throws ServiceException {
+            startSpan(method);
+            try {
+                return channel.callBlockingMethod(method, controller, request, responsePrototype);
+            } finally {
+                brave.localTracer().finishSpan();
+            }
+        }
+
+        @Override
+        protected Message callExecService(RpcController controller, Descriptors.MethodDescriptor method,
+                                          Message request, Message responsePrototype) throws IOException {
+            try {
+                return callBlockingMethod(method, controller, request, responsePrototype);
+            } catch (ServiceException e) {
+                throw ProtobufUtil.getRemoteException(e);
+            }
+        }
     }
 }
@@ -0,0 +1,60 @@
+package com.teambronto.svc;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.setup.Environment;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * The warmup block of htrace-service.yml. Sets which tables are warmed up before the service takes traffic.
+ */
+public class WarmupFactory {
+    @JsonProperty
+    private boolean enabled = true;
+
+    /** The tables whose region locations are fetched at startup */
+    @NotNull
+    @JsonProperty
+    private List<String> tables = Arrays.asList("employees", "employees_by_email", "sequences");
+
+    /** Rows read from each table to warm the region servers' caches; 0 reads none */
+    @Min(0)
+    @JsonProperty
+    private int sampleRows = 1000;
+
+    /** How long startup waits for warm-up before taking traffic anyway */
+    @Min(0)
+    @JsonProperty
+    private long maxWaitMs = 60000;
+
+    /** How long to wait before retrying a warm-up that failed; the service is unhealthy until one succeeds */
+    @Min(1)
+    @JsonProperty
+    private long retryIntervalMs = 10000;
+
+    /**
+     * Builds the warm-up and registers it as the hbase-warmup health check, or returns null if it is disabled.
+     * @param clusters The connection to each cluster, by name, the primary first
+     * @param metadata The table list, which is loaded as part of warm-up
+     * @param environment The environment the health check and metrics are registered with
+     * @return The warm-up, which still has to be started, or null
+     */
+    public ConnectionWarmup build(Map<String, Connection> clusters, TableMetadataCache metadata,
+                                  Environment environment) {
+        if (!enabled) {
+            return null;
+        }
+        ConnectionWarmup warmup = new ConnectionWarmup(clusters,
+                tables.stream().map(TableName::valueOf).collect(Collectors.toList()), sampleRows, maxWaitMs,
+                retryIntervalMs, metadata, environment.metrics());
+        environment.healthChecks().register("hbase-warmup", warmup);
+        return warmup;
+    }
+}
@@ -0,0 +1,348 @@
+package com.teambronto.svc;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import io.dropwizard.lifecycle.Managed;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.BufferedMutator;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.protobuf.ProtobufUtil;
+import org.apache.hadoop.hbase.protobuf.generated.ClientProtos.MutationProto;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * WriteBehindBuffer queues writes in memory and flushes them to HBase from background workers through
+ * BufferedMutators. The buffer is split into stripes so that workers don't contend on a single queue; all of the
+ * writes for one key go to the same stripe, so they reach HBase in the order they were queued.
+ *
+ * A batch that fails to flush is retried with exponential backoff. A batch that still fails after maxRetries is
+ * appended to the dead-letter file rather than dropped, and the file is replayed the next time the buffer starts.
+ * Queued writes are only lost if the process dies before they are flushed. Stopping the buffer drains every stripe.
+ */
+public class WriteBehindBuffer implements Managed {
+    private static final Logger LOGGER = LoggerFactory.getLogger(WriteBehindBuffer.class);
+
+    /** One or more mutations that were queued together, applied in order */
+    public static class PendingWrite {
+        private String key;
+        private final List<TableName> tables = new ArrayList<>(2);
+        private final List<Mutation> mutations = new ArrayList<>(2);
+
+        public PendingWrite add(TableName table, Mutation mutation) {
+            tables.add(table);
+            mutations.add(mutation);
+            return this;
+        }
+
+        /**
+         * Hands each mutation and its table to an action, in the order they were added.
+         */
+        void forEach(BiConsumer<TableName, Mutation> action) {
+            for (int i = 0; i < tables.size(); i++) {
+                action.accept(tables.get(i), mutations.get(i));
+            }
+        }
+    }
+
+    private final Connection conn;
+    private final List<BlockingQueue<PendingWrite>> queues;
+    private final List<Thread> workers;
+    private final long flushIntervalMs;
+    private final int maxBatchSize;
+    private final int maxRetries;
+    private final long retryBackoffMs;
+    private final long maxRetryBackoffMs;
+    private final Path deadLetterFile;
+    private final Timer flushTimer;
+    private final Meter rejected;
+    private final Meter failed;
+    private final Meter deadLettered;
+    /** Held to queue a write, and exclusively to stop, so no write is queued after the workers have drained */
+    private final ReadWriteLock lifecycle = new ReentrantReadWriteLock();
+    private volatile boolean running;
+    /** Told the key of every write once it is in HBase */
+    private volatile Consumer<String> flushListener = key -> { };
+
+    WriteBehindBuffer(Connection conn, MetricRegistry metrics, int stripes, int queueCapacity,
+                      long flushIntervalMs, int maxBatchSize, int maxRetries, long retryBackoffMs,
+                      long maxRetryBackoffMs, Path deadLetterFile) {
+        this.conn = conn;
+        this.flushIntervalMs = flushIntervalMs;
+        this.maxBatchSize = maxBatchSize;
+        this.maxRetries = maxRetries;
+        this.retryBackoffMs = retryBackoffMs;
+        this.maxRetryBackoffMs = maxRetryBackoffMs;
+        this.deadLetterFile = deadLetterFile;
+        this.queues = new ArrayList<>(stripes);
+        this.workers = new ArrayList<>(stripes);
+        for (int i = 0; i < stripes; i++) {
+            queues.add(new ArrayBlockingQueue<>(queueCapacity));
+        }
+
+        this.flushTimer = metrics.timer(MetricRegistry.name(WriteBehindBuffer.class, "flush"));
+        this.rejected = metrics.meter(MetricRegistry.name(WriteBehindBuffer.class, "rejected"));
+        this.failed = metrics.meter(MetricRegistry.name(WriteBehindBuffer.class, "failed"));
+        this.deadLettered = metrics.meter(MetricRegistry.name(WriteBehindBuffer.class, "dead-lettered"));
+        metrics.register(MetricRegistry.name(WriteBehindBuffer.class, "queue-depth"), (Gauge<Integer>) this::size);
+    }
+
+    /**
+     * Queues a write without blocking.
+     * @param key The key that picks the stripe, normally the employee ID
+     * @param write The write to queue
+     * @return true if the write was queued, false if its stripe is full or the buffer is stopped
+     */
+    public boolean offer(String key, PendingWrite write) {
+        write.key = key;
+        lifecycle.readLock().lock();
+        try {
+            if (!running || !queues.get((key.hashCode() & Integer.MAX_VALUE) % queues.size()).offer(write)) {
+                rejected.mark();
+                return false;
+            }
+            return true;
+        } finally {
+            lifecycle.readLock().unlock();
+        }
+    }
+
+    /**
+     * Sets what is told the key of every write once it has been flushed to HBase.
+     * @param flushListener The listener
+     */
+    public void setFlushListener(Consumer<String> flushListener) {
+        this.flushListener = flushListener;
+    }
+
+    /**
+     * @return The number of writes waiting to be flushed
+     */
+    public int size() {
+        int size = 0;
+        for (BlockingQueue<PendingWrite> queue : queues) {
+            size += queue.size();
+        }
+        return size;
+    }
+
+    @Override
+    public void start() {
+        replayDeadLetters();
+        running = true;
+        for (int i = 0; i < queues.size(); i++) {
+            final BlockingQueue<PendingWrite> queue = queues.get(i);
+            Thread worker = new Thread(() -> drain(queue), "write-behind-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+    }
+
+    @Override
+    public void stop() throws InterruptedException {
+        // No offer can queue anything once running is cleared under the write lock, so the workers' last drain sees
+        // every acknowledged write.
+        lifecycle.writeLock().lock();
+        try {
+            running = false;
+        } finally {
+            lifecycle.writeLock().unlock();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        workers.clear();
+    }
+
+    /**
+     * The worker loop of a stripe. Each stripe keeps one BufferedMutator per table it has written to.
+     */
+    private void drain(BlockingQueue<PendingWrite> queue) {
+        Map<TableName, BufferedMutator> mutators = new LinkedHashMap<>();
+        List<PendingWrite> batch = new ArrayList<>(maxBatchSize);
+        try {
+            while (running || !queue.isEmpty()) {
+                PendingWrite first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, maxBatchSize - 1);
+                flushWithRetries(batch, mutators);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            // Nothing acknowledged is left behind: the batch and whatever is still queued go to the dead letters.
+            Thread.currentThread().interrupt();
+            queue.drainTo(batch);
+            LOGGER.warn("Write-behind worker interrupted with {} writes queued", batch.size());
+            deadLetter(batch);
+        } finally {
+            closeAll(mutators);
+        }
+    }
+
+    /**
+     * Flushes a batch, retrying with exponential backoff. A batch that still fails after maxRetries is dead-lettered.
+     */
+    private void flushWithRetries(List<PendingWrite> batch, Map<TableName, BufferedMutator> mutators)
+            throws InterruptedException {
+        long backoffMs = retryBackoffMs;
+        for (int attempt = 0; ; attempt++) {
+            try {
+                flush(batch, mutators);
+                return;
+            } catch (IOException e) {
+                failed.mark(batch.size());
+                // A mutator that failed may still hold part of the batch, so the retry starts from fresh ones.
+                closeAll(mutators);
+                if (attempt >= maxRetries) {
+                    LOGGER.error("Giving up on " + batch.size() + " queued writes after " + attempt + " retries", e);
+                    deadLetter(batch);
+                    return;
+                }
+                LOGGER.warn("Failed to flush {} queued writes, retrying in {} ms", batch.size(), backoffMs, e);
+                Thread.sleep(backoffMs);
+                backoffMs = Math.min(maxRetryBackoffMs, backoffMs * 2);
+            }
+        }
+    }
+
+    /**
+     * Sends a batch to HBase. Tables are flushed in the order they first appear in the batch, so that an index entry
+     * queued before its employee row is also written before it.
+     */
+    private void flush(List<PendingWrite> batch, Map<TableName, BufferedMutator> mutators) throws IOException {
+        Map<TableName, List<Mutation>> byTable = new LinkedHashMap<>();
+        for (PendingWrite write : batch) {
+            write.forEach((table, mutation) ->
+                    byTable.computeIfAbsent(table, t -> new ArrayList<>()).add(mutation));
+        }
+
+        try (Timer.Context ignored = flushTimer.time()) {
+            for (Map.Entry<TableName, List<Mutation>> entry : byTable.entrySet()) {
+                BufferedMutator mutator = mutators.get(entry.getKey());
+                if (mutator == null) {
+                    mutator = conn.getBufferedMutator(entry.getKey());
+                    mutators.put(entry.getKey(), mutator);
+                }
+                mutator.mutate(entry.getValue());
+                mutator.flush();
+            }
+        }
+        for (PendingWrite write : batch) {
+            flushListener.accept(write.key);
+        }
+    }
+
+    private static void closeAll(Map<TableName, BufferedMutator> mutators) {
+        for (BufferedMutator mutator : mutators.values()) {
+            try {
+                mutator.close();
+            } catch (IOException e) {
+                LOGGER.error("Failed to close BufferedMutator for " + mutator.getName(), e);
+            }
+        }
+        mutators.clear();
+    }
+
+    /**
+     * Appends writes that couldn't be flushed to the dead-letter file. Each write is its key, its number of
+     * mutations, then each mutation's table and protobuf.
+     */
+    private synchronized void deadLetter(List<PendingWrite> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(
+                deadLetterFile, StandardOpenOption.CREATE, StandardOpenOption.APPEND)))) {
+            for (PendingWrite write : batch) {
+                out.writeUTF(write.key);
+                out.writeInt(write.mutations.size());
+                for (int i = 0; i < write.mutations.size(); i++) {
+                    Mutation mutation = write.mutations.get(i);
+                    out.writeUTF(write.tables.get(i).getNameAsString());
+                    ProtobufUtil.toMutation(mutation instanceof Delete ? MutationProto.MutationType.DELETE
+                            : MutationProto.MutationType.PUT, mutation).writeDelimitedTo(out);
+                }
+            }
+            deadLettered.mark(batch.size());
+        } catch (IOException e) {
+            LOGGER.error("Failed to dead-letter " + batch.size() + " queued writes to " + deadLetterFile, e);
+        }
+    }
+
+    /**
+     * Flushes the writes left in the dead-letter file by an earlier run, then removes the file. If they still can't
+     * be flushed the file is kept for the next start.
+     */
+    private synchronized void replayDeadLetters() {
+        if (!Files.exists(deadLetterFile)) {
+            return;
+        }
+        List<PendingWrite> writes = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(deadLetterFile)))) {
+            while (true) {
+                String key;
+                try {
+                    key = in.readUTF();
+                } catch (EOFException e) {
+                    break;
+                }
+                PendingWrite write = new PendingWrite();
+                write.key = key;
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    TableName table = TableName.valueOf(in.readUTF());
+                    MutationProto proto = MutationProto.parseDelimitedFrom(in);
+                    write.add(table, proto.getMutateType() == MutationProto.MutationType.DELETE
+                            ? ProtobufUtil.toDelete(proto) : ProtobufUtil.toPut(proto));
+                }
+                writes.add(write);
+            }
+        } catch (IOException e) {
+            LOGGER.error("Failed to read the dead-lettered writes in " + deadLetterFile, e);
+            return;
+        }
+
+        Map<TableName, BufferedMutator> mutators = new LinkedHashMap<>();
+        try {
+            for (int i = 0; i < writes.size(); i += maxBatchSize) {
+                flush(writes.subList(i, Math.min(writes.size(), i + maxBatchSize)), mutators);
+            }
+            Files.delete(deadLetterFile);
+            LOGGER.info("Replayed {} dead-lettered writes from {}", writes.size(), deadLetterFile);
+        } catch (IOException e) {
+            LOGGER.error("Failed to replay the dead-lettered writes in " + deadLetterFile + ", keeping them", e);
+        } finally {
+            closeAll(mutators);
+        }
+    }
+
+}
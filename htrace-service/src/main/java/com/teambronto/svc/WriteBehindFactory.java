@@ -0,0 +1,75 @@
+package com.teambronto.svc;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.apache.hadoop.hbase.client.Connection;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.nio.file.Paths;
+
+/**
+ * The writeBehind block of htrace-service.yml. When enabled, updateValue acknowledges a write as soon as it has been
+ * queued, and background workers flush the queue to HBase.
+ */
+public class WriteBehindFactory {
+    @JsonProperty
+    private boolean enabled = false;
+
+    /** Number of queues, each with its own worker and BufferedMutator. Writes to a row always use the same one. */
+    @Min(1)
+    @JsonProperty
+    private int stripes = 4;
+
+    /** Writes each stripe can hold before new writes are rejected */
+    @Min(1)
+    @JsonProperty
+    private int queueCapacity = 10000;
+
+    /** Longest a queued write waits before its stripe is flushed */
+    @Min(1)
+    @JsonProperty
+    private long flushIntervalMs = 50;
+
+    /** Most writes a stripe sends to HBase in one flush */
+    @Min(1)
+    @JsonProperty
+    private int maxBatchSize = 1000;
+
+    /** Times a batch that failed to flush is retried before it is dead-lettered */
+    @Min(0)
+    @JsonProperty
+    private int maxRetries = 10;
+
+    /** Wait before the first retry; it doubles with each retry up to maxRetryBackoffMs */
+    @Min(1)
+    @JsonProperty
+    private long retryBackoffMs = 100;
+
+    @Min(1)
+    @JsonProperty
+    private long maxRetryBackoffMs = 10000;
+
+    /** Where writes that couldn't be flushed are kept; they are replayed when the service next starts */
+    @NotNull
+    @JsonProperty
+    private String deadLetterFile = "write-behind.dead-letter";
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Builds the write-behind buffer, or returns null if write-behind is disabled.
+     * @param conn The connection the buffer flushes to
+     * @param metrics The registry the buffer's metrics are added to
+     * @return The buffer, which still has to be started, or null
+     */
+    public WriteBehindBuffer build(Connection conn, MetricRegistry metrics) {
+        if (!enabled) {
+            return null;
+        }
+        return new WriteBehindBuffer(conn, metrics, stripes, queueCapacity, flushIntervalMs, maxBatchSize, maxRetries,
+                retryBackoffMs, maxRetryBackoffMs, Paths.get(deadLetterFile));
+    }
+}
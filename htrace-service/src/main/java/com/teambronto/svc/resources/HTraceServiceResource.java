@@ -1,7 +1,27 @@
 package com.teambronto.svc.resources;
 
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
 import com.github.kristofa.brave.Brave;
+import com.teambronto.svc.AdminJob;
+import com.teambronto.svc.AdminJobs;
+import com.teambronto.svc.AdmissionControlled;
+import com.teambronto.svc.BulkImporter;
+import com.teambronto.svc.ChangeFeed;
+import com.teambronto.svc.ClusterRouter;
+import com.teambronto.svc.Deadline;
+import com.teambronto.svc.EmailIndex;
+import com.teambronto.svc.EmployeeAggregates;
+import com.teambronto.svc.IdSequence;
+import com.teambronto.svc.ImportSummary;
+import com.teambronto.svc.RowCache;
+import com.teambronto.svc.RowKeyCodec;
+import com.teambronto.svc.TableMetadataCache;
+import com.teambronto.svc.TimelineReads;
+import com.teambronto.svc.Traffic;
+import com.teambronto.svc.TrafficClass;
+import com.teambronto.svc.WriteBehindBuffer;
 import edu.umd.cs.findbugs.annotations.NonNull;
+import org.apache.hadoop.hbase.Cell;
 import org.apache.hadoop.hbase.HColumnDescriptor;
 import org.apache.hadoop.hbase.HTableDescriptor;
 import org.apache.hadoop.hbase.TableName;
@@ -10,9 +30,27 @@ import org.apache.hadoop.hbase.util.Bytes;
 
 import javax.validation.constraints.NotNull;
 import javax.ws.rs.*;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
 import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 
@@ -25,94 +63,557 @@ import java.net.URLDecoder;
 public class HTraceServiceResource {
     private static final TableName EMPLOYEES_TABLENAME = TableName.valueOf("employees");
     private static final String PERSONAL_COL_FAMILY = "personal";
+    private static final String EMAIL_COL = "email";
+    private static final String NDJSON = "application/x-ndjson";
 
     private final Brave brave;
     private final Connection conn;
+    /** Translates employee IDs into row keys. Every Get, Put and Scan must go through it. */
+    private final RowKeyCodec codec;
+    /** Runs the per-bucket scans of a range read in parallel */
+    private final ExecutorService scanExecutor;
+    /** Keeps the employees_by_email table in step with the employees table */
+    private final EmailIndex emailIndex = new EmailIndex(Bytes.toBytes(PERSONAL_COL_FAMILY), Bytes.toBytes(EMAIL_COL));
+    /** Counts employees and email domains inside the region servers */
+    private final EmployeeAggregates aggregates;
+    /** The sequence new employee IDs are leased from */
+    private final IdSequence employeeIds = new IdSequence("employee-id");
+    /** Queues updateValue writes when write-behind is enabled, null otherwise */
+    private final WriteBehindBuffer writeBehind;
+    /** WAL durability of each endpoint's writes, keyed by path */
+    private final Map<String, Durability> durability;
+    /** Employee rows read recently, or null if caching is disabled */
+    private final RowCache rowCache;
+    /** The rows written through this instance, for other instances and the relays to invalidate */
+    private final ChangeFeed changes;
+    /** Runs table creation and deletion in the background */
+    private final AdminJobs adminJobs;
+    /** The tables that exist, and the service's one Admin */
+    private final TableMetadataCache tables;
+    /** Which employee lookups may be answered by a region replica, or null if none may */
+    private final TimelineReads timelineReads;
+    /** Copies of each region the employees table is created with */
+    private final int regionReplication;
+    /** Writes the employees streamed to /import */
+    private final BulkImporter importer;
 
-    public HTraceServiceResource(@NonNull Brave brave, @NotNull Connection conn) {
+    public HTraceServiceResource(@NonNull Brave brave, @NotNull Connection conn, @NotNull RowKeyCodec codec,
+                                 @NotNull ExecutorService scanExecutor, WriteBehindBuffer writeBehind,
+                                 @NotNull Map<String, Durability> durability, RowCache rowCache,
+                                 @NotNull ChangeFeed changes, @NotNull AdminJobs adminJobs,
+                                 @NotNull TableMetadataCache tables, TimelineReads timelineReads,
+                                 int regionReplication, @NotNull BulkImporter importer) {
         this.brave = brave;
         this.conn = conn;
+        this.codec = codec;
+        this.scanExecutor = scanExecutor;
+        this.writeBehind = writeBehind;
+        this.durability = durability;
+        this.rowCache = rowCache;
+        this.changes = changes;
+        this.adminJobs = adminJobs;
+        this.tables = tables;
+        this.timelineReads = timelineReads;
+        this.regionReplication = regionReplication;
+        this.importer = importer;
+        this.aggregates = new EmployeeAggregates(brave, Bytes.toBytes(PERSONAL_COL_FAMILY), Bytes.toBytes(EMAIL_COL));
+        if (writeBehind != null) {
+            // Queued writes are only announced once they are in HBase, so nobody re-reads the old row.
+            writeBehind.setFlushListener(this::written);
+        }
+    }
+
+    /**
+     * Gets a table whose HBase timeouts are capped by the current request's deadline.
+     */
+    private Table getTable(TableName name) throws IOException {
+        return withDeadline(conn.getTable(name), Deadline.current());
+    }
+
+    /**
+     * Caps a table's operation and RPC timeouts at the time left before the deadline, so HBase gives up when the
+     * client would have.
+     * @param table The table
+     * @param deadline The request's deadline, or null if it has none
+     * @return The table
+     */
+    private static Table withDeadline(Table table, Deadline deadline) {
+        if (deadline != null) {
+            int remaining = (int) Math.max(1, Math.min(Integer.MAX_VALUE, deadline.remainingMillis()));
+            table.setOperationTimeout(Math.min(remaining, table.getOperationTimeout()));
+            table.setRpcTimeout(Math.min(remaining, table.getRpcTimeout()));
+        }
+        return table;
+    }
+
+    /**
+     * Drops an employee from the row cache after it has been written, and announces the write on the change feed.
+     */
+    private void written(String rowId) {
+        if (rowCache != null) {
+            rowCache.invalidate(rowId);
+        }
+        changes.publish(rowId);
     }
 
     /**
-     * Gets employee data for the specified employee ID.
+     * Gets employee data for the specified employee ID. The response's ETag and Last-Modified come from the newest
+     * cell of the row, so a client that already has the current version gets a 304 with no body.
+     *
+     * With timeline reads enabled, consistency=timeline lets a region replica answer when the primary is slow. Such
+     * an answer may be slightly behind; it is marked with X-Stale-Read: true and isn't cached.
      * @param rowId The employee's ID
-     * @return The data associated with the ID specified (JSON).
+     * @param consistency timeline to allow a replica to answer, strong to insist on the primary, or unset for the
+     *                    configured default
+     * @param request The HTTP request, whose If-None-Match and If-Modified-Since headers are checked
+     * @return The data associated with the ID specified (JSON), or 304 Not Modified.
      */
     @GET
-    public String getEmployeeDataById(@DefaultValue("row1") @QueryParam("id") String rowId) {
-        Get get = new Get(Bytes.toBytes(URLDecoder.decode(rowId)));
-        get.addFamily(Bytes.toBytes(PERSONAL_COL_FAMILY));
+    @Traffic(TrafficClass.READ)
+    @AdmissionControlled
+    public Response getEmployeeDataById(@DefaultValue("row1") @QueryParam("id") String rowId,
+                                        @QueryParam("consistency") String consistency,
+                                        @Context Request request) {
+        String id = URLDecoder.decode(rowId);
+        boolean stale = false;
+        RowCache.Row row = rowCache == null ? null : rowCache.get(id);
+        long stamp = rowCache == null ? 0 : rowCache.stamp();
+        if (row != null) {
+            brave.serverTracer().submitBinaryAnnotation("cache", "hit");
+        } else {
+            Get get = new Get(codec.encode(id));
+            get.addFamily(Bytes.toBytes(PERSONAL_COL_FAMILY));
+            if (timelineReads != null) {
+                get.setConsistency(timelineReads.consistencyFor(consistency));
+            }
 
-        try {
-            Table table = conn.getTable(EMPLOYEES_TABLENAME);
+            try (Table table = getTable(EMPLOYEES_TABLENAME)) {
+                Result result = table.get(get);
+                row = new RowCache.Row(toJson(result, rowId), latestTimestamp(result));
+                if (get.getConsistency() == Consistency.TIMELINE) {
+                    stale = timelineReads.record(result);
+                    brave.serverTracer().submitBinaryAnnotation("hbase.stale", Boolean.toString(stale));
+                } else {
+                    // Rows read from a replicated cluster other than the primary may be behind as well.
+                    stale = result.isStale();
+                }
+                // A replica's copy may be behind, so it must not be served to strong reads later.
+                if (rowCache != null && !stale) {
+                    rowCache.put(id, row, stamp);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                return Response.ok("error").build();
+            }
+        }
+
+        EntityTag tag = new EntityTag(Long.toHexString(row.getTimestamp()));
+        // A row that doesn't exist has no cells, so it has an ETag but no Last-Modified.
+        Date lastModified = row.getTimestamp() > 0 ? new Date(row.getTimestamp()) : null;
+        Response.ResponseBuilder notModified = lastModified != null
+                ? request.evaluatePreconditions(lastModified, tag)
+                : request.evaluatePreconditions(tag);
+        if (notModified != null) {
+            brave.serverTracer().submitBinaryAnnotation("not-modified", tag.getValue());
+            return notModified.tag(tag).header(TimelineReads.STALE_HEADER, stale).build();
+        }
+        return Response.ok(String.format("{\"employee\":%s}", row.getJson()))
+                .tag(tag)
+                .lastModified(lastModified)
+                .header(TimelineReads.STALE_HEADER, stale)
+                .build();
+    }
+
+    /**
+     * Returns the timestamp of the newest cell in a result, which changes whenever the row is written.
+     * @param result The result
+     * @return The newest cell's timestamp, or 0 if the result is empty
+     */
+    private static long latestTimestamp(Result result) {
+        long latest = 0;
+        if (result.rawCells() != null) {
+            for (Cell cell : result.rawCells()) {
+                latest = Math.max(latest, cell.getTimestamp());
+            }
+        }
+        return latest;
+    }
+
+    /**
+     * Gets employee data for the employee with the specified email. The email is resolved through the
+     * employees_by_email index, so this costs one index Get and one employee Get instead of a table scan.
+     * @param email The employee's email
+     * @return The data associated with the email (JSON), with a null employee if nobody has that email.
+     */
+    @GET
+    @Traffic(TrafficClass.READ)
+    @AdmissionControlled
+    @Path("/by-email")
+    public String getEmployeeDataByEmail(@NotNull @QueryParam("email") String email) {
+        String emailAddr = URLDecoder.decode(email);
 
+        try (Table indexTable = getTable(EmailIndex.INDEX_TABLENAME);
+             Table table = getTable(EMPLOYEES_TABLENAME)) {
+            String rowId = emailIndex.lookup(indexTable, emailAddr);
+            if (rowId == null) {
+                return "{\"employee\":null}";
+            }
+
+            Get get = new Get(codec.encode(rowId));
+            get.addFamily(Bytes.toBytes(PERSONAL_COL_FAMILY));
             Result result = table.get(get);
-            byte[] firstName = result.getValue(Bytes.toBytes(PERSONAL_COL_FAMILY), Bytes.toBytes("first-name"));
-            byte[] lastName  = result.getValue(Bytes.toBytes(PERSONAL_COL_FAMILY), Bytes.toBytes("last-name"));
-            byte[] email     = result.getValue(Bytes.toBytes(PERSONAL_COL_FAMILY), Bytes.toBytes("email"));
-
-            // Return JSON string representing an employee. Ideally this should be a Java object that is
-            // serialized from JSON, but for the sake of the demo, we are just manually creating JSON here.
-            return String.format("{\"employee\":{\"firstName\":\"%s\",\"lastName\":\"%s\",\"email\":\"%s\",\"rowId\":\"%s\"}}",
-                    Bytes.toString(firstName),
-                    Bytes.toString(lastName),
-                    Bytes.toString(email),
-                    rowId);
+            // The index is only eventually in step with the employee rows, so make sure the email still matches.
+            if (!emailIndex.matches(result, emailAddr)) {
+                return "{\"employee\":null}";
+            }
+            return String.format("{\"employee\":%s}", toJson(result, rowId));
         } catch (IOException e) {
             e.printStackTrace();
             return "error";
         }
     }
-    
-    
 
     /**
-     * Creates a new table caled 'employees'. In the future, you could add a query parameter to allow
-     * the user to specify a table name to use. The table has a column family name called 'personal'.
+     * Rebuilds the employees_by_email index by scanning every region of the employees table in parallel.
+     * @return A message with the number of employees indexed.
+     * @throws IOException If HBase cannot be reached.
+     */
+    @GET
+    @Traffic(TrafficClass.ADMIN)
+    @Path("/rebuild-email-index")
+    public String rebuildEmailIndex() throws IOException {
+        long indexed = emailIndex.rebuild(conn, EMPLOYEES_TABLENAME, codec, scanExecutor);
+        return String.format("Indexed %d employees", indexed);
+    }
+
+    /**
+     * Counts the employees, and optionally the employees at each email domain, without reading the rows here: every
+     * region of the employees table counts its own rows and sends back just the totals.
+     * @param domains Whether to count email domains too
+     * @return The counts (JSON).
+     * @throws IOException If HBase cannot be reached or a region couldn't be aggregated.
+     */
+    @GET
+    @Traffic(TrafficClass.ADMIN)
+    @Path("/aggregates")
+    public String getAggregates(@DefaultValue("true") @QueryParam("domains") boolean domains) throws IOException {
+        long employees = aggregates.count(conn, EMPLOYEES_TABLENAME, scanExecutor);
+        StringBuilder json = new StringBuilder(64).append("{\"employees\":").append(employees);
+        if (domains) {
+            json.append(",\"emailDomains\":{");
+            boolean first = true;
+            for (Map.Entry<String, Long> domain : aggregates.emailDomains(conn, EMPLOYEES_TABLENAME, scanExecutor)
+                    .entrySet()) {
+                if (!first) {
+                    json.append(',');
+                }
+                first = false;
+                json.append('"').append(JsonStringEncoder.getInstance().quoteAsString(domain.getKey()))
+                        .append("\":").append(domain.getValue());
+            }
+            json.append('}');
+        }
+        return json.append('}').toString();
+    }
+
+    /**
+     * Leases a block of employee IDs with a single atomic increment of the employee-id counter. The IDs in
+     * [start, end) belong to the caller, which can hand them out without coming back here.
+     * @param size The number of IDs to lease
+     * @return The leased block (JSON).
+     * @throws IOException If HBase cannot be reached.
+     */
+    @GET
+    @Traffic(TrafficClass.WRITE)
+    @AdmissionControlled
+    @Path("/lease-ids")
+    public String leaseIds(@DefaultValue("1000") @QueryParam("size") long size) throws IOException {
+        if (size < 1) {
+            throw new WebApplicationException("size must be positive", Response.Status.BAD_REQUEST);
+        }
+        try (Table sequencesTable = getTable(IdSequence.SEQUENCES_TABLENAME)) {
+            long start = employeeIds.lease(sequencesTable, size);
+            return String.format("{\"start\":%d,\"end\":%d}", start, start + size);
+        }
+    }
+
+    /**
+     * Gets all employees whose IDs fall in [start, stop). The range is split into one scan per row key bucket and
+     * the scans are run in parallel, so a salted table is read from all of its regions at once.
+     * @param start The first employee ID (inclusive). Empty for the start of the table.
+     * @param stop The last employee ID (exclusive). Empty for the end of the table.
+     * @param limit The maximum number of employees to return; at least 1
+     * @return The employees in the range, ordered by ID (JSON).
+     */
+    @GET
+    @Traffic(TrafficClass.READ)
+    @AdmissionControlled
+    @Path("/range")
+    public String getEmployeeRange(@DefaultValue("") @QueryParam("start") String start,
+                                   @DefaultValue("") @QueryParam("stop") String stop,
+                                   @DefaultValue("100") @QueryParam("limit") int limit) {
+        if (limit < 1) {
+            throw new WebApplicationException("limit must be positive", Response.Status.BAD_REQUEST);
+        }
+        final String startRow = URLDecoder.decode(start);
+        final String stopRow = URLDecoder.decode(stop);
+
+        // The scans run on other threads, so hand them this request's deadline.
+        final Deadline deadline = Deadline.current();
+        List<Future<List<Employee>>> futures = new ArrayList<>();
+        for (Scan scan : codec.rangeScans(startRow, stopRow)) {
+            scan.addFamily(Bytes.toBytes(PERSONAL_COL_FAMILY));
+            scan.setCaching(Math.min(limit, 1000));
+            futures.add(scanExecutor.submit(() -> scanRange(scan, startRow, stopRow, limit, deadline)));
+        }
+
+        try {
+            List<Employee> employees = new ArrayList<>();
+            for (Future<List<Employee>> future : futures) {
+                employees.addAll(future.get());
+            }
+            employees.sort(Comparator.comparing(employee -> employee.rowId));
+
+            StringBuilder json = new StringBuilder("{\"employees\":[");
+            for (int i = 0; i < employees.size() && i < limit; i++) {
+                if (i > 0) {
+                    json.append(',');
+                }
+                json.append(employees.get(i).json);
+            }
+            return json.append("]}").toString();
+        } catch (InterruptedException | ExecutionException e) {
+            futures.forEach(future -> future.cancel(true));
+            e.printStackTrace();
+            return "error";
+        }
+    }
+
+    /**
+     * Runs a single bucket's scan of a range read. If the codec doesn't keep IDs in order the whole scan is read,
+     * keeping the lowest IDs seen so far.
+     * @return The lowest limit employees from the scan that fall in [startRow, stopRow)
+     */
+    private List<Employee> scanRange(Scan scan, String startRow, String stopRow, int limit, Deadline deadline)
+            throws IOException {
+        // The highest ID kept is at the head, ready to be dropped when a lower one turns up.
+        PriorityQueue<Employee> employees = new PriorityQueue<>(Comparator.comparing(
+                (Employee employee) -> employee.rowId).reversed());
+        try (Table table = withDeadline(conn.getTable(EMPLOYEES_TABLENAME), deadline);
+             ResultScanner scanner = table.getScanner(scan)) {
+            for (Result result : scanner) {
+                String rowId = codec.decode(result.getRow());
+                // Codecs that don't preserve ordering scan more than the range, so check every ID.
+                if (rowId.compareTo(startRow) < 0 || (!stopRow.isEmpty() && rowId.compareTo(stopRow) >= 0)) {
+                    continue;
+                }
+                if (employees.size() >= limit) {
+                    if (codec.preservesOrder()) {
+                        break;
+                    }
+                    if (rowId.compareTo(employees.peek().rowId) >= 0) {
+                        continue;
+                    }
+                    employees.poll();
+                }
+                employees.add(new Employee(rowId, toJson(result, rowId)));
+            }
+        }
+        return new ArrayList<>(employees);
+    }
+
+    /**
+     * Return JSON string representing an employee. Ideally this should be a Java object that is
+     * serialized from JSON, but for the sake of the demo, we are just manually creating JSON here.
+     */
+    private static String toJson(Result result, String rowId) {
+        byte[] firstName = result.getValue(Bytes.toBytes(PERSONAL_COL_FAMILY), Bytes.toBytes("first-name"));
+        byte[] lastName  = result.getValue(Bytes.toBytes(PERSONAL_COL_FAMILY), Bytes.toBytes("last-name"));
+        byte[] email     = result.getValue(Bytes.toBytes(PERSONAL_COL_FAMILY), Bytes.toBytes(EMAIL_COL));
+
+        return String.format("{\"firstName\":\"%s\",\"lastName\":\"%s\",\"email\":\"%s\",\"rowId\":\"%s\"}",
+                Bytes.toString(firstName),
+                Bytes.toString(lastName),
+                Bytes.toString(email),
+                rowId);
+    }
+
+    /** An employee read by a range scan, kept with its ID so results from all buckets can be merged in order */
+    private static class Employee {
+        private final String rowId;
+        private final String json;
+
+        private Employee(String rowId, String json) {
+            this.rowId = rowId;
+            this.json = json;
+        }
+    }
+
+
+    /**
+     * Long-polls the change feed: answers as soon as there are rows written after `since`, or with an empty list
+     * after timeoutMs. Pass since=-1 to learn the current position without waiting.
+     * @param since The last sequence number the caller has seen
+     * @param limit The most changes returned
+     * @param timeoutMs How long to wait for a change
+     * @param response Resumed with {"epoch":..,"latest":..,"reset":..,"changes":[{"seq":..,"row":..}]}
+     */
+    @GET
+    @Path("/changes")
+    public void getChanges(@DefaultValue("-1") @QueryParam("since") long since,
+                           @DefaultValue("1000") @QueryParam("limit") int limit,
+                           @DefaultValue("30000") @QueryParam("timeoutMs") long timeoutMs,
+                           @Suspended AsyncResponse response) {
+        if (limit < 1) {
+            throw new WebApplicationException("limit must be positive", Response.Status.BAD_REQUEST);
+        }
+        if (since < 0 || timeoutMs <= 0) {
+            response.resume(changes.read(since, limit));
+            return;
+        }
+        // The Jetty thread is released while we wait.
+        response.setTimeoutHandler(timedOut -> timedOut.resume(changes.read(since, limit)));
+        response.setTimeout(timeoutMs, TimeUnit.MILLISECONDS);
+        changes.await(since, () -> response.resume(changes.read(since, limit)));
+    }
+
+    /**
+     * Creates a new table caled 'employees', or another name if one is given. The table has a column family name
+     * called 'personal'. The email index and ID sequence tables are created alongside it if they don't exist yet,
+     * and a table that already exists gets the aggregate endpoint if it was created without it.
+     * The tables are created in the background; poll /jobs/{id} to see when they are ready.
      *
-     * @return A message indicating success or failure.
+     * @param name The table's name
+     * @return The job creating the table
      */
     @GET
+    @Traffic(TrafficClass.ADMIN)
     @Path("/create-table")
-    public String createTable(@DefaultValue("employees") @QueryParam("name") String name) throws IOException {
-    	Admin admin = conn.getAdmin();
-    	
-    	TableName tn = TableName.valueOf(URLDecoder.decode(name));
-    	       
-        if (!admin.tableExists(tn)) {
-          final HTableDescriptor tableDescriptor = new HTableDescriptor("employees");
-          tableDescriptor.addFamily(new HColumnDescriptor(PERSONAL_COL_FAMILY));
-
-          admin.createTable(tableDescriptor);
-          
-          return String.format("Creating table employees");
-        } else {
-          return String.format("Found table employees" );
-        }
+    public Response createTable(@DefaultValue("employees") @QueryParam("name") String name) {
+        TableName tn = TableName.valueOf(URLDecoder.decode(name));
+        AdminJob job = adminJobs.submit("create-table", tn.getNameAsString(), run -> {
+            Admin admin = tables.getAdmin();
+            // Confirmed with HBase rather than the cached list, since each table is only created if it is missing.
+            tables.refresh();
+            boolean found = tables.exists(tn);
+            try {
+                if (!found) {
+                    run.phase("create-table", phase -> {
+                        final HTableDescriptor tableDescriptor = new HTableDescriptor(tn);
+                        tableDescriptor.addFamily(new HColumnDescriptor(PERSONAL_COL_FAMILY));
+                        // Replicas let timeline reads be answered when the primary's region server stalls.
+                        tableDescriptor.setRegionReplication(regionReplication);
+                        // Lets /aggregates count rows inside the region servers.
+                        tableDescriptor.addCoprocessor(EmployeeAggregates.ENDPOINT);
 
+                        // Pre-split on the row key buckets so that salted writes are spread over the region servers
+                        // right away.
+                        byte[][] splitKeys = codec.splitKeys();
+                        admin.createTableAsync(tableDescriptor, splitKeys.length > 0 ? splitKeys : null);
+                        run.await(phase, () -> admin.isTableAvailable(tableDescriptor.getTableName()));
+                    });
+                } else if (!tables.descriptor(tn).hasCoprocessor(EmployeeAggregates.ENDPOINT)) {
+                    // Tables created before /aggregates existed don't load the endpoint yet.
+                    run.phase("add-coprocessor", phase -> {
+                        HTableDescriptor tableDescriptor = new HTableDescriptor(tables.descriptor(tn));
+                        tableDescriptor.addCoprocessor(EmployeeAggregates.ENDPOINT);
+                        admin.modifyTable(tn, tableDescriptor);
+                        run.await(phase, () -> admin.getAlterStatus(tn).getFirst() == 0);
+                    });
+                }
+                run.phase("create-index", phase -> {
+                    if (!tables.exists(EmailIndex.INDEX_TABLENAME)) {
+                        admin.createTableAsync(emailIndex.tableDescriptor(), null);
+                        run.await(phase, () -> admin.isTableAvailable(EmailIndex.INDEX_TABLENAME));
+                    }
+                });
+                run.phase("create-sequences", phase -> {
+                    if (!tables.exists(IdSequence.SEQUENCES_TABLENAME)) {
+                        admin.createTableAsync(IdSequence.tableDescriptor(), null);
+                        run.await(phase, () -> admin.isTableAvailable(IdSequence.SEQUENCES_TABLENAME));
+                    }
+                });
+                return String.format(found ? "Found table %s" : "Creating table %s", tn.getNameAsString());
+            } finally {
+                // Even a failed job may have changed tables, and HBase may not answer a listing right now.
+                tables.invalidate();
+            }
+        });
+        return accepted(job);
     }
 
     /**
-     * Deletes a table with the specified name.
+     * Deletes a table with the specified name. The table is deleted in the background; poll /jobs/{id} to see
+     * when it is gone.
      * @param name The table's name
-     * @return Success or failure message
-     * @throws IOException If HBase can't be reached.
+     * @return The job deleting the table
      */
     @GET
+    @Traffic(TrafficClass.ADMIN)
     @Path("/delete-table")
-    public String deleteTable(@DefaultValue("employees") @QueryParam("name") String name) throws IOException {
-    	String tableName = URLDecoder.decode(name);
-    	Admin admin = conn.getAdmin();
-        // closing the HTable object
-    	if(admin.tableExists(TableName.valueOf(tableName))){
-    		admin.disableTable(TableName.valueOf(tableName));
-    		admin.deleteTable(TableName.valueOf(tableName));
-    		return String.format("delete: " + name);
-    	} else{
-    		return String.format( name + " does not exist ");
-    	}
-     }
+    public Response deleteTable(@DefaultValue("employees") @QueryParam("name") String name) {
+        String tableName = URLDecoder.decode(name);
+        TableName tn = TableName.valueOf(tableName);
+        AdminJob job = adminJobs.submit("delete-table", tableName, run -> {
+            Admin admin = tables.getAdmin();
+            if (!tables.exists(tn) && !tables.refresh().containsKey(tn)) {
+                return String.format(name + " does not exist ");
+            }
+            try {
+                disableAndDelete(run, admin, tn);
+                if (tn.equals(EMPLOYEES_TABLENAME)) {
+                    if (rowCache != null) {
+                        rowCache.invalidateAll();
+                    }
+                    changes.publishAll();
+                    // The index is useless without the employees it points at.
+                    if (tables.exists(EmailIndex.INDEX_TABLENAME)) {
+                        disableAndDelete(run, admin, EmailIndex.INDEX_TABLENAME);
+                    }
+                }
+                return String.format("delete: " + name);
+            } finally {
+                // Even a failed job may have changed tables, and HBase may not answer a listing right now.
+                tables.invalidate();
+            }
+        });
+        return accepted(job);
+    }
+
+    /**
+     * Runs the disable and delete phases of a table deletion.
+     */
+    private static void disableAndDelete(AdminJobs.Runner run, Admin admin, TableName tn) throws Exception {
+        run.phase("disable-table " + tn.getNameAsString(), phase -> {
+            admin.disableTableAsync(tn);
+            run.await(phase, () -> admin.isTableDisabled(tn));
+        });
+        // HBase 1.3 has no asynchronous delete, but this is already off the request thread.
+        run.phase("delete-table " + tn.getNameAsString(), phase -> admin.deleteTable(tn));
+    }
+
+    /**
+     * Answers a request that started a job with 202 Accepted, the job's status, and where to poll it.
+     */
+    private static Response accepted(AdminJob job) {
+        return Response.accepted(job).location(URI.create("jobs/" + job.getId())).build();
+    }
+
+    /**
+     * Reports the progress of a table creation or deletion, and the timing of each of its phases.
+     * @param id The job's ID
+     * @return The job
+     */
+    @GET
+    @Traffic(TrafficClass.ADMIN)
+    @Path("/jobs/{id}")
+    public AdminJob getJob(@PathParam("id") String id) {
+        AdminJob job = adminJobs.get(id);
+        if (job == null) {
+            throw new NotFoundException("no job " + id);
+        }
+        return job;
+    }
 
     /**
      * Updates employee information in the database.
@@ -124,6 +625,8 @@ public class HTraceServiceResource {
      * @throws IOException If HBase cannot be reached for some reason
      */
     @GET
+    @Traffic(TrafficClass.WRITE)
+    @AdmissionControlled
     @Path("/update-value")
     public String updateValue(@NotNull @QueryParam("row") String row,
                               @NotNull @QueryParam("first") String first,
@@ -134,19 +637,79 @@ public class HTraceServiceResource {
     	String lastName  = URLDecoder.decode(last);
     	String emailAddr = URLDecoder.decode(email);
 
-    	Table table = conn.getTable(EMPLOYEES_TABLENAME);
+        Put p = employeePut(tableRow, firstName, lastName, emailAddr, "update-value");
 
-        Put p = new Put(Bytes.toBytes(tableRow));
-        p.add(Bytes.toBytes(PERSONAL_COL_FAMILY),Bytes.toBytes("first-name"),Bytes.toBytes(firstName));
-        p.add(Bytes.toBytes(PERSONAL_COL_FAMILY),Bytes.toBytes("last-name"),Bytes.toBytes(lastName));
-        p.add(Bytes.toBytes(PERSONAL_COL_FAMILY),Bytes.toBytes("email"),Bytes.toBytes(emailAddr));
-        
-        // Saving the put Instance to the HTable.
-        table.put(p);
+        if (writeBehind != null) {
+            // Acknowledge once queued. The index entry is queued ahead of the employee row; the old email's entry
+            // is left behind, which by-email lookups already treat as a miss.
+            WriteBehindBuffer.PendingWrite write = new WriteBehindBuffer.PendingWrite()
+                    .add(EmailIndex.INDEX_TABLENAME, emailIndex.indexPut(emailAddr, tableRow))
+                    .add(EMPLOYEES_TABLENAME, p);
+            if (!writeBehind.offer(tableRow, write)) {
+                throw new WebApplicationException("write rejected", Response.Status.SERVICE_UNAVAILABLE);
+            }
+            // The row is invalidated and announced again once the flush has written it.
+            if (rowCache != null) {
+                rowCache.invalidate(tableRow);
+            }
+            return String.format("data Queued");
+        }
+
+        try (Table table = getTable(EMPLOYEES_TABLENAME);
+             Table indexTable = getTable(EmailIndex.INDEX_TABLENAME)) {
+            // Read the current email so its index entry can be moved.
+            Get current = new Get(codec.encode(tableRow));
+            current.addColumn(Bytes.toBytes(PERSONAL_COL_FAMILY), Bytes.toBytes(EMAIL_COL));
+            current.setAttribute(ClusterRouter.PRIMARY_ONLY, Bytes.toBytes(true));
+            String oldEmail = Bytes.toString(table.get(current).getValue(Bytes.toBytes(PERSONAL_COL_FAMILY), Bytes.toBytes(EMAIL_COL)));
+
+            // The new index entry goes in before the employee row and the old one comes out after it, so a lookup
+            // never misses an employee that is being updated.
+            indexTable.put(emailIndex.indexPut(emailAddr, tableRow));
+            // Saving the put Instance to the HTable.
+            table.put(p);
+            if (oldEmail != null
+                    && !Bytes.equals(EmailIndex.indexKey(oldEmail), EmailIndex.indexKey(emailAddr))) {
+                emailIndex.removeIfOwned(indexTable, tableRow, oldEmail);
+            }
+        } finally {
+            written(tableRow);
+        }
         return String.format("data Updated");
-        //table.close();
 
      }
+
+    /**
+     * Builds the Put that stores an employee.
+     * @param endpoint The path of the endpoint making the write, which picks its durability
+     */
+    private Put employeePut(String tableRow, String firstName, String lastName, String emailAddr, String endpoint) {
+        Put p = new Put(codec.encode(tableRow));
+        p.add(Bytes.toBytes(PERSONAL_COL_FAMILY),Bytes.toBytes("first-name"),Bytes.toBytes(firstName));
+        p.add(Bytes.toBytes(PERSONAL_COL_FAMILY),Bytes.toBytes("last-name"),Bytes.toBytes(lastName));
+        p.add(Bytes.toBytes(PERSONAL_COL_FAMILY),Bytes.toBytes(EMAIL_COL),Bytes.toBytes(emailAddr));
+        p.setDurability(durability.getOrDefault(endpoint, Durability.USE_DEFAULT));
+        return p;
+    }
+
+    /**
+     * Imports employees streamed as NDJSON, one {"row","first","last","email"} object per line. The body is
+     * written as it is read, in bounded batches, so an import of any size uses the same memory; while HBase is
+     * behind, the body isn't read. As with write-behind, an employee's old email stays in the index.
+     * @param body The NDJSON stream
+     * @return How many rows were imported, how fast, and which lines were skipped (JSON).
+     * @throws IOException If the body couldn't be read or HBase cannot be reached.
+     */
+    @POST
+    @Traffic(TrafficClass.IMPORT)
+    @Path("/import")
+    @Consumes({NDJSON, MediaType.TEXT_PLAIN, MediaType.APPLICATION_OCTET_STREAM})
+    public ImportSummary importEmployees(InputStream body) throws IOException {
+        return importer.importFrom(body, employee -> new WriteBehindBuffer.PendingWrite()
+                .add(EmailIndex.INDEX_TABLENAME, emailIndex.indexPut(employee.getEmail(), employee.getRow()))
+                .add(EMPLOYEES_TABLENAME, employeePut(employee.getRow(), employee.getFirst(), employee.getLast(),
+                        employee.getEmail(), "import")), this::written);
+    }
     
     
 }
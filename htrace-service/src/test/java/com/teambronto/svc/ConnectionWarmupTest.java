@@ -0,0 +1,95 @@
+package com.teambronto.svc;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.health.HealthCheck;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Admin;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.RegionLocator;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests ConnectionWarmup against a stub cluster whose first table listing fails
+ */
+public class ConnectionWarmupTest {
+    private static final TableName TABLE = TableName.valueOf("employees");
+
+    private final AtomicInteger listings = new AtomicInteger();
+    private ConnectionWarmup warmup;
+
+    @After
+    public void stopWarmup() {
+        if (warmup != null) {
+            warmup.stop();
+        }
+    }
+
+    /**
+     * Returns a connection whose Admin throws the given exception from its first listing of the tables.
+     */
+    private Connection connection(RuntimeException firstListing) {
+        Admin admin = (Admin) Proxy.newProxyInstance(Admin.class.getClassLoader(), new Class<?>[] {Admin.class},
+                (proxy, method, args) -> {
+                    if ("listTables".equals(method.getName()) && args == null) {
+                        if (listings.incrementAndGet() == 1) {
+                            throw firstListing;
+                        }
+                        return new HTableDescriptor[] {new HTableDescriptor(TABLE)};
+                    }
+                    return null;
+                });
+        RegionLocator locator = (RegionLocator) Proxy.newProxyInstance(RegionLocator.class.getClassLoader(),
+                new Class<?>[] {RegionLocator.class},
+                (proxy, method, args) -> "getAllRegionLocations".equals(method.getName())
+                        ? Collections.emptyList() : null);
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[] {Connection.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getAdmin":
+                            return admin;
+                        case "getRegionLocator":
+                            return locator;
+                        default:
+                            return null;
+                    }
+                });
+    }
+
+    /**
+     * Tests that an unchecked exception from the client fails the attempt, is reported, and is retried
+     */
+    @Test
+    public void testUncheckedFailureIsRetried() throws IOException, InterruptedException {
+        MetricRegistry metrics = new MetricRegistry();
+        Connection conn = connection(new IllegalStateException("master not running"));
+        TableMetadataCache metadata = new TableMetadataCache(conn, 60000, metrics);
+        warmup = new ConnectionWarmup(Collections.singletonMap("primary", conn), Collections.singletonList(TABLE),
+                0, 10000, 200, metadata, metrics);
+
+        long started = System.nanoTime();
+        warmup.start();
+        assertTrue("start() waited out maxWaitMs", System.nanoTime() - started < 5000000000L);
+        assertFalse(warmup.isDone());
+        HealthCheck.Result failed = warmup.check();
+        assertFalse(failed.isHealthy());
+        assertTrue(failed.getMessage(), failed.getMessage().contains("master not running"));
+
+        for (int i = 0; i < 100 && !warmup.isDone(); i++) {
+            Thread.sleep(50);
+        }
+        assertTrue(warmup.isDone());
+        assertTrue(warmup.check().isHealthy());
+        assertEquals(2, listings.get());
+    }
+}
@@ -0,0 +1,68 @@
+package com.teambronto.svc;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests what HBaseRpcExecutor does with calls it has no room for
+ */
+public class HBaseRpcExecutorTest {
+    private final MetricRegistry metrics = new MetricRegistry();
+    private final HBaseRpcExecutor executor = new HBaseRpcExecutor(1, 1, metrics);
+
+    @After
+    public void stopExecutor() {
+        executor.shutdownNow();
+    }
+
+    private long callerRuns() {
+        return metrics.meter(MetricRegistry.name(HBaseRpcExecutor.class, "caller-runs")).getCount();
+    }
+
+    /**
+     * Tests that a call made while the thread and the queue are both taken runs on the caller's thread
+     */
+    @Test
+    public void testFullQueueRunsOnCaller() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        executor.execute(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        executor.execute(() -> { });
+        AtomicReference<Thread> ranOn = new AtomicReference<>();
+        executor.execute(() -> ranOn.set(Thread.currentThread()));
+        release.countDown();
+
+        assertSame(Thread.currentThread(), ranOn.get());
+        assertEquals(1, callerRuns());
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Tests that a call made after shutdown is rejected rather than silently dropped
+     */
+    @Test(expected = RejectedExecutionException.class)
+    public void testRejectsAfterShutdown() {
+        executor.shutdown();
+        try {
+            executor.execute(() -> { });
+        } finally {
+            assertEquals(0, callerRuns());
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package com.teambronto.svc;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests OffHeapRowCache against slab files in a temporary directory
+ */
+public class OffHeapRowCacheTest {
+    private static final int SLOT_SIZE = 256;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<OffHeapRowCache> started = new ArrayList<>();
+    private MetricRegistry metrics;
+
+    @After
+    public void stopCaches() {
+        for (OffHeapRowCache cache : started) {
+            cache.stop();
+        }
+    }
+
+    /**
+     * Starts a cache with one slab of the given number of slots.
+     */
+    private OffHeapRowCache start(Path directory, int slots) throws IOException {
+        metrics = new MetricRegistry();
+        OffHeapRowCache cache = new OffHeapRowCache(directory, 1, slots * SLOT_SIZE, SLOT_SIZE, 60000, 60000,
+                metrics);
+        cache.start();
+        started.add(cache);
+        return cache;
+    }
+
+    private void stop(OffHeapRowCache cache) {
+        started.remove(cache);
+        cache.stop();
+    }
+
+    private static RowCache.Row row(String rowId) {
+        return new RowCache.Row("{\"row\":\"" + rowId + "\"}", 1);
+    }
+
+    private long count(String meter) {
+        return metrics.meter(MetricRegistry.name(OffHeapRowCache.class, meter)).getCount();
+    }
+
+    private Object gauge(String gauge) {
+        return metrics.getGauges().get(MetricRegistry.name(OffHeapRowCache.class, gauge)).getValue();
+    }
+
+    /**
+     * Tests that a cached row is served until it is invalidated
+     */
+    @Test
+    public void testPutGetInvalidate() throws IOException {
+        OffHeapRowCache cache = start(folder.newFolder().toPath(), 8);
+        assertNull(cache.get("1"));
+        cache.put("1", row("1"));
+        assertEquals(row("1").getJson(), cache.get("1").getJson());
+        cache.invalidate("1");
+        assertNull(cache.get("1"));
+        assertEquals(0, cache.size());
+        assertEquals(1, count("hits"));
+        assertEquals(2, count("misses"));
+    }
+
+    /**
+     * Tests that rows stay reachable while others are dropped from the index in random order, which only holds if
+     * each removal shifts back the entries that probed past it
+     */
+    @Test
+    public void testIndexSurvivesRemovals() throws IOException {
+        int slots = 256;
+        OffHeapRowCache cache = start(folder.newFolder().toPath(), slots);
+        Random random = new Random(42);
+        for (int round = 0; round < 20; round++) {
+            List<String> ids = new ArrayList<>();
+            for (int i = 0; i < slots; i++) {
+                ids.add(round + "-" + i);
+                cache.put(ids.get(i), row(ids.get(i)));
+            }
+            assertEquals(slots, cache.size());
+            Collections.shuffle(ids, random);
+            List<String> dropped = ids.subList(0, slots / 2);
+            List<String> kept = ids.subList(slots / 2, slots);
+            for (String id : dropped) {
+                cache.invalidate(id);
+            }
+            for (String id : kept) {
+                assertNotNull(id, cache.get(id));
+            }
+            for (String id : dropped) {
+                assertNull(id, cache.get(id));
+            }
+            assertEquals(kept.size(), cache.size());
+            for (String id : kept) {
+                cache.invalidate(id);
+            }
+            assertEquals(0, cache.size());
+        }
+    }
+
+    /**
+     * Tests that a full cache evicts the first row under the hand that wasn't read since the hand last passed
+     */
+    @Test
+    public void testClockGivesReadRowsASecondChance() throws IOException {
+        OffHeapRowCache cache = start(folder.newFolder().toPath(), 4);
+        for (String id : new String[] {"a", "b", "c", "d"}) {
+            cache.put(id, row(id));
+        }
+        assertNotNull(cache.get("a"));
+        cache.put("e", row("e"));
+
+        assertEquals(1, count("evictions"));
+        assertNull(cache.get("b"));
+        for (String id : new String[] {"a", "c", "d", "e"}) {
+            assertNotNull(id, cache.get(id));
+        }
+        assertEquals(4, cache.size());
+    }
+
+    /**
+     * Tests that an entry whose bytes changed on disk is counted as corrupt, not served, and dropped
+     */
+    @Test
+    public void testCorruptEntryIsDropped() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        OffHeapRowCache cache = start(directory, 4);
+        cache.put("1", row("1"));
+        // The slab is shared with the mapping, so a write through a channel is what a bad disk would look like.
+        try (FileChannel channel = FileChannel.open(directory.resolve("slab-0"), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] {'X'}), 40);
+        }
+
+        assertNull(cache.get("1"));
+        assertEquals(1, count("corrupt"));
+        assertEquals(0, cache.size());
+    }
+
+    /**
+     * Tests that a restarted cache serves the rows in its files, and counts each row once even if two slots hold it
+     */
+    @Test
+    public void testRestartRestoresRows() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        OffHeapRowCache cache = start(directory, 8);
+        cache.put("1", row("1"));
+        cache.put("2", row("2"));
+        cache.put("3", row("3"));
+        stop(cache);
+        // Leave a second copy of row 1 in the last slot, as a crash between a write and a clear would.
+        try (FileChannel channel = FileChannel.open(directory.resolve("slab-0"), StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            ByteBuffer first = ByteBuffer.allocate(SLOT_SIZE);
+            channel.read(first, 0);
+            first.flip();
+            channel.write(first, 7 * SLOT_SIZE);
+        }
+
+        cache = start(directory, 8);
+        assertEquals(3, gauge("restored"));
+        assertEquals(3, cache.size());
+        for (String id : new String[] {"1", "2", "3"}) {
+            assertEquals(row(id).getJson(), cache.get(id).getJson());
+        }
+        // The extra copy was cleared, so filling the cache up takes no eviction.
+        for (int i = 4; i <= 8; i++) {
+            cache.put(Integer.toString(i), row(Integer.toString(i)));
+        }
+        assertEquals(0, count("evictions"));
+    }
+
+    /**
+     * Tests that rows dropped by invalidateAll stay dropped after a restart
+     */
+    @Test
+    public void testInvalidateAllSurvivesRestart() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        OffHeapRowCache cache = start(directory, 4);
+        cache.put("1", row("1"));
+        cache.invalidateAll();
+        stop(cache);
+
+        cache = start(directory, 4);
+        assertEquals(0, gauge("restored"));
+        assertNull(cache.get("1"));
+    }
+
+    /**
+     * Tests that reads made while a row is being rewritten only ever see one of the complete rows
+     */
+    @Test
+    public void testReadsRacingWritesAreNeverTorn() throws Exception {
+        OffHeapRowCache cache = start(folder.newFolder().toPath(), 4);
+        RowCache.Row small = new RowCache.Row("{\"v\":1}", 1);
+        RowCache.Row large = new RowCache.Row("{\"v\":22222222222222222222222222222222}", 2);
+        cache.put("1", small);
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<String> torn = new AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            while (!done.get()) {
+                RowCache.Row read = cache.get("1");
+                if (read != null && !read.getJson().equals(small.getJson())
+                        && !read.getJson().equals(large.getJson())) {
+                    torn.set(read.getJson());
+                }
+            }
+        });
+        reader.start();
+        for (int i = 0; i < 20000; i++) {
+            cache.put("1", i % 2 == 0 ? large : small);
+        }
+        done.set(true);
+        reader.join();
+
+        assertNull(torn.get());
+        assertEquals(0, count("corrupt"));
+    }
+}
@@ -0,0 +1,289 @@
+package com.teambronto.svc;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.kristofa.brave.Brave;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Increment;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests ClusterRouter and RoutedTable over stub clusters whose tables record the calls they get
+ */
+public class RoutedTableTest {
+    private static final TableName TABLE = TableName.valueOf("employees");
+    private static final byte[] ROW = Bytes.toBytes("1");
+    private static final byte[] FAMILY = Bytes.toBytes("employee");
+    private static final byte[] QUALIFIER = Bytes.toBytes("first");
+
+    private final Brave brave = new Brave.Builder("routed-table-test").build();
+    private final MetricRegistry metrics = new MetricRegistry();
+    private final ExecutorService hedgeExecutor = Executors.newCachedThreadPool();
+    /** Every call made to a stub table, as cluster.method */
+    private final List<String> calls = new CopyOnWriteArrayList<>();
+
+    @After
+    public void stopHedging() {
+        hedgeExecutor.shutdownNow();
+    }
+
+    private HBaseCluster cluster(String name, long getDelayMs) {
+        return cluster(name, getDelayMs, null);
+    }
+
+    /**
+     * Returns a cluster whose table answers gets and scans with the cluster's name, gets after a delay.
+     * @param getError Thrown by gets instead of answering, if not null
+     */
+    private HBaseCluster cluster(String name, long getDelayMs, Error getError) {
+        Result answer = Result.create(new Cell[] {new KeyValue(ROW, FAMILY, QUALIFIER, Bytes.toBytes(name))});
+        Table table = (Table) Proxy.newProxyInstance(Table.class.getClassLoader(), new Class<?>[] {Table.class},
+                (proxy, method, args) -> {
+                    calls.add(name + "." + method.getName());
+                    switch (method.getName()) {
+                        case "get":
+                            if (getError != null) {
+                                throw getError;
+                            }
+                            Thread.sleep(getDelayMs);
+                            return answer;
+                        case "getScanner":
+                            return scanner(answer);
+                        case "checkAndDelete":
+                            return true;
+                        case "increment":
+                            return Result.EMPTY_RESULT;
+                        case "incrementColumnValue":
+                            return 1L;
+                        case "getWriteBufferSize":
+                            return 2097152L;
+                        case "getOperationTimeout":
+                        case "getRpcTimeout":
+                            return 0;
+                        default:
+                            return null;
+                    }
+                });
+        Connection connection = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[] {Connection.class},
+                (proxy, method, args) -> "getTable".equals(method.getName()) ? table : null);
+        // Samples decay within a millisecond, so each one replaces the averages.
+        return new HBaseCluster(name, connection, 1, metrics);
+    }
+
+    private static ResultScanner scanner(Result... results) {
+        Iterator<Result> remaining = Arrays.asList(results).iterator();
+        return (ResultScanner) Proxy.newProxyInstance(ResultScanner.class.getClassLoader(),
+                new Class<?>[] {ResultScanner.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "iterator":
+                            return remaining;
+                        case "next":
+                            return remaining.hasNext() ? remaining.next() : null;
+                        default:
+                            return null;
+                    }
+                });
+    }
+
+    private ClusterRouter router(HBaseCluster primary, boolean routeReads, long hedgeAfterMs,
+                                 HBaseCluster... others) {
+        return new ClusterRouter(brave, primary, Arrays.asList(others), routeReads, 10, hedgeAfterMs, hedgeExecutor,
+                metrics);
+    }
+
+    /**
+     * Records one call that took the given time.
+     */
+    private static void sample(HBaseCluster cluster, long latencyMs) {
+        long started = cluster.begin();
+        cluster.succeeded(started - latencyMs * 1000000);
+    }
+
+    private static String answeredBy(Result result) {
+        return Bytes.toString(result.getValue(FAMILY, QUALIFIER));
+    }
+
+    private List<String> callsTo(String cluster) {
+        List<String> made = new ArrayList<>();
+        for (String call : calls) {
+            if (call.startsWith(cluster + ".")) {
+                made.add(call);
+            }
+        }
+        return made;
+    }
+
+    /**
+     * Tests that reads go to the cluster with the lowest latency, and that a cluster that keeps failing is avoided
+     */
+    @Test
+    public void testChoosesFastestCluster() throws InterruptedException {
+        HBaseCluster primary = cluster("primary", 0);
+        HBaseCluster replica = cluster("replica", 0);
+        ClusterRouter router = router(primary, true, 0, replica);
+        sample(primary, 50);
+        sample(replica, 5);
+        assertSame(replica, router.choose(null));
+        assertSame(primary, router.choose(replica));
+
+        Thread.sleep(5);
+        replica.begin();
+        replica.failed();
+        replica.begin();
+        replica.failed();
+        assertSame(primary, router.choose(null));
+
+        assertSame(primary, router(primary, false, 0, replica).choose(null));
+    }
+
+    /**
+     * Tests that a read served by another cluster is marked stale, and one served by the primary isn't
+     */
+    @Test
+    public void testReplicaResultsAreStale() throws IOException {
+        HBaseCluster primary = cluster("primary", 0);
+        HBaseCluster replica = cluster("replica", 0);
+        sample(primary, 50);
+        sample(replica, 5);
+        Table table = new RoutedTable(TABLE, router(primary, true, 0, replica));
+
+        Result fromReplica = table.get(new Get(ROW));
+        assertEquals("replica", answeredBy(fromReplica));
+        assertTrue(fromReplica.isStale());
+
+        Result fromPrimary = table.get(new Get(ROW).setAttribute(ClusterRouter.PRIMARY_ONLY, new byte[0]));
+        assertEquals("primary", answeredBy(fromPrimary));
+        assertFalse(fromPrimary.isStale());
+    }
+
+    /**
+     * Tests that a scan served by another cluster returns stale Results, and one sent to the primary doesn't
+     */
+    @Test
+    public void testReplicaScansAreStale() throws IOException {
+        HBaseCluster primary = cluster("primary", 0);
+        HBaseCluster replica = cluster("replica", 0);
+        sample(primary, 50);
+        sample(replica, 5);
+        Table table = new RoutedTable(TABLE, router(primary, true, 0, replica));
+
+        try (ResultScanner scanner = table.getScanner(new Scan())) {
+            Result fromReplica = scanner.next();
+            assertEquals("replica", answeredBy(fromReplica));
+            assertTrue(fromReplica.isStale());
+        }
+        for (Result fromReplica : table.getScanner(FAMILY)) {
+            assertTrue(fromReplica.isStale());
+        }
+
+        Scan primaryOnly = new Scan();
+        primaryOnly.setAttribute(ClusterRouter.PRIMARY_ONLY, new byte[0]);
+        for (Result fromPrimary : table.getScanner(primaryOnly)) {
+            assertEquals("primary", answeredBy(fromPrimary));
+            assertFalse(fromPrimary.isStale());
+        }
+    }
+
+    /**
+     * Tests that a call ending in an Error is counted as a failure and doesn't stay outstanding
+     */
+    @Test
+    public void testErrorEndsCall() throws IOException {
+        HBaseCluster primary = cluster("primary", 0, new AssertionError("stub failure"));
+        Table table = new RoutedTable(TABLE, router(primary, false, 0));
+        try {
+            table.get(new Get(ROW));
+            fail("the stub's Error was swallowed");
+        } catch (AssertionError e) {
+            assertEquals("stub failure", e.getMessage());
+        }
+
+        assertEquals(0, metrics.getGauges().get(MetricRegistry.name(HBaseCluster.class, "primary", "outstanding"))
+                .getValue());
+        assertEquals(1.0, primary.getErrorRate(), 0.0);
+    }
+
+    /**
+     * Tests that writes, conditional deletes and increments go to the primary even when another cluster is faster
+     */
+    @Test
+    public void testWritesArePinnedToPrimary() throws IOException {
+        HBaseCluster primary = cluster("primary", 0);
+        HBaseCluster replica = cluster("replica", 0);
+        sample(primary, 50);
+        sample(replica, 5);
+        Table table = new RoutedTable(TABLE, router(primary, true, 0, replica));
+
+        table.put(new Put(ROW).addColumn(FAMILY, QUALIFIER, Bytes.toBytes("Ada")));
+        table.delete(new Delete(ROW));
+        assertTrue(table.checkAndDelete(ROW, FAMILY, QUALIFIER, Bytes.toBytes("Ada"), new Delete(ROW)));
+        table.increment(new Increment(ROW).addColumn(FAMILY, QUALIFIER, 1));
+        assertEquals(1L, table.incrementColumnValue(ROW, FAMILY, QUALIFIER, 1));
+
+        assertEquals(Collections.emptyList(), callsTo("replica"));
+        assertTrue(callsTo("primary").containsAll(Arrays.asList("primary.put", "primary.delete",
+                "primary.checkAndDelete", "primary.increment", "primary.incrementColumnValue")));
+    }
+
+    /**
+     * Tests that a read slower than hedgeAfterMs is answered by the next best cluster
+     */
+    @Test
+    public void testSlowReadIsHedged() throws IOException {
+        HBaseCluster primary = cluster("primary", 0);
+        HBaseCluster replica = cluster("replica", 2000);
+        sample(primary, 50);
+        sample(replica, 5);
+        Table table = new RoutedTable(TABLE, router(primary, true, 20, replica));
+
+        Result result = table.get(new Get(ROW));
+        assertEquals("primary", answeredBy(result));
+        assertFalse(result.isStale());
+        assertEquals(1, metrics.meter(MetricRegistry.name(ClusterRouter.class, "hedges-won")).getCount());
+    }
+
+    /**
+     * Tests that calls that don't declare IOException reopen the primary's table after close instead of failing
+     */
+    @Test
+    public void testPrimaryReopenedAfterClose() throws IOException {
+        HBaseCluster primary = cluster("primary", 0);
+        Table table = new RoutedTable(TABLE, router(primary, false, 0));
+        table.close();
+
+        assertEquals(2097152L, table.getWriteBufferSize());
+        table.coprocessorService(ROW);
+        assertEquals(Arrays.asList("primary.getOperationTimeout", "primary.getRpcTimeout", "primary.close",
+                "primary.setOperationTimeout", "primary.setRpcTimeout", "primary.getWriteBufferSize",
+                "primary.coprocessorService"), calls);
+    }
+}
@@ -0,0 +1,123 @@
+package com.teambronto.svc;
+
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the row key codecs: that IDs survive a round trip, and that range scans cover exactly the rows they should
+ */
+public class RowKeyCodecTest {
+    private static final List<String> IDS = Arrays.asList("row0", "row1", "row10", "row19", "row2", "row25", "row3",
+            "a", "zzz");
+
+    /**
+     * Returns how many of the scans cover a row key, the way HBase applies their start and stop rows.
+     */
+    private static int covering(List<Scan> scans, byte[] rowKey) {
+        int count = 0;
+        for (Scan scan : scans) {
+            byte[] stop = scan.getStopRow();
+            if (Bytes.compareTo(rowKey, scan.getStartRow()) >= 0
+                    && (stop.length == 0 || Bytes.compareTo(rowKey, stop) < 0)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static boolean inRange(String rowId, String startRow, String stopRow) {
+        return rowId.compareTo(startRow) >= 0 && (stopRow.isEmpty() || rowId.compareTo(stopRow) < 0);
+    }
+
+    private static void assertRoundTrip(RowKeyCodec codec) {
+        for (String id : IDS) {
+            assertEquals(id, codec.decode(codec.encode(id)));
+        }
+    }
+
+    /**
+     * Checks that each ID in [startRow, stopRow) is read by exactly one scan and, for codecs that keep ordering,
+     * that no other ID is read at all.
+     */
+    private static void assertCovers(RowKeyCodec codec, String startRow, String stopRow, boolean exact) {
+        List<Scan> scans = codec.rangeScans(startRow, stopRow);
+        for (String id : IDS) {
+            int count = covering(scans, codec.encode(id));
+            if (inRange(id, startRow, stopRow)) {
+                assertEquals(id, 1, count);
+            } else if (exact) {
+                assertEquals(id, 0, count);
+            }
+        }
+    }
+
+    @Test
+    public void testIdentity() {
+        RowKeyCodec codec = new IdentityRowKeyCodec();
+        assertRoundTrip(codec);
+        assertArrayEquals(Bytes.toBytes("row1"), codec.encode("row1"));
+        assertEquals(0, codec.splitKeys().length);
+        assertCovers(codec, "row1", "row2", true);
+        assertCovers(codec, "", "row2", true);
+        assertCovers(codec, "row2", "", true);
+        assertCovers(codec, "", "", true);
+    }
+
+    @Test
+    public void testReversed() {
+        RowKeyCodec codec = new ReversedRowKeyCodec();
+        assertRoundTrip(codec);
+        assertArrayEquals(Bytes.toBytes("1wor"), codec.encode("row1"));
+        assertEquals(0, codec.splitKeys().length);
+        // Ordering is lost, so the scan reads everything and the caller filters.
+        assertCovers(codec, "row1", "row2", false);
+        assertCovers(codec, "", "", false);
+    }
+
+    /**
+     * Tests that salted keys start with their bucket, that sequential IDs are spread over the buckets, and that a
+     * range is read with one scan per bucket
+     */
+    @Test
+    public void testSalted() {
+        SaltedRowKeyCodec codec = new SaltedRowKeyCodec(8);
+        assertRoundTrip(codec);
+        for (String id : IDS) {
+            byte[] key = codec.encode(id);
+            assertEquals(codec.bucket(id), key[0]);
+            assertTrue(codec.bucket(id) >= 0 && codec.bucket(id) < 8);
+        }
+        Set<Integer> buckets = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            buckets.add(codec.bucket("row" + i));
+        }
+        assertEquals(8, buckets.size());
+
+        byte[][] splits = codec.splitKeys();
+        assertEquals(7, splits.length);
+        for (int i = 0; i < splits.length; i++) {
+            assertArrayEquals(new byte[] {(byte) (i + 1)}, splits[i]);
+        }
+
+        assertEquals(8, codec.rangeScans("row1", "row2").size());
+        assertCovers(codec, "row1", "row2", true);
+        assertCovers(codec, "", "row2", true);
+        assertCovers(codec, "row2", "", true);
+        assertCovers(codec, "", "", true);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSaltedRejectsTooManyBuckets() {
+        new SaltedRowKeyCodec(257);
+    }
+}
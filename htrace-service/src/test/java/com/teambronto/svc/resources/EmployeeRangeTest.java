@@ -0,0 +1,152 @@
+package com.teambronto.svc.resources;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.kristofa.brave.Brave;
+import com.teambronto.svc.IdentityRowKeyCodec;
+import com.teambronto.svc.ReversedRowKeyCodec;
+import com.teambronto.svc.RowKeyCodec;
+import com.teambronto.svc.SaltedRowKeyCodec;
+import io.dropwizard.jackson.Jackson;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.After;
+import org.junit.Test;
+
+import javax.ws.rs.WebApplicationException;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests HTraceServiceResource.getEmployeeRange over an in-memory employees table, with each row key codec
+ */
+public class EmployeeRangeTest {
+    private static final ObjectMapper MAPPER = Jackson.newObjectMapper();
+    private static final byte[] PERSONAL = Bytes.toBytes("personal");
+    private static final List<String> IDS = Arrays.asList("row0", "row1", "row10", "row11", "row19", "row2", "row20",
+            "row3", "row4");
+
+    private final ExecutorService scanExecutor = Executors.newFixedThreadPool(4);
+
+    @After
+    public void stopScans() {
+        scanExecutor.shutdownNow();
+    }
+
+    /**
+     * Builds a resource whose connection serves an employees table holding IDS, stored with the given codec.
+     */
+    private HTraceServiceResource resource(RowKeyCodec codec) {
+        NavigableMap<byte[], Result> rows = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+        for (String id : IDS) {
+            byte[] key = codec.encode(id);
+            rows.put(key, Result.create(new Cell[] {
+                    new KeyValue(key, PERSONAL, Bytes.toBytes("email"), Bytes.toBytes(id + "@example.com")),
+                    new KeyValue(key, PERSONAL, Bytes.toBytes("first-name"), Bytes.toBytes("First " + id)),
+                    new KeyValue(key, PERSONAL, Bytes.toBytes("last-name"), Bytes.toBytes("Last " + id))}));
+        }
+        Table table = (Table) Proxy.newProxyInstance(Table.class.getClassLoader(), new Class<?>[] {Table.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getScanner":
+                            return scanner((Scan) args[0], rows);
+                        case "getOperationTimeout":
+                        case "getRpcTimeout":
+                            return 60000;
+                        default:
+                            return null;
+                    }
+                });
+        Connection conn = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[] {Connection.class},
+                (proxy, method, args) -> "getTable".equals(method.getName()) ? table : null);
+        return new HTraceServiceResource(new Brave.Builder("employee-range-test").build(), conn, codec,
+                scanExecutor, null, Collections.emptyMap(), null, null, null, null, null, 1, null);
+    }
+
+    /**
+     * Returns a scanner over the rows in [startRow, stopRow) of the scan.
+     */
+    private static ResultScanner scanner(Scan scan, NavigableMap<byte[], Result> rows) {
+        NavigableMap<byte[], Result> range = scan.getStopRow().length == 0
+                ? rows.tailMap(scan.getStartRow(), true)
+                : rows.subMap(scan.getStartRow(), true, scan.getStopRow(), false);
+        List<Result> results = new ArrayList<>(range.values());
+        return (ResultScanner) Proxy.newProxyInstance(ResultScanner.class.getClassLoader(),
+                new Class<?>[] {ResultScanner.class},
+                (proxy, method, args) -> "iterator".equals(method.getName()) ? results.iterator() : null);
+    }
+
+    /**
+     * Returns the IDs of the employees in a range read's answer, checking each one's fields.
+     */
+    private static List<String> ids(String json) throws IOException {
+        List<String> ids = new ArrayList<>();
+        for (JsonNode employee : MAPPER.readTree(json).get("employees")) {
+            String id = employee.get("rowId").asText();
+            assertEquals("First " + id, employee.get("firstName").asText());
+            assertEquals(id + "@example.com", employee.get("email").asText());
+            ids.add(id);
+        }
+        return ids;
+    }
+
+    private static void assertRanges(HTraceServiceResource resource) throws IOException {
+        assertEquals(Arrays.asList("row1", "row10", "row11", "row19"), ids(resource.getEmployeeRange("row1", "row2",
+                100)));
+        assertEquals(Arrays.asList("row0", "row1"), ids(resource.getEmployeeRange("", "row10", 100)));
+        assertEquals(Arrays.asList("row3", "row4"), ids(resource.getEmployeeRange("row3", "", 100)));
+        assertEquals(IDS, ids(resource.getEmployeeRange("", "", 100)));
+        // The limit keeps the lowest IDs, whichever buckets they came from.
+        assertEquals(Arrays.asList("row0", "row1", "row10"), ids(resource.getEmployeeRange("", "", 3)));
+        assertEquals(Collections.emptyList(), ids(resource.getEmployeeRange("row5", "", 100)));
+    }
+
+    @Test
+    public void testIdentityRange() throws IOException {
+        assertRanges(resource(new IdentityRowKeyCodec()));
+    }
+
+    @Test
+    public void testSaltedRange() throws IOException {
+        assertRanges(resource(new SaltedRowKeyCodec(4)));
+    }
+
+    @Test
+    public void testReversedRange() throws IOException {
+        assertRanges(resource(new ReversedRowKeyCodec()));
+    }
+
+    /**
+     * Tests that a limit below 1 is refused instead of becoming the scans' caching
+     */
+    @Test
+    public void testNonPositiveLimitIsBadRequest() {
+        HTraceServiceResource resource = resource(new IdentityRowKeyCodec());
+        for (int limit : new int[] {0, -1}) {
+            try {
+                resource.getEmployeeRange("", "", limit);
+                fail("limit " + limit + " was accepted");
+            } catch (WebApplicationException e) {
+                assertEquals(400, e.getResponse().getStatus());
+            }
+        }
+    }
+}
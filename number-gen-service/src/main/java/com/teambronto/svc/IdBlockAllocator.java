@@ -0,0 +1,160 @@
+package com.teambronto.svc;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * IdBlockAllocator hands out unique, increasing IDs from blocks leased from a shared counter. IDs are taken from the
+ * current block with a single atomic add, so handing out IDs never blocks. Once a block is partly used up the next
+ * one is leased in the background, so a request rarely has to wait for a lease.
+ */
+public class IdBlockAllocator {
+	/**
+	 * Leases blocks of IDs from the shared counter.
+	 */
+	public interface BlockSource {
+		/**
+		 * Leases a block of IDs. Every block must be above all of the blocks leased before it.
+		 * @param size the number of IDs in the block
+		 * @return the first ID of the block
+		 * @throws Exception if the block could not be leased
+		 */
+		long lease(long size) throws Exception;
+	}
+
+	/** A leased block of IDs, [next, end) */
+	private static final class Block {
+		private final long start;
+		private final AtomicLong next;
+		private final long end;
+		/** Once IDs past this point are handed out, the next block is leased in the background */
+		private final long prefetchAt;
+
+		private Block(long start, long size, double prefetchThreshold) {
+			this.start = start;
+			this.next = new AtomicLong(start);
+			this.end = start + size;
+			this.prefetchAt = start + (long) (size * prefetchThreshold);
+		}
+	}
+
+	private final BlockSource source;
+	private final long blockSize;
+	private final double prefetchThreshold;
+	private final Executor executor;
+	private final AtomicReference<Block> current = new AtomicReference<>();
+	private final AtomicReference<CompletableFuture<Block>> prefetched = new AtomicReference<>();
+
+	/**
+	 * @param source where blocks are leased from
+	 * @param blockSize the number of IDs leased at once
+	 * @param prefetchThreshold the fraction of a block that can be used up before the next one is leased
+	 * @param executor where the next block is leased in the background
+	 */
+	public IdBlockAllocator(BlockSource source, long blockSize, double prefetchThreshold, Executor executor) {
+		if (blockSize < 1) {
+			throw new IllegalArgumentException("blockSize must be positive: " + blockSize);
+		}
+		this.source = source;
+		this.blockSize = blockSize;
+		this.prefetchThreshold = prefetchThreshold;
+		this.executor = executor;
+	}
+
+	public long getBlockSize() {
+		return blockSize;
+	}
+
+	/**
+	 * Hands out the next IDs. The IDs are increasing, but may span two blocks, so they are not always contiguous.
+	 * @param count the number of IDs, at most one block
+	 * @return the IDs
+	 */
+	public long[] next(int count) {
+		if (count < 1 || count > blockSize) {
+			throw new IllegalArgumentException("count must be between 1 and " + blockSize + ": " + count);
+		}
+		long[] ids = new long[count];
+		int filled = 0;
+		while (filled < count) {
+			Block block = current.get();
+			if (block != null) {
+				long start = block.next.getAndAdd(count - filled);
+				if (start < block.end) {
+					long stop = Math.min(start + count - filled, block.end);
+					for (long id = start; id < stop; id++) {
+						ids[filled++] = id;
+					}
+					if (stop > block.prefetchAt) {
+						prefetch(block);
+					}
+					continue;
+				}
+			}
+			advance(block);
+		}
+		return ids;
+	}
+
+	/**
+	 * Starts leasing the block to follow the given one in the background, unless that is already happening or the
+	 * given block has already been replaced.
+	 */
+	private void prefetch(Block block) {
+		if (prefetched.get() == null && current.get() == block) {
+			CompletableFuture<Block> lease = new CompletableFuture<>();
+			if (prefetched.compareAndSet(null, lease)) {
+				try {
+					executor.execute(() -> {
+						try {
+							lease.complete(leaseBlock());
+						} catch (RuntimeException e) {
+							lease.completeExceptionally(e);
+						}
+					});
+				} catch (RejectedExecutionException e) {
+					// The executor is shutting down; the next block is leased when it is needed instead.
+					lease.completeExceptionally(e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Replaces a used up block with the next one. Only one thread does this; the others wait for it and retry.
+	 */
+	private synchronized void advance(Block exhausted) {
+		if (current.get() != exhausted) {
+			return;
+		}
+		CompletableFuture<Block> lease = prefetched.getAndSet(null);
+		Block next = null;
+		if (lease != null) {
+			try {
+				next = lease.join();
+			} catch (CompletionException e) {
+				// The background lease failed, so try again now.
+			}
+		}
+		if (next != null && exhausted != null && next.start < exhausted.end) {
+			// A prefetch that raced with a lease made here can come back below the block it should follow. Handing
+			// it out would send IDs backwards, so its IDs are skipped and a fresh block is leased instead.
+			next = null;
+		}
+		current.set(next != null ? next : leaseBlock());
+	}
+
+	private Block leaseBlock() {
+		try {
+			return new Block(source.lease(blockSize), blockSize, prefetchThreshold);
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IllegalStateException("Could not lease a block of " + blockSize + " IDs", e);
+		}
+	}
+}
@@ -8,10 +8,12 @@ import zipkin.Span;
 import zipkin.reporter.Reporter;
 
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
 
 import javax.annotation.Nonnull;
 import javax.ws.rs.client.Client;
 
+import org.glassfish.jersey.client.ClientProperties;
 import org.glassfish.jersey.client.JerseyClientBuilder;
 
 import com.github.kristofa.brave.Brave;
@@ -116,11 +118,41 @@ public class NumberGenApplication extends Application<NumberGenConfiguration> {
 		//TODO: create Jersey client with config passed in
 		new JerseyClientBuilder();
 		final Client client = JerseyClientBuilder.newClient();
+		// Never wait forever on sleep-service.
+		client.property(ClientProperties.CONNECT_TIMEOUT, config.getResilience().getConnectTimeoutMs());
+		client.property(ClientProperties.READ_TIMEOUT, config.getResilience().getReadTimeoutMs());
+		// Pass what is left of each request's deadline on to sleep-service.
+		client.register(new DeadlineClientFilter());
 		
 		Brave b = buildBrave(config.getReporter()).get();
 
 		environment.jersey().setUrlPattern("/assets/*");
-		environment.jersey().register(new NumberGenResource(b, client));
+		// Bulk random numbers are generated on one thread per core.
+		final int cores = Runtime.getRuntime().availableProcessors();
+		final ExecutorService randomExecutor = environment.lifecycle().executorService("random-%d")
+				.minThreads(cores)
+				.maxThreads(cores)
+				.build();
+		// The next block of employee IDs is leased on its own thread, stopped along with the service.
+		final ExecutorService idPrefetchExecutor = environment.lifecycle().executorService("id-prefetch-%d")
+				.minThreads(1)
+				.maxThreads(1)
+				.build();
+
+		// Requests are balanced over every sleep-service instance; a file-based pool is re-read while running.
+		final ServicePool sleepService = config.getSleepService().build("sleep-service", environment.metrics());
+		environment.lifecycle().manage(sleepService);
+
+		environment.jersey().register(new NumberGenResource(b, client, config.getIdBlockSize(),
+				config.getIdPrefetchThreshold(), idPrefetchExecutor, new RandomStream(randomExecutor, cores),
+				config.getResilience(), sleepService, environment.metrics()));
 		environment.jersey().register(BraveTracingFeature.create(b));
+		// This is where requests enter the chain, so this is where their deadline is set.
+		environment.jersey().register(new DeadlineFilter(config.getRequestTimeoutMs()));
+		// Admin requests are shed first under pressure, then writes, then reads.
+		final LoadSheddingFilter loadShedding = config.getLoadShedding().build(environment.metrics());
+		if (loadShedding != null) {
+			environment.jersey().register(loadShedding);
+		}
 	}
 }
@@ -7,6 +7,10 @@ import zipkin.reporter.AsyncReporter;
 import zipkin.reporter.Reporter;
 import zipkin.reporter.okhttp3.OkHttpSender;
 
+import javax.validation.Valid;
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 /**
  * Configuration class in dropwizard, uses number-gen-service.yml to get properties/values
@@ -18,10 +22,68 @@ public class NumberGenConfiguration extends Configuration {
 	@JsonProperty
 	private String zipkinReportingAddress;
 
+	/** Timeouts, circuit breakers and bulkheads for calls to the downstream service */
+	@Valid
+	@NotNull
+	@JsonProperty
+	private DownstreamGuardFactory resilience = new DownstreamGuardFactory();
+
+	/** The sleep-service instances and how requests are balanced over them */
+	@Valid
+	@NotNull
+	@JsonProperty
+	private ServicePoolFactory sleepService = new ServicePoolFactory("http://localhost:8889/sleep-svc");
+
+	/** Time a request may spend in the whole service chain, unless the client sent its own X-Request-Deadline-Ms */
+	@Min(1)
+	@JsonProperty
+	private long requestTimeoutMs = 10000;
+
+	/** Number of employee IDs leased from HBase at a time */
+	@Min(1)
+	@JsonProperty
+	private long idBlockSize = 10000;
+
+	/** Fraction of a block that is used up before the next block is leased in the background */
+	@DecimalMin("0.0")
+	@DecimalMax("1.0")
+	@JsonProperty
+	private double idPrefetchThreshold = 0.5;
+
+	/** Per-class limits that keep admin requests from taking the threads reads need */
+	@Valid
+	@NotNull
+	@JsonProperty
+	private LoadSheddingFactory loadShedding = new LoadSheddingFactory();
+
 	String getZipkinReportingAddress() {
 		return zipkinReportingAddress;
 	}
 
+	public DownstreamGuardFactory getResilience() {
+		return resilience;
+	}
+
+	public ServicePoolFactory getSleepService() {
+		return sleepService;
+	}
+
+	public LoadSheddingFactory getLoadShedding() {
+		return loadShedding;
+	}
+
+	public long getRequestTimeoutMs() {
+		return requestTimeoutMs;
+	}
+
+	public long getIdBlockSize() {
+		return idBlockSize;
+	}
+
+	public double getIdPrefetchThreshold() {
+		return idPrefetchThreshold;
+	}
+
 	OkHttpSender getOkHttpSender() {
 		return OkHttpSender.create(getZipkinReportingAddress());
 	}
@@ -0,0 +1,145 @@
+package com.teambronto.svc;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * RandomStream writes large amounts of random numbers to an output stream. The numbers are generated in chunks, and
+ * every chunk gets its own SplittableRandom, so chunks can be generated and encoded on several threads at once
+ * while still being written in order. Only a bounded number of chunks are in memory at any time.
+ *
+ * With a seed, the generator of every chunk is split off the seed's generator in chunk order, so a seeded stream is
+ * the same no matter how many threads generated it.
+ */
+public class RandomStream {
+	/** The kinds of numbers that can be generated */
+	public enum Type {
+		LONG, DOUBLE, GAUSSIAN
+	}
+
+	/** How the numbers are written */
+	public enum Format {
+		/** One number per line, as text */
+		NDJSON,
+		/** 8 bytes per number, big-endian. Doubles are written as their IEEE 754 bits. */
+		BINARY
+	}
+
+	/** Numbers per chunk. Even, so gaussians can be generated in pairs. */
+	static final int CHUNK_SIZE = 1 << 16;
+
+	private final Executor executor;
+	private final int parallelism;
+
+	/**
+	 * @param executor the executor chunks are generated on
+	 * @param parallelism the number of chunks generated at once
+	 */
+	public RandomStream(Executor executor, int parallelism) {
+		this.executor = executor;
+		this.parallelism = Math.max(1, parallelism);
+	}
+
+	/**
+	 * Writes count random numbers to out.
+	 * @param out where the numbers are written
+	 * @param count how many numbers to write
+	 * @param type the kind of numbers
+	 * @param seed the seed, or null for a different stream every time
+	 * @param format how the numbers are written
+	 * @throws IOException if out could not be written to
+	 */
+	public void write(OutputStream out, long count, Type type, Long seed, Format format) throws IOException {
+		SplittableRandom root = seed != null ? new SplittableRandom(seed) : null;
+		Deque<CompletableFuture<byte[]>> inFlight = new ArrayDeque<>(parallelism * 2);
+		long remaining = count;
+		try {
+			while (remaining > 0 || !inFlight.isEmpty()) {
+				// Keep up to two chunks per thread generating ahead of the one being written.
+				while (remaining > 0 && inFlight.size() < parallelism * 2) {
+					final int size = (int) Math.min(remaining, CHUNK_SIZE);
+					final SplittableRandom random = root != null
+							? root.split()
+							: new SplittableRandom(ThreadLocalRandom.current().nextLong());
+					inFlight.add(count <= CHUNK_SIZE
+							? CompletableFuture.completedFuture(chunk(random, size, type, format))
+							: CompletableFuture.supplyAsync(() -> chunk(random, size, type, format), executor));
+					remaining -= size;
+				}
+				out.write(inFlight.poll().join());
+			}
+			out.flush();
+		} finally {
+			inFlight.forEach(chunk -> chunk.cancel(true));
+		}
+	}
+
+	/**
+	 * Generates and encodes one chunk.
+	 */
+	static byte[] chunk(SplittableRandom random, int size, Type type, Format format) {
+		if (format == Format.BINARY) {
+			ByteBuffer buffer = ByteBuffer.allocate(size * Long.BYTES);
+			for (int i = 0; i < size; i++) {
+				switch (type) {
+					case LONG:
+						buffer.putLong(random.nextLong());
+						break;
+					case DOUBLE:
+						buffer.putDouble(random.nextDouble());
+						break;
+					default:
+						double[] pair = gaussians(random);
+						buffer.putDouble(pair[0]);
+						if (++i < size) {
+							buffer.putDouble(pair[1]);
+						}
+				}
+			}
+			return buffer.array();
+		}
+
+		StringBuilder text = new StringBuilder(size * 21);
+		for (int i = 0; i < size; i++) {
+			switch (type) {
+				case LONG:
+					text.append(random.nextLong()).append('\n');
+					break;
+				case DOUBLE:
+					text.append(random.nextDouble()).append('\n');
+					break;
+				default:
+					double[] pair = gaussians(random);
+					text.append(pair[0]).append('\n');
+					if (++i < size) {
+						text.append(pair[1]).append('\n');
+					}
+			}
+		}
+		return text.toString().getBytes(StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * SplittableRandom has no nextGaussian, so use the Marsaglia polar method, which gives two at a time.
+	 */
+	private static double[] gaussians(SplittableRandom random) {
+		double v1;
+		double v2;
+		double s;
+		do {
+			v1 = 2 * random.nextDouble() - 1;
+			v2 = 2 * random.nextDouble() - 1;
+			s = v1 * v1 + v2 * v2;
+		} while (s >= 1 || s == 0);
+		double multiplier = StrictMath.sqrt(-2 * StrictMath.log(s) / s);
+		return new double[]{v1 * multiplier, v2 * multiplier};
+	}
+}
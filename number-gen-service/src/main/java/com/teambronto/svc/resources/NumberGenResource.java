@@ -1,13 +1,34 @@
 package com.teambronto.svc.resources;
 
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.github.kristofa.brave.Brave;
 import com.github.kristofa.brave.jaxrs2.BraveTracingFeature;
-import com.google.common.base.Optional;
+import com.teambronto.svc.DownstreamGuard;
+import com.teambronto.svc.DownstreamGuardFactory;
+import com.teambronto.svc.IdBlockAllocator;
+import com.teambronto.svc.RandomStream;
+import com.teambronto.svc.ServicePool;
+import com.teambronto.svc.Traffic;
+import com.teambronto.svc.TrafficClass;
+import io.dropwizard.jackson.Jackson;
+import org.glassfish.jersey.client.ClientProperties;
+import org.glassfish.jersey.client.RequestEntityProcessing;
+
 import javax.ws.rs.*;
 import javax.ws.rs.client.Client;
+import javax.ws.rs.client.Entity;
 import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
-import java.util.Random;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 
 /**
  * Handles requests sent to the NumberGenService application.
@@ -16,19 +37,140 @@ import java.util.Random;
 @Produces(MediaType.APPLICATION_JSON)
 @Consumes(MediaType.APPLICATION_JSON)
 public class NumberGenResource {
+	/** Response header saying whether the employee was read from a region replica that may be behind */
+	private static final String STALE_HEADER = "X-Stale-Read";
+	/** Content type of a bulk import: one JSON employee per line */
+	private static final String NDJSON = "application/x-ndjson";
+	private static final ObjectMapper MAPPER = Jackson.newObjectMapper();
+
     /** An instance of Brave to use for tracing */
 	private Brave brave;
 	/** An instance of an HTTP client that is shared throughout the application to reduce overhead */
 	private Client client;
+	/** Hands out employee IDs from blocks leased through /sleep-svc/lease-ids */
+	private IdBlockAllocator ids;
+	/** Generates the bulk random numbers for /random */
+	private RandomStream randoms;
+	/** Builds the circuit breaker and bulkhead of each route */
+	private DownstreamGuardFactory guardFactory;
+	private MetricRegistry metrics;
+	/** One guard per route to sleep-service, so a slow route doesn't take the others down with it */
+	private final Map<String, DownstreamGuard> guards = new ConcurrentHashMap<>();
+	/** The sleep-service instances requests are spread over */
+	private ServicePool sleepService;
 
 	/**
-	 * Constructs the resource class using an instance of brave and a Jersey client from NumberGenApplication
+	 * Constructs the resource class with the given ID leasing settings
 	 * @param brave the static instance of brave from NumberGenApplication, used for BraveTracingFeature
 	 * @param client The Jersey Client being used to target the next application
+	 * @param idBlockSize the number of employee IDs leased at a time
+	 * @param idPrefetchThreshold the fraction of a block used up before the next block is leased
+	 * @param idPrefetchExecutor where the next block of employee IDs is leased in the background
+	 * @param randoms the generator used for bulk random numbers
+	 * @param guardFactory builds the circuit breaker and bulkhead of each route to sleep-service
+	 * @param sleepService the sleep-service instances to send requests to
+	 * @param metrics where the guards' metrics are registered
 	 */
-	public NumberGenResource(Brave brave, Client client) {
+	public NumberGenResource(Brave brave, Client client, long idBlockSize, double idPrefetchThreshold,
+			Executor idPrefetchExecutor, RandomStream randoms, DownstreamGuardFactory guardFactory,
+			ServicePool sleepService, MetricRegistry metrics) {
 		this.brave = brave;
 		this.client = client;
+		this.ids = new IdBlockAllocator(this::leaseIds, idBlockSize, idPrefetchThreshold, idPrefetchExecutor);
+		this.randoms = randoms;
+		this.guardFactory = guardFactory;
+		this.sleepService = sleepService;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Returns the guard for a route to sleep-service, creating it on first use
+	 * @param route the route's name
+	 * @return the route's guard
+	 */
+	private DownstreamGuard guard(String route) {
+		return guards.computeIfAbsent(route, name -> guardFactory.build(name, brave, metrics));
+	}
+
+	/**
+	 * Streams random numbers. Nothing is buffered beyond the few chunks being generated, so count can be
+	 * much larger than memory.
+	 * 
+	 * @param count
+	 *            how many numbers to generate
+	 * @param type
+	 *            long, double or gaussian
+	 * @param seed
+	 *            optional seed; the same seed always gives the same numbers
+	 * @param format
+	 *            ndjson for one number per line, or binary for 8 big-endian bytes per number
+	 * @return the numbers, streamed.
+	 */
+	@GET
+	@Traffic(TrafficClass.READ)
+	@Path("/random")
+	@Produces({NDJSON, MediaType.APPLICATION_OCTET_STREAM})
+	public Response random(@DefaultValue("1") @QueryParam("count") long count,
+			@DefaultValue("long") @QueryParam("type") String type, @QueryParam("seed") Long seed,
+			@DefaultValue("ndjson") @QueryParam("format") String format) {
+		if (count < 0) {
+			throw new WebApplicationException("count must not be negative", Response.Status.BAD_REQUEST);
+		}
+		final RandomStream.Type randomType;
+		final RandomStream.Format randomFormat;
+		try {
+			randomType = RandomStream.Type.valueOf(type.toUpperCase(Locale.ROOT));
+			randomFormat = RandomStream.Format.valueOf(format.toUpperCase(Locale.ROOT));
+		} catch (IllegalArgumentException e) {
+			throw new WebApplicationException("unknown type or format", Response.Status.BAD_REQUEST);
+		}
+
+		StreamingOutput body = out -> randoms.write(out, count, randomType, seed, randomFormat);
+		return Response.ok(body, randomFormat == RandomStream.Format.BINARY
+				? MediaType.APPLICATION_OCTET_STREAM : "application/x-ndjson").build();
+	}
+
+	/**
+	 * Hands out new, unique employee IDs. IDs come from blocks leased from an HBase counter, so most
+	 * requests are answered from memory.
+	 * 
+	 * @param count
+	 *            the number of IDs, at most one block
+	 * @return {"ids":[...]}.
+	 */
+	@GET
+	@Traffic(TrafficClass.WRITE)
+	@Path("/next")
+	public String nextIds(@DefaultValue("1") @QueryParam("count") int count) {
+		if (count < 1 || count > ids.getBlockSize()) {
+			throw new WebApplicationException("count must be between 1 and " + ids.getBlockSize(),
+					Response.Status.BAD_REQUEST);
+		}
+		long[] next = ids.next(count);
+		StringBuilder json = new StringBuilder(16 + count * 8).append("{\"ids\":[");
+		for (int i = 0; i < next.length; i++) {
+			if (i > 0) {
+				json.append(',');
+			}
+			json.append(next[i]);
+		}
+		return json.append("]}").toString();
+	}
+
+	/**
+	 * Leases a block of IDs through /sleep-svc/lease-ids
+	 * @param size the number of IDs in the block
+	 * @return the first ID of the block
+	 */
+	private long leaseIds(long size) throws Exception {
+		String response = guard("lease-ids").call(() -> sleepService.call(url -> {
+			WebTarget target = client.target(url + "/lease-ids")
+					.queryParam("size", size);
+			target.register(BraveTracingFeature.create(brave));
+			return target.request(MediaType.APPLICATION_JSON).get(String.class);
+		}));
+		JsonNode block = MAPPER.readTree(response);
+		return block.get("start").asLong();
 	}
 
 	/**
@@ -38,14 +180,73 @@ public class NumberGenResource {
 	 * @param id The employee's ID.
 	 * @return The employee data for the employee with the specified ID.
 	 */
+	public String getEmployeeData(String id) {
+		return getEmployeeData(id, null, null, null).readEntity(String.class);
+	}
+
+	/**
+	 * Sends a request to /sleep-svc with an employee's ID and the client's validators. The employee's ETag and
+	 * Last-Modified are passed back, and a client that already has the current version gets a 304 with no body.
+	 * With consistency=timeline a region replica may answer; X-Stale-Read says whether one did.
+	 * 
+	 * @param id The employee's ID.
+	 * @param consistency timeline to let a region replica answer, strong to insist on the primary, or null.
+	 * @param ifNoneMatch The client's If-None-Match header.
+	 * @param ifModifiedSince The client's If-Modified-Since header.
+	 * @return The employee data for the employee with the specified ID, or 304 Not Modified.
+	 */
 	@GET
-	public String getEmployeeData(@QueryParam("id") String id) {
-		WebTarget target = client.target("http://localhost:8889/sleep-svc")
-				.queryParam("id", id);
-		
-		target.register(BraveTracingFeature.create(brave));
+	@Traffic(TrafficClass.READ)
+	public Response getEmployeeData(@QueryParam("id") String id, @QueryParam("consistency") String consistency,
+			@HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch,
+			@HeaderParam(HttpHeaders.IF_MODIFIED_SINCE) String ifModifiedSince) {
+		Response response = guard("employee").call(() -> sleepService.call(url -> {
+			WebTarget target = client.target(url)
+					.queryParam("id", id);
+			if (consistency != null) {
+				target = target.queryParam("consistency", consistency);
+			}
+			target.register(BraveTracingFeature.create(brave));
+			Response result = target.request(MediaType.APPLICATION_JSON)
+					.header(HttpHeaders.IF_NONE_MATCH, ifNoneMatch)
+					.header(HttpHeaders.IF_MODIFIED_SINCE, ifModifiedSince)
+					.get();
+			if (result.getStatus() >= 400) {
+				// Fail the call so it counts against the circuit breaker, passing the response on as it was.
+				result.bufferEntity();
+				throw new WebApplicationException(result);
+			}
+			return result;
+		}));
 
-		return target.request(MediaType.APPLICATION_JSON).get(String.class);
+		Response.ResponseBuilder relayed = Response.status(response.getStatus())
+				.header(HttpHeaders.ETAG, response.getHeaderString(HttpHeaders.ETAG))
+				.header(HttpHeaders.LAST_MODIFIED, response.getHeaderString(HttpHeaders.LAST_MODIFIED))
+				.header(STALE_HEADER, response.getHeaderString(STALE_HEADER));
+		if (response.getStatus() == Response.Status.NOT_MODIFIED.getStatusCode()) {
+			response.close();
+			return relayed.build();
+		}
+		return relayed.entity(response.readEntity(String.class)).type(MediaType.APPLICATION_JSON).build();
+	}
+	
+	/**
+	 * Sends a request to /sleep-svc/by-email with an employee's email and expects the data
+	 * for that employee to be returned.
+	 * 
+	 * @param email The employee's email address.
+	 * @return The employee data for the employee with the specified email.
+	 */
+	@GET
+	@Traffic(TrafficClass.READ)
+	@Path("/by-email")
+	public String getEmployeeDataByEmail(@QueryParam("email") String email) {
+		return guard("by-email").call(() -> sleepService.call(url -> {
+			WebTarget target = client.target(url + "/by-email")
+					.queryParam("email", email);
+			target.register(BraveTracingFeature.create(brave));
+			return target.request(MediaType.APPLICATION_JSON).get(String.class);
+		}));
 	}
 	
 	/**
@@ -54,13 +255,14 @@ public class NumberGenResource {
 	 * @return "create table employees".
 	 */
 	@GET
+	@Traffic(TrafficClass.ADMIN)
 	@Path("/create-table")
 	public String createTable() {
-		WebTarget target = client.target("http://localhost:8889/sleep-svc/create-table");
-		
-		target.register(BraveTracingFeature.create(brave));
-
-		return target.request(MediaType.APPLICATION_JSON).get(String.class);
+		return guard("create-table").call(() -> sleepService.call(url -> {
+			WebTarget target = client.target(url + "/create-table");
+			target.register(BraveTracingFeature.create(brave));
+			return target.request(MediaType.APPLICATION_JSON).get(String.class);
+		}));
 	}
 	
 	/**
@@ -71,15 +273,32 @@ public class NumberGenResource {
 	 * @return "delete: name".
 	 */
 	@GET
+	@Traffic(TrafficClass.ADMIN)
 	@Path("/delete-table")
 	public String deleteTable(@QueryParam("name") String name) {
 		
-		WebTarget target = client.target("http://localhost:8889/sleep-svc/delete-table")
-				.queryParam("name", name);
-		
-		target.register(BraveTracingFeature.create(brave));
+		return guard("delete-table").call(() -> sleepService.call(url -> {
+			WebTarget target = client.target(url + "/delete-table")
+					.queryParam("name", name);
+			target.register(BraveTracingFeature.create(brave));
+			return target.request(MediaType.APPLICATION_JSON).get(String.class);
+		}));
+	}
 
-		return target.request(MediaType.APPLICATION_JSON).get(String.class);
+	/**
+	 * Relays the status of a table creation or deletion started with create-table or delete-table
+	 * @param id the job's ID, from the body returned when the job was started
+	 * @return the job's status, including the timing of each phase
+	 */
+	@GET
+	@Traffic(TrafficClass.ADMIN)
+	@Path("/jobs/{id}")
+	public String getJob(@PathParam("id") String id) {
+		return guard("jobs").call(() -> sleepService.call(url -> {
+			WebTarget target = client.target(url).path("jobs").path(id);
+			target.register(BraveTracingFeature.create(brave));
+			return target.request(MediaType.APPLICATION_JSON).get(String.class);
+		}));
 	}
 	
 	/**
@@ -96,19 +315,41 @@ public class NumberGenResource {
 	 * @return "data updated".
 	 */
 	@GET
+	@Traffic(TrafficClass.WRITE)
 	@Path("/update-value")
 	public String updateValue(@QueryParam("row") String row, @QueryParam("first") String first, @QueryParam("last") String last,
 			@QueryParam("email") String email) {
 		
-		WebTarget target = client.target("http://localhost:8889/sleep-svc/update-value")
-				.queryParam("row", row)
-				.queryParam("first", first)
-				.queryParam("last", last)
-				.queryParam("email", email);
-		
-		target.register(BraveTracingFeature.create(brave));
+		return guard("update-value").call(() -> sleepService.call(url -> {
+			WebTarget target = client.target(url + "/update-value")
+					.queryParam("row", row)
+					.queryParam("first", first)
+					.queryParam("last", last)
+					.queryParam("email", email);
+			target.register(BraveTracingFeature.create(brave));
+			return target.request(MediaType.APPLICATION_JSON).get(String.class);
+		}));
+	}
 
-		return target.request(MediaType.APPLICATION_JSON).get(String.class);
+	/**
+	 * Streams a bulk import to /sleep-svc. The body is passed on in chunks as it arrives, never held in memory, so
+	 * an import of any size can go through and slows down when HBase does
+	 * 
+	 * @param body
+	 *            one JSON employee per line: {"row","first","last","email"}
+	 * @return the import's summary: rows, rows per second and the lines that were skipped.
+	 */
+	@POST
+	@Traffic(TrafficClass.IMPORT)
+	@Path("/import")
+	@Consumes({NDJSON, MediaType.TEXT_PLAIN, MediaType.APPLICATION_OCTET_STREAM})
+	public String importEmployees(InputStream body) {
+		return guard("import").call(() -> sleepService.call(url -> {
+			WebTarget target = client.target(url + "/import")
+					.property(ClientProperties.REQUEST_ENTITY_PROCESSING, RequestEntityProcessing.CHUNKED);
+			target.register(BraveTracingFeature.create(brave));
+			return target.request(MediaType.APPLICATION_JSON).post(Entity.entity(body, NDJSON), String.class);
+		}));
 	}
 	
 	
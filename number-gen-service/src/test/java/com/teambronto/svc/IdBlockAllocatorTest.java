@@ -0,0 +1,142 @@
+package com.teambronto.svc;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+/**
+ * Tests IdBlockAllocator against an in-memory counter
+ *
+ */
+public class IdBlockAllocatorTest {
+	/** Stands in for the HBase counter row */
+	private final AtomicLong counter = new AtomicLong();
+	private final AtomicInteger leases = new AtomicInteger();
+
+	private long lease(long size) {
+		leases.incrementAndGet();
+		return counter.addAndGet(size) - size + 1;
+	}
+
+	/**
+	 * Tests that IDs are handed out in order and that a block is leased once, not once per ID
+	 */
+	@Test
+	public void testNextIsIncreasing() {
+		IdBlockAllocator allocator = new IdBlockAllocator(this::lease, 100, 1.0, Runnable::run);
+		long last = 0;
+		for (int i = 0; i < 250; i++) {
+			long[] ids = allocator.next(1);
+			assertTrue(ids[0] > last);
+			last = ids[0];
+		}
+		assertEquals(250, last);
+		assertEquals(3, leases.get());
+	}
+
+	/**
+	 * Tests that a request spanning two blocks gets increasing IDs from both
+	 */
+	@Test
+	public void testNextSpansBlocks() {
+		IdBlockAllocator allocator = new IdBlockAllocator(this::lease, 10, 1.0, Runnable::run);
+		allocator.next(7);
+		assertArrayEquals(new long[]{8, 9, 10, 11, 12}, allocator.next(5));
+	}
+
+	/**
+	 * Tests that the next block is leased before the current one runs out
+	 */
+	@Test
+	public void testPrefetch() {
+		IdBlockAllocator allocator = new IdBlockAllocator(this::lease, 10, 0.5, Runnable::run);
+		allocator.next(4);
+		assertEquals(1, leases.get());
+		allocator.next(2);
+		assertEquals(2, leases.get());
+		allocator.next(4);
+		assertEquals(2, leases.get());
+		assertArrayEquals(new long[]{11}, allocator.next(1));
+	}
+
+	/**
+	 * Tests that no ID is handed out twice when many threads ask at once
+	 */
+	@Test
+	public void testConcurrentNextIsUnique() throws Exception {
+		// Prefetches get their own thread, as they do in the service, so they never queue behind the callers.
+		ExecutorService prefetcher = Executors.newSingleThreadExecutor();
+		IdBlockAllocator allocator = new IdBlockAllocator(this::lease, 64, 0.5, prefetcher);
+		ExecutorService pool = Executors.newFixedThreadPool(8);
+		List<Future<long[]>> futures = new ArrayList<>();
+		for (int i = 0; i < 2000; i++) {
+			futures.add(pool.submit(() -> allocator.next(3)));
+		}
+		Set<Long> seen = new HashSet<>();
+		for (Future<long[]> future : futures) {
+			long[] ids = future.get();
+			for (int i = 1; i < ids.length; i++) {
+				assertTrue(ids[i] > ids[i - 1]);
+			}
+			for (long id : ids) {
+				assertTrue(seen.add(id));
+			}
+		}
+		pool.shutdown();
+		prefetcher.shutdown();
+		assertEquals(6000, seen.size());
+	}
+
+	/**
+	 * Tests that no thread ever sees IDs go backwards when each call drains a whole block, so that background and
+	 * inline leases race each other to the counter
+	 */
+	@Test
+	public void testDrainingCallsNeverGoBackwards() throws Exception {
+		ExecutorService prefetcher = Executors.newCachedThreadPool();
+		IdBlockAllocator allocator = new IdBlockAllocator(size -> {
+			// Leases reach the counter in whatever order the scheduler lets them.
+			if (ThreadLocalRandom.current().nextBoolean()) {
+				Thread.yield();
+			}
+			return lease(size);
+		}, 10, 0.5, prefetcher);
+		ExecutorService pool = Executors.newFixedThreadPool(8);
+		List<Future<?>> futures = new ArrayList<>();
+		for (int t = 0; t < 8; t++) {
+			futures.add(pool.submit(() -> {
+				long last = 0;
+				for (int i = 0; i < 20000; i++) {
+					long[] ids = allocator.next(10);
+					assertTrue(ids[0] + " after " + last, ids[0] > last);
+					last = ids[ids.length - 1];
+				}
+				return null;
+			}));
+		}
+		for (Future<?> future : futures) {
+			future.get();
+		}
+		pool.shutdown();
+		prefetcher.shutdown();
+	}
+
+	/**
+	 * Tests that asking for more than a block is rejected
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testNextTooMany() {
+		new IdBlockAllocator(this::lease, 10, 0.5, Runnable::run).next(11);
+	}
+}
@@ -2,58 +2,101 @@ package com.teambronto.svc;
 
 import static org.junit.Assert.*;
 
+import java.io.IOException;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.ws.rs.client.Client;
 
 import org.glassfish.jersey.client.JerseyClientBuilder;
+import org.junit.After;
 import org.junit.Test;
 
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.github.kristofa.brave.Brave;
 import com.teambronto.svc.resources.NumberGenResource;
+
+import io.dropwizard.jackson.Jackson;
 /**
  * Tests NumberGenResource
  * @author Xiangru Shu, Jackson Lu
  *
  */
 public class NumberGenResourceTest {
+    private static final ObjectMapper MAPPER = Jackson.newObjectMapper();
     NumberGenApplication app = new NumberGenApplication();
     NumberGenConfiguration config = new NumberGenConfiguration();
     
     Brave b = app.buildBrave(config.testGetReporter()).get();
     Client client = JerseyClientBuilder.newClient();
     
-    NumberGenResource resource = new NumberGenResource(b, client);
+    MetricRegistry metrics = new MetricRegistry();
+    ExecutorService idPrefetchExecutor = Executors.newSingleThreadExecutor();
+    ExecutorService randomExecutor = Executors.newFixedThreadPool(2);
+    
+    NumberGenResource resource = new NumberGenResource(b, client, config.getIdBlockSize(),
+    		config.getIdPrefetchThreshold(), idPrefetchExecutor, new RandomStream(randomExecutor, 2),
+    		config.getResilience(), config.getSleepService().build("sleep-service", metrics), metrics);
+
+    @After
+    public void stopExecutors() {
+    	idPrefetchExecutor.shutdownNow();
+    	randomExecutor.shutdownNow();
+    }
+
+    /**
+     * Waits for a table creation or deletion to finish
+     * @param started the body returned when the job was started
+     * @return the job's message
+     */
+    private String awaitJob(String started) {
+    	try {
+    		String id = MAPPER.readTree(started).get("id").asText();
+    		while (true) {
+    			JsonNode job = MAPPER.readTree(resource.getJob(id));
+    			String state = job.get("state").asText();
+    			if (state.equals("SUCCEEDED") || state.equals("FAILED")) {
+    				return job.get("message").asText();
+    			}
+    			Thread.sleep(200);
+    		}
+    	} catch (IOException | InterruptedException e) {
+    		throw new AssertionError(e);
+    	}
+    }
     /**
      * Tests getEmployeeDataById method
      */
     @Test
     public void testGetEmployeeDataById(){
-    	resource.createTable();
+    	awaitJob(resource.createTable());
     	resource.updateValue("row1", "xiangru", "shu", "xshu3@ncsu.edu");
     	String result = "{\"employee\":{\"firstName\":\"xiangru\",\"lastName\":\"shu\",\"email\":\"xshu3@ncsu.edu\",\"rowId\":\"row1\"}}";
     	assertEquals(result, resource.getEmployeeData("row1"));
     	String result1 = "{\"employee\":{\"firstName\":\"null\",\"lastName\":\"null\",\"email\":\"null\",\"rowId\":\"row1000\"}}";
     	assertEquals(result1, resource.getEmployeeData("row1000"));
-    	resource.deleteTable("employees"); 	
+    	awaitJob(resource.deleteTable("employees")); 	
     }
     /**
      * Tests createTable method
      */
 	@Test
 	public void testCreateTable() {
-		assertEquals("Creating table employees",resource.createTable());
-		assertEquals("Found table employees",resource.createTable());
-		resource.deleteTable("employees");		
+		assertEquals("Creating table employees",awaitJob(resource.createTable()));
+		assertEquals("Found table employees",awaitJob(resource.createTable()));
+		awaitJob(resource.deleteTable("employees"));		
 	}
 	/**
      * Tests deleteTable method
      */
     @Test
 	public void testDeleteTable() {
-    	resource.createTable();
-    	assertEquals("delete: employees",resource.deleteTable("employees"));    	
-    	assertEquals("employees does not exist ",resource.deleteTable("employees"));
+    	awaitJob(resource.createTable());
+    	assertEquals("delete: employees",awaitJob(resource.deleteTable("employees")));    	
+    	assertEquals("employees does not exist ",awaitJob(resource.deleteTable("employees")));
 	 }
     
     /**
@@ -61,8 +104,8 @@ public class NumberGenResourceTest {
      */
     @Test
 	public void testUpdateValue() {
-    	resource.createTable();
+    	awaitJob(resource.createTable());
    		assertEquals("data Updated",resource.updateValue("roafw1", "ad", "shufadfa", "xshuFa3"));
-   		resource.deleteTable("employees");
+   		awaitJob(resource.deleteTable("employees"));
 	}
 }
@@ -0,0 +1,78 @@
+package com.teambronto.svc;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+/**
+ * Tests RandomStream
+ *
+ */
+public class RandomStreamTest {
+	/** Enough numbers to span several chunks */
+	private static final long COUNT = RandomStream.CHUNK_SIZE * 3 + 17;
+
+	private byte[] generate(int threads, RandomStream.Type type, Long seed, RandomStream.Format format)
+			throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			new RandomStream(pool, threads).write(out, COUNT, type, seed, format);
+			return out.toByteArray();
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Tests that a seeded stream is the same whatever the number of threads
+	 */
+	@Test
+	public void testSeededIsReproducible() throws Exception {
+		for (RandomStream.Type type : RandomStream.Type.values()) {
+			byte[] single = generate(1, type, 42L, RandomStream.Format.BINARY);
+			byte[] parallel = generate(8, type, 42L, RandomStream.Format.BINARY);
+			assertArrayEquals(single, parallel);
+		}
+	}
+
+	/**
+	 * Tests that different seeds give different streams
+	 */
+	@Test
+	public void testSeedsDiffer() throws Exception {
+		assertFalse(Arrays.equals(generate(2, RandomStream.Type.LONG, 1L, RandomStream.Format.BINARY),
+				generate(2, RandomStream.Type.LONG, 2L, RandomStream.Format.BINARY)));
+	}
+
+	/**
+	 * Tests that the binary format has 8 bytes per number
+	 */
+	@Test
+	public void testBinaryLength() throws Exception {
+		assertEquals(COUNT * 8, generate(4, RandomStream.Type.LONG, null, RandomStream.Format.BINARY).length);
+	}
+
+	/**
+	 * Tests that NDJSON has one parseable number per line and matches the binary stream for the same seed
+	 */
+	@Test
+	public void testNdjsonMatchesBinary() throws Exception {
+		String[] lines = new String(generate(4, RandomStream.Type.DOUBLE, 7L, RandomStream.Format.NDJSON),
+				StandardCharsets.US_ASCII).split("\n");
+		ByteBuffer binary = ByteBuffer.wrap(generate(2, RandomStream.Type.DOUBLE, 7L, RandomStream.Format.BINARY));
+		assertEquals(COUNT, lines.length);
+		for (String line : lines) {
+			double value = Double.parseDouble(line);
+			assertTrue(value >= 0 && value < 1);
+			assertEquals(binary.getDouble(), value, 0.0);
+		}
+	}
+}
@@ -0,0 +1,48 @@
+package com.teambronto.svc;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bulkhead caps the number of concurrent calls to a downstream service, so a slow downstream can only tie up a
+ * bounded number of our threads.
+ */
+public class Bulkhead {
+	private final int maxConcurrentCalls;
+	private final long maxWaitMs;
+	private final Semaphore permits;
+
+	/**
+	 * @param maxConcurrentCalls the most calls allowed at once
+	 * @param maxWaitMs how long a call waits for a free slot before it is refused
+	 */
+	public Bulkhead(int maxConcurrentCalls, long maxWaitMs) {
+		this.maxConcurrentCalls = maxConcurrentCalls;
+		this.maxWaitMs = maxWaitMs;
+		this.permits = new Semaphore(maxConcurrentCalls);
+	}
+
+	/**
+	 * Takes a slot. Every slot taken must be given back with release.
+	 * @return true if a slot was free within maxWaitMs
+	 */
+	public boolean tryAcquire() {
+		try {
+			return permits.tryAcquire(maxWaitMs, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	public void release() {
+		permits.release();
+	}
+
+	/**
+	 * @return the number of calls in progress
+	 */
+	public int getActiveCalls() {
+		return maxConcurrentCalls - permits.availablePermits();
+	}
+}
@@ -0,0 +1,101 @@
+package com.teambronto.svc;
+
+import java.util.function.LongSupplier;
+
+/**
+ * A circuit breaker for calls to a downstream service. After failureThreshold failures in a row the circuit opens
+ * and calls are refused without being tried. Once openDurationMs has passed a single probe call is let through
+ * (half-open); if it succeeds the circuit closes again, otherwise it stays open for another openDurationMs.
+ */
+public class CircuitBreaker {
+	/** The states of the circuit */
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	/** Notified whenever the circuit changes state */
+	public interface Listener {
+		void onStateChange(State from, State to);
+	}
+
+	private final int failureThreshold;
+	private final long openDurationMs;
+	private final LongSupplier clock;
+	private final Listener listener;
+	private int consecutiveFailures;
+	private State state = State.CLOSED;
+	private long openedAt;
+	private boolean probeInFlight;
+
+	public CircuitBreaker(int failureThreshold, long openDurationMs, Listener listener) {
+		this(failureThreshold, openDurationMs, listener, System::currentTimeMillis);
+	}
+
+	CircuitBreaker(int failureThreshold, long openDurationMs, Listener listener, LongSupplier clock) {
+		this.failureThreshold = failureThreshold;
+		this.openDurationMs = openDurationMs;
+		this.listener = listener;
+		this.clock = clock;
+	}
+
+	public synchronized State getState() {
+		return state;
+	}
+
+	/**
+	 * Asks whether a call may be made. Every call that is allowed must be followed by onSuccess or onFailure.
+	 * @return true if the call may go ahead
+	 */
+	public synchronized boolean tryAcquire() {
+		switch (state) {
+			case CLOSED:
+				return true;
+			case OPEN:
+				if (clock.getAsLong() - openedAt < openDurationMs) {
+					return false;
+				}
+				transition(State.HALF_OPEN);
+				probeInFlight = true;
+				return true;
+			default:
+				// Only one probe at a time while half-open.
+				if (probeInFlight) {
+					return false;
+				}
+				probeInFlight = true;
+				return true;
+		}
+	}
+
+	/**
+	 * Records a successful call.
+	 */
+	public synchronized void onSuccess() {
+		consecutiveFailures = 0;
+		probeInFlight = false;
+		if (state != State.CLOSED) {
+			transition(State.CLOSED);
+		}
+	}
+
+	/**
+	 * Records a failed call.
+	 */
+	public synchronized void onFailure() {
+		probeInFlight = false;
+		if (state == State.HALF_OPEN || ++consecutiveFailures >= failureThreshold) {
+			openedAt = clock.getAsLong();
+			if (state != State.OPEN) {
+				transition(State.OPEN);
+			}
+		}
+	}
+
+	private void transition(State to) {
+		State from = state;
+		state = to;
+		if (listener != null) {
+			listener.onStateChange(from, to);
+		}
+	}
+}
@@ -0,0 +1,80 @@
+package com.teambronto.svc;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+/**
+ * The point in time by which the client that started a request needs an answer. The remaining time travels between
+ * services in the X-Request-Deadline-Ms header, so every hop only spends what is left of the client's budget. The
+ * deadline of the request being handled is kept in a thread local by DeadlineFilter.
+ */
+public final class Deadline {
+	/** Header carrying the milliseconds left before the deadline */
+	public static final String HEADER = "X-Request-Deadline-Ms";
+
+	private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<>();
+
+	private final long expiresAtNanos;
+
+	private Deadline(long expiresAtNanos) {
+		this.expiresAtNanos = expiresAtNanos;
+	}
+
+	/**
+	 * @param millis milliseconds from now
+	 * @return a deadline millis from now
+	 */
+	public static Deadline in(long millis) {
+		return new Deadline(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis));
+	}
+
+	/**
+	 * @return the deadline of the request being handled on this thread, or null if it has none
+	 */
+	public static Deadline current() {
+		return CURRENT.get();
+	}
+
+	static void setCurrent(Deadline deadline) {
+		if (deadline == null) {
+			CURRENT.remove();
+		} else {
+			CURRENT.set(deadline);
+		}
+	}
+
+	/**
+	 * @return milliseconds left, which is zero or negative once the deadline has passed
+	 */
+	public long remainingMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(expiresAtNanos - System.nanoTime());
+	}
+
+	public boolean isExpired() {
+		return remainingMillis() <= 0;
+	}
+
+	/**
+	 * Fails fast if the deadline of the request being handled has passed.
+	 * @throws WebApplicationException with a 504 if it has
+	 */
+	public static void check() {
+		Deadline deadline = current();
+		if (deadline != null && deadline.isExpired()) {
+			throw new WebApplicationException(expired());
+		}
+	}
+
+	/**
+	 * @return the response sent for a request whose deadline has passed
+	 */
+	static Response expired() {
+		return Response.status(Response.Status.GATEWAY_TIMEOUT)
+				.type(MediaType.APPLICATION_JSON)
+				.entity("{\"error\":\"deadline exceeded\"}")
+				.build();
+	}
+}
@@ -0,0 +1,40 @@
+package com.teambronto.svc;
+
+import java.io.IOException;
+
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientRequestFilter;
+
+import org.glassfish.jersey.client.ClientProperties;
+
+/**
+ * Passes what is left of the current request's deadline on to the downstream service, and stops waiting for the
+ * downstream once the deadline passes. Requests that already carry the header (for example ones sent from another
+ * thread) keep it.
+ */
+public class DeadlineClientFilter implements ClientRequestFilter {
+	@Override
+	public void filter(ClientRequestContext request) throws IOException {
+		long remaining;
+		Object header = request.getHeaders().getFirst(Deadline.HEADER);
+		if (header != null) {
+			remaining = Long.parseLong(header.toString());
+		} else {
+			Deadline deadline = Deadline.current();
+			if (deadline == null) {
+				return;
+			}
+			remaining = deadline.remainingMillis();
+			request.getHeaders().putSingle(Deadline.HEADER, Long.toString(remaining));
+		}
+		if (remaining <= 0) {
+			request.abortWith(Deadline.expired());
+			return;
+		}
+		// Don't wait for an answer the client will never see.
+		Object readTimeout = request.getConfiguration().getProperty(ClientProperties.READ_TIMEOUT);
+		if (!(readTimeout instanceof Integer) || (Integer) readTimeout == 0 || (Integer) readTimeout > remaining) {
+			request.setProperty(ClientProperties.READ_TIMEOUT, (int) remaining);
+		}
+	}
+}
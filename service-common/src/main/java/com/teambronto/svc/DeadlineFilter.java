@@ -0,0 +1,54 @@
+package com.teambronto.svc;
+
+import java.io.IOException;
+
+import javax.annotation.Priority;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+
+/**
+ * Reads the deadline of an incoming request from the X-Request-Deadline-Ms header and makes it the current deadline
+ * while the request is handled. Requests that arrive with no time left are rejected with a 504 straight away.
+ */
+@Priority(Priorities.AUTHENTICATION)
+public class DeadlineFilter implements ContainerRequestFilter, ContainerResponseFilter {
+	/** Budget given to requests that arrive without a deadline, or null to leave them without one */
+	private final Long defaultMillis;
+
+	/**
+	 * @param defaultMillis budget given to requests without a deadline header, or null for none
+	 */
+	public DeadlineFilter(Long defaultMillis) {
+		this.defaultMillis = defaultMillis;
+	}
+
+	@Override
+	public void filter(ContainerRequestContext request) throws IOException {
+		Long millis = defaultMillis;
+		String header = request.getHeaderString(Deadline.HEADER);
+		if (header != null) {
+			try {
+				millis = Long.parseLong(header.trim());
+			} catch (NumberFormatException e) {
+				// Ignore a malformed header rather than failing the request.
+			}
+		}
+		if (millis == null) {
+			Deadline.setCurrent(null);
+			return;
+		}
+		if (millis <= 0) {
+			request.abortWith(Deadline.expired());
+			return;
+		}
+		Deadline.setCurrent(Deadline.in(millis));
+	}
+
+	@Override
+	public void filter(ContainerRequestContext request, ContainerResponseContext response) throws IOException {
+		Deadline.setCurrent(null);
+	}
+}
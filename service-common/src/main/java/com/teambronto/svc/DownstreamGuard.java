@@ -0,0 +1,119 @@
+package com.teambronto.svc;
+
+import java.util.function.Supplier;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.github.kristofa.brave.Brave;
+
+/**
+ * DownstreamGuard protects one route to a downstream service with a circuit breaker and a bulkhead. When the circuit
+ * is open or the bulkhead is full, the call fails straight away with a 503 instead of tying up a thread, so a slow
+ * downstream only degrades the routes that use it. Rejections and circuit state changes are recorded as metrics and
+ * as annotations on the current span.
+ */
+public class DownstreamGuard {
+	private final String route;
+	private final Brave brave;
+	private final CircuitBreaker breaker;
+	private final Bulkhead bulkhead;
+	private final Meter circuitOpenRejections;
+	private final Meter bulkheadRejections;
+	private final Meter failures;
+
+	/**
+	 * @param route the name of the route, used in metric names and span annotations
+	 * @param brave used to annotate the current span
+	 * @param metrics where the guard's metrics are registered
+	 * @param failureThreshold failures in a row that open the circuit
+	 * @param openDurationMs how long the circuit stays open before a probe is let through
+	 * @param maxConcurrentCalls the most calls allowed at once
+	 * @param maxWaitMs how long a call waits for the bulkhead
+	 */
+	public DownstreamGuard(String route, Brave brave, MetricRegistry metrics, int failureThreshold,
+			long openDurationMs, int maxConcurrentCalls, long maxWaitMs) {
+		this.route = route;
+		this.brave = brave;
+		this.bulkhead = new Bulkhead(maxConcurrentCalls, maxWaitMs);
+
+		final Meter transitions = metrics.meter(MetricRegistry.name(DownstreamGuard.class, route, "transitions"));
+		this.breaker = new CircuitBreaker(failureThreshold, openDurationMs, (from, to) -> {
+			transitions.mark();
+			brave.serverTracer().submitBinaryAnnotation("circuit." + route, from + "->" + to);
+		});
+		this.circuitOpenRejections = metrics.meter(MetricRegistry.name(DownstreamGuard.class, route, "circuit-open"));
+		this.bulkheadRejections = metrics.meter(MetricRegistry.name(DownstreamGuard.class, route, "bulkhead-full"));
+		this.failures = metrics.meter(MetricRegistry.name(DownstreamGuard.class, route, "failures"));
+		metrics.register(MetricRegistry.name(DownstreamGuard.class, route, "state"),
+				(Gauge<String>) () -> breaker.getState().name());
+		metrics.register(MetricRegistry.name(DownstreamGuard.class, route, "active"),
+				(Gauge<Integer>) bulkhead::getActiveCalls);
+	}
+
+	public CircuitBreaker.State getState() {
+		return breaker.getState();
+	}
+
+	/**
+	 * Makes a call to the downstream service through the circuit breaker and bulkhead.
+	 * @param call the call
+	 * @return what the call returned
+	 * @throws WebApplicationException with a 503 if the call was refused, a 504 if the request's deadline has
+	 *         passed, or whatever the call threw
+	 */
+	public <T> T call(Supplier<T> call) {
+		// Out of time is our client's problem, not the downstream's, so it never counts against the circuit.
+		Deadline.check();
+		if (!bulkhead.tryAcquire()) {
+			bulkheadRejections.mark();
+			throw reject("bulkhead-full");
+		}
+		try {
+			if (!breaker.tryAcquire()) {
+				circuitOpenRejections.mark();
+				throw reject("circuit-open");
+			}
+			// Anything but a result or a 4xx counts against the downstream: connection failures, timeouts, server
+			// errors, and Errors too, so a half-open circuit's probe is always answered.
+			boolean failed = true;
+			try {
+				T result = call.get();
+				failed = false;
+				return result;
+			} catch (WebApplicationException e) {
+				// A 4xx means our request was bad.
+				failed = e.getResponse().getStatus() >= 500;
+				throw e;
+			} finally {
+				if (failed) {
+					recordFailure();
+				} else {
+					breaker.onSuccess();
+				}
+			}
+		} finally {
+			bulkhead.release();
+		}
+	}
+
+	private void recordFailure() {
+		failures.mark();
+		breaker.onFailure();
+	}
+
+	/**
+	 * Builds the fast fallback response for a refused call.
+	 */
+	private WebApplicationException reject(String reason) {
+		brave.serverTracer().submitBinaryAnnotation("downstream.rejected", route + ":" + reason);
+		return new WebApplicationException(Response.status(Response.Status.SERVICE_UNAVAILABLE)
+				.type(MediaType.APPLICATION_JSON)
+				.entity(String.format("{\"error\":\"%s unavailable\",\"reason\":\"%s\"}", route, reason))
+				.build());
+	}
+}
@@ -0,0 +1,61 @@
+package com.teambronto.svc;
+
+import javax.validation.constraints.Min;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.github.kristofa.brave.Brave;
+
+/**
+ * The resilience block of the service's yml file. Sets the timeouts of the HTTP client and the circuit breaker and
+ * bulkhead used for each downstream route.
+ */
+public class DownstreamGuardFactory {
+	/** Failures in a row that open a route's circuit */
+	@Min(1)
+	@JsonProperty
+	private int failureThreshold = 5;
+
+	/** How long an open circuit refuses calls before letting a probe through */
+	@Min(1)
+	@JsonProperty
+	private long openDurationMs = 5000;
+
+	/** The most calls to one route allowed at once */
+	@Min(1)
+	@JsonProperty
+	private int maxConcurrentCalls = 50;
+
+	/** How long a call waits for a free slot in its route's bulkhead */
+	@Min(0)
+	@JsonProperty
+	private long maxWaitMs = 0;
+
+	@Min(1)
+	@JsonProperty
+	private int connectTimeoutMs = 1000;
+
+	@Min(1)
+	@JsonProperty
+	private int readTimeoutMs = 10000;
+
+	public int getConnectTimeoutMs() {
+		return connectTimeoutMs;
+	}
+
+	public int getReadTimeoutMs() {
+		return readTimeoutMs;
+	}
+
+	/**
+	 * Builds the guard for one downstream route.
+	 * @param route the route's name
+	 * @param brave used to annotate spans
+	 * @param metrics where the guard's metrics are registered
+	 * @return the guard
+	 */
+	public DownstreamGuard build(String route, Brave brave, MetricRegistry metrics) {
+		return new DownstreamGuard(route, brave, metrics, failureThreshold, openDurationMs, maxConcurrentCalls,
+				maxWaitMs);
+	}
+}
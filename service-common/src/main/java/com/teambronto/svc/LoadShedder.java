@@ -0,0 +1,111 @@
+package com.teambronto.svc;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+/**
+ * LoadShedder gives each TrafficClass its own bounded share of the request threads, so slow admin requests can't
+ * take the threads employee reads need. Each class may have maxConcurrent requests in progress and queues up to
+ * maxQueueMs for a slot. On top of that every class has a shedding point: once the service as a whole has that many
+ * requests in progress, new requests of the class are turned away without queueing. Admin requests have the lowest
+ * shedding point and reads the highest, so under pressure admin requests go first, then imports, then writes, then
+ * reads.
+ */
+public class LoadShedder {
+	private final MetricRegistry metrics;
+	private final Map<TrafficClass, Lane> lanes = new EnumMap<>(TrafficClass.class);
+	private final AtomicInteger inflight = new AtomicInteger();
+
+	/**
+	 * @param metrics where the shedder's metrics are registered
+	 */
+	public LoadShedder(MetricRegistry metrics) {
+		this.metrics = metrics;
+		metrics.register(MetricRegistry.name(LoadShedder.class, "inflight"), (Gauge<Integer>) inflight::get);
+	}
+
+	/**
+	 * Sets the limits of a class. Every class used with tryAcquire must have limits.
+	 * @param trafficClass the class
+	 * @param maxConcurrent the most requests of the class in progress at once
+	 * @param maxQueueMs how long a request waits for one of the class's slots
+	 * @param shedAt the number of requests in progress, of any class, at which requests of this class are turned away
+	 * @return this
+	 */
+	public LoadShedder lane(TrafficClass trafficClass, int maxConcurrent, long maxQueueMs, int shedAt) {
+		lanes.put(trafficClass, new Lane(trafficClass, maxConcurrent, maxQueueMs, shedAt));
+		return this;
+	}
+
+	/**
+	 * Takes a slot for a request. Every slot taken must be given back with release.
+	 * @param trafficClass the request's class
+	 * @return true if the request may go ahead, false if it was shed
+	 */
+	public boolean tryAcquire(TrafficClass trafficClass) {
+		return lanes.get(trafficClass).tryAcquire();
+	}
+
+	public void release(TrafficClass trafficClass) {
+		lanes.get(trafficClass).release();
+	}
+
+	/**
+	 * The slots of one class, and its metrics.
+	 */
+	private class Lane {
+		private final int maxConcurrent;
+		private final long maxQueueMs;
+		private final int shedAt;
+		private final Semaphore permits;
+		private final Timer queued;
+		private final Meter shed;
+
+		Lane(TrafficClass trafficClass, int maxConcurrent, long maxQueueMs, int shedAt) {
+			this.maxConcurrent = maxConcurrent;
+			this.maxQueueMs = maxQueueMs;
+			this.shedAt = shedAt;
+			this.permits = new Semaphore(maxConcurrent);
+			String prefix = MetricRegistry.name(LoadShedder.class, trafficClass.name().toLowerCase());
+			this.queued = metrics.timer(MetricRegistry.name(prefix, "queued"));
+			this.shed = metrics.meter(MetricRegistry.name(prefix, "shed"));
+			metrics.register(MetricRegistry.name(prefix, "active"),
+					(Gauge<Integer>) () -> this.maxConcurrent - permits.availablePermits());
+		}
+
+		boolean tryAcquire() {
+			if (inflight.get() >= shedAt) {
+				shed.mark();
+				return false;
+			}
+			long start = System.nanoTime();
+			boolean acquired;
+			try {
+				acquired = permits.tryAcquire(maxQueueMs, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				acquired = false;
+			}
+			queued.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+			if (!acquired) {
+				shed.mark();
+				return false;
+			}
+			inflight.incrementAndGet();
+			return true;
+		}
+
+		void release() {
+			inflight.decrementAndGet();
+			permits.release();
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package com.teambronto.svc;
+
+import javax.validation.Valid;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * The loadShedding block of the service's yml. Each traffic class gets its own slots, and a shedding point given as
+ * a percentage of capacity: the number of requests in progress, of any class, that the service is sized for.
+ */
+public class LoadSheddingFactory {
+	@JsonProperty
+	private boolean enabled = true;
+
+	/** The number of requests in progress the service is sized for */
+	@Min(1)
+	@JsonProperty
+	private int capacity = 200;
+
+	@Min(1)
+	@JsonProperty
+	private long retryAfterSeconds = 1;
+
+	@Valid
+	@NotNull
+	@JsonProperty
+	private LaneFactory read = new LaneFactory(200, 100, 100);
+
+	@Valid
+	@NotNull
+	@JsonProperty
+	private LaneFactory write = new LaneFactory(50, 50, 80);
+
+	/** Kept apart from writes, since one import holds its slot for minutes */
+	@Valid
+	@NotNull
+	@JsonProperty
+	private LaneFactory bulkImport = new LaneFactory(2, 0, 60);
+
+	@Valid
+	@NotNull
+	@JsonProperty
+	private LaneFactory admin = new LaneFactory(2, 0, 50);
+
+	/**
+	 * Builds the filter, or returns null if load shedding is disabled.
+	 * @param metrics where the per-class queue times, shed counts and slot use are registered
+	 * @return the filter, or null
+	 */
+	public LoadSheddingFilter build(MetricRegistry metrics) {
+		if (!enabled) {
+			return null;
+		}
+		LoadShedder shedder = new LoadShedder(metrics);
+		read.addTo(shedder, TrafficClass.READ, capacity);
+		write.addTo(shedder, TrafficClass.WRITE, capacity);
+		bulkImport.addTo(shedder, TrafficClass.IMPORT, capacity);
+		admin.addTo(shedder, TrafficClass.ADMIN, capacity);
+		return new LoadSheddingFilter(shedder, retryAfterSeconds);
+	}
+
+	/**
+	 * The limits of one traffic class.
+	 */
+	public static class LaneFactory {
+		@Min(1)
+		@JsonProperty
+		private int maxConcurrent;
+
+		@Min(0)
+		@JsonProperty
+		private long maxQueueMs;
+
+		@Min(1)
+		@Max(100)
+		@JsonProperty
+		private int shedAtPercent;
+
+		public LaneFactory() {
+		}
+
+		LaneFactory(int maxConcurrent, long maxQueueMs, int shedAtPercent) {
+			this.maxConcurrent = maxConcurrent;
+			this.maxQueueMs = maxQueueMs;
+			this.shedAtPercent = shedAtPercent;
+		}
+
+		void addTo(LoadShedder shedder, TrafficClass trafficClass, int capacity) {
+			shedder.lane(trafficClass, maxConcurrent, maxQueueMs, Math.max(1, capacity * shedAtPercent / 100));
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package com.teambronto.svc;
+
+import java.io.IOException;
+
+import javax.annotation.Priority;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+
+/**
+ * Takes a LoadShedder slot for every request to a method marked with @Traffic, and answers shed requests with a 503
+ * and Retry-After. Runs right after the deadline is read, before any other work is done for the request. A response
+ * with an entity keeps its slot until the entity has been written, since a streamed entity can be most of the work.
+ */
+@Priority(Priorities.AUTHENTICATION + 1)
+public class LoadSheddingFilter implements ContainerRequestFilter, ContainerResponseFilter, WriterInterceptor {
+	/** Request property holding the class whose slot the request holds */
+	static final String SLOT_PROPERTY = LoadSheddingFilter.class.getName() + ".slot";
+
+	private final LoadShedder shedder;
+	private final long retryAfterSeconds;
+
+	@Context
+	private ResourceInfo resourceInfo;
+
+	/**
+	 * @param shedder where slots are taken from
+	 * @param retryAfterSeconds the Retry-After sent with shed requests
+	 */
+	public LoadSheddingFilter(LoadShedder shedder, long retryAfterSeconds) {
+		this.shedder = shedder;
+		this.retryAfterSeconds = retryAfterSeconds;
+	}
+
+	private TrafficClass classOf() {
+		Traffic traffic = resourceInfo.getResourceMethod() == null ? null
+				: resourceInfo.getResourceMethod().getAnnotation(Traffic.class);
+		if (traffic == null && resourceInfo.getResourceClass() != null) {
+			traffic = resourceInfo.getResourceClass().getAnnotation(Traffic.class);
+		}
+		return traffic == null ? null : traffic.value();
+	}
+
+	@Override
+	public void filter(ContainerRequestContext request) throws IOException {
+		TrafficClass trafficClass = classOf();
+		if (trafficClass == null) {
+			return;
+		}
+		if (!shedder.tryAcquire(trafficClass)) {
+			request.abortWith(Response.status(Response.Status.SERVICE_UNAVAILABLE)
+					.header(HttpHeaders.RETRY_AFTER, retryAfterSeconds)
+					.type(MediaType.APPLICATION_JSON)
+					.entity(String.format("{\"error\":\"overloaded\",\"class\":\"%s\"}",
+							trafficClass.name().toLowerCase()))
+					.build());
+			return;
+		}
+		request.setProperty(SLOT_PROPERTY, trafficClass);
+	}
+
+	@Override
+	public void filter(ContainerRequestContext request, ContainerResponseContext response) throws IOException {
+		// Jersey writes every entity through the writer interceptors, which give the slot back once it is written.
+		if (!response.hasEntity()) {
+			Object trafficClass = request.getProperty(SLOT_PROPERTY);
+			request.removeProperty(SLOT_PROPERTY);
+			release(trafficClass);
+		}
+	}
+
+	@Override
+	public void aroundWriteTo(WriterInterceptorContext context) throws IOException {
+		try {
+			context.proceed();
+		} finally {
+			Object trafficClass = context.getProperty(SLOT_PROPERTY);
+			context.removeProperty(SLOT_PROPERTY);
+			release(trafficClass);
+		}
+	}
+
+	private void release(Object trafficClass) {
+		if (trafficClass != null) {
+			shedder.release((TrafficClass) trafficClass);
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package com.teambronto.svc;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One instance of a downstream service in a ServicePool. Tracks what the balancer needs to pick between instances:
+ * the requests currently outstanding, an exponentially weighted moving average of its latency, and whether it has
+ * been ejected for failing.
+ */
+public class ServiceInstance {
+	private final String url;
+	private final AtomicInteger outstanding = new AtomicInteger();
+	private double latencyEwmaMs;
+	private long lastSampleAt;
+	private int consecutiveFailures;
+	private int ejections;
+	private volatile long ejectedUntil;
+
+	public ServiceInstance(String url) {
+		this.url = url;
+	}
+
+	public String getUrl() {
+		return url;
+	}
+
+	public int getOutstanding() {
+		return outstanding.get();
+	}
+
+	public synchronized double getLatencyEwmaMs() {
+		return latencyEwmaMs;
+	}
+
+	/**
+	 * @param now the current time in milliseconds
+	 * @return true if the instance is ejected and shouldn't be sent requests
+	 */
+	public boolean isEjected(long now) {
+		return now < ejectedUntil;
+	}
+
+	/**
+	 * The instance's expected cost of one more request; lower is better. Outstanding requests are weighted by
+	 * latency so that a slow instance with few requests doesn't look better than a fast one with a few more.
+	 */
+	double load() {
+		return (outstanding.get() + 1) * (getLatencyEwmaMs() + 1);
+	}
+
+	void started() {
+		outstanding.incrementAndGet();
+	}
+
+	void cancelled() {
+		outstanding.decrementAndGet();
+	}
+
+	/**
+	 * Records a successful request. The older the last sample, the less it counts.
+	 * @param now the current time in milliseconds
+	 * @param latencyMs how long the request took
+	 * @param decayMs the time after which an old sample has decayed to 1/e of its weight
+	 */
+	synchronized void succeeded(long now, double latencyMs, long decayMs) {
+		outstanding.decrementAndGet();
+		if (lastSampleAt == 0) {
+			latencyEwmaMs = latencyMs;
+		} else {
+			double weight = Math.exp(-(double) Math.max(0, now - lastSampleAt) / decayMs);
+			latencyEwmaMs = latencyEwmaMs * weight + latencyMs * (1 - weight);
+		}
+		lastSampleAt = now;
+		consecutiveFailures = 0;
+		ejections = 0;
+	}
+
+	/**
+	 * Records a failed request. Failures don't update the latency average, so an instance that fails fast doesn't
+	 * attract more traffic.
+	 * @return the failures in a row so far
+	 */
+	synchronized int failed() {
+		outstanding.decrementAndGet();
+		return ++consecutiveFailures;
+	}
+
+	/**
+	 * Takes the instance out of rotation. Each ejection in a row lasts longer than the one before.
+	 * @param now the current time in milliseconds
+	 * @param ejectionMs how long the first ejection lasts
+	 */
+	synchronized void eject(long now, long ejectionMs) {
+		ejections = Math.min(ejections + 1, 10);
+		consecutiveFailures = 0;
+		ejectedUntil = now + ejectionMs * ejections;
+	}
+}
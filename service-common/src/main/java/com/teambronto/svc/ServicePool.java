@@ -0,0 +1,323 @@
+package com.teambronto.svc;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
+
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+
+import io.dropwizard.lifecycle.Managed;
+
+/**
+ * ServicePool spreads requests over the instances of a downstream service. Each request goes to the less loaded of
+ * two randomly picked instances (power of two choices), where load is the number of outstanding requests weighted by
+ * the instance's recent latency. An instance that fails failuresToEject times in a row is ejected for a while; at
+ * most maxEjectionPercent of the pool is ejected at once, and if every instance is ejected they are all used anyway.
+ *
+ * The instances are either a fixed list or read from a file with one URL per line, which is checked for changes
+ * every refreshIntervalMs while the pool is started.
+ */
+public class ServicePool implements Managed {
+	private static final Logger LOG = LoggerFactory.getLogger(ServicePool.class);
+
+	private final String name;
+	private final MetricRegistry metrics;
+	private final Path file;
+	private final long refreshIntervalMs;
+	private final long decayMs;
+	private final int failuresToEject;
+	private final long ejectionMs;
+	private final int maxEjectionPercent;
+	private final LongSupplier clock;
+	private final Meter ejections;
+	private volatile List<ServiceInstance> instances = Collections.emptyList();
+	private long fileModified;
+	private ScheduledExecutorService watcher;
+
+	/**
+	 * @param name the pool's name, used in metric names
+	 * @param metrics where the pool's metrics are registered
+	 * @param urls the instances' base URLs, or null to read them from file
+	 * @param file a file listing the instances' base URLs, one per line
+	 * @param refreshIntervalMs how often the file is checked for changes
+	 * @param decayMs how quickly old latencies stop counting
+	 * @param failuresToEject failures in a row after which an instance is ejected
+	 * @param ejectionMs how long an instance's first ejection lasts
+	 * @param maxEjectionPercent the most of the pool that may be ejected at once
+	 */
+	public ServicePool(String name, MetricRegistry metrics, List<String> urls, Path file, long refreshIntervalMs,
+			long decayMs, int failuresToEject, long ejectionMs, int maxEjectionPercent) {
+		this(name, metrics, urls, file, refreshIntervalMs, decayMs, failuresToEject, ejectionMs, maxEjectionPercent,
+				System::currentTimeMillis);
+	}
+
+	ServicePool(String name, MetricRegistry metrics, List<String> urls, Path file, long refreshIntervalMs,
+			long decayMs, int failuresToEject, long ejectionMs, int maxEjectionPercent, LongSupplier clock) {
+		this.name = name;
+		this.metrics = metrics;
+		this.file = file;
+		this.refreshIntervalMs = refreshIntervalMs;
+		this.decayMs = decayMs;
+		this.failuresToEject = failuresToEject;
+		this.ejectionMs = ejectionMs;
+		this.maxEjectionPercent = maxEjectionPercent;
+		this.clock = clock;
+		this.ejections = metrics.meter(MetricRegistry.name(ServicePool.class, name, "ejections"));
+		metrics.register(MetricRegistry.name(ServicePool.class, name, "size"),
+				(Gauge<Integer>) () -> instances.size());
+		metrics.register(MetricRegistry.name(ServicePool.class, name, "available"),
+				(Gauge<Integer>) () -> available(instances, clock.getAsLong()).size());
+
+		if (urls != null) {
+			setInstances(urls);
+		} else {
+			reload();
+		}
+	}
+
+	public List<ServiceInstance> getInstances() {
+		return instances;
+	}
+
+	@Override
+	public void start() {
+		if (file == null) {
+			return;
+		}
+		watcher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "service-pool-" + name);
+			thread.setDaemon(true);
+			return thread;
+		});
+		watcher.scheduleWithFixedDelay(this::reload, refreshIntervalMs, refreshIntervalMs, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public void stop() {
+		if (watcher != null) {
+			watcher.shutdownNow();
+		}
+	}
+
+	/**
+	 * Picks the instance for the next request.
+	 * @return the instance
+	 * @throws ProcessingException if the pool has no instances
+	 */
+	public ServiceInstance choose() {
+		return choose(null);
+	}
+
+	/**
+	 * Picks the instance for the next request, avoiding one instance if there is any other. Used to send a hedged
+	 * request somewhere other than the first attempt.
+	 * @param exclude the instance to avoid, or null
+	 * @return the instance
+	 * @throws ProcessingException if the pool has no instances
+	 */
+	public ServiceInstance choose(ServiceInstance exclude) {
+		List<ServiceInstance> current = instances;
+		if (current.isEmpty()) {
+			throw new ProcessingException("no instances of " + name);
+		}
+		List<ServiceInstance> candidates = available(current, clock.getAsLong());
+		if (candidates.isEmpty()) {
+			// Everything is ejected; better to try a bad instance than to fail without trying.
+			candidates = current;
+		}
+		if (exclude != null && candidates.size() > 1 && candidates.contains(exclude)) {
+			candidates = new ArrayList<>(candidates);
+			candidates.remove(exclude);
+		}
+		int size = candidates.size();
+		if (size == 1) {
+			return candidates.get(0);
+		}
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int first = random.nextInt(size);
+		int second = random.nextInt(size - 1);
+		if (second >= first) {
+			second++;
+		}
+		ServiceInstance a = candidates.get(first);
+		ServiceInstance b = candidates.get(second);
+		return a.load() <= b.load() ? a : b;
+	}
+
+	/**
+	 * Sends a request to the instance chosen by the balancer and records how it went.
+	 * @param call sends the request to the given base URL
+	 * @return what the call returned
+	 */
+	public <T> T call(Function<String, T> call) {
+		return call(choose(), call);
+	}
+
+	/**
+	 * Sends a request to a given instance of the pool and records how it went.
+	 * @param instance the instance
+	 * @param call sends the request to the given base URL
+	 * @return what the call returned
+	 */
+	public <T> T call(ServiceInstance instance, Function<String, T> call) {
+		long start = begin(instance);
+		Throwable error = null;
+		try {
+			return call.apply(instance.getUrl());
+		} catch (Throwable e) {
+			// Errors too, so the instance's outstanding count always comes back down.
+			error = e;
+			throw e;
+		} finally {
+			end(instance, start, error);
+		}
+	}
+
+	/**
+	 * Marks the start of a request to an instance. Must be followed by end.
+	 * @return the request's start time, to pass to end
+	 */
+	public long begin(ServiceInstance instance) {
+		instance.started();
+		return System.nanoTime();
+	}
+
+	/**
+	 * Records the end of a request to an instance.
+	 * @param instance the instance the request went to
+	 * @param start what begin returned
+	 * @param error what the request failed with, or null if it succeeded
+	 */
+	public void end(ServiceInstance instance, long start, Throwable error) {
+		if (error instanceof CancellationException) {
+			// Lost a hedge race; says nothing about the instance.
+			instance.cancelled();
+			return;
+		}
+		long now = clock.getAsLong();
+		if (!isFailure(error)) {
+			instance.succeeded(now, (System.nanoTime() - start) / 1e6, decayMs);
+			return;
+		}
+		if (instance.failed() >= failuresToEject && canEject(now)) {
+			instance.eject(now, ejectionMs);
+			ejections.mark();
+			LOG.warn("Ejected {} from the {} pool", instance.getUrl(), name);
+		}
+	}
+
+	/**
+	 * Connection failures, timeouts and server errors count against an instance. A 4xx means our request was bad,
+	 * and a 504 means the request ran out of time, neither of which is the instance's fault.
+	 */
+	private static boolean isFailure(Throwable error) {
+		if (error == null) {
+			return false;
+		}
+		if (error instanceof WebApplicationException) {
+			int status = ((WebApplicationException) error).getResponse().getStatus();
+			return status >= 500 && status != Response.Status.GATEWAY_TIMEOUT.getStatusCode();
+		}
+		return true;
+	}
+
+	private boolean canEject(long now) {
+		List<ServiceInstance> current = instances;
+		if (current.size() < 2) {
+			return false;
+		}
+		int ejected = current.size() - available(current, now).size();
+		return ejected < Math.max(1, current.size() * maxEjectionPercent / 100);
+	}
+
+	private static List<ServiceInstance> available(List<ServiceInstance> instances, long now) {
+		return instances.stream().filter(instance -> !instance.isEjected(now)).collect(Collectors.toList());
+	}
+
+	/**
+	 * Re-reads the instance file if it has changed since it was last read. A file that can't be read leaves the
+	 * pool as it was.
+	 */
+	synchronized void reload() {
+		if (file == null) {
+			return;
+		}
+		try {
+			long modified = Files.getLastModifiedTime(file).toMillis();
+			if (modified == fileModified) {
+				return;
+			}
+			List<String> urls = Files.readAllLines(file, StandardCharsets.UTF_8).stream()
+					.map(String::trim)
+					.filter(line -> !line.isEmpty() && !line.startsWith("#"))
+					.collect(Collectors.toList());
+			fileModified = modified;
+			if (urls.isEmpty() && !instances.isEmpty()) {
+				LOG.warn("{} lists no instances for the {} pool, keeping the current ones", file, name);
+				return;
+			}
+			setInstances(urls);
+			LOG.info("The {} pool is now {}", name, urls);
+		} catch (IOException e) {
+			LOG.warn("Couldn't read the instances of the {} pool from {}", name, file, e);
+		}
+	}
+
+	/**
+	 * Replaces the pool's instances. Instances that stay in the pool keep their latency and ejection state.
+	 */
+	private synchronized void setInstances(List<String> urls) {
+		Map<String, ServiceInstance> old = new HashMap<>();
+		for (ServiceInstance instance : instances) {
+			old.put(instance.getUrl(), instance);
+		}
+		List<ServiceInstance> updated = new ArrayList<>(urls.size());
+		for (String url : urls) {
+			ServiceInstance instance = old.remove(url);
+			if (instance == null && updated.stream().noneMatch(existing -> existing.getUrl().equals(url))) {
+				instance = new ServiceInstance(url);
+				register(instance);
+			}
+			if (instance != null) {
+				updated.add(instance);
+			}
+		}
+		instances = Collections.unmodifiableList(updated);
+		for (ServiceInstance removed : old.values()) {
+			metrics.removeMatching((metricName, metric) ->
+					metricName.startsWith(MetricRegistry.name(ServicePool.class, name, removed.getUrl()) + "."));
+		}
+	}
+
+	private void register(ServiceInstance instance) {
+		String prefix = MetricRegistry.name(ServicePool.class, name, instance.getUrl());
+		metrics.register(MetricRegistry.name(prefix, "outstanding"), (Gauge<Integer>) instance::getOutstanding);
+		metrics.register(MetricRegistry.name(prefix, "latency-ewma-ms"),
+				(Gauge<Double>) instance::getLatencyEwmaMs);
+		metrics.register(MetricRegistry.name(prefix, "ejected"),
+				(Gauge<Boolean>) () -> instance.isEjected(clock.getAsLong()));
+	}
+}
@@ -0,0 +1,72 @@
+package com.teambronto.svc;
+
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * A downstream pool block of the service's yml file. The instances are either listed under urls, or kept in a file
+ * (one base URL per line, # for comments) that is re-read whenever it changes.
+ */
+public class ServicePoolFactory {
+	/** The instances' base URLs; ignored if file is set */
+	@JsonProperty
+	private List<String> urls = Collections.emptyList();
+
+	/** A file listing the instances' base URLs */
+	@JsonProperty
+	private String file;
+
+	/** How often the file is checked for changes */
+	@Min(1)
+	@JsonProperty
+	private long refreshIntervalMs = 5000;
+
+	/** How quickly an instance's old latencies stop counting */
+	@Min(1)
+	@JsonProperty
+	private long latencyDecayMs = 10000;
+
+	/** Failures in a row after which an instance is ejected */
+	@Min(1)
+	@JsonProperty
+	private int failuresToEject = 5;
+
+	/** How long an instance's first ejection lasts; each ejection in a row lasts this much longer */
+	@Min(1)
+	@JsonProperty
+	private long ejectionMs = 30000;
+
+	/** The most of the pool that may be ejected at once */
+	@Min(0)
+	@Max(100)
+	@JsonProperty
+	private int maxEjectionPercent = 50;
+
+	public ServicePoolFactory() {
+	}
+
+	/**
+	 * @param url the single instance used when the yml file has no block for the pool
+	 */
+	public ServicePoolFactory(String url) {
+		this.urls = Collections.singletonList(url);
+	}
+
+	/**
+	 * Builds the pool. It has to be started for changes to the file to be picked up.
+	 * @param name the pool's name, used in metric names
+	 * @param metrics where the pool's metrics are registered
+	 * @return the pool
+	 */
+	public ServicePool build(String name, MetricRegistry metrics) {
+		return new ServicePool(name, metrics, file == null ? urls : null, file == null ? null : Paths.get(file),
+				refreshIntervalMs, latencyDecayMs, failuresToEject, ejectionMs, maxEjectionPercent);
+	}
+}
@@ -0,0 +1,15 @@
+package com.teambronto.svc;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Puts a resource method in a TrafficClass. Methods without it are left alone by the LoadSheddingFilter.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE, ElementType.METHOD})
+public @interface Traffic {
+	TrafficClass value();
+}
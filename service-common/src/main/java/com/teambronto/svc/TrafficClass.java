@@ -0,0 +1,16 @@
+package com.teambronto.svc;
+
+/**
+ * The priority classes of our routes, from most to least important. Under pressure the LoadShedder turns away admin
+ * requests first, then bulk imports, then writes, and reads last.
+ */
+public enum TrafficClass {
+	/** Employee reads */
+	READ,
+	/** Employee writes and ID leases */
+	WRITE,
+	/** Bulk imports, each of which holds its slot for as long as its stream lasts */
+	IMPORT,
+	/** Table creation and deletion and other maintenance */
+	ADMIN
+}
@@ -0,0 +1,81 @@
+package com.teambronto.svc;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+/**
+ * Tests CircuitBreaker with a fake clock
+ *
+ */
+public class CircuitBreakerTest {
+	private final AtomicLong now = new AtomicLong();
+	private final List<String> transitions = new ArrayList<>();
+	private final CircuitBreaker breaker = new CircuitBreaker(3, 1000,
+			(from, to) -> transitions.add(from + "->" + to), now::get);
+
+	private void fail(int times) {
+		for (int i = 0; i < times; i++) {
+			assertTrue(breaker.tryAcquire());
+			breaker.onFailure();
+		}
+	}
+
+	/**
+	 * Tests that the circuit opens after the failure threshold and refuses calls
+	 */
+	@Test
+	public void testOpensAfterThreshold() {
+		fail(2);
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		fail(1);
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		assertFalse(breaker.tryAcquire());
+	}
+
+	/**
+	 * Tests that a success resets the failure count
+	 */
+	@Test
+	public void testSuccessResetsFailures() {
+		fail(2);
+		assertTrue(breaker.tryAcquire());
+		breaker.onSuccess();
+		fail(2);
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+	}
+
+	/**
+	 * Tests that a single probe is let through once the circuit has been open long enough, and that a
+	 * successful probe closes the circuit
+	 */
+	@Test
+	public void testHalfOpenProbeCloses() {
+		fail(3);
+		now.addAndGet(1000);
+		assertTrue(breaker.tryAcquire());
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		assertFalse(breaker.tryAcquire());
+		breaker.onSuccess();
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		assertEquals("[CLOSED->OPEN, OPEN->HALF_OPEN, HALF_OPEN->CLOSED]", transitions.toString());
+	}
+
+	/**
+	 * Tests that a failed probe opens the circuit again
+	 */
+	@Test
+	public void testHalfOpenProbeReopens() {
+		fail(3);
+		now.addAndGet(1500);
+		assertTrue(breaker.tryAcquire());
+		breaker.onFailure();
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		now.addAndGet(999);
+		assertFalse(breaker.tryAcquire());
+	}
+}
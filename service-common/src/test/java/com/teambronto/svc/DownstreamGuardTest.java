@@ -0,0 +1,87 @@
+package com.teambronto.svc;
+
+import static org.junit.Assert.*;
+
+import javax.ws.rs.WebApplicationException;
+
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.kristofa.brave.Brave;
+
+/**
+ * Tests that DownstreamGuard gives back its bulkhead slot and records the outcome however a call ends
+ *
+ */
+public class DownstreamGuardTest {
+	private final MetricRegistry metrics = new MetricRegistry();
+
+	private DownstreamGuard guard(int failureThreshold, long openDurationMs) {
+		return new DownstreamGuard("test", new Brave.Builder("downstream-guard-test").build(), metrics,
+				failureThreshold, openDurationMs, 1, 0);
+	}
+
+	private static void callThrowing(DownstreamGuard guard, Throwable error) {
+		try {
+			guard.call(() -> {
+				if (error instanceof Error) {
+					throw (Error) error;
+				}
+				throw (RuntimeException) error;
+			});
+			fail("the call didn't throw");
+		} catch (Error | RuntimeException e) {
+			assertSame(error, e);
+		}
+	}
+
+	private long failures() {
+		return metrics.meter(MetricRegistry.name(DownstreamGuard.class, "test", "failures")).getCount();
+	}
+
+	/**
+	 * Tests that a call throwing an Error frees the only bulkhead slot and counts as a failure
+	 */
+	@Test
+	public void testErrorReleasesSlotAndCounts() {
+		DownstreamGuard guard = guard(2, 60000);
+		callThrowing(guard, new AssertionError("boom"));
+		assertEquals(1, failures());
+		assertEquals("ok", guard.call(() -> "ok"));
+
+		callThrowing(guard, new AssertionError("boom"));
+		callThrowing(guard, new AssertionError("boom"));
+		assertEquals(CircuitBreaker.State.OPEN, guard.getState());
+	}
+
+	/**
+	 * Tests that a 4xx counts as a success and a 5xx as a failure
+	 */
+	@Test
+	public void testOnlyServerErrorsCount() {
+		DownstreamGuard guard = guard(1, 60000);
+		callThrowing(guard, new WebApplicationException(404));
+		assertEquals(CircuitBreaker.State.CLOSED, guard.getState());
+		callThrowing(guard, new WebApplicationException(500));
+		assertEquals(CircuitBreaker.State.OPEN, guard.getState());
+	}
+
+	/**
+	 * Tests that a half-open probe ending in an Error reopens the circuit rather than leaving it waiting for the
+	 * probe forever
+	 */
+	@Test
+	public void testProbeErrorReopensCircuit() throws InterruptedException {
+		DownstreamGuard guard = guard(1, 1);
+		callThrowing(guard, new AssertionError("boom"));
+		assertEquals(CircuitBreaker.State.OPEN, guard.getState());
+
+		Thread.sleep(5);
+		callThrowing(guard, new StackOverflowError());
+		assertEquals(CircuitBreaker.State.OPEN, guard.getState());
+
+		Thread.sleep(5);
+		assertEquals("ok", guard.call(() -> "ok"));
+		assertEquals(CircuitBreaker.State.CLOSED, guard.getState());
+	}
+}
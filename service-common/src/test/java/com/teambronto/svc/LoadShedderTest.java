@@ -0,0 +1,52 @@
+package com.teambronto.svc;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Tests LoadShedder's per-class slots and shedding order
+ *
+ */
+public class LoadShedderTest {
+	private static LoadShedder shedder() {
+		return new LoadShedder(new MetricRegistry())
+				.lane(TrafficClass.READ, 10, 0, 10)
+				.lane(TrafficClass.WRITE, 10, 0, 8)
+				.lane(TrafficClass.ADMIN, 1, 0, 5);
+	}
+
+	/**
+	 * Tests that a class can't take more than its own slots
+	 */
+	@Test
+	public void testClassIsBounded() {
+		LoadShedder shedder = shedder();
+		assertTrue(shedder.tryAcquire(TrafficClass.ADMIN));
+		assertFalse(shedder.tryAcquire(TrafficClass.ADMIN));
+		assertTrue(shedder.tryAcquire(TrafficClass.READ));
+		shedder.release(TrafficClass.ADMIN);
+		assertTrue(shedder.tryAcquire(TrafficClass.ADMIN));
+	}
+
+	/**
+	 * Tests that admin requests are shed first, then writes, and reads only at capacity
+	 */
+	@Test
+	public void testShedsAdminThenWritesThenReads() {
+		LoadShedder shedder = shedder();
+		for (int i = 0; i < 5; i++) {
+			assertTrue(shedder.tryAcquire(TrafficClass.READ));
+		}
+		assertFalse(shedder.tryAcquire(TrafficClass.ADMIN));
+		assertTrue(shedder.tryAcquire(TrafficClass.WRITE));
+		assertTrue(shedder.tryAcquire(TrafficClass.READ));
+		assertTrue(shedder.tryAcquire(TrafficClass.READ));
+		assertFalse(shedder.tryAcquire(TrafficClass.WRITE));
+		assertTrue(shedder.tryAcquire(TrafficClass.READ));
+		assertTrue(shedder.tryAcquire(TrafficClass.READ));
+		assertFalse(shedder.tryAcquire(TrafficClass.READ));
+	}
+}
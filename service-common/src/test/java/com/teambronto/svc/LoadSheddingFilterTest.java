@@ -0,0 +1,111 @@
+package com.teambronto.svc;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.ext.WriterInterceptorContext;
+
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Tests when LoadSheddingFilter gives a request's slot back
+ *
+ */
+public class LoadSheddingFilterTest {
+	private final MetricRegistry metrics = new MetricRegistry();
+	private final LoadShedder shedder = new LoadShedder(metrics).lane(TrafficClass.READ, 10, 0, 10);
+	private final LoadSheddingFilter filter = new LoadSheddingFilter(shedder, 1);
+	/** The request's properties, shared by its request and writer contexts as in Jersey */
+	private final Map<String, Object> properties = new HashMap<>();
+
+	private int inflight() {
+		return (Integer) metrics.getGauges().get(MetricRegistry.name(LoadShedder.class, "inflight")).getValue();
+	}
+
+	/**
+	 * Returns a context whose property methods use the shared properties, and whose other methods are handled by
+	 * the given handler.
+	 */
+	private <T> T context(Class<T> type, Function<String, Object> handler) {
+		return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type},
+				(proxy, method, args) -> {
+					switch (method.getName()) {
+						case "getProperty":
+							return properties.get((String) args[0]);
+						case "setProperty":
+							return properties.put((String) args[0], args[1]);
+						case "removeProperty":
+							return properties.remove((String) args[0]);
+						default:
+							return handler.apply(method.getName());
+					}
+				}));
+	}
+
+	/**
+	 * Starts a READ request holding a slot, as the request filter leaves it.
+	 */
+	private ContainerRequestContext holdingSlot() {
+		assertTrue(shedder.tryAcquire(TrafficClass.READ));
+		properties.put(LoadSheddingFilter.SLOT_PROPERTY, TrafficClass.READ);
+		return context(ContainerRequestContext.class, name -> null);
+	}
+
+	private ContainerResponseContext response(boolean hasEntity) {
+		return context(ContainerResponseContext.class, name -> "hasEntity".equals(name) ? hasEntity : null);
+	}
+
+	/**
+	 * Tests that a response without an entity gives its slot back in the response filter
+	 */
+	@Test
+	public void testNoEntityReleasesInResponseFilter() throws IOException {
+		filter.filter(holdingSlot(), response(false));
+		assertEquals(0, inflight());
+	}
+
+	/**
+	 * Tests that a response with an entity holds its slot while the entity is written, and gives it back once
+	 */
+	@Test
+	public void testEntityHoldsSlotUntilWritten() throws IOException {
+		filter.filter(holdingSlot(), response(true));
+		assertEquals(1, inflight());
+
+		int[] inflightWhileWriting = {-1};
+		filter.aroundWriteTo(context(WriterInterceptorContext.class, name -> {
+			if ("proceed".equals(name)) {
+				inflightWhileWriting[0] = inflight();
+			}
+			return null;
+		}));
+		assertEquals(1, inflightWhileWriting[0]);
+		assertEquals(0, inflight());
+	}
+
+	/**
+	 * Tests that an entity whose writing fails still gives its slot back
+	 */
+	@Test
+	public void testFailedWriteReleases() throws IOException {
+		filter.filter(holdingSlot(), response(true));
+		try {
+			filter.aroundWriteTo(context(WriterInterceptorContext.class, name -> {
+				throw new IllegalStateException("client went away");
+			}));
+			fail("the write's failure was swallowed");
+		} catch (IllegalStateException e) {
+			assertEquals("client went away", e.getMessage());
+		}
+		assertEquals(0, inflight());
+	}
+}
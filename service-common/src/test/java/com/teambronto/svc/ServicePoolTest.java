@@ -0,0 +1,141 @@
+package com.teambronto.svc;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.ws.rs.ProcessingException;
+
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Tests ServicePool's balancing, ejection and file reloading with a fake clock
+ *
+ */
+public class ServicePoolTest {
+	private final AtomicLong now = new AtomicLong(1);
+
+	private ServicePool pool(String... urls) {
+		return new ServicePool("test", new MetricRegistry(), Arrays.asList(urls), null, 1000, 10000, 2, 1000, 50,
+				now::get);
+	}
+
+	private static void fail(ServicePool pool, ServiceInstance instance) {
+		pool.end(instance, pool.begin(instance), new ProcessingException("refused"));
+	}
+
+	/**
+	 * Tests that the instance with fewer outstanding requests is chosen
+	 */
+	@Test
+	public void testChoosesLeastOutstanding() {
+		ServicePool pool = pool("a", "b");
+		ServiceInstance busy = pool.getInstances().get(0);
+		pool.begin(busy);
+		pool.begin(busy);
+		for (int i = 0; i < 20; i++) {
+			assertEquals("b", pool.choose().getUrl());
+		}
+	}
+
+	/**
+	 * Tests that an instance is ejected after failing in a row, and comes back once the ejection is over
+	 */
+	@Test
+	public void testEjectsFailingInstance() {
+		ServicePool pool = pool("a", "b");
+		ServiceInstance bad = pool.getInstances().get(0);
+		fail(pool, bad);
+		fail(pool, bad);
+		assertTrue(bad.isEjected(now.get()));
+		for (int i = 0; i < 20; i++) {
+			assertEquals("b", pool.choose().getUrl());
+		}
+		now.addAndGet(1000);
+		assertFalse(bad.isEjected(now.get()));
+	}
+
+	/**
+	 * Tests that no more than maxEjectionPercent of the pool is ejected, and that a lone instance is never ejected
+	 */
+	@Test
+	public void testEjectionIsCapped() {
+		ServicePool pool = pool("a", "b");
+		for (ServiceInstance instance : pool.getInstances()) {
+			fail(pool, instance);
+			fail(pool, instance);
+		}
+		assertTrue(pool.getInstances().get(0).isEjected(now.get()));
+		assertFalse(pool.getInstances().get(1).isEjected(now.get()));
+
+		ServicePool single = pool("a");
+		fail(single, single.getInstances().get(0));
+		fail(single, single.getInstances().get(0));
+		assertFalse(single.getInstances().get(0).isEjected(now.get()));
+	}
+
+	/**
+	 * Tests that a hedge goes to a different instance
+	 */
+	@Test
+	public void testChooseExcludes() {
+		ServicePool pool = pool("a", "b", "c");
+		ServiceInstance first = pool.getInstances().get(1);
+		for (int i = 0; i < 20; i++) {
+			assertNotSame(first, pool.choose(first));
+		}
+	}
+
+	/**
+	 * Tests that a call ending in an Error still gives back its outstanding request and counts as a failure
+	 */
+	@Test
+	public void testErrorEndsRequest() {
+		ServicePool pool = pool("a", "b");
+		ServiceInstance instance = pool.getInstances().get(0);
+		for (int i = 0; i < 2; i++) {
+			try {
+				pool.call(instance, url -> {
+					throw new AssertionError("boom");
+				});
+				org.junit.Assert.fail("the call didn't throw");
+			} catch (AssertionError e) {
+				assertEquals("boom", e.getMessage());
+			}
+		}
+		assertEquals(0, instance.getOutstanding());
+		assertTrue(instance.isEjected(now.get()));
+	}
+
+	/**
+	 * Tests that changes to the instance file are picked up, keeping the state of instances that stay
+	 */
+	@Test
+	public void testReloadsFile() throws IOException {
+		Path file = Files.createTempFile("pool", ".txt");
+		try {
+			Files.write(file, Arrays.asList("a", "# comment", "b"), StandardCharsets.UTF_8);
+			ServicePool pool = new ServicePool("test", new MetricRegistry(), null, file, 1000, 10000, 2, 1000, 50,
+					now::get);
+			assertEquals(2, pool.getInstances().size());
+			ServiceInstance kept = pool.getInstances().get(1);
+
+			Files.write(file, Arrays.asList("b", "c"), StandardCharsets.UTF_8);
+			Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 1000));
+			pool.reload();
+			assertEquals(2, pool.getInstances().size());
+			assertSame(kept, pool.getInstances().get(0));
+			assertEquals("c", pool.getInstances().get(1).getUrl());
+		} finally {
+			Files.delete(file);
+		}
+	}
+}
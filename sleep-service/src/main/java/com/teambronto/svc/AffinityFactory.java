@@ -0,0 +1,37 @@
+package com.teambronto.svc;
+
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Min;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * The affinity block of sleep-service.yml. Controls whether requests for a row always go to the same htrace-service
+ * instance, so that the row stays in one instance's cache.
+ */
+public class AffinityFactory {
+	@JsonProperty
+	private boolean enabled = true;
+
+	/** Points each instance gets on the hash ring; more points spread keys more evenly */
+	@Min(1)
+	@JsonProperty
+	private int virtualNodes = 100;
+
+	/** How far above the average load an instance may go before reads for its rows go to the next instance */
+	@DecimalMin("1.0")
+	@JsonProperty
+	private double loadFactor = 1.25;
+
+	/**
+	 * Builds the hash ring over a pool, or returns null if affinity is disabled.
+	 * @param pool the htrace-service instances
+	 * @return the ring, or null
+	 */
+	public ConsistentHashRing build(ServicePool pool) {
+		if (!enabled) {
+			return null;
+		}
+		return new ConsistentHashRing(pool, virtualNodes, loadFactor);
+	}
+}
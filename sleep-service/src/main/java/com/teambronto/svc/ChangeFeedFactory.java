@@ -0,0 +1,43 @@
+package com.teambronto.svc;
+
+import java.util.stream.Collectors;
+
+import javax.validation.constraints.Min;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * The changeFeed block of sleep-service.yml. When enabled, the change feed of every htrace-service instance is
+ * followed, so the relay cache can serve employees without revalidating them.
+ */
+public class ChangeFeedFactory {
+	@JsonProperty
+	private boolean enabled = true;
+
+	/** How long each poll of a feed waits for a change */
+	@Min(1)
+	@JsonProperty
+	private long pollTimeoutMs = 30000;
+
+	/** The most changes read per poll */
+	@Min(1)
+	@JsonProperty
+	private int batchSize = 1000;
+
+	/**
+	 * Builds the subscriber, or returns null if it is disabled or there is no cache to keep coherent.
+	 * @param htraceService the instances whose feeds are followed
+	 * @param cache the cache written rows are dropped from, or null
+	 * @param metrics where the subscriber's metrics are registered
+	 * @return the subscriber, which still has to be started, or null
+	 */
+	public ChangeFeedSubscriber build(ServicePool htraceService, RelayCache cache, MetricRegistry metrics) {
+		if (!enabled || cache == null) {
+			return null;
+		}
+		return new ChangeFeedSubscriber(() -> htraceService.getInstances().stream()
+				.map(ServiceInstance::getUrl)
+				.collect(Collectors.toList()), cache, pollTimeoutMs, batchSize, metrics, "htrace-service");
+	}
+}
@@ -0,0 +1,204 @@
+package com.teambronto.svc;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.core.MediaType;
+
+import org.glassfish.jersey.client.ClientProperties;
+import org.glassfish.jersey.client.JerseyClientBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.dropwizard.jackson.Jackson;
+import io.dropwizard.lifecycle.Managed;
+
+/**
+ * Follows the change feeds (/htrace-svc/changes) of a set of htrace-service instances and tells a cache which rows
+ * to drop. Each instance is long-polled from its own thread; the set of instances is re-read every few seconds so
+ * instances can come and go.
+ *
+ * A cache may only skip revalidation while the subscriber is live, meaning every feed has answered recently. After
+ * a gap that the feed can't account for (a restart or falling too far behind) the whole cache is dropped.
+ */
+public class ChangeFeedSubscriber implements Managed {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ChangeFeedSubscriber.class);
+	private static final ObjectMapper MAPPER = Jackson.newObjectMapper();
+	private static final long MAX_BACKOFF_MS = 30000;
+
+	/** What the subscriber drops rows from */
+	public interface Listener {
+		void invalidate(String rowId);
+
+		void invalidateAll();
+	}
+
+	private final Supplier<List<String>> sources;
+	private final Listener listener;
+	private final long pollTimeoutMs;
+	private final int batchSize;
+	private final Client client;
+	private final Meter invalidations;
+	private final Meter resets;
+	private final Map<String, Follower> followers = new ConcurrentHashMap<>();
+	private ScheduledExecutorService supervisor;
+	private volatile boolean running;
+
+	/**
+	 * @param sources The base URLs of the htrace-service instances to follow
+	 * @param listener The cache rows are dropped from
+	 * @param pollTimeoutMs How long each poll waits for a change
+	 * @param batchSize The most changes asked for per poll
+	 * @param metrics The registry the subscriber's metrics are added to
+	 * @param name The name the metrics are registered under
+	 */
+	public ChangeFeedSubscriber(Supplier<List<String>> sources, Listener listener, long pollTimeoutMs,
+			int batchSize, MetricRegistry metrics, String name) {
+		this.sources = sources;
+		this.listener = listener;
+		this.pollTimeoutMs = pollTimeoutMs;
+		this.batchSize = batchSize;
+		this.client = JerseyClientBuilder.newClient()
+				.property(ClientProperties.CONNECT_TIMEOUT, 1000)
+				.property(ClientProperties.READ_TIMEOUT, (int) pollTimeoutMs + 5000);
+		this.invalidations = metrics.meter(MetricRegistry.name(ChangeFeedSubscriber.class, name, "invalidations"));
+		this.resets = metrics.meter(MetricRegistry.name(ChangeFeedSubscriber.class, name, "resets"));
+		metrics.register(MetricRegistry.name(ChangeFeedSubscriber.class, name, "live"),
+				(Gauge<Boolean>) this::isLive);
+	}
+
+	/**
+	 * @return true if every followed feed has answered within the last poll timeout
+	 */
+	public boolean isLive() {
+		if (!running) {
+			return false;
+		}
+		List<String> current = sources.get();
+		long now = System.currentTimeMillis();
+		for (String source : current) {
+			Follower follower = followers.get(source);
+			if (follower == null || now - follower.lastPolledAt > pollTimeoutMs + 5000) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public void start() {
+		running = true;
+		supervisor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "change-feed-supervisor");
+			thread.setDaemon(true);
+			return thread;
+		});
+		supervisor.scheduleWithFixedDelay(this::sync, 0, 5, TimeUnit.SECONDS);
+	}
+
+	@Override
+	public void stop() {
+		running = false;
+		supervisor.shutdownNow();
+		followers.values().forEach(follower -> follower.thread.interrupt());
+		client.close();
+	}
+
+	/**
+	 * Starts following new instances and stops following removed ones.
+	 */
+	private void sync() {
+		List<String> current = sources.get();
+		for (String source : current) {
+			followers.computeIfAbsent(source, Follower::new);
+		}
+		followers.entrySet().removeIf(entry -> {
+			if (current.contains(entry.getKey())) {
+				return false;
+			}
+			entry.getValue().thread.interrupt();
+			return true;
+		});
+	}
+
+	/**
+	 * Long-polls one instance's feed.
+	 */
+	private class Follower implements Runnable {
+		private final String source;
+		private final Thread thread;
+		private volatile long lastPolledAt;
+		private String epoch;
+		private long since = -1;
+
+		Follower(String source) {
+			this.source = source;
+			this.thread = new Thread(this, "change-feed-" + source);
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		@Override
+		public void run() {
+			long backoffMs = 100;
+			while (running && !Thread.currentThread().isInterrupted()) {
+				try {
+					poll();
+					backoffMs = 100;
+				} catch (Exception e) {
+					if (!running || Thread.currentThread().isInterrupted()) {
+						return;
+					}
+					LOGGER.warn("Couldn't read the change feed of {}: {}", source, e.toString());
+					try {
+						Thread.sleep(backoffMs);
+					} catch (InterruptedException interrupted) {
+						return;
+					}
+					backoffMs = Math.min(MAX_BACKOFF_MS, backoffMs * 2);
+				}
+			}
+		}
+
+		private void poll() throws Exception {
+			String body = client.target(source + "/changes")
+					.queryParam("since", since)
+					.queryParam("limit", batchSize)
+					.queryParam("timeoutMs", since < 0 ? 0 : pollTimeoutMs)
+					.request(MediaType.APPLICATION_JSON)
+					.get(String.class);
+			JsonNode changes = MAPPER.readTree(body);
+
+			String currentEpoch = changes.get("epoch").asText();
+			if (!currentEpoch.equals(epoch) || changes.get("reset").asBoolean()) {
+				// We can't tell what we missed, so drop everything.
+				resets.mark();
+				listener.invalidateAll();
+				epoch = currentEpoch;
+			}
+			for (JsonNode change : changes.get("changes")) {
+				JsonNode row = change.get("row");
+				if (row.isNull()) {
+					listener.invalidateAll();
+				} else {
+					listener.invalidate(row.asText());
+				}
+				invalidations.mark();
+			}
+			since = changes.get("latest").asLong();
+			lastPolledAt = System.currentTimeMillis();
+		}
+	}
+}
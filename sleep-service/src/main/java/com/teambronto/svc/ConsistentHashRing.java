@@ -0,0 +1,134 @@
+package com.teambronto.svc;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Maps row keys to the instances of a ServicePool with consistent hashing, so every request for a row goes to the
+ * same instance and that instance's cache holds it. Each instance is placed on the ring virtualNodes times; adding or
+ * removing an instance only moves the keys next to its points.
+ *
+ * Reads use bounded loads: an instance with more than loadFactor times the average number of outstanding requests
+ * is passed over for the next one clockwise, so a hot key can't overload its owner. Writes always go to the owner so
+ * it can invalidate its cached copy.
+ */
+public class ConsistentHashRing {
+	private static final HashFunction HASH = Hashing.murmur3_128();
+
+	private final ServicePool pool;
+	private final int virtualNodes;
+	private final double loadFactor;
+	private volatile Ring ring;
+
+	/**
+	 * @param pool the instances keys are mapped to
+	 * @param virtualNodes the number of points each instance gets on the ring
+	 * @param loadFactor how far above the average load an instance may go before reads spill to the next one
+	 */
+	public ConsistentHashRing(ServicePool pool, int virtualNodes, double loadFactor) {
+		this.pool = pool;
+		this.virtualNodes = virtualNodes;
+		this.loadFactor = loadFactor;
+	}
+
+	/**
+	 * Finds the instance that owns a key, skipping ejected instances. Used for writes.
+	 * @param key the row key
+	 * @return the owner
+	 */
+	public ServiceInstance owner(String key) {
+		return choose(key, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Finds the instance a read of a key should go to: the owner, or the next instance clockwise if the owner is
+	 * over its share of the load.
+	 * @param key the row key
+	 * @return the instance
+	 */
+	public ServiceInstance choose(String key) {
+		List<ServiceInstance> instances = current().instances;
+		long outstanding = 0;
+		for (ServiceInstance instance : instances) {
+			outstanding += instance.getOutstanding();
+		}
+		int capacity = (int) Math.ceil(loadFactor * (outstanding + 1) / Math.max(1, instances.size()));
+		return choose(key, capacity);
+	}
+
+	private ServiceInstance choose(String key, int capacity) {
+		Ring current = current();
+		if (current.points.length == 0) {
+			return pool.choose();
+		}
+		long now = System.currentTimeMillis();
+		int start = Arrays.binarySearch(current.points, hash(key));
+		if (start < 0) {
+			start = -start - 1;
+		}
+		ServiceInstance fallback = null;
+		for (int i = 0; i < current.points.length; i++) {
+			ServiceInstance instance = current.owners[(start + i) % current.points.length];
+			if (instance.isEjected(now)) {
+				continue;
+			}
+			if (fallback == null) {
+				fallback = instance;
+			}
+			if (instance.getOutstanding() < capacity) {
+				return instance;
+			}
+		}
+		// Everything is over capacity or ejected.
+		return fallback != null ? fallback : current.owners[start % current.points.length];
+	}
+
+	/**
+	 * Returns the ring for the pool's current instances, rebuilding it if they have changed.
+	 */
+	private Ring current() {
+		List<ServiceInstance> instances = pool.getInstances();
+		Ring current = ring;
+		if (current == null || current.instances != instances) {
+			current = new Ring(instances, virtualNodes);
+			ring = current;
+		}
+		return current;
+	}
+
+	private static long hash(String key) {
+		return HASH.hashString(key, StandardCharsets.UTF_8).asLong();
+	}
+
+	/**
+	 * The points on the ring, sorted, and the instance at each point.
+	 */
+	private static class Ring {
+		private final List<ServiceInstance> instances;
+		private final long[] points;
+		private final ServiceInstance[] owners;
+
+		Ring(List<ServiceInstance> instances, int virtualNodes) {
+			this.instances = instances;
+			long[][] entries = new long[instances.size() * virtualNodes][];
+			int n = 0;
+			for (int i = 0; i < instances.size(); i++) {
+				for (int v = 0; v < virtualNodes; v++) {
+					// Points depend only on the URL, so an instance keeps its keys when others come and go.
+					entries[n++] = new long[] {hash(instances.get(i).getUrl() + "#" + v), i};
+				}
+			}
+			Arrays.sort(entries, (a, b) -> Long.compare(a[0], b[0]));
+			this.points = new long[n];
+			this.owners = new ServiceInstance[n];
+			for (int i = 0; i < n; i++) {
+				points[i] = entries[i][0];
+				owners[i] = instances.get((int) entries[i][1]);
+			}
+		}
+	}
+}
@@ -0,0 +1,27 @@
+package com.teambronto.svc;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.validation.Valid;
+import javax.validation.constraints.NotNull;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * The faultInjection block of sleep-service.yml. Routes are named after the last part of their path (by-email,
+ * update-value, ...), with employee for the employee read and * for every route without its own entry.
+ */
+public class FaultInjectionFactory {
+	@JsonProperty
+	private boolean enabled = false;
+
+	@Valid
+	@NotNull
+	@JsonProperty
+	private Map<String, RouteFaults> routes = new HashMap<>();
+
+	public FaultInjector build() {
+		return new FaultInjector(enabled, routes);
+	}
+}
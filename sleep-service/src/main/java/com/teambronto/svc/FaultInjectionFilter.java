@@ -0,0 +1,159 @@
+package com.teambronto.svc;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import javax.annotation.Priority;
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+
+import org.eclipse.jetty.server.Request;
+import org.glassfish.jersey.server.ExtendedUriInfo;
+import org.glassfish.jersey.uri.UriTemplate;
+
+import com.github.kristofa.brave.Brave;
+
+/**
+ * FaultInjectionFilter injects latency, errors, connection resets and bandwidth limits into SleepService's routes,
+ * so we can see how the timeouts, retries and caches of the service chain hold up against a misbehaving hop. Every
+ * injected fault is annotated on the request's span.
+ */
+@Priority(Priorities.USER)
+public class FaultInjectionFilter implements ContainerRequestFilter, WriterInterceptor {
+	/** Request property holding the faults of the route being handled, for the writer interceptor */
+	private static final String FAULTS_PROPERTY = FaultInjectionFilter.class.getName() + ".faults";
+
+	private final FaultInjector injector;
+	private final Brave brave;
+
+	@Context
+	private HttpServletRequest servletRequest;
+
+	public FaultInjectionFilter(FaultInjector injector, Brave brave) {
+		this.injector = injector;
+		this.brave = brave;
+	}
+
+	/**
+	 * Names a route after the last literal segment of the path template it matched, or employee for the service's
+	 * root. Path parameters are skipped, so /jobs/{id} is one route whatever the ID.
+	 */
+	static String routeOf(ContainerRequestContext request) {
+		// Matched templates run from the resource method back to the resource class, whose path is the service root.
+		List<UriTemplate> templates = ((ExtendedUriInfo) request.getUriInfo()).getMatchedTemplates();
+		for (UriTemplate template : templates.subList(0, Math.max(0, templates.size() - 1))) {
+			List<String> segments = Arrays.stream(template.getTemplate().split("/"))
+					.filter(segment -> !segment.isEmpty() && !segment.startsWith("{"))
+					.collect(Collectors.toList());
+			if (!segments.isEmpty()) {
+				return segments.get(segments.size() - 1);
+			}
+		}
+		return "employee";
+	}
+
+	@Override
+	public void filter(ContainerRequestContext request) throws IOException {
+		RouteFaults faults = injector.faultsFor(routeOf(request));
+		if (faults == null) {
+			return;
+		}
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+
+		long delay = faults.sampleLatencyMs();
+		if (delay > 0) {
+			brave.serverTracer().submitBinaryAnnotation("fault.latency.ms", Long.toString(delay));
+			try {
+				TimeUnit.MILLISECONDS.sleep(delay);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		if (faults.getResetRate() > 0 && random.nextDouble() < faults.getResetRate()) {
+			brave.serverTracer().submitBinaryAnnotation("fault.reset", "true");
+			// Drop the connection underneath Jetty; the client sees a reset instead of a response.
+			Request.getBaseRequest(servletRequest).getHttpChannel().getEndPoint().close();
+			request.abortWith(Response.serverError().build());
+			return;
+		}
+
+		if (faults.getErrorRate() > 0 && random.nextDouble() < faults.getErrorRate()) {
+			brave.serverTracer().submitBinaryAnnotation("fault.error", Integer.toString(faults.getErrorStatus()));
+			request.abortWith(Response.status(faults.getErrorStatus())
+					.type(MediaType.APPLICATION_JSON)
+					.entity("{\"error\":\"injected fault\"}")
+					.build());
+			return;
+		}
+
+		if (faults.getBytesPerSecond() > 0) {
+			brave.serverTracer().submitBinaryAnnotation("fault.bytes-per-second",
+					Long.toString(faults.getBytesPerSecond()));
+			request.setProperty(FAULTS_PROPERTY, faults);
+		}
+	}
+
+	@Override
+	public void aroundWriteTo(WriterInterceptorContext context) throws IOException {
+		Object faults = context.getProperty(FAULTS_PROPERTY);
+		if (faults != null) {
+			context.setOutputStream(new ThrottledOutputStream(context.getOutputStream(),
+					((RouteFaults) faults).getBytesPerSecond()));
+		}
+		context.proceed();
+	}
+
+	/**
+	 * Writes no faster than a fixed number of bytes per second, flushing as it goes so the client sees the trickle.
+	 */
+	static class ThrottledOutputStream extends FilterOutputStream {
+		/** Bytes are let through in slices of about 1/20th of a second */
+		private static final int SLICES_PER_SECOND = 20;
+
+		private final long bytesPerSecond;
+		private final int sliceBytes;
+
+		ThrottledOutputStream(OutputStream out, long bytesPerSecond) {
+			super(out);
+			this.bytesPerSecond = bytesPerSecond;
+			this.sliceBytes = (int) Math.max(1, Math.min(Integer.MAX_VALUE, bytesPerSecond / SLICES_PER_SECOND));
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[]{(byte) b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			while (len > 0) {
+				int slice = Math.min(len, sliceBytes);
+				out.write(b, off, slice);
+				out.flush();
+				off += slice;
+				len -= slice;
+				try {
+					TimeUnit.NANOSECONDS.sleep(TimeUnit.SECONDS.toNanos(slice) / bytesPerSecond);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package com.teambronto.svc;
+
+import java.io.PrintWriter;
+import java.util.Map;
+
+import com.google.common.collect.ImmutableMultimap;
+
+import io.dropwizard.servlets.tasks.Task;
+
+/**
+ * Admin task that switches fault injection on and off and changes a route's faults while SleepService is running.
+ *
+ * <pre>
+ * POST /admin/tasks/fault-injection?enabled=true
+ * POST /admin/tasks/fault-injection?route=employee&amp;latency=LOGNORMAL&amp;medianMs=80&amp;sigma=1.2
+ * POST /admin/tasks/fault-injection?route=*&amp;errorRate=0.01&amp;resetRate=0.001&amp;bytesPerSecond=65536
+ * </pre>
+ * The current settings are printed after every call.
+ */
+public class FaultInjectionTask extends Task {
+	private final FaultInjector injector;
+
+	public FaultInjectionTask(FaultInjector injector) {
+		super("fault-injection");
+		this.injector = injector;
+	}
+
+	@Override
+	public void execute(ImmutableMultimap<String, String> parameters, PrintWriter output) throws Exception {
+		for (String enabled : parameters.get("enabled")) {
+			injector.setEnabled(Boolean.parseBoolean(enabled));
+		}
+		for (String route : parameters.get("route")) {
+			RouteFaults faults = injector.edit(route);
+			for (String value : parameters.get("latency")) {
+				faults.setLatency(RouteFaults.Latency.valueOf(value.toUpperCase()));
+			}
+			for (String value : parameters.get("minMs")) {
+				faults.setMinMs(Long.parseLong(value));
+			}
+			for (String value : parameters.get("maxMs")) {
+				faults.setMaxMs(Long.parseLong(value));
+			}
+			for (String value : parameters.get("medianMs")) {
+				faults.setMedianMs(Long.parseLong(value));
+			}
+			for (String value : parameters.get("sigma")) {
+				faults.setSigma(Double.parseDouble(value));
+			}
+			for (String value : parameters.get("errorRate")) {
+				faults.setErrorRate(Double.parseDouble(value));
+			}
+			for (String value : parameters.get("errorStatus")) {
+				faults.setErrorStatus(Integer.parseInt(value));
+			}
+			for (String value : parameters.get("resetRate")) {
+				faults.setResetRate(Double.parseDouble(value));
+			}
+			for (String value : parameters.get("bytesPerSecond")) {
+				faults.setBytesPerSecond(Long.parseLong(value));
+			}
+		}
+
+		output.println("enabled: " + injector.isEnabled());
+		for (Map.Entry<String, RouteFaults> route : injector.getRoutes().entrySet()) {
+			output.println(route.getKey() + ": " + route.getValue());
+		}
+	}
+}
@@ -0,0 +1,53 @@
+package com.teambronto.svc;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Holds the faults SleepService injects into each of its routes. It can be switched on and off, and routes can be
+ * changed, while the service is running.
+ */
+public class FaultInjector {
+	/** The route whose faults apply to routes that have none of their own */
+	public static final String ANY_ROUTE = "*";
+
+	private volatile boolean enabled;
+	private final Map<String, RouteFaults> routes = new ConcurrentHashMap<>();
+
+	public FaultInjector(boolean enabled, Map<String, RouteFaults> routes) {
+		this.enabled = enabled;
+		this.routes.putAll(routes);
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/**
+	 * @param route the route's name
+	 * @return the faults for the route, or null if nothing should be injected
+	 */
+	public RouteFaults faultsFor(String route) {
+		if (!enabled) {
+			return null;
+		}
+		RouteFaults faults = routes.get(route);
+		return faults != null ? faults : routes.get(ANY_ROUTE);
+	}
+
+	/**
+	 * @param route the route's name
+	 * @return the faults for the route, created if the route has none yet
+	 */
+	public RouteFaults edit(String route) {
+		return routes.computeIfAbsent(route, name -> new RouteFaults());
+	}
+
+	public Map<String, RouteFaults> getRoutes() {
+		return routes;
+	}
+}
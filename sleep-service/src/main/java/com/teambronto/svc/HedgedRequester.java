@@ -0,0 +1,183 @@
+package com.teambronto.svc;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.WebApplicationException;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SlidingWindowReservoir;
+
+/**
+ * HedgedRequester cuts tail latency for idempotent reads. If the first instance hasn't answered within the recent
+ * latency percentile (p95 by default), the same request is sent to a second instance. Whichever answers first wins
+ * and the other request is cancelled.
+ *
+ * Hedging adds load, so it is capped by a budget: every request earns budgetPercent / 100 of a hedge, and a hedge is
+ * only sent when a whole one has been earned.
+ */
+public class HedgedRequester {
+	/** Hedge tokens are counted in thousandths so the budget can be a fraction of a request */
+	private static final long TOKEN = 1000;
+	/** Most hedges that can be saved up, so an idle period can't be followed by a burst of hedges */
+	private static final long MAX_TOKENS = 10 * TOKEN;
+	/** The hedge delay is recomputed from the latency window every this many requests */
+	private static final int REFRESH_EVERY = 100;
+
+	private final double percentile;
+	private final long minDelayMs;
+	private final long tokensPerRequest;
+	private final Histogram latencies;
+	private final AtomicLong tokens = new AtomicLong();
+	private final AtomicInteger untilRefresh = new AtomicInteger();
+	private volatile long hedgeDelayMs;
+	private final Meter requests;
+	private final Meter hedgesSent;
+	private final Meter hedgesWon;
+
+	/**
+	 * @param metrics where the hedging metrics are registered
+	 * @param name the name metrics are registered under
+	 * @param percentile the latency percentile after which a hedge is sent, between 0 and 1
+	 * @param budgetPercent the most extra load hedges may add, as a percentage of requests
+	 * @param minDelayMs the shortest time to wait before hedging
+	 * @param window the number of recent latencies the percentile is computed over
+	 */
+	public HedgedRequester(MetricRegistry metrics, String name, double percentile, double budgetPercent,
+			long minDelayMs, int window) {
+		this.percentile = percentile;
+		this.minDelayMs = minDelayMs;
+		this.hedgeDelayMs = minDelayMs;
+		this.tokensPerRequest = Math.round(budgetPercent / 100 * TOKEN);
+		this.latencies = metrics.register(MetricRegistry.name(HedgedRequester.class, name, "latency"),
+				new Histogram(new SlidingWindowReservoir(window)));
+		this.requests = metrics.meter(MetricRegistry.name(HedgedRequester.class, name, "requests"));
+		this.hedgesSent = metrics.meter(MetricRegistry.name(HedgedRequester.class, name, "hedges-sent"));
+		this.hedgesWon = metrics.meter(MetricRegistry.name(HedgedRequester.class, name, "hedges-won"));
+		metrics.register(MetricRegistry.name(HedgedRequester.class, name, "added-load"), (Gauge<Double>) () ->
+				requests.getCount() == 0 ? 0.0 : (double) hedgesSent.getCount() / requests.getCount());
+		metrics.register(MetricRegistry.name(HedgedRequester.class, name, "delay-ms"),
+				(Gauge<Long>) () -> hedgeDelayMs);
+	}
+
+	/**
+	 * Sends a request to the primary instance, hedging it to the secondary if it is slow.
+	 * @param primary the instance tried first
+	 * @param secondary the instance the hedge goes to, or null if there is no other instance
+	 * @param send starts the request to the given instance; cancelling the returned future aborts it
+	 * @return the first successful response
+	 */
+	public <I, T> T get(I primary, I secondary, Function<I, CompletableFuture<T>> send) {
+		requests.mark();
+		tokens.updateAndGet(current -> Math.min(MAX_TOKENS, current + tokensPerRequest));
+		long start = System.nanoTime();
+
+		CompletableFuture<T> first = send.apply(primary);
+		try {
+			T result = first.get(hedgeDelayMs, TimeUnit.MILLISECONDS);
+			record(start);
+			return result;
+		} catch (TimeoutException e) {
+			// Slow answer, hedge below.
+		} catch (InterruptedException e) {
+			first.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new ProcessingException(e);
+		} catch (ExecutionException e) {
+			throw unwrap(e);
+		}
+
+		if (secondary == null || !takeToken()) {
+			return await(first, start);
+		}
+
+		hedgesSent.mark();
+		CompletableFuture<T> hedge = send.apply(secondary);
+		CompletableFuture<T> winner = new CompletableFuture<>();
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		AtomicInteger pending = new AtomicInteger(2);
+		first.whenComplete((result, error) -> complete(winner, result, error, failure, pending));
+		hedge.whenComplete((result, error) -> {
+			if (error == null && winner.complete(result)) {
+				hedgesWon.mark();
+			} else {
+				complete(winner, result, error, failure, pending);
+			}
+		});
+
+		try {
+			return await(winner, start);
+		} finally {
+			first.cancel(true);
+			hedge.cancel(true);
+		}
+	}
+
+	/**
+	 * Completes the winner with the first success, or with a failure once both requests have failed.
+	 */
+	private static <T> void complete(CompletableFuture<T> winner, T result, Throwable error,
+			AtomicReference<Throwable> failure, AtomicInteger pending) {
+		if (error == null) {
+			winner.complete(result);
+			return;
+		}
+		failure.compareAndSet(null, error);
+		if (pending.decrementAndGet() == 0) {
+			winner.completeExceptionally(failure.get());
+		}
+	}
+
+	private <T> T await(CompletableFuture<T> future, long start) {
+		try {
+			T result = future.get();
+			record(start);
+			return result;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ProcessingException(e);
+		} catch (ExecutionException e) {
+			throw unwrap(e);
+		}
+	}
+
+	private boolean takeToken() {
+		long current;
+		do {
+			current = tokens.get();
+			if (current < TOKEN) {
+				return false;
+			}
+		} while (!tokens.compareAndSet(current, current - TOKEN));
+		return true;
+	}
+
+	/**
+	 * Records a latency and every so often moves the hedge delay to the configured percentile.
+	 */
+	private void record(long start) {
+		latencies.update(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+		if (untilRefresh.decrementAndGet() <= 0) {
+			untilRefresh.set(REFRESH_EVERY);
+			hedgeDelayMs = Math.max(minDelayMs, (long) latencies.getSnapshot().getValue(percentile));
+		}
+	}
+
+	private static RuntimeException unwrap(ExecutionException e) {
+		Throwable cause = e.getCause();
+		if (cause instanceof WebApplicationException || cause instanceof ProcessingException) {
+			return (RuntimeException) cause;
+		}
+		return new ProcessingException(cause);
+	}
+}
@@ -0,0 +1,53 @@
+package com.teambronto.svc;
+
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Min;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * The hedging block of sleep-service.yml. Controls when idempotent reads are hedged to a second htrace-service
+ * instance.
+ */
+public class HedgingFactory {
+	@JsonProperty
+	private boolean enabled = true;
+
+	/** Latency percentile after which a hedge is sent */
+	@DecimalMin("0.5")
+	@DecimalMax("1.0")
+	@JsonProperty
+	private double percentile = 0.95;
+
+	/** The most extra load hedges may add, as a percentage of requests */
+	@DecimalMin("0.0")
+	@DecimalMax("100.0")
+	@JsonProperty
+	private double budgetPercent = 5;
+
+	/** Shortest time to wait for the first instance before hedging */
+	@Min(0)
+	@JsonProperty
+	private long minDelayMs = 5;
+
+	/** Number of recent latencies the percentile is computed over */
+	@Min(1)
+	@JsonProperty
+	private int window = 1000;
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Builds the hedger for one route.
+	 * @param metrics where the hedging metrics are registered
+	 * @param route the route's name
+	 * @return the hedger
+	 */
+	public HedgedRequester build(MetricRegistry metrics, String route) {
+		return new HedgedRequester(metrics, route, percentile, budgetPercent, minDelayMs, window);
+	}
+}
@@ -0,0 +1,114 @@
+package com.teambronto.svc;
+
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Keeps the last employee body htrace-service sent for each ID, with its validators. While the htrace-service change
+ * feeds are being followed, rows are dropped as soon as they are written and cached bodies are served as they are.
+ * Otherwise every read still asks htrace-service, but sends the cached ETag so an unchanged employee comes back as a
+ * 304 with no body.
+ */
+public class RelayCache implements ChangeFeedSubscriber.Listener {
+	private final Cache<String, Entry> entries;
+	private final Meter revalidated;
+	private final Meter served;
+	/** Counts invalidations, so a read that raced with a write doesn't cache what it read */
+	private final AtomicLong invalidations = new AtomicLong();
+
+	/**
+	 * @param metrics where the cache's metrics are registered
+	 * @param maximumSize the most employees kept
+	 */
+	public RelayCache(MetricRegistry metrics, long maximumSize) {
+		this.entries = CacheBuilder.newBuilder().maximumSize(maximumSize).build();
+		this.revalidated = metrics.meter(MetricRegistry.name(RelayCache.class, "revalidated"));
+		this.served = metrics.meter(MetricRegistry.name(RelayCache.class, "served"));
+		metrics.register(MetricRegistry.name(RelayCache.class, "size"), (Gauge<Long>) entries::size);
+	}
+
+	public Entry get(String id) {
+		return entries.getIfPresent(id);
+	}
+
+	/**
+	 * @return a stamp to take before fetching an employee and pass to put
+	 */
+	public long stamp() {
+		return invalidations.get();
+	}
+
+	/**
+	 * Caches an employee, unless something was invalidated since the fetch started, in which case the body may
+	 * already be out of date.
+	 * @param id the employee's ID
+	 * @param entry the body and its validators
+	 * @param stamp what stamp returned before the fetch
+	 */
+	public void put(String id, Entry entry, long stamp) {
+		entries.put(id, entry);
+		if (invalidations.get() != stamp) {
+			entries.invalidate(id);
+		}
+	}
+
+	@Override
+	public void invalidate(String id) {
+		invalidations.incrementAndGet();
+		entries.invalidate(id);
+	}
+
+	@Override
+	public void invalidateAll() {
+		invalidations.incrementAndGet();
+		entries.invalidateAll();
+	}
+
+	/**
+	 * Records that a cached body was confirmed current by a 304.
+	 */
+	public void revalidated() {
+		revalidated.mark();
+	}
+
+	/**
+	 * Records that a cached body was served without asking htrace-service.
+	 */
+	public void served() {
+		served.mark();
+	}
+
+	/**
+	 * An employee body and the validators htrace-service sent with it.
+	 */
+	public static class Entry {
+		private final String body;
+		private final String etag;
+		private final Date lastModified;
+
+		public Entry(String body, String etag, Date lastModified) {
+			this.body = body;
+			this.etag = etag;
+			this.lastModified = lastModified;
+		}
+
+		public String getBody() {
+			return body;
+		}
+
+		/** The ETag header as htrace-service sent it */
+		public String getEtag() {
+			return etag;
+		}
+
+		public Date getLastModified() {
+			return lastModified;
+		}
+	}
+}
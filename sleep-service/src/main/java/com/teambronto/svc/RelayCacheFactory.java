@@ -0,0 +1,32 @@
+package com.teambronto.svc;
+
+import javax.validation.constraints.Min;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * The relayCache block of sleep-service.yml. Employee bodies are kept so they can be revalidated with a conditional
+ * GET instead of fetched again.
+ */
+public class RelayCacheFactory {
+	@JsonProperty
+	private boolean enabled = true;
+
+	/** The most employees kept */
+	@Min(1)
+	@JsonProperty
+	private long maximumSize = 10000;
+
+	/**
+	 * Builds the cache, or returns null if it is disabled.
+	 * @param metrics where the cache's metrics are registered
+	 * @return the cache, or null
+	 */
+	public RelayCache build(MetricRegistry metrics) {
+		if (!enabled) {
+			return null;
+		}
+		return new RelayCache(metrics, maximumSize);
+	}
+}
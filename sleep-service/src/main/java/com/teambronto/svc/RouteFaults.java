@@ -0,0 +1,146 @@
+package com.teambronto.svc;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Min;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * The faults injected into one route of SleepService. Latency is drawn from the configured distribution, and errors
+ * and connection resets happen with the configured probabilities. Fields are volatile because FaultInjectionTask
+ * changes them while requests are being handled.
+ */
+public class RouteFaults {
+	/** The shapes of injected latency */
+	public enum Latency {
+		NONE, FIXED, UNIFORM, LOGNORMAL
+	}
+
+	@JsonProperty
+	private volatile Latency latency = Latency.NONE;
+
+	/** The delay for FIXED latency, and the lower bound for UNIFORM latency */
+	@Min(0)
+	@JsonProperty
+	private volatile long minMs = 0;
+
+	/** The upper bound for UNIFORM latency */
+	@Min(0)
+	@JsonProperty
+	private volatile long maxMs = 0;
+
+	/** The median of LOGNORMAL latency */
+	@Min(1)
+	@JsonProperty
+	private volatile long medianMs = 50;
+
+	/** The shape of LOGNORMAL latency; larger values give a longer tail */
+	@DecimalMin("0.0")
+	@JsonProperty
+	private volatile double sigma = 1.0;
+
+	/** Fraction of requests answered with errorStatus */
+	@DecimalMin("0.0")
+	@DecimalMax("1.0")
+	@JsonProperty
+	private volatile double errorRate = 0;
+
+	@Min(400)
+	@JsonProperty
+	private volatile int errorStatus = 503;
+
+	/** Fraction of requests whose connection is closed without an answer */
+	@DecimalMin("0.0")
+	@DecimalMax("1.0")
+	@JsonProperty
+	private volatile double resetRate = 0;
+
+	/** Response bandwidth in bytes per second, or 0 for no limit */
+	@Min(0)
+	@JsonProperty
+	private volatile long bytesPerSecond = 0;
+
+	public Latency getLatency() {
+		return latency;
+	}
+
+	public void setLatency(Latency latency) {
+		this.latency = latency;
+	}
+
+	public void setMinMs(long minMs) {
+		this.minMs = minMs;
+	}
+
+	public void setMaxMs(long maxMs) {
+		this.maxMs = maxMs;
+	}
+
+	public void setMedianMs(long medianMs) {
+		this.medianMs = medianMs;
+	}
+
+	public void setSigma(double sigma) {
+		this.sigma = sigma;
+	}
+
+	public double getErrorRate() {
+		return errorRate;
+	}
+
+	public void setErrorRate(double errorRate) {
+		this.errorRate = errorRate;
+	}
+
+	public int getErrorStatus() {
+		return errorStatus;
+	}
+
+	public void setErrorStatus(int errorStatus) {
+		this.errorStatus = errorStatus;
+	}
+
+	public double getResetRate() {
+		return resetRate;
+	}
+
+	public void setResetRate(double resetRate) {
+		this.resetRate = resetRate;
+	}
+
+	public long getBytesPerSecond() {
+		return bytesPerSecond;
+	}
+
+	public void setBytesPerSecond(long bytesPerSecond) {
+		this.bytesPerSecond = bytesPerSecond;
+	}
+
+	/**
+	 * Draws a delay from the latency distribution.
+	 * @return the delay in milliseconds
+	 */
+	public long sampleLatencyMs() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		switch (latency) {
+			case FIXED:
+				return minMs;
+			case UNIFORM:
+				return maxMs > minMs ? random.nextLong(minMs, maxMs + 1) : minMs;
+			case LOGNORMAL:
+				return Math.round(Math.exp(Math.log(medianMs) + sigma * random.nextGaussian()));
+			default:
+				return 0;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("latency=%s min=%dms max=%dms median=%dms sigma=%.2f errorRate=%.3f errorStatus=%d "
+				+ "resetRate=%.3f bytesPerSecond=%d", latency, minMs, maxMs, medianMs, sigma, errorRate, errorStatus,
+				resetRate, bytesPerSecond);
+	}
+}
@@ -3,6 +3,7 @@ package com.teambronto.svc;
 import java.util.Optional;
 
 import javax.annotation.Nonnull;
+import javax.ws.rs.client.Client;
 
 import com.github.kristofa.brave.Brave;
 import com.github.kristofa.brave.Sampler;
@@ -11,6 +12,7 @@ import com.google.common.net.InetAddresses;
 import com.teambronto.svc.resources.SleepResource;
 import io.dropwizard.Application;
 import io.dropwizard.setup.Environment;
+import org.glassfish.jersey.client.ClientProperties;
 import org.glassfish.jersey.client.JerseyClientBuilder;
 import zipkin.Span;
 import zipkin.reporter.Reporter;
@@ -18,8 +20,8 @@ import zipkin.reporter.Reporter;
 /**
  * SleepApplication is a Dropwizard application that acts as a middle-man between our other two services.
  * This allows us to see end-to-end tracing in zipkin with multiple services. It simply relays requests between
- * number-gen and htrave-service. In the future it would be useful to enable random network problems in this service
- * to simulate real-world communication problems.
+ * number-gen and htrave-service. Random network problems can be injected into this service (see
+ * FaultInjectionFilter) to simulate real-world communication problems.
  */
 public class SleepApplication extends Application<SleepConfiguration> {
 	/** The service's name */
@@ -92,7 +94,40 @@ public class SleepApplication extends Application<SleepConfiguration> {
 	public void run(SleepConfiguration config, Environment environment) throws Exception {
 		Brave b = buildBrave(config.getReporter()).get();
 
-		environment.jersey().register(new SleepResource(JerseyClientBuilder.newClient(), b));
+		final Client client = JerseyClientBuilder.newClient();
+		// Never wait forever on htrace-service.
+		client.property(ClientProperties.CONNECT_TIMEOUT, config.getResilience().getConnectTimeoutMs());
+		client.property(ClientProperties.READ_TIMEOUT, config.getResilience().getReadTimeoutMs());
+		// Pass what is left of each request's deadline on to htrace-service.
+		client.register(new DeadlineClientFilter());
+
+		// Requests are balanced over every htrace-service instance; a file-based pool is re-read while running.
+		final ServicePool htraceService = config.getHtraceService().build("htrace-service", environment.metrics());
+		environment.lifecycle().manage(htraceService);
+
+		// Cached employees are dropped as soon as htrace-service reports them written.
+		final RelayCache relayCache = config.getRelayCache().build(environment.metrics());
+		final ChangeFeedSubscriber changes = config.getChangeFeed().build(htraceService, relayCache,
+				environment.metrics());
+		if (changes != null) {
+			environment.lifecycle().manage(changes);
+		}
+
+		environment.jersey().register(new SleepResource(client, b, htraceService,
+				config.getAffinity().build(htraceService), config.getResilience(), config.getHedging(),
+				relayCache, changes, environment.metrics()));
 		environment.jersey().register(BraveTracingFeature.create(b));
+		// Requests carry their deadline from number-gen-service; reject the ones that are already too late.
+		environment.jersey().register(new DeadlineFilter(null));
+		// Admin requests are shed first under pressure, then writes, then reads.
+		final LoadSheddingFilter loadShedding = config.getLoadShedding().build(environment.metrics());
+		if (loadShedding != null) {
+			environment.jersey().register(loadShedding);
+		}
+
+		// Simulated network problems, switched on and off with POST /admin/tasks/fault-injection
+		final FaultInjector faultInjector = config.getFaultInjection().build();
+		environment.jersey().register(new FaultInjectionFilter(faultInjector, b));
+		environment.admin().addTask(new FaultInjectionTask(faultInjector));
 	}
 }
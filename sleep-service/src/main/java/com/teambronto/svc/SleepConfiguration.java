@@ -7,6 +7,7 @@ import zipkin.reporter.AsyncReporter;
 import zipkin.reporter.Reporter;
 import zipkin.reporter.okhttp3.OkHttpSender;
 
+import javax.validation.Valid;
 import javax.validation.constraints.NotNull;
 
 public class SleepConfiguration extends Configuration {
@@ -14,10 +15,90 @@ public class SleepConfiguration extends Configuration {
 	@JsonProperty
 	private String zipkinReportingAddress;
 
+	/** Timeouts, circuit breakers and bulkheads for calls to the downstream service */
+	@Valid
+	@NotNull
+	@JsonProperty
+	private DownstreamGuardFactory resilience = new DownstreamGuardFactory();
+
+	/** The htrace-service instances and how requests are balanced over them */
+	@Valid
+	@NotNull
+	@JsonProperty
+	private ServicePoolFactory htraceService = new ServicePoolFactory("http://sd-vm18.csc.ncsu.edu:8890/htrace-svc");
+
+	/** Whether requests for a row always go to the same htrace-service instance */
+	@Valid
+	@NotNull
+	@JsonProperty
+	private AffinityFactory affinity = new AffinityFactory();
+
+	/** Employee bodies kept so they can be revalidated instead of fetched again */
+	@Valid
+	@NotNull
+	@JsonProperty
+	private RelayCacheFactory relayCache = new RelayCacheFactory();
+
+	/** Follows htrace-service's change feeds so cached employees can be served without revalidation */
+	@Valid
+	@NotNull
+	@JsonProperty
+	private ChangeFeedFactory changeFeed = new ChangeFeedFactory();
+
+	/** When to hedge employee reads to a second htrace-service instance */
+	@Valid
+	@NotNull
+	@JsonProperty
+	private HedgingFactory hedging = new HedgingFactory();
+
+	/** Latency and faults injected into our own routes for load testing */
+	@Valid
+	@NotNull
+	@JsonProperty
+	private FaultInjectionFactory faultInjection = new FaultInjectionFactory();
+
+	/** Per-class limits that keep admin requests from taking the threads reads need */
+	@Valid
+	@NotNull
+	@JsonProperty
+	private LoadSheddingFactory loadShedding = new LoadSheddingFactory();
+
 	String getZipkinReportingAddress() {
 		return zipkinReportingAddress;
 	}
 
+	public DownstreamGuardFactory getResilience() {
+		return resilience;
+	}
+
+	public ServicePoolFactory getHtraceService() {
+		return htraceService;
+	}
+
+	public AffinityFactory getAffinity() {
+		return affinity;
+	}
+
+	public RelayCacheFactory getRelayCache() {
+		return relayCache;
+	}
+
+	public ChangeFeedFactory getChangeFeed() {
+		return changeFeed;
+	}
+
+	public HedgingFactory getHedging() {
+		return hedging;
+	}
+
+	public FaultInjectionFactory getFaultInjection() {
+		return faultInjection;
+	}
+
+	public LoadSheddingFactory getLoadShedding() {
+		return loadShedding;
+	}
+
 	public Reporter<Span> getReporter() {
 		return AsyncReporter.builder(getOkHttpSender()).build();
 	}
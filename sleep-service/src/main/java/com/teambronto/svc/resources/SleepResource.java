@@ -1,14 +1,44 @@
 package com.teambronto.svc.resources;
 
+import com.codahale.metrics.MetricRegistry;
 import com.github.kristofa.brave.Brave;
 import com.github.kristofa.brave.jaxrs2.BraveTracingFeature;
+import com.teambronto.svc.ChangeFeedSubscriber;
+import com.teambronto.svc.ConsistentHashRing;
+import com.teambronto.svc.Deadline;
+import com.teambronto.svc.DownstreamGuard;
+import com.teambronto.svc.DownstreamGuardFactory;
+import com.teambronto.svc.HedgedRequester;
+import com.teambronto.svc.HedgingFactory;
+import com.teambronto.svc.RelayCache;
+import com.teambronto.svc.ServiceInstance;
+import com.teambronto.svc.ServicePool;
+import com.teambronto.svc.ServicePoolFactory;
 import com.teambronto.svc.SleepApplication;
+import com.teambronto.svc.Traffic;
+import com.teambronto.svc.TrafficClass;
+
+import org.glassfish.jersey.client.ClientProperties;
+import org.glassfish.jersey.client.RequestEntityProcessing;
 
 import javax.annotation.Nonnull;
 import javax.ws.rs.*;
 import javax.ws.rs.client.Client;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.Invocation;
+import javax.ws.rs.client.InvocationCallback;
 import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
 
 /**
  * SleepResource handles all HTTP requests sent to the SleepService
@@ -17,14 +47,75 @@ import javax.ws.rs.core.MediaType;
 @Consumes(MediaType.APPLICATION_JSON)
 @Produces(MediaType.APPLICATION_JSON)
 public class SleepResource {
+	/** Response header saying whether htrace-service read the employee from a region replica that may be behind */
+	private static final String STALE_HEADER = "X-Stale-Read";
+	/** Content type of a bulk import: one JSON employee per line */
+	private static final String NDJSON = "application/x-ndjson";
     /** A shared instance of Client */
 	private Client client;
 	/** A shared instance of Brave used for tracing HTTP requests */
 	private Brave brave;
+	/** Builds the circuit breaker and bulkhead of each route */
+	private DownstreamGuardFactory guardFactory;
+	private MetricRegistry metrics;
+	/** One guard per route to htrace-service, so a slow route doesn't take the others down with it */
+	private final Map<String, DownstreamGuard> guards = new ConcurrentHashMap<>();
+	/** The htrace-service instances requests are spread over */
+	private ServicePool htraceService;
+	/** Sends every request for a row to the same instance, or null to let the balancer pick */
+	private ConsistentHashRing ring;
+	/** Hedges employee reads to a second instance, or null if hedging is disabled */
+	private HedgedRequester hedger;
+	/** Employee bodies kept for revalidation, or null if the cache is disabled */
+	private RelayCache cache;
+	/** Follows htrace-service's change feeds, or null; while it is live cached employees are served as they are */
+	private ChangeFeedSubscriber changes;
 
 	public SleepResource(@Nonnull Client client, @Nonnull Brave brave) {
+		this(client, brave, new ServicePoolFactory("http://sd-vm18.csc.ncsu.edu:8890/htrace-svc")
+				.build("htrace-service", new MetricRegistry()), null,
+				new DownstreamGuardFactory(), new HedgingFactory(), null, null, new MetricRegistry());
+	}
+
+	public SleepResource(@Nonnull Client client, @Nonnull Brave brave, @Nonnull ServicePool htraceService,
+			ConsistentHashRing ring, @Nonnull DownstreamGuardFactory guardFactory, @Nonnull HedgingFactory hedging,
+			RelayCache cache, ChangeFeedSubscriber changes, @Nonnull MetricRegistry metrics) {
 		this.client = client;
 		this.brave = brave;
+		this.htraceService = htraceService;
+		this.ring = ring;
+		this.cache = cache;
+		this.changes = changes;
+		this.guardFactory = guardFactory;
+		this.metrics = metrics;
+		this.hedger = hedging.isEnabled() ? hedging.build(metrics, "employee") : null;
+	}
+
+	/**
+	 * Picks the instance a read of a row goes to
+	 * @param key the row's ID
+	 * @return the row's owner if affinity is enabled, otherwise the balancer's choice
+	 */
+	private ServiceInstance readInstance(String key) {
+		return ring != null && key != null ? ring.choose(key) : htraceService.choose();
+	}
+
+	/**
+	 * Picks the instance a write to a row goes to, so that instance can drop the row from its cache
+	 * @param key the row's ID
+	 * @return the row's owner if affinity is enabled, otherwise the balancer's choice
+	 */
+	private ServiceInstance writeInstance(String key) {
+		return ring != null && key != null ? ring.owner(key) : htraceService.choose();
+	}
+
+	/**
+	 * Returns the guard for a route to htrace-service, creating it on first use
+	 * @param route the route's name
+	 * @return the route's guard
+	 */
+	private DownstreamGuard guard(String route) {
+		return guards.computeIfAbsent(route, name -> guardFactory.build(name, brave, metrics));
 	}
 	
 	/**
@@ -32,23 +123,214 @@ public class SleepResource {
 	 * @param id the GET param (for example: url?id=3)
 	 * @return String value of the id
 	 */
+	public String getEmployeeData(String id) {
+		return getEmployeeData(id, null, null, null, null).readEntity(String.class);
+	}
+
+	/**
+	 * Gets an employee from htrace-service, passing the ETag and Last-Modified validators through. When the employee
+	 * is in the relay cache, only its ETag is sent to htrace-service and the body comes from the cache if it is
+	 * still current. A body that htrace-service read from a region replica is passed on with X-Stale-Read and isn't
+	 * cached.
+	 * @param id the GET param (for example: url?id=3)
+	 * @param consistency passed on to htrace-service: timeline to let a region replica answer, or null
+	 * @param ifNoneMatch the client's If-None-Match header
+	 * @param ifModifiedSince the client's If-Modified-Since header
+	 * @param request the client's request, used to check its validators; null to always return the body
+	 * @return the employee, or 304 Not Modified
+	 */
 	@GET
-	public String getEmployeeData(@QueryParam("id") String id) {
-		WebTarget target = client.target("http://sd-vm18.csc.ncsu.edu:8890/htrace-svc")
+	@Traffic(TrafficClass.READ)
+	public Response getEmployeeData(@QueryParam("id") String id, @QueryParam("consistency") String consistency,
+			@HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch,
+			@HeaderParam(HttpHeaders.IF_MODIFIED_SINCE) String ifModifiedSince, @Context Request request) {
+		RelayCache.Entry cached = id == null || cache == null ? null : cache.get(id);
+		if (cached != null && changes != null && changes.isLive()) {
+			// Any write to the row would have been reported by now.
+			cache.served();
+			return respond(cached, request);
+		}
+		long stamp = cache == null ? 0 : cache.stamp();
+		// With a cached copy we only need to know whether it is still current.
+		String sentIfNoneMatch = cached != null ? cached.getEtag() : ifNoneMatch;
+		String sentIfModifiedSince = cached != null ? null : ifModifiedSince;
+
+		Response response;
+		if (hedger == null || htraceService.getInstances().size() < 2) {
+			response = guard("employee").call(() -> htraceService.call(readInstance(id), url -> {
+				WebTarget target = client.target(url)
+						.queryParam("id", id);
+				if (consistency != null) {
+					target = target.queryParam("consistency", consistency);
+				}
+				target.register(BraveTracingFeature.create(brave));
+				return checked(target.request(MediaType.APPLICATION_JSON)
+						.header(HttpHeaders.IF_NONE_MATCH, sentIfNoneMatch)
+						.header(HttpHeaders.IF_MODIFIED_SINCE, sentIfModifiedSince)
+						.get());
+			}));
+		} else {
+			// Reads are idempotent, so a slow instance can be raced against a second one.
+			response = guard("employee").call(() -> {
+				ServiceInstance primary = readInstance(id);
+				ServiceInstance secondary = htraceService.choose(primary);
+				return hedger.get(primary, secondary == primary ? null : secondary,
+						instance -> getAsync(instance, id, consistency, sentIfNoneMatch, sentIfModifiedSince));
+			});
+		}
+
+		if (response.getStatus() == Response.Status.NOT_MODIFIED.getStatusCode()) {
+			response.close();
+			if (cached == null) {
+				// The client's own copy is current.
+				String etag = response.getHeaderString(HttpHeaders.ETAG);
+				return Response.notModified().tag(etag == null ? null : EntityTag.valueOf(etag)).build();
+			}
+			cache.revalidated();
+			return respond(cached, request);
+		}
+		RelayCache.Entry fresh = new RelayCache.Entry(response.readEntity(String.class),
+				response.getHeaderString(HttpHeaders.ETAG), response.getLastModified());
+		if (Boolean.parseBoolean(response.getHeaderString(STALE_HEADER))) {
+			// A replica's copy may be behind, so it is only good for this request.
+			return Response.fromResponse(respond(fresh, request)).header(STALE_HEADER, true).build();
+		}
+		if (cache != null && id != null && fresh.getEtag() != null) {
+			cache.put(id, fresh, stamp);
+		}
+		return respond(fresh, request);
+	}
+
+	/**
+	 * Answers the client with an employee body, or with a 304 if the client's validators say it already has it
+	 */
+	private static Response respond(RelayCache.Entry entry, Request request) {
+		EntityTag tag = entry.getEtag() == null ? null : EntityTag.valueOf(entry.getEtag());
+		if (request != null && tag != null) {
+			Response.ResponseBuilder notModified = entry.getLastModified() != null
+					? request.evaluatePreconditions(entry.getLastModified(), tag)
+					: request.evaluatePreconditions(tag);
+			if (notModified != null) {
+				return notModified.tag(tag).build();
+			}
+		}
+		return Response.ok(entry.getBody(), MediaType.APPLICATION_JSON)
+				.tag(tag)
+				.lastModified(entry.getLastModified())
+				.build();
+	}
+
+	/**
+	 * Turns an error response from htrace-service into an exception, so it counts against the circuit breaker and
+	 * the instance and is passed on to our client as it was.
+	 */
+	private static Response checked(Response response) {
+		if (response.getStatus() >= 400) {
+			response.bufferEntity();
+			throw new WebApplicationException(response);
+		}
+		return response;
+	}
+
+	/**
+	 * Starts an employee read on one htrace-service instance without waiting for it
+	 * @param instance the instance
+	 * @param id the employee's ID
+	 * @param consistency the consistency to ask htrace-service for, or null
+	 * @param ifNoneMatch the If-None-Match header to send, or null
+	 * @param ifModifiedSince the If-Modified-Since header to send, or null
+	 * @return the response, with its body already read; cancelling it aborts the request
+	 */
+	private CompletableFuture<Response> getAsync(ServiceInstance instance, String id, String consistency,
+			String ifNoneMatch, String ifModifiedSince) {
+		WebTarget target = client.target(instance.getUrl())
 				.queryParam("id", id);
+		if (consistency != null) {
+			target = target.queryParam("consistency", consistency);
+		}
 		target.register(BraveTracingFeature.create(brave));
-		return target.request(MediaType.APPLICATION_JSON).get(String.class);
+
+		// Async requests are filtered on another thread, so the deadline has to be attached here.
+		Invocation.Builder builder = target.request(MediaType.APPLICATION_JSON)
+				.header(HttpHeaders.IF_NONE_MATCH, ifNoneMatch)
+				.header(HttpHeaders.IF_MODIFIED_SINCE, ifModifiedSince);
+		Deadline deadline = Deadline.current();
+		if (deadline != null) {
+			builder.header(Deadline.HEADER, deadline.remainingMillis());
+		}
+
+		CompletableFuture<Response> response = new CompletableFuture<>();
+		long start = htraceService.begin(instance);
+		Future<Response> request = builder.async().get(new InvocationCallback<Response>() {
+			@Override
+			public void completed(Response result) {
+				// Read the body now so the losing response of a hedge doesn't hold on to its connection.
+				result.bufferEntity();
+				try {
+					response.complete(checked(result));
+				} catch (WebApplicationException e) {
+					response.completeExceptionally(e);
+				}
+			}
+
+			@Override
+			public void failed(Throwable throwable) {
+				response.completeExceptionally(throwable);
+			}
+		});
+		response.whenComplete((body, error) -> {
+			htraceService.end(instance, start, error);
+			if (response.isCancelled()) {
+				request.cancel(true);
+			}
+		});
+		return response;
+	}
+	/**
+	 * Looks up an employee by email through htrace-service's email index
+	 * @param email the employee's email address
+	 * @return the employee's data, or a null employee if nobody has that email
+	 */
+	@GET
+	@Traffic(TrafficClass.READ)
+	@Path("/by-email")
+	public String getEmployeeDataByEmail(@QueryParam("email") String email) {
+		return guard("by-email").call(() -> htraceService.call(url -> {
+			WebTarget target = client.target(url + "/by-email")
+					.queryParam("email", email);
+			target.register(BraveTracingFeature.create(brave));
+			return target.request(MediaType.APPLICATION_JSON).get(String.class);
+		}));
+	}
+	/**
+	 * Leases a block of employee IDs from htrace-service
+	 * @param size the number of IDs to lease
+	 * @return the leased block as {"start":..,"end":..}
+	 */
+	@GET
+	@Traffic(TrafficClass.WRITE)
+	@Path("/lease-ids")
+	public String leaseIds(@QueryParam("size") long size) {
+		return guard("lease-ids").call(() -> htraceService.call(url -> {
+			WebTarget target = client.target(url + "/lease-ids")
+					.queryParam("size", size);
+			target.register(BraveTracingFeature.create(brave));
+			return target.request(MediaType.APPLICATION_JSON).get(String.class);
+		}));
 	}
 	/**
 	 * Create a table called employees
 	 * @return "create table employees".
 	 */
 	@GET
+	@Traffic(TrafficClass.ADMIN)
 	@Path("/create-table")
 	public String createTable() {
-		WebTarget target = client.target("http://sd-vm18.csc.ncsu.edu:8890/htrace-svc/create-table");
-		target.register(BraveTracingFeature.create(brave));
-		return target.request(MediaType.APPLICATION_JSON).get(String.class);
+		return guard("create-table").call(() -> htraceService.call(url -> {
+			WebTarget target = client.target(url + "/create-table");
+			target.register(BraveTracingFeature.create(brave));
+			return target.request(MediaType.APPLICATION_JSON).get(String.class);
+		}));
 	}
 	/**
 	 * Delete an HBase table
@@ -56,12 +338,41 @@ public class SleepResource {
 	 * @return "delete: name".
 	 */
 	@GET
+	@Traffic(TrafficClass.ADMIN)
 	@Path("/delete-table")
 	public String deleteTable(@QueryParam("name") String name) {
-		WebTarget target = client.target("http://sd-vm18.csc.ncsu.edu:8890/htrace-svc/delete-table")
-				.queryParam("name", name);
-		target.register(BraveTracingFeature.create(brave));
-		return target.request(MediaType.APPLICATION_JSON).get(String.class);
+		return guard("delete-table").call(() -> htraceService.call(url -> {
+			WebTarget target = client.target(url + "/delete-table")
+					.queryParam("name", name);
+			target.register(BraveTracingFeature.create(brave));
+			return target.request(MediaType.APPLICATION_JSON).get(String.class);
+		}));
+	}
+
+	/**
+	 * Relays the status of a table creation or deletion. A job lives on the htrace-service instance that started
+	 * it, so the instances are asked in turn until one knows it.
+	 * @param id the job's ID, from the body returned by create-table or delete-table
+	 * @return the job's status
+	 */
+	@GET
+	@Traffic(TrafficClass.ADMIN)
+	@Path("/jobs/{id}")
+	public String getJob(@PathParam("id") String id) {
+		return guard("jobs").call(() -> {
+			for (ServiceInstance instance : htraceService.getInstances()) {
+				try {
+					return htraceService.call(instance, url -> {
+						WebTarget target = client.target(url).path("jobs").path(id);
+						target.register(BraveTracingFeature.create(brave));
+						return target.request(MediaType.APPLICATION_JSON).get(String.class);
+					});
+				} catch (NotFoundException e) {
+					// Started on another instance.
+				}
+			}
+			throw new NotFoundException("no job " + id);
+		});
 	}
 	/**
 	 * Update values in the table
@@ -72,16 +383,41 @@ public class SleepResource {
 	 * @return "data updated"
 	 */
 	@GET
+	@Traffic(TrafficClass.WRITE)
 	@Path("/update-value")
 	public String updateValue(@QueryParam("row") String row, @QueryParam("first") String first, @QueryParam("last") String last,
 			@QueryParam("email") String email) {
-		WebTarget target = client.target("http://sd-vm18.csc.ncsu.edu:8890/htrace-svc/update-value")
-				.queryParam("row", row)
-				.queryParam("first", first)
-				.queryParam("last", last)
-				.queryParam("email", email);
-		target.register(BraveTracingFeature.create(brave));
-		return target.request(MediaType.APPLICATION_JSON).get(String.class);
+		if (cache != null && row != null) {
+			cache.invalidate(row);
+		}
+		return guard("update-value").call(() -> htraceService.call(writeInstance(row), url -> {
+			WebTarget target = client.target(url + "/update-value")
+					.queryParam("row", row)
+					.queryParam("first", first)
+					.queryParam("last", last)
+					.queryParam("email", email);
+			target.register(BraveTracingFeature.create(brave));
+			return target.request(MediaType.APPLICATION_JSON).get(String.class);
+		}));
+	}
+
+	/**
+	 * Streams a bulk import to htrace-service. The body is sent on in chunks as it arrives rather than read into
+	 * memory first, so when htrace-service stops reading, so does this
+	 * @param body one JSON employee per line: {"row","first","last","email"}
+	 * @return htrace-service's summary of the import
+	 */
+	@POST
+	@Traffic(TrafficClass.IMPORT)
+	@Path("/import")
+	@Consumes({NDJSON, MediaType.TEXT_PLAIN, MediaType.APPLICATION_OCTET_STREAM})
+	public String importEmployees(InputStream body) {
+		return guard("import").call(() -> htraceService.call(url -> {
+			WebTarget target = client.target(url + "/import")
+					.property(ClientProperties.REQUEST_ENTITY_PROCESSING, RequestEntityProcessing.CHUNKED);
+			target.register(BraveTracingFeature.create(brave));
+			return target.request(MediaType.APPLICATION_JSON).post(Entity.entity(body, NDJSON), String.class);
+		}));
 	}
 
 }